@@ -0,0 +1,170 @@
+package org.limewire.benchmark;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+
+import org.limewire.io.ConnectableImpl;
+import org.limewire.io.GUID;
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.util.Base32;
+import org.limewire.util.FileUtils;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.limegroup.gnutella.ActivityCallbackAdapter;
+import com.limegroup.gnutella.DownloadManager;
+import com.limegroup.gnutella.LimeWireCoreModule;
+import com.limegroup.gnutella.RemoteFileDesc;
+import com.limegroup.gnutella.Response;
+import com.limegroup.gnutella.ResponseFactory;
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.downloader.RemoteFileDescFactory;
+import com.limegroup.gnutella.messages.QueryReply;
+import com.limegroup.gnutella.messages.QueryReplyFactory;
+
+/**
+ * Measures how fast the {@link DownloadManager} matches the results of
+ * incoming query replies against a long download queue.
+ * <p>
+ * The benchmark queues a number of downloads, each of a different file with
+ * a single source, without starting them. It then hands query replies to
+ * {@link DownloadManager#handleQueryReply(QueryReply, org.limewire.io.Address)},
+ * most of whose results are for files nobody downloads, as is the case for
+ * the results of the searches of a user, and a few of which are new sources
+ * for queued downloads. It reports the replies handled per second, the bytes
+ * allocated per reply and the latency of handling a single reply.
+ * <p>
+ * Usage: <code>DownloadBenchmark [downloads] [replies]</code>. The Ant
+ * target <code>benchmark-downloads</code> runs it with the properties
+ * <code>benchmark.downloads</code> and <code>benchmark.replies</code>.
+ */
+public class DownloadBenchmark {
+
+    /** Number of results in every reply. */
+    private static final int RESULTS_PER_REPLY = 10;
+
+    /** Every this many results is a source for a queued download. */
+    private static final int MATCH_INTERVAL = 50;
+
+    private static final int DEFAULT_DOWNLOADS = 5000;
+
+    private static final int DEFAULT_REPLIES = 20000;
+
+    private final Random random = new Random(1);
+
+    private final Injector injector;
+
+    private final DownloadManager downloadManager;
+
+    private final URN[] queued;
+
+    private final long[] sizes;
+
+    private int nextAddress = 0;
+
+    DownloadBenchmark(int downloads, File saveDirectory) throws Exception {
+        injector = Guice.createInjector(new LimeWireCoreModule(ActivityCallbackAdapter.class));
+        downloadManager = injector.getInstance(DownloadManager.class);
+        RemoteFileDescFactory remoteFileDescFactory = injector.getInstance(RemoteFileDescFactory.class);
+        queued = new URN[downloads];
+        sizes = new long[downloads];
+        for (int i = 0; i < downloads; i++) {
+            queued[i] = createSha1();
+            sizes[i] = 1 + random.nextInt(1 << 24);
+            RemoteFileDesc source = remoteFileDescFactory.createRemoteFileDesc(
+                    new ConnectableImpl(nextAddress(), 6346, false), i, "file" + i + ".mp3",
+                    sizes[i], GUID.makeGuid(), 56, 3, false, null,
+                    Collections.singleton(queued[i]), false, "LIME", -1);
+            downloadManager.download(new RemoteFileDesc[] { source },
+                    Collections.<RemoteFileDesc> emptyList(), new GUID(), false,
+                    saveDirectory, null);
+        }
+    }
+
+    private URN createSha1() throws Exception {
+        byte[] sha1 = new byte[20];
+        random.nextBytes(sha1);
+        return URN.createSHA1Urn("urn:sha1:" + Base32.encode(sha1));
+    }
+
+    /** Returns a new public address for a source. */
+    private String nextAddress() {
+        int address = nextAddress++;
+        return "64." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    private QueryReply[] createReplies(int count) throws Exception {
+        QueryReplyFactory queryReplyFactory = injector.getInstance(QueryReplyFactory.class);
+        ResponseFactory responseFactory = injector.getInstance(ResponseFactory.class);
+        QueryReply[] replies = new QueryReply[count];
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            Response[] responses = new Response[RESULTS_PER_REPLY];
+            for (int j = 0; j < responses.length; j++, result++) {
+                if (result % MATCH_INTERVAL == 0) {
+                    int download = random.nextInt(queued.length);
+                    responses[j] = responseFactory.createResponse(j, sizes[download],
+                            "file" + download + ".mp3", queued[download]);
+                } else {
+                    responses[j] = responseFactory.createResponse(j, 1 + random.nextInt(1 << 24),
+                            "result" + result + ".mp3", createSha1());
+                }
+            }
+            byte[] address = new ConnectableImpl(nextAddress(), 6346, false).getInetAddress().getAddress();
+            replies[i] = queryReplyFactory.createQueryReply(GUID.makeGuid(), (byte)3, 6346,
+                    address, 0, responses, GUID.makeGuid(), false, false, true, true, false, false);
+        }
+        return replies;
+    }
+
+    /**
+     * Warms up with one set of replies, then handles another one and
+     * prints the results.
+     */
+    void run(int count) throws Exception {
+        replay(createReplies(count), new LatencyHistogram());
+
+        QueryReply[] replies = createReplies(count);
+        LatencyHistogram latency = new LatencyHistogram();
+        System.gc();
+        long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+        long start = System.nanoTime();
+        replay(replies, latency);
+        long elapsed = System.nanoTime() - start;
+        long allocated = ThreadAllocation.getAllocatedBytes() - allocatedBefore;
+
+        HistogramSnapshot snapshot = latency.snapshot();
+        System.out.println(String.format(Locale.US,
+                "%d downloads %8d replies %10.0f replies/s %8s bytes/reply   latency (us) median %6.2f  99%% %7.2f  max %8.2f",
+                queued.length, replies.length, replies.length * 1e9 / elapsed,
+                allocated < 0 ? "n/a" : Long.toString(allocated / replies.length),
+                snapshot.getMedian() / 1e3, snapshot.get99thPercentile() / 1e3,
+                snapshot.getMax() / 1e3));
+    }
+
+    private void replay(QueryReply[] replies, LatencyHistogram latency) {
+        for (QueryReply reply : replies) {
+            long start = System.nanoTime();
+            downloadManager.handleQueryReply(reply, null);
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int downloads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DOWNLOADS;
+        int replies = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPLIES;
+        File saveDirectory = FileUtils.createTempFile("benchmark", "").getAbsoluteFile();
+        saveDirectory.delete();
+        saveDirectory.mkdirs();
+        try {
+            new DownloadBenchmark(downloads, saveDirectory).run(replies);
+        } finally {
+            FileUtils.deleteRecursive(saveDirectory);
+        }
+        // the core started timers that would keep the VM running
+        System.exit(0);
+    }
+}
@@ -0,0 +1,117 @@
+package org.limewire.benchmark;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import org.limewire.mojito.KUID;
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.LatencyHistogram;
+
+/**
+ * Measures how fast KUIDs are sorted by their XOR distance to a target, as
+ * lookups do with the contacts they learn about, and how much the sorting
+ * allocates.
+ * <p>
+ * Every sort orders the same random KUIDs by their distance to a new random
+ * target. The <code>comparator</code> mode uses
+ * {@link KUID#getDistanceComparator()}, the <code>nearer</code> mode
+ * compares with {@link KUID#isNearerTo(KUID, KUID)} and the <code>xor</code>
+ * mode compares the distances computed with {@link KUID#xor(KUID)}. For
+ * every mode it reports the sorts per second, the bytes allocated per sort
+ * and the latency of a single sort.
+ * <p>
+ * Usage: <code>KUIDBenchmark [comparator|nearer|xor|all] [sorts] [kuids]</code>.
+ * The Ant target <code>benchmark-kuids</code> runs it with the properties
+ * <code>benchmark.mode</code>, <code>benchmark.sorts</code> and
+ * <code>benchmark.kuids</code>.
+ */
+public class KUIDBenchmark {
+
+    private static final int DEFAULT_SORTS = 2000;
+
+    private static final int DEFAULT_KUIDS = 2000;
+
+    private final KUID[] kuids;
+
+    private final KUID[] targets;
+
+    KUIDBenchmark(int sorts, int count) {
+        kuids = new KUID[count];
+        for (int i = 0; i < count; i++)
+            kuids[i] = KUID.createRandomID();
+        targets = new KUID[sorts];
+        for (int i = 0; i < sorts; i++)
+            targets[i] = KUID.createRandomID();
+    }
+
+    private static Comparator<KUID> createComparator(String mode, final KUID target) {
+        if (mode.equals("comparator")) {
+            return target.getDistanceComparator();
+        } else if (mode.equals("nearer")) {
+            return new Comparator<KUID>() {
+                public int compare(KUID o1, KUID o2) {
+                    if (o1.equals(o2))
+                        return 0;
+                    return o1.isNearerTo(target, o2) ? -1 : 1;
+                }
+            };
+        } else {
+            return new Comparator<KUID>() {
+                public int compare(KUID o1, KUID o2) {
+                    return o1.xor(target).compareTo(o2.xor(target));
+                }
+            };
+        }
+    }
+
+    /**
+     * Warms up, then sorts once more for every target and prints the
+     * results.
+     */
+    void run(String mode) {
+        KUID[] sorted = new KUID[kuids.length];
+        sort(mode, sorted, new LatencyHistogram());
+
+        LatencyHistogram latency = new LatencyHistogram();
+        System.gc();
+        long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+        long start = System.nanoTime();
+        sort(mode, sorted, latency);
+        long elapsed = System.nanoTime() - start;
+        long allocated = ThreadAllocation.getAllocatedBytes() - allocatedBefore;
+
+        HistogramSnapshot snapshot = latency.snapshot();
+        System.out.println(String.format(Locale.US,
+                "%-10s %6d kuids %6d sorts %8.0f sorts/s %10s bytes/sort   latency (us) median %8.2f  99%% %8.2f  max %9.2f",
+                mode, kuids.length, targets.length, targets.length * 1e9 / elapsed,
+                allocated < 0 ? "n/a" : Long.toString(allocated / targets.length),
+                snapshot.getMedian() / 1e3, snapshot.get99thPercentile() / 1e3,
+                snapshot.getMax() / 1e3));
+    }
+
+    private void sort(String mode, KUID[] sorted, LatencyHistogram latency) {
+        for (KUID target : targets) {
+            System.arraycopy(kuids, 0, sorted, 0, kuids.length);
+            long start = System.nanoTime();
+            Arrays.sort(sorted, createComparator(mode, target));
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "all";
+        int sorts = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SORTS;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_KUIDS;
+        KUIDBenchmark benchmark = new KUIDBenchmark(sorts, count);
+        if (mode.equals("all")) {
+            benchmark.run("comparator");
+            benchmark.run("nearer");
+            benchmark.run("xor");
+        } else if (mode.equals("comparator") || mode.equals("nearer") || mode.equals("xor")) {
+            benchmark.run(mode);
+        } else {
+            throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+    }
+}
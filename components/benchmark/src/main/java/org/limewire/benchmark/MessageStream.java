@@ -0,0 +1,120 @@
+package org.limewire.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.limewire.io.GUID;
+import org.limewire.util.Base32;
+
+import com.limegroup.gnutella.Response;
+import com.limegroup.gnutella.ResponseFactory;
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.messages.Message;
+import com.limegroup.gnutella.messages.PingReplyFactory;
+import com.limegroup.gnutella.messages.QueryReply;
+import com.limegroup.gnutella.messages.QueryReplyFactory;
+import com.limegroup.gnutella.messages.QueryRequest;
+import com.limegroup.gnutella.messages.QueryRequestFactory;
+import com.limegroup.gnutella.routing.QueryRouteTable;
+
+/**
+ * A recorded stream of Gnutella messages as they would arrive from the
+ * network, along with the connection each message arrives on.
+ * <p>
+ * The stream is made of rounds of three messages: a query from one
+ * ultrapeer, a reply to that query from the next one, which the router has
+ * to route back, and a pong from a third one. Every query has a new GUID,
+ * so a stream can only be replayed once per router.
+ */
+class MessageStream {
+
+    /** Number of distinct keywords queries are made of. */
+    static final int KEYWORDS = 1000;
+
+    /** Number of messages per round. */
+    static final int MESSAGES_PER_ROUND = 3;
+
+    private final byte[] data;
+
+    private final int[] sources;
+
+    private MessageStream(byte[] data, int[] sources) {
+        this.data = data;
+        this.sources = sources;
+    }
+
+    /** Returns the serialized messages, one after the other. */
+    byte[] getData() {
+        return data;
+    }
+
+    /** Returns the number of messages in the stream. */
+    int size() {
+        return sources.length;
+    }
+
+    /**
+     * Returns the index of the ultrapeer connection that message
+     * <code>index</code> arrives on.
+     */
+    int getSource(int index) {
+        return sources[index];
+    }
+
+    /** Returns the keyword with the given number. */
+    static String keyword(int index) {
+        return "keyword" + index;
+    }
+
+    /**
+     * Returns a routing table that contains <code>count</code> random
+     * keywords, as a leaf sharing a few files would send it.
+     */
+    static QueryRouteTable createQueryRouteTable(Random random, int count) {
+        QueryRouteTable queryRouteTable = new QueryRouteTable();
+        for (int i = 0; i < count; i++)
+            queryRouteTable.add(keyword(random.nextInt(KEYWORDS)));
+        return queryRouteTable;
+    }
+
+    /**
+     * Records a stream of <code>rounds</code> rounds that arrive on
+     * <code>ultrapeers</code> connections.
+     */
+    static MessageStream create(int rounds, int ultrapeers, Random random,
+            QueryRequestFactory queryRequestFactory, QueryReplyFactory queryReplyFactory,
+            PingReplyFactory pingReplyFactory, ResponseFactory responseFactory) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rounds * 400);
+        int[] sources = new int[rounds * MESSAGES_PER_ROUND];
+        byte[] address = { 10, 1, 0, 0 };
+        for (int round = 0; round < rounds; round++) {
+            int source = round % ultrapeers;
+            byte[] guid = GUID.makeGuid();
+            String keywords = keyword(random.nextInt(KEYWORDS)) + " " + keyword(random.nextInt(KEYWORDS));
+            QueryRequest query = queryRequestFactory.createQuery(guid, keywords, "");
+            write(query, out, sources, round * MESSAGES_PER_ROUND, source);
+
+            byte[] sha1 = new byte[20];
+            random.nextBytes(sha1);
+            URN urn = URN.createSHA1Urn("urn:sha1:" + Base32.encode(sha1));
+            Response response = responseFactory.createResponse(round, 1 + random.nextInt(1 << 24),
+                    keywords + ".mp3", urn);
+            address[2] = (byte)(round >> 8);
+            address[3] = (byte)round;
+            QueryReply reply = queryReplyFactory.createQueryReply(guid, (byte)3, 6346,
+                    address, 0, new Response[] { response }, GUID.makeGuid(), false);
+            write(reply, out, sources, round * MESSAGES_PER_ROUND + 1, (source + 1) % ultrapeers);
+
+            Message pong = pingReplyFactory.create(GUID.makeGuid(), (byte)1, 6346, address);
+            write(pong, out, sources, round * MESSAGES_PER_ROUND + 2, (source + 2) % ultrapeers);
+        }
+        return new MessageStream(out.toByteArray(), sources);
+    }
+
+    private static void write(Message message, ByteArrayOutputStream out, int[] sources,
+            int index, int source) throws IOException {
+        message.write(out);
+        sources[index] = source;
+    }
+}
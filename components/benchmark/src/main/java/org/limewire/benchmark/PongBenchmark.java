@@ -0,0 +1,173 @@
+package org.limewire.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.limewire.io.GUID;
+import org.limewire.io.IpPort;
+import org.limewire.io.IpPortImpl;
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.LatencyHistogram;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.limegroup.gnutella.ActivityCallbackAdapter;
+import com.limegroup.gnutella.LimeWireCoreModule;
+import com.limegroup.gnutella.messages.BadPacketException;
+import com.limegroup.gnutella.messages.PingReply;
+import com.limegroup.gnutella.messages.PingReplyFactory;
+
+/**
+ * Measures how fast pongs with a GGEP block are built and read, and how
+ * much they allocate.
+ * <p>
+ * Every pong carries the extensions a host sends in its own pongs: the
+ * daily uptime, the locale and packed Gnutella and DHT hosts. The
+ * <code>create</code> mode builds pongs with the {@link PingReplyFactory},
+ * the <code>read</code> mode creates them from the payloads of built pongs,
+ * as they arrive from the network, and reads the extensions the
+ * <code>HostCatcher</code> looks at. For every mode it reports the pongs per
+ * second, the bytes allocated per pong and the latency of a single pong.
+ * <p>
+ * Usage: <code>PongBenchmark [create|read|all] [pongs]</code>. The Ant
+ * target <code>benchmark-pongs</code> runs it with the properties
+ * <code>benchmark.mode</code> and <code>benchmark.pongs</code>.
+ */
+public class PongBenchmark {
+
+    /** Number of Gnutella hosts packed into every pong. */
+    private static final int GNUTELLA_HOSTS = 10;
+
+    /** Number of DHT hosts packed into every pong. */
+    private static final int DHT_HOSTS = 5;
+
+    private static final int DEFAULT_PONGS = 100000;
+
+    private final Random random = new Random(1);
+
+    private final PingReplyFactory pingReplyFactory;
+
+    private final byte[][] addresses;
+
+    private final List<List<IpPort>> gnutellaHosts = new ArrayList<List<IpPort>>();
+
+    private final List<List<IpPort>> dhtHosts = new ArrayList<List<IpPort>>();
+
+    PongBenchmark(int count) throws Exception {
+        Injector injector = Guice.createInjector(new LimeWireCoreModule(ActivityCallbackAdapter.class));
+        pingReplyFactory = injector.getInstance(PingReplyFactory.class);
+        addresses = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = nextAddress();
+            gnutellaHosts.add(createHosts(GNUTELLA_HOSTS));
+            dhtHosts.add(createHosts(DHT_HOSTS));
+        }
+    }
+
+    /** Returns a random public address. */
+    private byte[] nextAddress() {
+        return new byte[] { 64, (byte)random.nextInt(256), (byte)random.nextInt(256),
+                (byte)(1 + random.nextInt(254)) };
+    }
+
+    private List<IpPort> createHosts(int count) throws Exception {
+        List<IpPort> hosts = new ArrayList<IpPort>(count);
+        for (int i = 0; i < count; i++) {
+            hosts.add(new IpPortImpl(nextAddress(), 1024 + random.nextInt(60000)));
+        }
+        return hosts;
+    }
+
+    private PingReply create(int i) {
+        return pingReplyFactory.create(GUID.makeGuid(), (byte)1, 6346, addresses[i],
+                i, i * 1024, true, 3600 + i, true, "en", 2,
+                gnutellaHosts.get(i), dhtHosts.get(i));
+    }
+
+    private int read(byte[] guid, byte[] payload) throws BadPacketException {
+        PingReply pong = pingReplyFactory.createFromNetwork(guid, (byte)1, (byte)0, payload);
+        return pong.getPackedIPPorts().size() + pong.getPackedDHTIPPorts().size()
+                + pong.getDailyUptime() + pong.getClientLocale().length();
+    }
+
+    /**
+     * Warms up, then builds the pongs once more and prints the results.
+     */
+    void runCreate() {
+        int count = addresses.length;
+        for (int i = 0; i < count; i++)
+            create(i);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        System.gc();
+        long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long pongStart = System.nanoTime();
+            create(i);
+            latency.record(System.nanoTime() - pongStart);
+        }
+        report("create", count, System.nanoTime() - start,
+                ThreadAllocation.getAllocatedBytes() - allocatedBefore, latency);
+    }
+
+    /**
+     * Builds the pongs, warms up reading them, then reads them once more
+     * and prints the results.
+     */
+    void runRead() throws Exception {
+        int count = addresses.length;
+        byte[][] guids = new byte[count][];
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            PingReply pong = create(i);
+            guids[i] = pong.getGUID();
+            payloads[i] = pong.getPayload();
+        }
+        int checksum = 0;
+        for (int i = 0; i < count; i++)
+            checksum += read(guids[i], payloads[i]);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        System.gc();
+        long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long pongStart = System.nanoTime();
+            checksum += read(guids[i], payloads[i]);
+            latency.record(System.nanoTime() - pongStart);
+        }
+        report("read", count, System.nanoTime() - start,
+                ThreadAllocation.getAllocatedBytes() - allocatedBefore, latency);
+        // keeps the reads from being optimized away
+        if (checksum == 42)
+            System.out.println();
+    }
+
+    private void report(String mode, int pongs, long elapsed, long allocated,
+            LatencyHistogram latency) {
+        HistogramSnapshot snapshot = latency.snapshot();
+        System.out.println(String.format(Locale.US,
+                "%-6s %8d pongs %10.0f pongs/s %8s bytes/pong   latency (us) median %6.2f  99%% %7.2f  max %8.2f",
+                mode, pongs, pongs * 1e9 / elapsed,
+                allocated < 0 ? "n/a" : Long.toString(allocated / pongs),
+                snapshot.getMedian() / 1e3, snapshot.get99thPercentile() / 1e3,
+                snapshot.getMax() / 1e3));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "all";
+        int pongs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PONGS;
+        if (!mode.equals("create") && !mode.equals("read") && !mode.equals("all"))
+            throw new IllegalArgumentException("unknown mode: " + mode);
+        PongBenchmark benchmark = new PongBenchmark(pongs);
+        if (mode.equals("create") || mode.equals("all"))
+            benchmark.runCreate();
+        if (mode.equals("read") || mode.equals("all"))
+            benchmark.runRead();
+        // the core started timers that would keep the VM running
+        System.exit(0);
+    }
+}
@@ -0,0 +1,183 @@
+package org.limewire.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.LatencyHistogram;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import com.limegroup.gnutella.ActivityCallbackAdapter;
+import com.limegroup.gnutella.ConnectionManager;
+import com.limegroup.gnutella.LimeWireCoreModule;
+import com.limegroup.gnutella.MessageRouter;
+import com.limegroup.gnutella.ResponseFactory;
+import com.limegroup.gnutella.connection.RoutedConnection;
+import com.limegroup.gnutella.messages.BadPacketException;
+import com.limegroup.gnutella.messages.Message;
+import com.limegroup.gnutella.messages.MessageFactory;
+import com.limegroup.gnutella.messages.PingReplyFactory;
+import com.limegroup.gnutella.messages.QueryReplyFactory;
+import com.limegroup.gnutella.messages.QueryRequestFactory;
+import com.limegroup.gnutella.messages.Message.Network;
+
+/**
+ * Measures how fast the {@link MessageRouter} parses and routes queries,
+ * query replies and pongs.
+ * <p>
+ * The benchmark wires up the real core, except for the
+ * {@link ConnectionManager}, which is replaced by one with a fixed set of
+ * {@link StubConnection stub connections}. A recorded {@link MessageStream}
+ * is then read with the {@link MessageFactory} and handed to the router as
+ * if it had arrived on those connections, once to warm up and once to
+ * measure. For every mode it reports the messages routed per second, the
+ * bytes allocated per message and the latency of parsing and routing a
+ * single message.
+ * <p>
+ * Usage: <code>RoutingBenchmark [leaf|ultrapeer|all] [rounds]</code>, where
+ * every round is a query, a reply to it and a pong. The Ant target
+ * <code>benchmark</code> runs it with the properties
+ * <code>benchmark.mode</code> and <code>benchmark.rounds</code>.
+ */
+public class RoutingBenchmark {
+
+    /** Number of ultrapeers a leaf is connected to. */
+    private static final int LEAF_ULTRAPEERS = 3;
+
+    /** Number of ultrapeers an ultrapeer is connected to. */
+    private static final int ULTRAPEER_ULTRAPEERS = 32;
+
+    /** Number of leaves an ultrapeer is connected to. */
+    private static final int ULTRAPEER_LEAVES = 30;
+
+    /** Number of keywords in the routing table of every leaf. */
+    private static final int LEAF_KEYWORDS = 50;
+
+    private static final int DEFAULT_ROUNDS = 50000;
+
+    private final boolean supernode;
+
+    private final int rounds;
+
+    private final Random random = new Random(1);
+
+    private final List<StubConnection> ultrapeers = new ArrayList<StubConnection>();
+
+    private final List<StubConnection> leaves = new ArrayList<StubConnection>();
+
+    private final MessageRouter messageRouter;
+
+    private final MessageFactory messageFactory;
+
+    private final Injector injector;
+
+    RoutingBenchmark(boolean supernode, int rounds) {
+        this.supernode = supernode;
+        this.rounds = rounds;
+        int index = 0;
+        for (int i = 0; i < (supernode ? ULTRAPEER_ULTRAPEERS : LEAF_ULTRAPEERS); i++)
+            ultrapeers.add(new StubConnection(supernode, true, index++, null));
+        if (supernode) {
+            for (int i = 0; i < ULTRAPEER_LEAVES; i++)
+                leaves.add(new StubConnection(supernode, false, index++,
+                        MessageStream.createQueryRouteTable(random, LEAF_KEYWORDS)));
+        }
+        final ConnectionManager connectionManager =
+            new StubConnectionManager(supernode, ultrapeers, leaves).getConnectionManager();
+        injector = Guice.createInjector(Modules.override(
+                new LimeWireCoreModule(ActivityCallbackAdapter.class)).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ConnectionManager.class).toInstance(connectionManager);
+            }
+        }));
+        messageRouter = injector.getInstance(MessageRouter.class);
+        messageFactory = injector.getInstance(MessageFactory.class);
+        messageRouter.start();
+    }
+
+    private MessageStream createStream() throws IOException {
+        return MessageStream.create(rounds, ultrapeers.size(), random,
+                injector.getInstance(QueryRequestFactory.class),
+                injector.getInstance(QueryReplyFactory.class),
+                injector.getInstance(PingReplyFactory.class),
+                injector.getInstance(ResponseFactory.class));
+    }
+
+    /**
+     * Warms up the router with one stream, then routes another one and
+     * prints the results.
+     */
+    void run() throws IOException, BadPacketException {
+        String mode = supernode ? "ultrapeer" : "leaf";
+        replay(createStream(), new LatencyHistogram());
+
+        MessageStream stream = createStream();
+        LatencyHistogram latency = new LatencyHistogram();
+        long sentBefore = getSentCount();
+        System.gc();
+        long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+        long start = System.nanoTime();
+        replay(stream, latency);
+        long elapsed = System.nanoTime() - start;
+        long allocated = ThreadAllocation.getAllocatedBytes() - allocatedBefore;
+        long sent = getSentCount() - sentBefore;
+
+        int messages = stream.size();
+        HistogramSnapshot snapshot = latency.snapshot();
+        System.out.println(String.format(Locale.US,
+                "%-9s %8d messages %10.0f msgs/s %8s bytes/msg   latency (us) median %6.2f  99%% %7.2f  max %8.2f   %.2f sent/msg",
+                mode, messages, messages * 1e9 / elapsed,
+                allocated < 0 ? "n/a" : Long.toString(allocated / messages),
+                snapshot.getMedian() / 1e3, snapshot.get99thPercentile() / 1e3,
+                snapshot.getMax() / 1e3, (double)sent / messages));
+    }
+
+    /**
+     * Parses every message of <code>stream</code> and routes it as if it
+     * came from its ultrapeer, recording the time each message takes.
+     */
+    private void replay(MessageStream stream, LatencyHistogram latency)
+            throws IOException, BadPacketException {
+        InputStream in = new ByteArrayInputStream(stream.getData());
+        RoutedConnection[] sources = new RoutedConnection[ultrapeers.size()];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = ultrapeers.get(i).getConnection();
+        for (int i = 0; i < stream.size(); i++) {
+            long start = System.nanoTime();
+            Message message = messageFactory.read(in, Network.TCP);
+            messageRouter.handleMessage(message, sources[stream.getSource(i)]);
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private long getSentCount() {
+        long sent = 0;
+        for (StubConnection connection : ultrapeers)
+            sent += connection.getSentCount();
+        for (StubConnection connection : leaves)
+            sent += connection.getSentCount();
+        return sent;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "all";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        if (mode.equals("leaf") || mode.equals("all"))
+            new RoutingBenchmark(false, rounds).run();
+        if (mode.equals("ultrapeer") || mode.equals("all"))
+            new RoutingBenchmark(true, rounds).run();
+        if (!mode.equals("leaf") && !mode.equals("ultrapeer") && !mode.equals("all"))
+            System.err.println("usage: RoutingBenchmark [leaf|ultrapeer|all] [rounds]");
+        // the core started timers that would keep the VM running
+        System.exit(0);
+    }
+}
@@ -0,0 +1,183 @@
+package org.limewire.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.limewire.io.GUID;
+
+import com.limegroup.gnutella.connection.ConnectionCapabilities;
+import com.limegroup.gnutella.connection.RoutedConnection;
+import com.limegroup.gnutella.messages.QueryRequest;
+import com.limegroup.gnutella.routing.QueryRouteTable;
+
+/**
+ * A {@link RoutedConnection} that is never connected to anything: it
+ * answers the questions the router asks about the remote host and counts
+ * the messages it is asked to send, but drops them.
+ * <p>
+ * The connection is a dynamic proxy so that it doesn't have to follow
+ * every change to the connection interfaces. Methods that aren't
+ * implemented here return 0, false or null.
+ */
+class StubConnection implements InvocationHandler {
+
+    private final boolean supernode;
+
+    private final boolean ultrapeer;
+
+    private final InetSocketAddress address;
+
+    private final byte[] clientGUID = GUID.makeGuid();
+
+    private final QueryRouteTable queryRouteTable;
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final RoutedConnection connection;
+
+    private final ConnectionCapabilities capabilities;
+
+    /**
+     * @param supernode whether we are an ultrapeer
+     * @param ultrapeer whether the remote host is an ultrapeer
+     * @param index the number of the connection, used for its address
+     * @param queryRouteTable the routing table the remote host sent us, or
+     *        null if it didn't send one
+     */
+    StubConnection(boolean supernode, boolean ultrapeer, int index,
+            QueryRouteTable queryRouteTable) {
+        this.supernode = supernode;
+        this.ultrapeer = ultrapeer;
+        this.queryRouteTable = queryRouteTable;
+        try {
+            this.address = new InetSocketAddress(InetAddress.getByAddress(new byte[] {
+                    10, 0, (byte)(index >> 8), (byte)index }), 6346);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+        ClassLoader loader = StubConnection.class.getClassLoader();
+        connection = (RoutedConnection)Proxy.newProxyInstance(loader,
+                new Class<?>[] { RoutedConnection.class }, this);
+        capabilities = (ConnectionCapabilities)Proxy.newProxyInstance(loader,
+                new Class<?>[] { ConnectionCapabilities.class }, new CapabilitiesHandler());
+    }
+
+    /** Returns the connection the router sees. */
+    RoutedConnection getConnection() {
+        return connection;
+    }
+
+    /** Returns the number of messages sent or replied over this connection. */
+    long getSentCount() {
+        return sent.get();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("send") || name.equals("originateQuery") || name.equals("reply")
+                || name.equals("handleQueryReply") || name.equals("handlePingReply")
+                || name.equals("handlePushRequest")) {
+            sent.incrementAndGet();
+            return null;
+        } else if (name.equals("shouldForwardQuery")) {
+            return queryRouteTable != null && queryRouteTable.contains((QueryRequest)args[0]);
+        } else if (name.equals("getQueryRouteTableReceived")) {
+            return queryRouteTable;
+        } else if (name.equals("getConnectionCapabilities")) {
+            return capabilities;
+        } else if (name.equals("isSupernodeClientConnection")) {
+            return supernode && !ultrapeer;
+        } else if (name.equals("isGoodUltrapeer") || name.equals("isUltrapeerQueryRoutingConnection")) {
+            return ultrapeer;
+        } else if (name.equals("isGoodLeaf")) {
+            return !ultrapeer;
+        } else if (name.equals("isOpen") || name.equals("isStable")
+                || name.equals("allowNewPings") || name.equals("allowNewPongs")
+                || name.equals("supportsPongCaching")) {
+            return true;
+        } else if (name.equals("getClientGUID")) {
+            return clientGUID;
+        } else if (name.equals("getAddress")) {
+            return address.getAddress().getHostAddress();
+        } else if (name.equals("getInetAddress")) {
+            return address.getAddress();
+        } else if (name.equals("getInetSocketAddress")) {
+            return address;
+        } else if (name.equals("getPort") || name.equals("getListeningPort")) {
+            return address.getPort();
+        } else if (name.equals("getLocalePref")) {
+            return "en";
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString")) {
+            return (ultrapeer ? "ultrapeer " : "leaf ") + address;
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    /**
+     * Returns 0, false or null, whichever fits <code>type</code>.
+     */
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return Boolean.FALSE;
+        if (type == char.class)
+            return Character.valueOf((char)0);
+        if (type == byte.class)
+            return Byte.valueOf((byte)0);
+        if (type == short.class)
+            return Short.valueOf((short)0);
+        if (type == int.class)
+            return Integer.valueOf(0);
+        if (type == long.class)
+            return Long.valueOf(0);
+        if (type == float.class)
+            return Float.valueOf(0);
+        return Double.valueOf(0);
+    }
+
+    /**
+     * Describes the handshake with the remote host: ultrapeers talk to each
+     * other with query routing and feature queries, leaves ask for
+     * guidance.
+     */
+    private class CapabilitiesHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("isSupernodeClientConnection")) {
+                return supernode && !ultrapeer;
+            } else if (name.equals("isClientSupernodeConnection")) {
+                return !supernode && ultrapeer;
+            } else if (name.equals("isSupernodeSupernodeConnection")) {
+                return supernode && ultrapeer;
+            } else if (name.equals("isSupernodeConnection") || name.equals("isUltrapeerQueryRoutingConnection")
+                    || name.equals("getRemoteHostSupportsFeatureQueries")) {
+                return ultrapeer;
+            } else if (name.equals("isLeafConnection")) {
+                return !ultrapeer;
+            } else if (name.equals("remoteHostSupportsLeafGuidance")) {
+                return 1;
+            } else if (name.equals("isGoodUltrapeer")) {
+                return ultrapeer;
+            } else if (name.equals("isGoodLeaf")) {
+                return !ultrapeer;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "capabilities of " + address;
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+}
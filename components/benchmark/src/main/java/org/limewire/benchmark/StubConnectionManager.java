@@ -0,0 +1,100 @@
+package org.limewire.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.limegroup.gnutella.ConnectionManager;
+import com.limegroup.gnutella.connection.RoutedConnection;
+
+/**
+ * A {@link ConnectionManager} with a fixed set of {@link StubConnection
+ * stub connections} that never change, so that the router always sees the
+ * same neighbours while it is measured.
+ */
+class StubConnectionManager implements InvocationHandler {
+
+    private final boolean supernode;
+
+    private final List<RoutedConnection> ultrapeers;
+
+    private final List<RoutedConnection> leaves;
+
+    private final List<RoutedConnection> all;
+
+    private final ConnectionManager connectionManager;
+
+    /**
+     * @param supernode whether we are an ultrapeer or a shielded leaf
+     * @param ultrapeers the connections to ultrapeers
+     * @param leaves the connections to our leaves, empty if we are a leaf
+     */
+    StubConnectionManager(boolean supernode, List<StubConnection> ultrapeers,
+            List<StubConnection> leaves) {
+        this.supernode = supernode;
+        this.ultrapeers = connectionsOf(ultrapeers);
+        this.leaves = connectionsOf(leaves);
+        List<RoutedConnection> all = new ArrayList<RoutedConnection>(this.ultrapeers);
+        all.addAll(this.leaves);
+        this.all = Collections.unmodifiableList(all);
+        connectionManager = (ConnectionManager)Proxy.newProxyInstance(
+                StubConnectionManager.class.getClassLoader(),
+                new Class<?>[] { ConnectionManager.class }, this);
+    }
+
+    private static List<RoutedConnection> connectionsOf(List<StubConnection> stubs) {
+        List<RoutedConnection> connections = new ArrayList<RoutedConnection>(stubs.size());
+        for (StubConnection stub : stubs)
+            connections.add(stub.getConnection());
+        return Collections.unmodifiableList(connections);
+    }
+
+    /** Returns the connection manager to bind in place of the real one. */
+    ConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("isSupernode") || name.equals("isActiveSupernode")
+                || name.equals("isSupernodeCapable") || name.equals("hasSupernodeClientConnection")) {
+            return supernode;
+        } else if (name.equals("isShieldedLeaf")) {
+            return !supernode;
+        } else if (name.equals("isConnected") || name.equals("isFullyConnected")) {
+            return true;
+        } else if (name.startsWith("getInitializedConnections")) {
+            return ultrapeers;
+        } else if (name.startsWith("getInitializedClientConnections")) {
+            return leaves;
+        } else if (name.equals("getConnections")) {
+            return all;
+        } else if (name.equals("getNumConnections")) {
+            return all.size();
+        } else if (name.equals("getNumInitializedConnections")
+                || name.equals("getNumUltrapeerConnections")) {
+            return ultrapeers.size();
+        } else if (name.equals("getNumClientSupernodeConnections")) {
+            return supernode ? 0 : ultrapeers.size();
+        } else if (name.equals("getNumInitializedClientConnections")) {
+            return leaves.size();
+        } else if (name.equals("getPreferredConnectionCount")) {
+            return ultrapeers.size();
+        } else if (name.equals("equals")) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString")) {
+            return "stub connection manager";
+        } else if (method.getReturnType() == List.class) {
+            return Collections.emptyList();
+        } else if (method.getReturnType() == Set.class) {
+            return Collections.emptySet();
+        }
+        return StubConnection.defaultValue(method.getReturnType());
+    }
+}
@@ -0,0 +1,29 @@
+package org.limewire.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Reads how many bytes the current thread allocated, where the VM
+ * supports it.
+ */
+class ThreadAllocation {
+
+    private ThreadAllocation() {}
+
+    /**
+     * Returns the number of bytes the current thread allocated so far, or
+     * -1 if the VM can't tell. Not every VM has the method, so it is looked
+     * up by reflection.
+     */
+    static long getAllocatedBytes() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long)method.invoke(ManagementFactory.getThreadMXBean(),
+                    Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.limewire.bittorrent;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
 
 public interface TorrentTrackerScraper {
 
@@ -12,11 +14,46 @@ public interface TorrentTrackerScraper {
      */
     RequestShutdown submitScrape(URI trackerAnnounceUri, String urn, ScrapeCallback callback);
 
+    /**
+     * Submit a single scrape request for several torrents tracked by the same
+     *  tracker.  Notification will be returned through the callback
+     *
+     * @param urns the hex encoded sha1s of the torrents, at most 
+     *          {@link #MAX_URNS_PER_SCRAPE}
+     * @return the shutdownable for the connection, or null if no 
+     *          connection was supported.
+     */
+    RequestShutdown submitScrape(URI trackerAnnounceUri, Collection<String> urns, 
+            BatchScrapeCallback callback);
+    
+    /**
+     * The maximum number of torrents that are scraped with one request.
+     */
+    public static final int MAX_URNS_PER_SCRAPE = 32;
+
     public static interface ScrapeCallback {
         void success(TorrentScrapeData data);
         void failure(String reason);
     }
     
+    public static interface BatchScrapeCallback {
+        /**
+         * The request succeeded.  Torrents the tracker did not return
+         *  anything for are in neither map.
+         * 
+         * @param data the scrape data keyed by the hex encoded sha1 of the torrent
+         * @param errors the reasons for the torrents the tracker answered 
+         *          with an error or with malformed data, keyed by the hex 
+         *          encoded sha1 of the torrent
+         */
+        void success(Map<String, TorrentScrapeData> data, Map<String, String> errors);
+        
+        /**
+         * The request failed as a whole.
+         */
+        void failure(String reason);
+    }
+    
     public static interface RequestShutdown {
         void shutdown();
     }
@@ -0,0 +1,32 @@
+package org.limewire.core.api.browse;
+
+import java.util.Collection;
+
+import org.limewire.core.api.URN;
+
+/**
+ * A {@link BrowseListener} that holds the results of an earlier browse of the
+ * same host, so that hosts which version their library can send only the
+ * files that changed since then.
+ */
+public interface IncrementalBrowseListener extends BrowseListener {
+
+    /**
+     * Returns the library version of the results this listener holds, or
+     * null if it doesn't hold any.
+     */
+    String getLibraryVersion();
+
+    /**
+     * Called before the first result if the browsed host versions its
+     * library.
+     * 
+     * @param version the library version the results are at once the browse
+     *        finished successfully
+     * @param removed null if the results that follow are the complete
+     *        library, otherwise the browse is incremental and these are the
+     *        URNs of the files that were removed, while the results that
+     *        follow are the files that were added or changed
+     */
+    void libraryVersionReceived(String version, Collection<URN> removed);
+}
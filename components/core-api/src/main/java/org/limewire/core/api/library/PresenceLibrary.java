@@ -1,5 +1,8 @@
 package org.limewire.core.api.library;
 
+import java.util.Collection;
+
+import org.limewire.core.api.URN;
 import org.limewire.core.api.search.SearchResult;
 import org.limewire.friend.api.FriendPresence;
 
@@ -18,6 +21,26 @@ public interface PresenceLibrary extends RemoteLibrary {
     /** Sets the current state. */
     void setState(RemoteLibraryState newState);
     
-    /** Returns the search result at <code>index</code> or throws {@link IndexOutOfBoundsException}. */
+    /**
+     * Returns the search result at <code>index</code>, null if it was removed
+     * by {@link #applyChanges(Collection, Collection)}, or throws
+     * {@link IndexOutOfBoundsException}.
+     */
     SearchResult get(int index);
+    
+    /**
+     * Removes the results with the given URNs and adds the given results,
+     * replacing results with the same URN in place. The indices of all other
+     * results stay the same.
+     */
+    void applyChanges(Collection<URN> removed, Collection<SearchResult> changed);
+    
+    /**
+     * Returns the library version the browsed host reported for the current
+     * results, or null if it's unknown. Clearing the results resets it.
+     */
+    String getLibraryVersion();
+    
+    /** Sets the library version of the current results. */
+    void setLibraryVersion(String version);
 }
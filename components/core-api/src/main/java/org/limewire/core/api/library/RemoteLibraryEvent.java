@@ -15,14 +15,21 @@ public class RemoteLibraryEvent extends DefaultSourceTypeEvent<RemoteLibrary, Re
     private final RemoteLibraryState state;
     private final Collection<SearchResult> addedResults;
     private final int startIndex;
+    private final Collection<Integer> removedIndices;
 
     public static enum Type { RESULTS_CLEARED, RESULTS_ADDED, RESULTS_REMOVED, STATE_CHANGED }
     
     private RemoteLibraryEvent(RemoteLibrary source, Type type, Collection<SearchResult> addedResults, int startIndex) { 
+        this(source, type, addedResults, startIndex, Collections.<Integer>emptyList());
+    }
+    
+    private RemoteLibraryEvent(RemoteLibrary source, Type type, Collection<SearchResult> addedResults, int startIndex,
+            Collection<Integer> removedIndices) { 
         super(source, type);
         this.startIndex = startIndex;
         this.state = source.getState();
         this.addedResults = addedResults;
+        this.removedIndices = removedIndices;
     }
     
     public static RemoteLibraryEvent createStateChangedEvent(RemoteLibrary remoteLibrary) {
@@ -37,6 +44,13 @@ public class RemoteLibraryEvent extends DefaultSourceTypeEvent<RemoteLibrary, Re
         return new RemoteLibraryEvent(remoteLibrary, Type.RESULTS_REMOVED, Collections.<SearchResult>emptyList(), -1);
     }
     
+    /**
+     * Creates an event for results that were removed from the given indices.
+     */
+    public static RemoteLibraryEvent createResultsRemovedEvent(RemoteLibrary remoteLibrary, Collection<Integer> removedIndices) {
+        return new RemoteLibraryEvent(remoteLibrary, Type.RESULTS_REMOVED, Collections.<SearchResult>emptyList(), -1, removedIndices);
+    }
+    
     public static RemoteLibraryEvent createResultsAddedEvent(RemoteLibrary remoteLibrary, Collection<SearchResult> addedResults, int startIndex) {
         return new RemoteLibraryEvent(remoteLibrary, Type.RESULTS_ADDED, addedResults, startIndex);
     }
@@ -63,4 +77,13 @@ public class RemoteLibraryEvent extends DefaultSourceTypeEvent<RemoteLibrary, Re
     public int getStartIndex() {
         return startIndex;
     }
+    
+    /**
+     * @return the indices in the {@link RemoteLibrary} of the removed results
+     * if the event is of type {@link Type#RESULTS_REMOVED} and they are known,
+     * otherwise empty collection
+     */
+    public Collection<Integer> getRemovedIndices() {
+        return removedIndices;
+    }
 }
@@ -1,10 +1,13 @@
 package org.limewire.core.impl.browse;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.limewire.core.api.browse.Browse;
+import org.limewire.core.api.URN;
 import org.limewire.core.api.browse.BrowseListener;
+import org.limewire.core.api.browse.IncrementalBrowseListener;
 import org.limewire.core.api.search.SearchResult;
 import org.limewire.core.impl.search.QueryReplyListener;
 import org.limewire.core.impl.search.QueryReplyListenerList;
@@ -67,7 +70,7 @@ class CoreBrowse implements Browse {
         searchServices.stopQuery(new GUID(browseGuid));
     }
     
-    private class ListenerProxy implements BrowseListener {
+    private class ListenerProxy implements IncrementalBrowseListener {
         private final BrowseListener delegate;
         
         public ListenerProxy(BrowseListener delegate) {
@@ -89,6 +92,21 @@ class CoreBrowse implements Browse {
                 delegate.handleBrowseResult(searchResult);
             }
         }
+        
+        @Override
+        public String getLibraryVersion() {
+            if(delegate instanceof IncrementalBrowseListener) {
+                return ((IncrementalBrowseListener)delegate).getLibraryVersion();
+            }
+            return null;
+        }
+        
+        @Override
+        public void libraryVersionReceived(String version, Collection<URN> removed) {
+            if(!stopped.get() && delegate instanceof IncrementalBrowseListener) {
+                ((IncrementalBrowseListener)delegate).libraryVersionReceived(version, removed);
+            }
+        }
     }
 
     private class BrowseResultAdapter implements QueryReplyListener {
@@ -237,6 +237,14 @@ public class FriendLibraries {
             getIndex(true).index(presenceId, index, result);
         }
 
+        /**
+         * Removes the search result at <code>index</code> from the database
+         * index.
+         */
+        private void remove(int index) {
+            getIndex(true).remove(presenceId, index);
+        }
+        
         /**
          * Clears all indexed keywords for this presence library from
          * the database index.
@@ -259,6 +267,11 @@ public class FriendLibraries {
                             index(index++, result);
                         }
                         break;
+                    case RESULTS_REMOVED:
+                        for (int removed : event.getRemovedIndices()) {
+                            remove(removed);
+                        }
+                        break;
                     case RESULTS_CLEARED:
                         clear();
                         break;
@@ -283,6 +296,10 @@ public class FriendLibraries {
          * @param index of the result in its presence library
          */
         void index(int presenceId, int index, SearchResult newFile);
+        /**
+         * Removes the properties indexed for the result at <code>index</code>.
+         */
+        void remove(int presenceId, int index);
         void clear(int presenceId);
     }
     
@@ -310,6 +327,10 @@ public class FriendLibraries {
             throw new UnsupportedOperationException();
         }
         @Override
+        public void remove(int presenceId, int index) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
         public void clear(int presenceId) {
             throw new UnsupportedOperationException();
         }
@@ -337,6 +358,11 @@ public class FriendLibraries {
          * library from the index.
          */
         private final ImmutableList<PreparedStatement> deleteStmts;
+        /**
+         * List of delete statements to execute to remove a single search
+         * result of a presence library from the index.
+         */
+        private final ImmutableList<PreparedStatement> deleteResultStmts;
         
         /**
          * Creates the database file and database tables and indices. This
@@ -375,17 +401,21 @@ public class FriendLibraries {
                 statement.execute("CREATE INDEX propertieskeywordindex on properties (keyword)");
                 statement.execute("CREATE INDEX propertiespresenceindex on properties (presence)");
                 
-                statement.execute("CREATE CACHED TABLE suggestions (keyword VARCHAR(200), presence INT, category INT, fileproperty INT)");
+                statement.execute("CREATE CACHED TABLE suggestions (keyword VARCHAR(200), i INT, presence INT, category INT, fileproperty INT)");
                 statement.execute("CREATE INDEX suggestionskeywordindex on suggestions(keyword)");
                 statement.execute("CREATE INDEX suggestionspresenceindex on suggestions (presence)");
                 
                 // create prepared statements
                 insertPropertiesStmt = connection.prepareStatement("INSERT INTO properties (keyword, i, presence, category, fileproperty) VALUES (?,?,?,?,?)");
-                insertSuggestionsStmt = connection.prepareStatement("INSERT INTO suggestions (keyword, presence, category, fileproperty) VALUES (?,?,?,?)");
+                insertSuggestionsStmt = connection.prepareStatement("INSERT INTO suggestions (keyword, i, presence, category, fileproperty) VALUES (?,?,?,?,?)");
                 deleteStmts = ImmutableList.of(
                         connection.prepareStatement("delete from properties where presence = ?"),
                         connection.prepareStatement("delete from suggestions where presence = ?")
                 );
+                deleteResultStmts = ImmutableList.of(
+                        connection.prepareStatement("delete from properties where presence = ? and i = ?"),
+                        connection.prepareStatement("delete from suggestions where presence = ? and i = ?")
+                );
                 
                 // delete files in folder on exit
                 File[] files = FileUtils.getFilesRecursive(folder);
@@ -452,7 +482,11 @@ public class FriendLibraries {
                 watch.resetAndLog("query took ");
                 List<SearchResult> results = new ArrayList<SearchResult>();
                 while (resultSet.next()) {
-                    results.add(getSearchResult(resultSet.getInt(1), resultSet.getInt(2)));
+                    SearchResult result = getSearchResult(resultSet.getInt(1), resultSet.getInt(2));
+                    // null if it was removed, but not yet from the index
+                    if (result != null) {
+                        results.add(result);
+                    }
                 }
                 return results;
             } catch (SQLException e) {
@@ -558,7 +592,7 @@ public class FriendLibraries {
                     keywords.add(canonicalize(keyword));
                 }
                 insertWordsIntoPropertiesIndex(insertPropertiesStmt, keywords, index, presenceId, category, filePropertyKey);
-                insertWordIntoSuggestionsIndex(insertSuggestionsStmt, phrase, presenceId, category, filePropertyKey);
+                insertWordIntoSuggestionsIndex(insertSuggestionsStmt, phrase, index, presenceId, category, filePropertyKey);
             } catch (SQLException sql) {
                 throw new RuntimeException(sql);
             }
@@ -578,15 +612,29 @@ public class FriendLibraries {
         
         }
         
-        private void insertWordIntoSuggestionsIndex(PreparedStatement statement, String keyword, int presenceId,
+        private void insertWordIntoSuggestionsIndex(PreparedStatement statement, String keyword, int index, int presenceId,
                 SearchCategory category, FilePropertyKey filePropertyKey) throws SQLException {
             statement.setString(1, canonicalize(keyword));
-            statement.setInt(2, presenceId);
-            statement.setInt(3, category.getId());
-            statement.setInt(4, filePropertyKey.ordinal());
+            statement.setInt(2, index);
+            statement.setInt(3, presenceId);
+            statement.setInt(4, category.getId());
+            statement.setInt(5, filePropertyKey.ordinal());
             statement.execute();
         }
 
+        @Override
+        public void remove(int presenceId, int index) {
+            try {
+                for (PreparedStatement statement : deleteResultStmts) {
+                    statement.setInt(1, presenceId);
+                    statement.setInt(2, index);
+                    statement.execute();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         @Override
         public void clear(int presenceId) {
             watch.reset();
@@ -2,6 +2,7 @@ package org.limewire.core.impl.library;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -10,9 +11,10 @@ import java.util.Set;
 import net.jcip.annotations.GuardedBy;
 
 import org.limewire.collection.glazedlists.AbstractListEventListener;
+import org.limewire.core.api.URN;
 import org.limewire.core.api.browse.Browse;
 import org.limewire.core.api.browse.BrowseFactory;
-import org.limewire.core.api.browse.BrowseListener;
+import org.limewire.core.api.browse.IncrementalBrowseListener;
 import org.limewire.core.api.library.FriendLibrary;
 import org.limewire.core.api.library.PresenceLibrary;
 import org.limewire.core.api.library.RemoteLibraryManager;
@@ -153,13 +155,30 @@ class PresenceLibraryBrowser implements EventListener<LibraryChangedEvent> {
         
         // TODO: We need to capture the Browse and call stop on it when the library is removed,
         //       otherwise the browse can be lingering in the background.
-        browse.start(new BrowseListener() {
+        final String knownVersion = presenceLibrary.getLibraryVersion();
+        browse.start(new IncrementalBrowseListener() {
             // Build an in-transit list and replace at the end, but only if there's
             // no existing list, or if we have enough memory to duplicate the list.
-            private final List<SearchResult> transitList;
+            private List<SearchResult> transitList;
+            
+            // The changes of an incremental browse, applied once it succeeded.
+            // The callbacks can come from different threads, so they're synchronized.
+            private List<SearchResult> changedList;
+            private Collection<URN> removed;
+            private String version;
+            private boolean started;
             
             // (anonymous constructor)
             {
+                // if the library is versioned, wait for the host to tell
+                // whether it sends the changes only or all files
+                if(knownVersion == null) {
+                    startFullBrowse();
+                }
+            }
+            
+            private void startFullBrowse() {
+                started = true;
                 int size = presenceLibrary.size();
                 if(size == 0) {
                     transitList = null;
@@ -172,25 +191,64 @@ class PresenceLibraryBrowser implements EventListener<LibraryChangedEvent> {
                 }
             }
             
-            public void handleBrowseResult(SearchResult searchResult) {
+            @Override
+            public String getLibraryVersion() {
+                return knownVersion;
+            }
+            
+            @Override
+            public synchronized void libraryVersionReceived(String version, Collection<URN> removed) {
+                LOG.debugf("library version of {0}: {1}, removed: {2}", friendPresence, version, removed);
+                this.version = version;
+                if(!started && removed != null) {
+                    started = true;
+                    this.removed = removed;
+                    changedList = new ArrayList<SearchResult>();
+                } else if(!started) {
+                    startFullBrowse();
+                }
+            }
+            
+            public synchronized void handleBrowseResult(SearchResult searchResult) {
                 LOG.debugf("browse result: {0}, {1}", searchResult.getUrn(), searchResult.getSize());
+                if(!started) {
+                    // the host doesn't version its library
+                    startFullBrowse();
+                }
                 RemoteFileDescAdapter remoteFileDescAdapter = (RemoteFileDescAdapter)searchResult;
                 // need to upgrade the RFD to be use the friendpresence.
                 remoteFileDescAdapter = new RemoteFileDescAdapter(remoteFileDescAdapter, friendPresence);
-                if(transitList != null) {
+                if(changedList != null) {
+                    changedList.add(remoteFileDescAdapter);
+                } else if(transitList != null) {
                     transitList.add(remoteFileDescAdapter);
                 } else {
                     presenceLibrary.addNewResult(remoteFileDescAdapter);
                 }
             }
             @Override
-            public void browseFinished(boolean success) {
-                if(transitList != null) {
+            public synchronized void browseFinished(boolean success) {
+                if(!started) {
+                    // no files and no version were received
+                    startFullBrowse();
+                }
+                if(changedList != null) {
+                    if(success) {
+                        LOG.debugf("Finished incremental browse of {0}, {1} changed, {2} removed",
+                                friendPresence, changedList.size(), removed.size());
+                        presenceLibrary.applyChanges(removed, changedList);
+                        presenceLibrary.setLibraryVersion(version);
+                    }
+                } else if(transitList != null) {
                     LOG.debugf("Finished browse of {0}, setting resulting files into existing list", friendPresence);
                     presenceLibrary.setNewResults(transitList);
                 } else {
                     LOG.debugf("Finished browse of {0}, no in-transit list.", friendPresence);
                 }
+                if(changedList == null) {
+                    // after a failed full browse the files may be incomplete
+                    presenceLibrary.setLibraryVersion(success ? version : null);
+                }
                 
                 if(success) {
                     presenceLibrary.setState(RemoteLibraryState.LOADED);
@@ -3,11 +3,14 @@ package org.limewire.core.impl.library;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.limewire.collection.MultiIterable;
 import org.limewire.collection.glazedlists.GlazedListsFactory;
+import org.limewire.core.api.URN;
 import org.limewire.core.api.library.FriendLibrary;
 import org.limewire.core.api.library.PresenceLibrary;
 import org.limewire.core.api.library.RemoteLibrary;
@@ -355,11 +358,26 @@ public class RemoteLibraryManagerImpl implements RemoteLibraryManager {
         }
     }
 
+    /**
+     * Keeps the results of a presence in the order they were browsed. Results
+     * removed by {@link #applyChanges(Collection, Collection)} leave a null
+     * behind, so that the indices of the other results, which the
+     * {@link FriendLibraries} index refers to, stay valid. Once there are
+     * more of these than {@link #MIN_COMPACTION_SIZE} and live results, the
+     * results are compacted by setting them anew.
+     */
     static class PresenceLibraryImpl implements PresenceLibrary {
 
+        private static final int MIN_COMPACTION_SIZE = 1000;
+        
         private final FriendPresence presence;
         private volatile RemoteLibraryState state = RemoteLibraryState.LOADING;
+        private volatile String libraryVersion;
         private final List<SearchResult> results = Collections.synchronizedList(new ArrayList<SearchResult>());
+        /**
+         * Number of non-null entries in {@link #results}, guarded by its lock.
+         */
+        private int liveResults = 0;
         private final EventListenerList<RemoteLibraryEvent> listeners = new EventListenerList<RemoteLibraryEvent>();
         private final List<AddOnlyListIterator> iterators = new ArrayList<AddOnlyListIterator>(2);
         
@@ -382,6 +400,7 @@ public class RemoteLibraryManagerImpl implements RemoteLibraryManager {
             synchronized (results) {
                 startIndex = results.size();
                 results.add(file);
+                liveResults++;
             }
             listeners.broadcast(RemoteLibraryEvent.createResultsAddedEvent(this, Collections.singleton(file), startIndex));
         }
@@ -393,14 +412,17 @@ public class RemoteLibraryManagerImpl implements RemoteLibraryManager {
             synchronized (results) {
                 startIndex = results.size();
                 results.addAll(files);
+                liveResults += files.size();
             }
             listeners.broadcast(RemoteLibraryEvent.createResultsAddedEvent(this, files, startIndex));
         }
         
         @Override
         public void clear() {
+            libraryVersion = null;
             synchronized (results) {
                 results.clear();
+                liveResults = 0;
                 for (AddOnlyListIterator iterator : iterators) {
                     iterator.cleared = true;
                 }
@@ -409,9 +431,84 @@ public class RemoteLibraryManagerImpl implements RemoteLibraryManager {
             listeners.broadcast(RemoteLibraryEvent.createResultsClearedEvent(this));
         }
 
+        @Override
+        public void applyChanges(Collection<URN> removed, Collection<SearchResult> changed) {
+            List<Integer> removedIndices = new ArrayList<Integer>();
+            List<Integer> replacedIndices = new ArrayList<Integer>();
+            List<SearchResult> replaced = new ArrayList<SearchResult>();
+            List<SearchResult> appended = new ArrayList<SearchResult>();
+            int startIndex;
+            List<SearchResult> compacted = null;
+            synchronized (results) {
+                Map<URN, Integer> indices = new HashMap<URN, Integer>(results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    SearchResult result = results.get(i);
+                    if (result != null) {
+                        indices.put(result.getUrn(), i);
+                    }
+                }
+                for (URN urn : removed) {
+                    Integer index = indices.remove(urn);
+                    if (index != null) {
+                        results.set(index, null);
+                        removedIndices.add(index);
+                        liveResults--;
+                    }
+                }
+                for (SearchResult result : changed) {
+                    Integer index = indices.get(result.getUrn());
+                    if (index != null) {
+                        results.set(index, result);
+                        removedIndices.add(index);
+                        replacedIndices.add(index);
+                        replaced.add(result);
+                    } else {
+                        appended.add(result);
+                    }
+                }
+                startIndex = results.size();
+                results.addAll(appended);
+                liveResults += appended.size();
+                if (results.size() - liveResults > Math.max(MIN_COMPACTION_SIZE, liveResults)) {
+                    compacted = new ArrayList<SearchResult>(liveResults);
+                    for (SearchResult result : results) {
+                        if (result != null) {
+                            compacted.add(result);
+                        }
+                    }
+                }
+            }
+            if (compacted != null) {
+                LOG.debugf("compacting results of {0}", presence);
+                setNewResults(compacted);
+                return;
+            }
+            if (!removedIndices.isEmpty()) {
+                listeners.broadcast(RemoteLibraryEvent.createResultsRemovedEvent(this, removedIndices));
+            }
+            for (int i = 0; i < replaced.size(); i++) {
+                listeners.broadcast(RemoteLibraryEvent.createResultsAddedEvent(this, Collections.singleton(replaced.get(i)), replacedIndices.get(i)));
+            }
+            if (!appended.isEmpty()) {
+                listeners.broadcast(RemoteLibraryEvent.createResultsAddedEvent(this, appended, startIndex));
+            }
+        }
+
         @Override
         public int size() {
-            return results.size();
+            synchronized (results) {
+                return liveResults;
+            }
+        }
+        
+        @Override
+        public String getLibraryVersion() {
+            return libraryVersion;
+        }
+        
+        @Override
+        public void setLibraryVersion(String version) {
+            this.libraryVersion = version;
         }
 
         @Override
@@ -446,8 +543,12 @@ public class RemoteLibraryManagerImpl implements RemoteLibraryManager {
             
             private void setNext() {
                 synchronized (results) {
-                    next = currentIndex < results.size() ? results.get(currentIndex) : null;
-                    ++currentIndex;
+                    // skip the results removed by applyChanges
+                    next = null;
+                    while (next == null && currentIndex < results.size()) {
+                        next = results.get(currentIndex);
+                        ++currentIndex;
+                    }
                 }
             }
             
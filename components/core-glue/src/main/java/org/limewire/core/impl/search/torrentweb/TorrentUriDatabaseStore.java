@@ -9,7 +9,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -127,6 +130,16 @@ public class TorrentUriDatabaseStore implements TorrentUriStore, TorrentRobotsTx
         getStore().setIsTorrentUri(uri, isTorrent);
     }
 
+    @Override
+    public Map<URI, Boolean> getTorrentUriValues(Collection<URI> uris) {
+        return getStore().getTorrentUriValues(uris);
+    }
+    
+    @Override
+    public void setIsTorrentUris(Map<URI, Boolean> isTorrent) {
+        getStore().setIsTorrentUris(isTorrent);
+    }
+
     @Override
     public String getRobotsTxt(String host) {
         return getStore().getRobotsTxt(host);
@@ -255,6 +268,48 @@ public class TorrentUriDatabaseStore implements TorrentUriStore, TorrentRobotsTx
             return value == null ? false : value.booleanValue();
         }
         
+        @Override
+        public synchronized Map<URI, Boolean> getTorrentUriValues(Collection<URI> uris) {
+            Map<URI, Boolean> values = new HashMap<URI, Boolean>();
+            for (URI uri : uris) {
+                Boolean value = getTorrentUriValue(uri);
+                if (value != null) {
+                    values.put(uri, value);
+                }
+            }
+            return values;
+        }
+        
+        /**
+         * Writes all values in a single transaction, which is rolled back
+         * if any of them can't be written. 
+         */
+        @Override
+        public synchronized void setIsTorrentUris(Map<URI, Boolean> isTorrent) {
+            try {
+                connection.setAutoCommit(false);
+                boolean committed = false;
+                try {
+                    for (Map.Entry<URI, Boolean> entry : isTorrent.entrySet()) {
+                        setIsTorrentUri(entry.getKey(), entry.getValue());
+                    }
+                    connection.commit();
+                    committed = true;
+                } finally {
+                    try {
+                        // restoring auto-commit would commit the partial batch
+                        if (!committed) {
+                            connection.rollback();
+                        }
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
         @Override
         public synchronized void setIsTorrentUri(URI uri, boolean isTorrentUri) {
             try {
@@ -330,6 +385,10 @@ public class TorrentUriDatabaseStore implements TorrentUriStore, TorrentRobotsTx
             if (robotsTxt.length() > TorrentRobotsTxtStore.MAX_ROBOTS_TXT_SIZE) {
                 throw new IllegalArgumentException("robots txt too large: " + robotsTxt);
             }
+            if (getRobotsTxt(host) != null) {
+                // stored concurrently by another search
+                return;
+            }
             try {
                 insertRobotsTxt.setString(1, host);
                 insertRobotsTxt.setString(2, robotsTxt);
@@ -2,6 +2,7 @@ package org.limewire.core.impl.search.torrentweb;
 
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Prioritizes a list of uris by their likelihood of being a torrent uri.
@@ -18,4 +19,9 @@ public interface TorrentUriPrioritizer {
      * the prioritizer to learn and get better at prioritzing 
      */
     void setIsTorrent(URI uri, boolean isTorrent);
+    /**
+     * Marks several uris as torrent uris or not at once, see 
+     * {@link #setIsTorrent(URI, boolean)}.
+     */
+    void setIsTorrent(Map<URI, Boolean> isTorrent);
 }
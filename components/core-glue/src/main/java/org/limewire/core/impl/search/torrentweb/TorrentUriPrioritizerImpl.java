@@ -4,9 +4,11 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -65,6 +67,18 @@ public class TorrentUriPrioritizerImpl implements TorrentUriPrioritizer {
 
     private final TorrentUriStore torrentUriStore;
     
+    /**
+     * Known torrent and non-torrent uris among the candidates being
+     * prioritized, looked up in one go from <code>torrentUriStore</code>.
+     */
+    private Map<URI, Boolean> knownUris = Collections.emptyMap();
+    
+    /**
+     * Canonicalized torrent uris of the hosts of the candidates being
+     * prioritized, so the store is only queried once per host.
+     */
+    private final Map<String, Set<URI>> torrentUrisByHost = new HashMap<String, Set<URI>>();
+    
     @Inject
     public TorrentUriPrioritizerImpl(@Assisted URI referrer, @Assisted String query,
             TorrentUriStore torrentUriStore) {
@@ -78,6 +92,8 @@ public class TorrentUriPrioritizerImpl implements TorrentUriPrioritizer {
     public List<URI> prioritize(List<URI> candidates) {
         // remove duplicates
         candidates = uniquify(candidates);
+        knownUris = torrentUriStore.getTorrentUriValues(candidates);
+        torrentUrisByHost.clear();
         // remove known non torrent uris
         int size = candidates.size();
         candidates = filter(candidates, new NotTorrentUriPredicate());
@@ -131,24 +147,46 @@ public class TorrentUriPrioritizerImpl implements TorrentUriPrioritizer {
     public void setIsTorrent(URI uri, boolean isTorrent) {
         torrentUriStore.setIsTorrentUri(uri, isTorrent);
         if (isTorrent) {
-            String host = org.limewire.util.URIUtils.getCanonicalHost(uri);
-            String path = uri.getPath();
-            if (host == null || path == null) {
-                LOG.debugf("host or path null {0}, {1}", host, path);
-                return;
+            addCanonicalTorrentUri(uri);
+        }
+    }
+    
+    @Override
+    public void setIsTorrent(Map<URI, Boolean> isTorrent) {
+        if (isTorrent.isEmpty()) {
+            return;
+        }
+        torrentUriStore.setIsTorrentUris(isTorrent);
+        for (Map.Entry<URI, Boolean> entry : isTorrent.entrySet()) {
+            if (entry.getValue()) {
+                addCanonicalTorrentUri(entry.getKey());
             }
-            List<String> tokens = tokenize(path);
-            String canonicalPath = "/" + StringUtils.explode(tokens, "/");
-            uri = URIUtils.resolve(uri, canonicalPath);
-            LOG.debugf("canonicalized uri: {0}", uri);
-            torrentUriStore.addCanonicalTorrentUri(host, uri);
         }
     }
     
+    private void addCanonicalTorrentUri(URI uri) {
+        String host = org.limewire.util.URIUtils.getCanonicalHost(uri);
+        String path = uri.getPath();
+        if (host == null || path == null) {
+            LOG.debugf("host or path null {0}, {1}", host, path);
+            return;
+        }
+        List<String> tokens = tokenize(path);
+        String canonicalPath = "/" + StringUtils.explode(tokens, "/");
+        uri = URIUtils.resolve(uri, canonicalPath);
+        LOG.debugf("canonicalized uri: {0}", uri);
+        torrentUriStore.addCanonicalTorrentUri(host, uri);
+    }
+    
     Set<URI> getTorrentUrisForDomain(URI uri) {
         String host = org.limewire.util.URIUtils.getCanonicalHost(uri);
         if (host != null) {
-           return torrentUriStore.getTorrentUrisForHost(host);
+            Set<URI> uris = torrentUrisByHost.get(host);
+            if (uris == null) {
+                uris = torrentUriStore.getTorrentUrisForHost(host);
+                torrentUrisByHost.put(host, uris);
+            }
+            return uris;
         }
         return Collections.emptySet();
     }
@@ -249,7 +287,7 @@ public class TorrentUriPrioritizerImpl implements TorrentUriPrioritizer {
     private class IsTorrentUriPredicate implements Predicate<URI> {
         @Override
         public boolean apply(URI uri) {
-            return torrentUriStore.isTorrentUri(uri);
+            return Boolean.TRUE.equals(knownUris.get(uri));
         }
     }
     
@@ -299,7 +337,7 @@ public class TorrentUriPrioritizerImpl implements TorrentUriPrioritizer {
     private class NotTorrentUriPredicate implements Predicate<URI> {
         @Override
         public boolean apply(URI uri) {
-            return !torrentUriStore.isNotTorrentUri(uri);
+            return !Boolean.FALSE.equals(knownUris.get(uri));
         }
     }
     
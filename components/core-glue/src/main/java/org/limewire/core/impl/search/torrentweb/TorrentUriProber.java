@@ -0,0 +1,122 @@
+package org.limewire.core.impl.search.torrentweb;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.logging.Log;
+import org.limewire.logging.LogFactory;
+import org.limewire.util.URIUtils;
+
+import com.google.inject.Singleton;
+
+/**
+ * Runs the http requests of all torrent web searches concurrently on a
+ * small thread pool, while making sure no more than
+ * {@link #MAX_REQUESTS_PER_HOST} requests run against the same host at once.
+ * <p>
+ * Tasks for a host that is busy are queued and run in the order they were
+ * submitted once a request to that host completes.
+ */
+@Singleton
+class TorrentUriProber {
+
+    private static final Log LOG = LogFactory.getLog(TorrentUriProber.class);
+
+    /**
+     * Maximum number of concurrent requests over all hosts.
+     */
+    private static final int MAX_REQUESTS = 8;
+
+    /**
+     * Maximum number of concurrent requests to a single host.
+     */
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+
+    private final Executor executor = ExecutorsHelper.newFixedSizeThreadPool(MAX_REQUESTS, "TorrentUriProber");
+
+    /**
+     * Hosts with running requests, guarded by itself.
+     */
+    private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+
+    /**
+     * Runs <code>task</code>, which will make requests to the host of
+     * <code>uri</code>, as soon as that host has a free slot.
+     */
+    void submit(URI uri, Runnable task) {
+        String host = URIUtils.getCanonicalHost(uri);
+        if (host == null) {
+            host = "";
+        }
+        synchronized (hosts) {
+            HostQueue queue = hosts.get(host);
+            if (queue == null) {
+                queue = new HostQueue(host);
+                hosts.put(host, queue);
+            }
+            if (queue.active >= MAX_REQUESTS_PER_HOST) {
+                LOG.debugf("host busy, queueing: {0}", uri);
+                queue.pending.add(task);
+                return;
+            }
+            queue.active++;
+            executor.execute(new HostTask(queue, task));
+        }
+    }
+
+    /**
+     * Called when a task for the host of <code>queue</code> finished, runs
+     * the next pending task for the host or frees its slot.
+     */
+    private void taskFinished(HostQueue queue) {
+        synchronized (hosts) {
+            Runnable next = queue.pending.poll();
+            if (next != null) {
+                executor.execute(new HostTask(queue, next));
+                return;
+            }
+            if (--queue.active == 0) {
+                hosts.remove(queue.host);
+            }
+        }
+    }
+
+    private static class HostQueue {
+
+        private final String host;
+
+        private final Queue<Runnable> pending = new LinkedList<Runnable>();
+
+        private int active = 0;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+    }
+
+    private class HostTask implements Runnable {
+
+        private final HostQueue queue;
+
+        private final Runnable task;
+
+        HostTask(HostQueue queue, Runnable task) {
+            this.queue = queue;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                taskFinished(queue);
+            }
+        }
+    }
+}
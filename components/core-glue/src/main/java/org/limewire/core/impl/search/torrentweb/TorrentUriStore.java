@@ -1,6 +1,8 @@
 package org.limewire.core.impl.search.torrentweb;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -20,6 +22,17 @@ public interface TorrentUriStore {
      * Marks <code>uri</code> as torrent or non-torrent. 
      */
     void setIsTorrentUri(URI uri, boolean isTorrent);
+    /**
+     * Looks up several uris at once.
+     * 
+     * @return map of the uris of <code>uris</code> that are known to point
+     * or not point to a torrent to whether they do
+     */
+    Map<URI, Boolean> getTorrentUriValues(Collection<URI> uris);
+    /**
+     * Marks several uris as torrent or non-torrent at once.
+     */
+    void setIsTorrentUris(Map<URI, Boolean> isTorrent);
     /**
      * @return set of canoncicalized torrent uris for <code>host</code> or empty
      * set if there are none
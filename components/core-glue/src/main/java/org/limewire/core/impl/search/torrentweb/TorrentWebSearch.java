@@ -8,9 +8,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -43,6 +47,8 @@ import org.limewire.http.httpclient.LimeHttpClient;
 import org.limewire.io.IOUtils;
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.statistic.MetricsRegistry;
 import org.limewire.util.FileUtils;
 import org.limewire.util.URIUtils;
 
@@ -59,6 +65,10 @@ import com.limegroup.gnutella.xml.LimeXMLDocument;
 
 /**
  * Performs a websearch for torrents.
+ * <p>
+ * The pages of the web search results and the torrent uri candidates found
+ * on them are requested concurrently through {@link TorrentUriProber}, until
+ * the search is stopped or {@link #MAX_RESULTS} torrents were found.
  */
 public class TorrentWebSearch implements Search {
     
@@ -72,6 +82,10 @@ public class TorrentWebSearch implements Search {
      * Conent type of html files.
      */
     private static final String HTML_CONTENT_TYPE = "text/html";
+    /**
+     * Number of results after which no more pages and candidates are probed.
+     */
+    private static final int MAX_RESULTS = 20;
     
     private final HttpExecutor httpExecutor;
     /**
@@ -95,10 +109,27 @@ public class TorrentWebSearch implements Search {
 
     private final TorrentRobotsTxt torrentRobotsTxt;
     
+    private final TorrentUriProber torrentUriProber;
+    
     private volatile boolean stopped = false;
     
     private volatile SearchListener searchListener;
     
+    /**
+     * Number of results handed to the search listener.
+     */
+    private final AtomicInteger resultCount = new AtomicInteger();
+    
+    /**
+     * The time the search was started, in nanoseconds.
+     */
+    private volatile long startTime;
+    
+    /**
+     * Times from starting a search to its first result.
+     */
+    private final LatencyHistogram firstResultTimes;
+    
     @Inject
     public TorrentWebSearch(HttpExecutor httpExecutor, Provider<LimeHttpClient> httpClient,
             TorrentUriPrioritizerFactory torrentUriPrioritizerFactory,
@@ -106,7 +137,9 @@ public class TorrentWebSearch implements Search {
             TorrentFactory torrentFactory,
             @Assisted String query,
             FilterFactory responseFilterFactory,
-            TorrentRobotsTxt torrentRobotsTxt) {
+            TorrentRobotsTxt torrentRobotsTxt,
+            TorrentUriProber torrentUriProber,
+            MetricsRegistry metrics) {
         this.httpExecutor = httpExecutor;
         this.httpClient = httpClient;
         this.torrentUriPrioritizerFactory = torrentUriPrioritizerFactory;
@@ -114,7 +147,9 @@ public class TorrentWebSearch implements Search {
         this.torrentFactory = torrentFactory;
         this.query = query;
         this.torrentRobotsTxt = torrentRobotsTxt;
+        this.torrentUriProber = torrentUriProber;
         this.filter = responseFilterFactory.createResultFilter();
+        this.firstResultTimes = metrics.getHistogram("torrentweb.result.first");
     }
     
     @Inject
@@ -124,6 +159,7 @@ public class TorrentWebSearch implements Search {
 
     @Override
     public void start() {
+        startTime = System.nanoTime();
         try {
             HttpGet get = new HttpGet(MessageFormat.format(searchUriTemplate, URIUtils.encodeUriComponent(query)));
             get.addHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
@@ -177,7 +213,7 @@ public class TorrentWebSearch implements Search {
                         SearchResult result = new TorrentWebSearchResult(torrentData, referrer, torrentFile, torrent);
                         if (filter.allow(result, xmlDocument)) {
                             LOG.debugf("result accepted: {0}", torrent);
-                            searchListener.handleSearchResult(this, result);
+                            handleSearchResult(result);
                         } else{
                             LOG.debugf("result rejected: {0}", torrent);
                         }
@@ -193,6 +229,35 @@ public class TorrentWebSearch implements Search {
         }
     }
     
+    /**
+     * Hands a result to the search listener unless the search was stopped or
+     * has enough results already.
+     */
+    private void handleSearchResult(SearchResult result) {
+        SearchListener listener = searchListener;
+        if (stopped || listener == null) {
+            LOG.debug("stopped, dropping result");
+            return;
+        }
+        int results = resultCount.incrementAndGet();
+        if (results > MAX_RESULTS) {
+            LOG.debug("enough results, dropping result");
+            return;
+        }
+        if (results == 1) {
+            firstResultTimes.record(System.nanoTime() - startTime);
+        }
+        listener.handleSearchResult(this, result);
+    }
+    
+    /**
+     * Returns true if the search was stopped or found enough results, in
+     * which case no more requests are made for it.
+     */
+    private boolean isDone() {
+        return stopped || resultCount.get() >= MAX_RESULTS;
+    }
+    
     boolean matchesQuery(LimeXMLDocument xmlDocument) {
         Set<String> queryTokens = QueryUtils.extractKeywords(query, true);
         for (Entry<String, String> entry : xmlDocument.getNameValueSet()) {
@@ -212,31 +277,40 @@ public class TorrentWebSearch implements Search {
         return FileUtils.getFileExtension(file).equals("html");
     }
          
-    private void handleGoogleResults(List<URI> uris, String query) {
+    private void handleGoogleResults(List<URI> uris, final String query) {
         LOG.debugf("results: {0}", uris);
-        for (URI uri : uris) {
-            if (stopped) {
-                LOG.debug("stopping");
-                break;
-            }
-            if (!torrentRobotsTxt.isAllowed(uri)) {
-                LOG.debugf("not allowed by robots.txt {0}", uri);
-                continue;
-            }
-            File file = getContent(uri);
-            if (file == null) {
-                continue;
-            }
-            if (isTorrentFile(file)) {
-                handleTorrentResult(file, uri, null);
-            } else if (isHtmlFile(file)) {
-                try {
-                    List<URI> candidates = extractTorrentUriCandidates(file, uri);
-                    TorrentUriPrioritizer prioritizer = torrentUriPrioritizerFactory.create(query, uri);
-                    checkForTorrents(prioritizer.prioritize(candidates), prioritizer, uri);
-                } catch (IOException e) {
-                    LOG.debug("error parsing html", e);
+        for (final URI uri : uris) {
+            torrentUriProber.submit(uri, new Runnable() {
+                @Override
+                public void run() {
+                    handleGoogleResult(uri, query);
                 }
+            });
+        }
+    }
+    
+    private void handleGoogleResult(URI uri, String query) {
+        if (isDone()) {
+            LOG.debug("stopping");
+            return;
+        }
+        if (!torrentRobotsTxt.isAllowed(uri)) {
+            LOG.debugf("not allowed by robots.txt {0}", uri);
+            return;
+        }
+        File file = getContent(uri);
+        if (file == null) {
+            return;
+        }
+        if (isTorrentFile(file)) {
+            handleTorrentResult(file, uri, null);
+        } else if (isHtmlFile(file)) {
+            try {
+                List<URI> candidates = extractTorrentUriCandidates(file, uri);
+                TorrentUriPrioritizer prioritizer = torrentUriPrioritizerFactory.create(query, uri);
+                checkForTorrents(prioritizer.prioritize(candidates), prioritizer, uri);
+            } catch (IOException e) {
+                LOG.debug("error parsing html", e);
             }
         }
     }
@@ -276,34 +350,23 @@ public class TorrentWebSearch implements Search {
         return candidates;
     }
     
+    /**
+     * Checks the prioritized candidates of a page concurrently, the first 
+     * candidate that turns out to be a torrent is the result for the page. 
+     */
     private void checkForTorrents(List<URI> candidates, TorrentUriPrioritizer prioritizer,
             URI referrer) {
-        int count = 0;
-        for (URI uri : candidates) {
-            if (stopped) {
-                LOG.debug("stopping");
-                break;
-            }
-            if (!torrentRobotsTxt.isAllowed(uri)) {
-                LOG.debugf("not allowed by robots.txt: {0}", uri);
-                continue;
-            }
-            ++count;
-            try {
-                if (isTorrent(uri)) {
-                    LOG.debugf("found torrent after {0} checks", count);
-                    prioritizer.setIsTorrent(uri, true);
-                    File file = getContent(uri);
-                    if (file != null && isTorrentFile(file)) {
-                        handleTorrentResult(file, uri, referrer);
-                        break;
-                    }
-                } else {
-                    prioritizer.setIsTorrent(uri, false);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        final CandidateCheck check = new CandidateCheck(candidates.size(), prioritizer, referrer);
+        for (final URI uri : candidates) {
+            torrentUriProber.submit(uri, new Runnable() {
+                @Override
+                public void run() {
+                    check.check(uri);
                 }
-            } catch (IOException ie) {
-                LOG.debugf(ie, "couldn't head {0}", uri);
-            }
+            });
         }
     }
     
@@ -394,6 +457,79 @@ public class TorrentWebSearch implements Search {
         return null;
     }
 
+    /**
+     * Checks the torrent uri candidates of one page. Stops checking once a
+     * torrent was found and stores what was learned about the candidates in
+     * one batch when all checks are done.
+     */
+    private class CandidateCheck {
+        
+        private final TorrentUriPrioritizer prioritizer;
+        
+        private final URI referrer;
+        
+        /**
+         * Number of candidates that still need to be checked or skipped. 
+         */
+        private final AtomicInteger remaining;
+        
+        private final AtomicInteger count = new AtomicInteger();
+        
+        private final AtomicBoolean found = new AtomicBoolean(false);
+        
+        /**
+         * Whether the checked candidates are torrents, guarded by itself. 
+         */
+        private final Map<URI, Boolean> isTorrent = new HashMap<URI, Boolean>();
+
+        public CandidateCheck(int candidates, TorrentUriPrioritizer prioritizer, URI referrer) {
+            this.remaining = new AtomicInteger(candidates);
+            this.prioritizer = prioritizer;
+            this.referrer = referrer;
+        }
+        
+        void check(URI uri) {
+            try {
+                if (isDone()) {
+                    LOG.debug("stopping");
+                    return;
+                }
+                if (found.get()) {
+                    return;
+                }
+                if (!torrentRobotsTxt.isAllowed(uri)) {
+                    LOG.debugf("not allowed by robots.txt: {0}", uri);
+                    return;
+                }
+                int checks = count.incrementAndGet();
+                boolean torrent = isTorrent(uri);
+                synchronized (isTorrent) {
+                    isTorrent.put(uri, torrent);
+                }
+                if (torrent && found.compareAndSet(false, true)) {
+                    LOG.debugf("found torrent after {0} checks", checks);
+                    File file = getContent(uri);
+                    if (file != null && isTorrentFile(file)) {
+                        handleTorrentResult(file, uri, referrer);
+                    } else {
+                        // let the other candidates have a go
+                        found.set(false);
+                    }
+                }
+            } catch (IOException ie) {
+                LOG.debugf(ie, "couldn't head {0}", uri);
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    Map<URI, Boolean> checked;
+                    synchronized (isTorrent) {
+                        checked = new HashMap<URI, Boolean>(isTorrent);
+                    }
+                    prioritizer.setIsTorrent(checked);
+                }
+            }
+        }
+    }
+
     private class GoogleJsonResponseHandler implements HttpClientListener {
 
         private final String query;
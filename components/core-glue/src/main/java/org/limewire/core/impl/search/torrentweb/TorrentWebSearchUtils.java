@@ -4,11 +4,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
-import java.util.Map;
 
 import org.limewire.bittorrent.BTData;
 import org.limewire.bittorrent.BTDataImpl;
-import org.limewire.bittorrent.bencoding.Token;
 import org.limewire.io.IOUtils;
 
 public class TorrentWebSearchUtils {
@@ -22,12 +20,7 @@ public class TorrentWebSearchUtils {
         try {
             fis = new FileInputStream(torrentFile);
             fileChannel = fis.getChannel();
-            Object obj = Token.parse(fileChannel);
-            if (obj instanceof Map) {
-                BTDataImpl torrentData = new BTDataImpl((Map)obj);
-                torrentData.clearPieces();
-                return torrentData;
-            }
+            return BTDataImpl.read(fileChannel, false);
         } catch (IOException ie) {
             // TODO log
         } finally {
@@ -318,6 +318,14 @@ public final class ConnectionSettings extends LimeProps {
     public static final IntSetting BOOTSTRAP_DELAY = FACTORY.createRemoteIntSetting(
             "BOOTSTRAP_DELAY", 20000);
 
+    /**
+     * Delay in milliseconds between starting the parallel connection attempts
+     * of the connection fetchers, so the most promising hosts get a head
+     * start and the others are not tried if they win.
+     */
+    public static final IntSetting CONNECT_STAGGER = FACTORY.createRemoteIntSetting(
+            "CONNECT_STAGGER", 100);
+
     /**
      * Time in milliseconds to delay prior to flushing data on peer -> peer.
      * connections.
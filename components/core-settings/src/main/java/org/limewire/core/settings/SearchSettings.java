@@ -295,6 +295,13 @@ public final class SearchSettings extends LimeProps {
     public static final BooleanSetting OOB_IGNORE_EXCESS_RESULTS = FACTORY
             .createRemoteBooleanSetting("OOB_IGNORE_EXCESS_RESULTS", true);
 
+    /**
+     * The maximum number of OOB sessions to keep track of. Results offered
+     * while this many sessions are open are not requested.
+     */
+    public static final IntSetting MAX_OOB_SESSIONS = FACTORY.createRemoteIntSetting(
+            "MAX_OOB_SESSIONS", 4096);
+
     /**
      * Minimum success rate for attempting OOB occasionally (percentage).
      */
@@ -8,7 +8,6 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 import org.apache.http.HttpEntity;
@@ -21,7 +20,6 @@ import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.limewire.bittorrent.BTData;
 import org.limewire.bittorrent.BTDataImpl;
-import org.limewire.bittorrent.bencoding.Token;
 import org.limewire.core.api.download.DownloadException;
 import org.limewire.core.api.download.DownloadPiecesInfo;
 import org.limewire.core.api.download.SaveLocationManager;
@@ -138,8 +136,7 @@ public class BTTorrentFileDownloaderImpl extends AbstractCoreDownloader implemen
             FileUtils.write(torrentDownloadStream, torrentOutputStream);
             torrentInputStream = new FileInputStream(incompleteTorrentFile);
             torrentOutputStream.close();
-            Map<?, ?> torrentFileMap = (Map<?, ?>) Token.parse(torrentInputStream.getChannel());
-            BTData btData = new BTDataImpl(torrentFileMap);
+            BTData btData = BTDataImpl.read(torrentInputStream.getChannel(), false);
             try {
                 if (virusScanner.isEnabled() &&
                         virusScanner.isInfected(incompleteTorrentFile)) {
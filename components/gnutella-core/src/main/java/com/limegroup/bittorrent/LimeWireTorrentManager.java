@@ -8,7 +8,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
@@ -25,7 +24,6 @@ import org.limewire.bittorrent.TorrentManagerSettings;
 import org.limewire.bittorrent.TorrentParams;
 import org.limewire.bittorrent.TorrentStatus;
 import org.limewire.bittorrent.TorrentTrackerScraper.ScrapeCallback;
-import org.limewire.bittorrent.bencoding.Token;
 import org.limewire.core.settings.BittorrentSettings;
 import org.limewire.core.settings.ConnectionSettings;
 import org.limewire.core.settings.SharingSettings;
@@ -536,8 +534,7 @@ public class LimeWireTorrentManager implements TorrentManager, Service {
         FileInputStream torrentInputStream = null;
         try {
             torrentInputStream = new FileInputStream(torrentFile);
-            Map<?, ?> torrentFileMap = (Map<?, ?>) Token.parse(torrentInputStream.getChannel());
-            btData = new BTDataImpl(torrentFileMap);
+            btData = BTDataImpl.read(torrentInputStream.getChannel(), false);
         } catch (IOException e) {
             LOG.error("Error reading torrent file: " + torrentFile, e);
             return false;
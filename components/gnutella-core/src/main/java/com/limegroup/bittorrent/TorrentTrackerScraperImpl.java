@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.Channels;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -27,7 +30,6 @@ import org.limewire.util.StringUtils;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.name.Named;
-import com.limegroup.gnutella.http.HTTPHeaderName;
 import com.limegroup.gnutella.http.HttpClientListener;
 import com.limegroup.gnutella.http.HttpExecutor;
 import com.limegroup.gnutella.util.LimeWireUtils;
@@ -35,7 +37,10 @@ import com.limegroup.gnutella.util.LimeWireUtils;
 /**
  * Reimplementation of libtorrents scrape code in java that detaches if 
  *  from the torrent manager control logic.  This class does not perform any scheduling.
- *  Each request will open a new socket.  For usage in batch jobs look to TorrentScrapeScheduler.
+ *  Several torrents of the same tracker can be scraped with one request, and
+ *  connections are kept alive after successful requests so they can be reused
+ *  by the next request to the same tracker.  For usage in batch jobs look to 
+ *  TorrentScrapeScheduler.
  *  
  * <p> Only supports HTTP scrape right now but UDP scrape is possible
  *      TODO: decouple udp_tracker_connection::send_udp_scrape()
@@ -78,8 +83,40 @@ public class TorrentTrackerScraperImpl implements TorrentTrackerScraper {
      *          connection was supported.
      */
     @Override
-    public RequestShutdown submitScrape(URI trackerAnnounceUri, String urn,
+    public RequestShutdown submitScrape(URI trackerAnnounceUri, final String urn,
             final ScrapeCallback callback) {
+        
+        return submitScrape(trackerAnnounceUri, Collections.singleton(urn), 
+                new BatchScrapeCallback() {
+            @Override
+            public void success(Map<String, TorrentScrapeData> data, Map<String, String> errors) {
+                TorrentScrapeData torrentData = data.get(urn);
+                if (torrentData != null) {
+                    callback.success(torrentData);
+                } else if (errors.containsKey(urn)) {
+                    callback.failure(errors.get(urn));
+                } else {
+                    callback.failure("torrent not found in scrape results");
+                }
+            }
+            @Override
+            public void failure(String reason) {
+                callback.failure(reason);
+            }
+        });
+    }
+    
+    /**
+     * Submit a single scrape request for several torrents tracked by the same
+     *  tracker.  The connection is kept alive so following scrapes of the same
+     *  tracker can reuse it. 
+     *
+     * @return the shutdownable for the connection, or null if no 
+     *          connection was supported.
+     */
+    @Override
+    public RequestShutdown submitScrape(URI trackerAnnounceUri, Collection<String> urns,
+            final BatchScrapeCallback callback) {
 
         if (!SearchSettings.USE_TORRENT_SCRAPER.get()) {
             LOG.debugf("scraping has been disabled");
@@ -95,20 +132,32 @@ public class TorrentTrackerScraperImpl implements TorrentTrackerScraper {
             return null;
         }
         
+        if (urns.isEmpty() || urns.size() > MAX_URNS_PER_SCRAPE) {
+            throw new IllegalArgumentException("invalid number of urns: " + urns.size());
+        }
+        
+        // The info hashes as they appear as keys in the results 
+        final Map<String, String> infoHashes = new HashMap<String, String>();
+        
         URI uri;
         try {
-            uri = createScrapingRequest(trackerAnnounceUri, urn);
+            for (String urn : urns) {
+                infoHashes.put(StringUtils.getASCIIString(StringUtils.fromHexString(urn)), urn);
+            }
+            uri = createScrapingRequest(trackerAnnounceUri, urns);
         } catch (URISyntaxException e) {
             LOG.debugf("no valid URI could be created from the URN and announce URI so giving up");
             
             // URI could not be generated for the scrape request so don't try
             return null;
+        } catch (IllegalArgumentException e) {
+            LOG.debugf("invalid urn so giving up");
+            return null;
         }
 
         final HttpGet get = new HttpGet(uri);
 
         get.addHeader("User-Agent", LimeWireUtils.getHttpServer());
-        get.addHeader(HTTPHeaderName.CONNECTION.httpStringValue(),"close");
         HttpParams params = new BasicHttpParams();
         HttpConnectionParams.setConnectionTimeout(params, HTTP_TIMEOUT);
         HttpConnectionParams.setSoTimeout(params, HTTP_TIMEOUT);
@@ -126,52 +175,23 @@ public class TorrentTrackerScraperImpl implements TorrentTrackerScraper {
             @Override
             public boolean requestComplete(HttpUriRequest request, HttpResponse response) {
 
+                Map<String, TorrentScrapeData> results = null;
+                Map<String, String> errors = new HashMap<String, String>();
                 try {
-                    HttpEntity entity = response.getEntity();
-
-                    Object decoded = null;
-                    try {
-                        decoded = Token.parse(Channels.newChannel(entity.getContent()), "UTF-8");
-                    } catch (IOException e) {
-                        callback.failure(e.getMessage());
-                        return false;
-                    }
-
-                    if(decoded == null || !(decoded instanceof Map<?,?>)) {
-                        callback.failure("no scrape data in results downloaded");
-                        return false;
-                    }
-
-                    Map<?,?> baseMap = (Map) decoded;
-
-                    Object filesElement = baseMap.get("files");
-
-                    if (!(filesElement instanceof Map<?,?>)) {
-                        callback.failure("scrape results had bad structure");
-                        return false;
-                    }
-
-                    Map<?,?> torrentsMap = (Map) filesElement;
-
-                    if (torrentsMap.size() != 1) {
-                        callback.failure("wrong number of elements in scrape results");
-                        return false;
-                    }
-
-
-                    TorrentScrapeData data = parseResponseMap(torrentsMap.entrySet().iterator().next().getValue());
-                    
-                    if (data != null) {
-                        callback.success(data);
+                    results = parseResponse(response, infoHashes, errors, callback);
+                } finally {
+                    if (results != null) {
+                        // Leave the connection open for the next request
+                        httpExecutor.releaseResources(response);
                     } else {
-                        callback.failure("Could not correctly parse the files entry of the scrape return");
+                        // Ensure the connection is closed
+                        get.abort();
                     }
-
-                } finally {
-                    // Ensure the connection is closed
-                    get.abort();
                 }
                 
+                if (results != null) {
+                    callback.success(results, errors);
+                }
                 return false;
             }
 
@@ -189,6 +209,91 @@ public class TorrentTrackerScraperImpl implements TorrentTrackerScraper {
         };
     }
     
+    /**
+     * Parses the scrape data of the requested torrents out of the response.
+     * 
+     * @param infoHashes the urns of the requested torrents keyed by their
+     *          info hash decoded as ISO-8859-1
+     * @param errors receives the reasons for the torrents that were answered
+     *          with an error or malformed data, keyed by urn
+     * @return the scrape data keyed by urn or null if the response was not 
+     *          well formed, in which case the callback has been notified
+     */
+    private static Map<String, TorrentScrapeData> parseResponse(HttpResponse response, 
+            Map<String, String> infoHashes, Map<String, String> errors, 
+            BatchScrapeCallback callback) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            callback.failure("no scrape data in results downloaded");
+            return null;
+        }
+
+        Object decoded = null;
+        try {
+            // Keys are binary info hashes, ISO-8859-1 maps them to chars 1:1
+            decoded = Token.parse(Channels.newChannel(entity.getContent()), "ISO-8859-1");
+        } catch (IOException e) {
+            callback.failure(e.getMessage());
+            return null;
+        }
+
+        if(decoded == null || !(decoded instanceof Map<?,?>)) {
+            callback.failure("no scrape data in results downloaded");
+            return null;
+        }
+
+        Map<?,?> baseMap = (Map) decoded;
+
+        Object filesElement = baseMap.get("files");
+
+        if (!(filesElement instanceof Map<?,?>)) {
+            callback.failure("scrape results had bad structure");
+            return null;
+        }
+
+        Map<?,?> torrentsMap = (Map) filesElement;
+        Map<String, TorrentScrapeData> results = new HashMap<String, TorrentScrapeData>();
+        
+        if (infoHashes.size() == 1 && torrentsMap.size() == 1) {
+            // Some trackers mangle the key, so accept any single entry
+            //  for a single torrent
+            parseEntry(infoHashes.values().iterator().next(), 
+                    torrentsMap.values().iterator().next(), results, errors);
+        } else {
+            for (Map.Entry<?,?> entry : torrentsMap.entrySet()) {
+                String urn = infoHashes.get(entry.getKey());
+                if (urn != null) {
+                    parseEntry(urn, entry.getValue(), results, errors);
+                }
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Parses the entry the tracker returned for a single torrent into 
+     *  either its scrape data or the reason it could not be scraped.
+     */
+    private static void parseEntry(String urn, Object entry, 
+            Map<String, TorrentScrapeData> results, Map<String, String> errors) {
+        
+        if (entry instanceof Map<?,?>) {
+            Object failureReason = ((Map) entry).get("failure reason");
+            if (failureReason instanceof String) {
+                errors.put(urn, (String)failureReason);
+                return;
+            }
+        }
+        
+        TorrentScrapeData data = parseResponseMap(entry);
+        if (data != null) {
+            results.put(urn, data);
+        } else {
+            errors.put(urn, "torrent scrape data was malformed");
+        }
+    }
+    
     /**
      * Attempt to parse out the scrape data from the element returned from
      *  the files key. 
@@ -230,19 +335,21 @@ public class TorrentTrackerScraperImpl implements TorrentTrackerScraper {
         return announceString.toLowerCase(Locale.US).startsWith("http") && announceString.indexOf(ANNOUNCE_PATH) > 0;
     }
     
-    private static URI createScrapingRequest(URI trackerAnnounceUri, String urn) throws URISyntaxException {
+    private static URI createScrapingRequest(URI trackerAnnounceUri, Collection<String> urns) throws URISyntaxException {
         String scrapeUriString = trackerAnnounceUri.toString().replaceFirst(ANNOUNCE_PATH, SCRAPE_PATH);
         StringBuffer buffer = new StringBuffer(scrapeUriString);
 
-        if (scrapeUriString.endsWith(SCRAPE_PATH)) {
-            buffer.append('?');
-        } else {
-            buffer.append('&');
+        for (String urn : urns) {
+            if (buffer.length() == scrapeUriString.length() && scrapeUriString.endsWith(SCRAPE_PATH)) {
+                buffer.append('?');
+            } else {
+                buffer.append('&');
+            }
+            
+            buffer.append("info_hash=");
+            buffer.append(httpEncodeURN(urn));
         }
         
-        buffer.append("info_hash=");
-        buffer.append(httpEncodeURN(urn));
-        
         return new URI(buffer.toString());
     }
     
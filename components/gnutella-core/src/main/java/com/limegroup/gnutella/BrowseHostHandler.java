@@ -7,6 +7,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -30,6 +32,7 @@ import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.limewire.core.api.browse.BrowseListener;
+import org.limewire.core.api.browse.IncrementalBrowseListener;
 import org.limewire.core.settings.SearchSettings;
 import org.limewire.friend.api.FriendPresence;
 import org.limewire.friend.api.feature.AddressFeature;
@@ -134,7 +137,7 @@ public class BrowseHostHandler {
                     LOG.debug("browsing address: " + addressFeature.getFeature());
                 }
                 Socket socket = socketsManager.connect(addressFeature.getFeature(), new BlockingConnectObserver()).getSocket(EXPIRE_TIME, TimeUnit.MILLISECONDS);
-                browseHost(socket, friendPresence);
+                browseHost(socket, friendPresence, browseListener);
                 browseListener.browseFinished(true);
                 return;
             }
@@ -203,10 +206,25 @@ public class BrowseHostHandler {
     }
 
     void browseHost(Socket socket, FriendPresence friendPresence) throws IOException, URISyntaxException, HttpException, InterruptedException {
+        browseHost(socket, friendPresence, null);
+    }
+    
+    /**
+     * @param browseListener is told about the library version of the browsed
+     * host if it is an {@link IncrementalBrowseListener}, can be null
+     */
+    void browseHost(Socket socket, FriendPresence friendPresence, BrowseListener browseListener) throws IOException, URISyntaxException, HttpException, InterruptedException {
+        IncrementalBrowseListener incrementalListener = null;
+        if (browseListener instanceof IncrementalBrowseListener) {
+            incrementalListener = (IncrementalBrowseListener)browseListener;
+        }
     	try {
             setState(EXCHANGING);
-            HttpResponse response = makeHTTPRequest(socket, friendPresence);
+            HttpResponse response = makeHTTPRequest(socket, friendPresence, incrementalListener);
             validateResponse(response);
+            if (incrementalListener != null) {
+                readLibraryVersion(response, incrementalListener);
+            }
             readQueryRepliesFromStream(response, friendPresence);
         } finally {
             IOUtils.close(socket);
@@ -214,7 +232,7 @@ public class BrowseHostHandler {
     	}
     }
 
-    private HttpResponse makeHTTPRequest(Socket socket, FriendPresence friendPresence) throws IOException, URISyntaxException, HttpException, InterruptedException {
+    private HttpResponse makeHTTPRequest(Socket socket, FriendPresence friendPresence, IncrementalBrowseListener incrementalListener) throws IOException, URISyntaxException, HttpException, InterruptedException {
 //        SocketWrappingHttpClient client = clientProvider.get();
 //        client.setSocket(socket);
         SocketWrappingHttpClient client = new SocketWrappingHttpClient(socket);
@@ -249,6 +267,10 @@ public class BrowseHostHandler {
             get.addHeader(HTTPHeaderName.FW_NODE_INFO.create(pushEndpointFactory.createForSelf()));
         }
         
+        if (incrementalListener != null && incrementalListener.getLibraryVersion() != null) {
+            get.addHeader(HTTPHeaderName.LIBRARY_VERSION.create(incrementalListener.getLibraryVersion()));
+        }
+        
         return client.execute(get);
     }
 
@@ -285,6 +307,28 @@ public class BrowseHostHandler {
         }
     }
 
+    /**
+     * Tells <code>incrementalListener</code> about the library version and
+     * the removed files sent by the browsed host, if it sent them.
+     */
+    private void readLibraryVersion(HttpResponse response, IncrementalBrowseListener incrementalListener) throws IOException {
+        Header version = response.getFirstHeader(HTTPHeaderName.LIBRARY_VERSION.httpStringValue());
+        if (version == null) {
+            return;
+        }
+        Collection<org.limewire.core.api.URN> removed = null;
+        Header removedHeader = response.getFirstHeader(HTTPHeaderName.LIBRARY_REMOVED.httpStringValue());
+        if (removedHeader != null) {
+            removed = new ArrayList<org.limewire.core.api.URN>();
+            for (String urn : StringUtils.split(removedHeader.getValue(), ',')) {
+                removed.add(URN.createSHA1Urn(urn.trim()));
+            }
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("library version: " + version.getValue() + ", removed: " + removed);
+        incrementalListener.libraryVersionReceived(version.getValue(), removed);
+    }
+
     private void readQueryRepliesFromStream(HttpResponse response, FriendPresence friendPresence) {
         AddressFeature addressFeature = (AddressFeature)friendPresence.getFeature(AddressFeature.ID);
         if(response.getEntity() != null && addressFeature != null) { // address can be null if either party is concurrently logging out
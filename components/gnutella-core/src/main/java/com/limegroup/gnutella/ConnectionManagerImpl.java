@@ -36,6 +36,8 @@ import org.limewire.net.ConnectionDispatcher;
 import org.limewire.net.SocketsManager;
 import org.limewire.net.SocketsManager.ConnectType;
 import org.limewire.net.address.StrictIpPortSet;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.statistic.MetricsRegistry;
 import org.limewire.util.SystemUtils;
 import org.limewire.util.Version;
 import org.limewire.util.VersionFormatException;
@@ -253,6 +255,9 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
     /** The last version of LimeWire we'll connect to */
     private final Version lastGoodVersion;
 
+    /** Time it took fetched connections to connect and handshake. */
+    private final LatencyHistogram connectTimes = new LatencyHistogram();
+
     private final NetworkManager networkManager;
     private final Provider<HostCatcher> hostCatcher;
     private final Provider<ConnectionDispatcher> connectionDispatcher;
@@ -307,6 +312,11 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
         registry.register(this);
     }
 
+    @Inject
+    void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("gnutella.connect", connectTimes);
+    }
+
 
     /**
      * Links the ConnectionManager up with the other back end pieces and
@@ -1711,8 +1721,11 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
      *  2. remove(Connection) -- numConnections drops.
      *  3. initializeExternallyGeneratedConnection() -- numConnections rises.
      *  4. initialization error in initializeFetchedConnection() -- numConnections drops when removeInternal is called.
-     * Note that adjustConnectionFetchers is not called when a connection is successfully fetched from the host catcher.
-     * numConnections rises, but numFetchers drops, so need is unchanged.
+     *  5. a fetched connection finished handshaking -- numConnections rises and numFetchers drops by one, but
+     *     the fetchers that were racing for the same slot may no longer be needed.
+     * 
+     * Fetchers are started CONNECT_STAGGER milliseconds apart, so the most promising hosts the host
+     * catcher hands out first get a head start, and the others need not be tried if they win.
      * 
      * Only call this method when the monitor is held.
      */
@@ -1817,10 +1830,14 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
             extras.add(connection);
         }
         
-        // Now connect'm.
-        for(int i = fetchers.size() - 1; i >= 0; i--) {
-            ConnectionFetcher fetcher = fetchers.remove(i);
-            fetcher.connect();
+        // Now connect'm, one after the other.
+        int stagger = ConnectionSettings.CONNECT_STAGGER.getValue();
+        for(int i = 0; i < fetchers.size(); i++) {
+            ConnectionFetcher fetcher = fetchers.get(i);
+            if(i == 0 || stagger <= 0)
+                fetcher.connect();
+            else
+                fetcher.connectLater(i * stagger);
         }
         
         // And delete extras.
@@ -2275,6 +2292,8 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
         private volatile RoutedConnection connection;
         private volatile Endpoint endpoint;
         private volatile boolean stoppedEarly = false;
+        /** The System.nanoTime() the connection attempt started at. */
+        private volatile long attemptStarted;
 
         public ConnectionFetcher() {
             this(false);
@@ -2297,6 +2316,19 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
         public void connect() {
             hostCatcher.get().getAnEndpoint(this);
         }
+
+        /**
+         * Starts connecting after <code>delay</code> milliseconds, unless
+         * this is told to stop connecting before that.
+         */
+        public void connectLater(long delay) {
+            backgroundExecutor.schedule(new Runnable() {
+                public void run() {
+                    if(!stoppedEarly)
+                        connect();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
         
         /** 
          * Marks this fetcher as not wanting to connect.
@@ -2343,6 +2375,7 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
                 LOG.info("Starting fetch for connectable host: " + incoming);
 
             this.endpoint = incoming;
+            attemptStarted = System.nanoTime();
             ConnectType type = endpoint.isTLSCapable() && networkManager.isOutgoingTLSEnabled() ? 
                                         ConnectType.TLS : ConnectType.PLAIN;
             LOG.debugf("connecting to {0}, with connect type {1}", incoming, type);
@@ -2359,9 +2392,16 @@ public class ConnectionManagerImpl implements ConnectionManager, Service {
             if(completeConnectionInitialization(connection, true)) {
                 processConnectionHeaders(connection);
                 _lastSuccessfulConnect = System.currentTimeMillis();
-                hostCatcher.get().doneWithConnect(endpoint, true);
+                long connectTime = System.nanoTime() - attemptStarted;
+                connectTimes.record(connectTime);
+                hostCatcher.get().doneWithConnect(endpoint, true,
+                        TimeUnit.NANOSECONDS.toMillis(connectTime));
                 if(_pref)
                     _needPref = false;
+                // Stop the attempts that lost the race for this slot
+                synchronized(ConnectionManagerImpl.this) {
+                    adjustConnectionFetchers();
+                }
                 try {
                     startConnection(connection);
                 } catch(IOException ignored) {}
@@ -249,10 +249,9 @@ PushedSocketHandler, ListenerSupport<DownloadManagerEvent> {
 
     public Iterable<CoreDownloader> getAllDownloaders();
     
-    /** Writes a snapshot of all downloaders in this and all incomplete files to
-     *  the file named DOWNLOAD_SNAPSHOT_FILE.  It is safe to call this method
-     *  at any time for checkpointing purposes.  Returns true if and only if the 
-     *  file was successfully written. */
+    /** Checkpoints the downloaders in this that changed since the last
+     *  checkpoint to the download journal.  It is safe to call this method
+     *  at any time for checkpointing purposes. */
     public void writeSnapshot();
 
     /**
@@ -61,6 +61,7 @@ import com.limegroup.gnutella.browser.MagnetOptions;
 import com.limegroup.gnutella.downloader.CantResumeException;
 import com.limegroup.gnutella.downloader.CoreDownloader;
 import com.limegroup.gnutella.downloader.CoreDownloaderFactory;
+import com.limegroup.gnutella.downloader.DownloadRegistry;
 import com.limegroup.gnutella.downloader.DownloaderType;
 import com.limegroup.gnutella.downloader.IncompleteFileManager;
 import com.limegroup.gnutella.downloader.MagnetDownloader;
@@ -70,7 +71,7 @@ import com.limegroup.gnutella.downloader.PushedSocketHandlerRegistry;
 import com.limegroup.gnutella.downloader.RemoteFileDescFactory;
 import com.limegroup.gnutella.downloader.ResumeDownloader;
 import com.limegroup.gnutella.downloader.serial.DownloadMemento;
-import com.limegroup.gnutella.downloader.serial.DownloadSerializer;
+import com.limegroup.gnutella.downloader.serial.DownloadJournal;
 import com.limegroup.gnutella.library.LibraryStatusEvent;
 import com.limegroup.gnutella.messages.BadPacketException;
 import com.limegroup.gnutella.messages.QueryReply;
@@ -83,10 +84,11 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     
     private static final Log LOG = LogFactory.getLog(DownloadManagerImpl.class);
     
-    /** The time in milliseconds between checkpointing downloads.dat.  The more
-     * often this is written, the less the lost data during a crash, but the
-     * greater the chance that downloads.dat itself is corrupt.  */
-    private int SNAPSHOT_CHECKPOINT_TIME=30*1000; //30 seconds
+    /** The time in milliseconds between checkpointing downloads.  The more
+     * often this is done, the less the lost data during a crash.  Since only
+     * the downloads that changed are appended to the journal, this can be
+     * short.  */
+    private int SNAPSHOT_CHECKPOINT_TIME=5*1000; //5 seconds
 
 
     /** The list of all ManagedDownloader's attempting to download.
@@ -102,6 +104,10 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     private final MultiIterable<CoreDownloader> activeAndWaiting = 
         new MultiIterable<CoreDownloader>(active,waiting); 
     
+    /** Indexes the downloads in active and waiting for lookups that
+     *  don't need this' monitor. */
+    private final DownloadRegistry registry = new DownloadRegistry();
+    
     /**
      * Whether or not the GUI has been init'd.
      */
@@ -147,7 +153,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     private final ScheduledExecutorService backgroundExecutor;
     private final Provider<PushDownloadManager> pushDownloadManager;
     private final CoreDownloaderFactory coreDownloaderFactory;
-    private final DownloadSerializer downloadSerializer;
+    private final DownloadJournal downloadJournal;
     private final IncompleteFileManager incompleteFileManager;
     private final RemoteFileDescFactory remoteFileDescFactory;
     private final CategoryManager categoryManager;
@@ -162,7 +168,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
             @Named("backgroundExecutor") ScheduledExecutorService backgroundExecutor,
             Provider<PushDownloadManager> pushDownloadManager,
             CoreDownloaderFactory coreDownloaderFactory,
-            DownloadSerializer downloaderSerializer,
+            DownloadJournal downloadJournal,
             IncompleteFileManager incompleteFileManager,
             RemoteFileDescFactory remoteFileDescFactory,
             PushEndpointFactory pushEndpointFactory,
@@ -174,7 +180,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
         this.backgroundExecutor = backgroundExecutor;
         this.pushDownloadManager = pushDownloadManager;
         this.coreDownloaderFactory = coreDownloaderFactory;
-        this.downloadSerializer = downloaderSerializer;
+        this.downloadJournal = downloadJournal;
         this.incompleteFileManager = incompleteFileManager;
         this.remoteFileDescFactory = remoteFileDescFactory;
         this.pushEndpointFactory = pushEndpointFactory;
@@ -235,6 +241,11 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     }
     public void stop() {
         writeSnapshot();
+        if (downloadsReadFromDisk) {
+            // keep the snapshot of previous versions current for a downgrade
+            downloadJournal.writeSnapshot(copyDownloaders());
+        }
+        downloadJournal.close();
     }
     
     /**
@@ -259,7 +270,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
         
         List<DownloadMemento> mementos;
         try {
-            mementos = downloadSerializer.readFromDisk();
+            mementos = downloadJournal.readFromDisk();
             if(mementos.isEmpty())
                 failedAll = false;
         } catch(IOException ioex) {
@@ -310,11 +321,11 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     }
     
     public void scheduleSnapshots() {
+        // Checkpoints are cheap when nothing changed, and queued downloads
+        // change too when they get new sources.
         Runnable checkpointer=new Runnable() {
             public void run() {
-                if (downloadsInProgress() > 0) { //optimization
-                    writeSnapshot();
-                }
+                writeSnapshot();
             }
         };
         backgroundExecutor.scheduleWithFixedDelay(checkpointer, 
@@ -327,17 +338,15 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
             LOG.debug("downloads not loaded yet, not writing snapshot");
             return;
         }
-        List<DownloadMemento> mementos;
-        synchronized(this) {
-            mementos = new ArrayList<DownloadMemento>(active.size() + waiting.size());
-            for(CoreDownloader downloader : activeAndWaiting) {
-                if(downloader.isMementoSupported()) {
-                    mementos.add(downloader.toMemento());
-                }
-            }
-        }
-        
-        downloadSerializer.writeToDisk(mementos);
+        downloadJournal.checkpoint(copyDownloaders());
+    }
+    
+    /** Returns the active and waiting downloads, in order. */
+    private synchronized List<CoreDownloader> copyDownloaders() {
+        List<CoreDownloader> downloaders = new ArrayList<CoreDownloader>(active.size() + waiting.size());
+        for(CoreDownloader downloader : activeAndWaiting)
+            downloaders.add(downloader);
+        return downloaders;
     }
     
     /* (non-Javadoc)
@@ -510,32 +519,39 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.DownloadManager#getDownloaderForURN(com.limegroup.gnutella.URN)
      */
-    public synchronized Downloader getDownloaderForURN(URN sha1) {
-        for (CoreDownloader md : activeAndWaiting) {
-            if (md.getSha1Urn() != null && sha1.equals(md.getSha1Urn()))
-                return md;
-        }
-        return null;
+    public Downloader getDownloaderForURN(URN sha1) {
+        return registry.getDownloader(sha1);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.DownloadManager#getDownloaderForURNString(java.lang.String)
      */
-    public synchronized Downloader getDownloaderForURNString(String urn) {
-        for (CoreDownloader md : activeAndWaiting) {
-            if (md.getSha1Urn() != null && urn.equals(md.getSha1Urn().toString()))
-                return md;
+    public Downloader getDownloaderForURNString(String urn) {
+        URN sha1;
+        try {
+            sha1 = URN.createSHA1Urn(urn);
+        } catch (IOException e) {
+            return null;
         }
+        CoreDownloader md = registry.getDownloader(sha1);
+        if (md != null && urn.equals(md.getSha1Urn().toString()))
+            return md;
         return null;
     }    
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.DownloadManager#getDownloaderForIncompleteFile(java.io.File)
      */
-    public synchronized Downloader getDownloaderForIncompleteFile(File file) {
-        for (CoreDownloader dl : activeAndWaiting) {
-            if (dl.conflictsWithIncompleteFile(file)) {
-                return dl;
+    public Downloader getDownloaderForIncompleteFile(File file) {
+        CoreDownloader cached = registry.getCachedDownloader(file);
+        if (cached != null)
+            return cached;
+        synchronized (this) {
+            for (CoreDownloader dl : activeAndWaiting) {
+                if (dl.conflictsWithIncompleteFile(file)) {
+                    registry.cacheDownloader(file, dl);
+                    return dl;
+                }
             }
         }
         return null;
@@ -544,13 +560,8 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.DownloadManager#isGuidForQueryDownloading(com.limegroup.gnutella.GUID)
      */
-    public synchronized boolean isGuidForQueryDownloading(GUID guid) {
-        for (CoreDownloader md : activeAndWaiting) {
-            GUID dGUID = md.getQueryGUID();
-            if ((dGUID != null) && (dGUID.equals(guid)))
-                return true;
-        }
-        return false;
+    public boolean isGuidForQueryDownloading(GUID guid) {
+        return registry.isQueryGuidDownloading(guid);
     }
     
     void clearAllDownloads() {
@@ -561,6 +572,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
             buf.addAll(waiting);
             active.clear();
             waiting.clear();
+            registry.clear();
         }
         for(CoreDownloader md : buf ) { 
             md.stop();
@@ -961,6 +973,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
         downloader.initialize();
         callback(downloader).addDownload(downloader);
         active.add(downloader);
+        registry.add(downloader);
         mozillaDownloadCount++;
         fireEvent(downloader, DownloadManagerEvent.Type.ADDED);
         return downloader;
@@ -976,6 +989,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
     private synchronized void initializeDownload(final CoreDownloader md, boolean saveState) {
         md.initialize();
         waiting.add(md);
+        registry.add(md);
         callback(md).addDownload(md);
         if(saveState) {
             backgroundExecutor.execute(new Runnable() {
@@ -1078,23 +1092,36 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
         if(queryReply == null)
             throw new NullPointerException("null queryReply");
 
-        // need to synch because active and waiting are not thread safe
-        List<CoreDownloader> downloaders = new ArrayList<CoreDownloader>(active.size() + waiting.size());
-        synchronized (this) { 
-            // add to all downloaders, even if they are waiting....
-            downloaders.addAll(active);
-            downloaders.addAll(waiting);
-        }
-        
-        // short-circuit.
-        if(downloaders.isEmpty())
-            return;
+        // all downloaders, only needed for responses without a SHA1
+        List<CoreDownloader> allDownloaders = null;
 
-        //For each response i, offer it to each downloader j.  Give a response
-        // to at most one downloader.
+        //For each response i, offer it to each downloader j that could
+        // accept it.  Give a response to at most one downloader.
         // TODO: it's possible that downloader x could accept response[i] but
         //that would cause a conflict with downloader y.  Check for this.
         for(Response r : responses) {
+            URN sha1 = getSHA1Urn(r.getUrns());
+            List<CoreDownloader> downloaders;
+            if(sha1 != null) {
+                // downloaders that know their hash only accept that hash
+                downloaders = registry.getCandidates(sha1);
+            } else {
+                if(allDownloaders == null) {
+                    // need to synch because active and waiting are not thread safe
+                    synchronized (this) { 
+                        // add to all downloaders, even if they are waiting....
+                        allDownloaders = new ArrayList<CoreDownloader>(active.size() + waiting.size());
+                        allDownloaders.addAll(active);
+                        allDownloaders.addAll(waiting);
+                    }
+                }
+                downloaders = allDownloaders;
+            }
+            
+            // short-circuit before creating the rfd.
+            if(downloaders.isEmpty())
+                continue;
+            
             // Don't bother with making XML from the EQHD.
             RemoteFileDesc rfd;
             try {
@@ -1121,6 +1148,17 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
         }
     }
 
+    /**
+     * Returns the SHA1 among <code>urns</code>, or null if there is none.
+     */
+    private static URN getSHA1Urn(Set<URN> urns) {
+        for(URN urn : urns) {
+            if(urn.isSHA1())
+                return urn;
+        }
+        return null;
+    }
+
     // //////////// Callback Methods for ManagedDownloaders ///////////////////
 
     /** @requires this monitor' held by caller */
@@ -1188,6 +1226,7 @@ public class DownloadManagerImpl implements DownloadManager, Service, EventListe
      * If ser is true, also writes a snapshot to the disk.
      */
     private void cleanupCompletedDownload(CoreDownloader dl, boolean ser) {
+        registry.remove(dl);
         dl.finish();
         if (dl.getQueryGUID() != null)
             messageRouter.get().downloadFinished(dl.getQueryGUID());
@@ -27,12 +27,14 @@ import com.limegroup.gnutella.dht.DHTManager.DHTMode;
  *     to this host.
  * <li>The system times in milliseconds when we tried but failed to connect
  *     to this host.
+ * <li>The smoothed fraction of connection attempts that succeeded, and the
+ *     smoothed time it took to connect and handshake.
  * </ul>
  *
  * ExtendedEndpoint has methods to read and write information to a single line
  * of text, e.g.:
  * <pre>
- *    "18.239.0.144:6347,3043,1039939393,529333939;3343434;23433,3934223"
+ *    "18.239.0.144:6347,3043,1039939393,529333939;3343434;23433,3934223,en,,,,,750,1200"
  * </pre>
  * This "poor man's serialization" is used to help HostCatcher implement the
  * reading and writing of gnutella.net files.<p>
@@ -82,6 +84,26 @@ public class ExtendedEndpoint extends Endpoint {
     /** Same as connectSuccesses, but for failed connections. */
     private Buffer<Long> connectFailures=new Buffer<Long>(HISTORY_SIZE);
 
+    /** Every connection attempt moves the smoothed success rate and connect
+     *  time this fraction of the way towards its own outcome. */
+    static final float LEARNING_RATE=0.25f;
+    /** The smoothed fraction of connection attempts that succeeded, in
+     *  thousandths, or -1 if we never tried.  Unlike connectSuccesses and
+     *  connectFailures this counts every attempt. */
+    private volatile int successRate=-1;
+    /** The smoothed time in milliseconds it took to connect and handshake,
+     *  or -1 if we never did. */
+    private volatile int connectTime=-1;
+
+    /** The connect time to assume for hosts we never connected to. */
+    static final int DEFAULT_CONNECT_TIME=3000;
+    /** Hosts with this connect time in milliseconds score half as well as
+     *  hosts that connect instantly. */
+    static final int HALF_SCORE_CONNECT_TIME=1000;
+    /** Hosts with at least this daily uptime in seconds get the full uptime
+     *  score, hosts with none get half of it. */
+    static final int FULL_SCORE_UPTIME=8*60*60;
+
     /** the locale of the client that this endpoint represents */
     private volatile String _clientLocale = 
         ApplicationSettings.DEFAULT_LOCALE.get();
@@ -189,6 +211,11 @@ public class ExtendedEndpoint extends Endpoint {
             return dailyUptime;
     }
     
+    /** Returns the reported average daily uptime, or -1 if unknown. */
+    int getReportedDailyUptime() {
+        return dailyUptime;
+    }
+    
     /** A setter for supporting TLS. */
     public void setTLSCapable(boolean capable) {
         this.tlsCapable = capable;
@@ -202,12 +229,83 @@ public class ExtendedEndpoint extends Endpoint {
 
     /** Records that we just successfully connected to this. */
     public void recordConnectionSuccess() {
+        recordConnectionSuccess(-1);
+    }
+
+    /**
+     * Records that we just successfully connected to this, and that it took
+     * <code>connectTime</code> milliseconds to connect and handshake, or -1
+     * if unknown.
+     */
+    public synchronized void recordConnectionSuccess(long connectTime) {
         recordConnectionAttempt(connectSuccesses, now());
+        successRate=learn(successRate, 1000);
+        if (connectTime>=0)
+            this.connectTime=learn(this.connectTime, (int)Math.min(connectTime, Integer.MAX_VALUE));
     }
 
     /** Records that we just failed to connect to this. */
-    public void recordConnectionFailure() {
+    public synchronized void recordConnectionFailure() {
         recordConnectionAttempt(connectFailures, now());
+        successRate=learn(successRate, 0);
+    }
+
+    /** Moves a smoothed value towards an outcome; -1 if nothing was learned
+     *  yet. */
+    private static int learn(int smoothed, int outcome) {
+        if (smoothed<0)
+            return outcome;
+        return Math.round(smoothed+(outcome-smoothed)*LEARNING_RATE);
+    }
+
+    /** Returns the smoothed fraction of connection attempts that succeeded,
+     *  in thousandths, or -1 if we never tried. */
+    public int getSuccessRate() {
+        return successRate;
+    }
+
+    /** Returns the smoothed time in milliseconds it took to connect and
+     *  handshake, or -1 if we never did. */
+    public int getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * Returns how promising a connection attempt to this is, between 0 and 1.
+     * This is the product of:
+     * <ul>
+     * <li>the smoothed success rate, or a guess from connectScore() if we
+     *     never tried this,
+     * <li>a connect time factor that halves every HALF_SCORE_CONNECT_TIME
+     *     milliseconds, so hosts that answer quickly win races,
+     * <li>an uptime factor between 0.5 and 1, so long-lived hosts are tried
+     *     first.
+     * </ul>
+     */
+    public float getSuccessScore() {
+        int rate=successRate;
+        float success=rate>=0 ? rate/1000f : 0.5f+0.25f*connectScore();
+        int time=connectTime>=0 ? connectTime : DEFAULT_CONNECT_TIME;
+        float speed=(float)HALF_SCORE_CONNECT_TIME/(HALF_SCORE_CONNECT_TIME+time);
+        float uptime=0.5f+0.5f*Math.min(getDailyUptime(), FULL_SCORE_UPTIME)/FULL_SCORE_UPTIME;
+        return success*speed*uptime;
+    }
+
+    /**
+     * Takes over the connection history of <code>other</code>, which is
+     * an older endpoint for the same host, if this has no history of its own.
+     */
+    public synchronized void inheritHistory(ExtendedEndpoint other) {
+        if (!connectSuccesses.isEmpty() || !connectFailures.isEmpty() || successRate>=0)
+            return;
+        synchronized (other) {
+            for (Iterator<Long> i=other.getConnectionSuccesses(); i.hasNext(); )
+                connectSuccesses.addLast(i.next());
+            for (Iterator<Long> i=other.getConnectionFailures(); i.hasNext(); )
+                connectFailures.addLast(i.next());
+            successRate=other.successRate;
+            connectTime=other.connectTime;
+        }
     }
     
     /** Returns the last few times we successfully connected to this.
@@ -389,6 +487,12 @@ public class ExtendedEndpoint extends Endpoint {
         if(tlsCapable)
             out.write("1");
         out.write(FIELD_SEPARATOR);
+        if(successRate>=0)
+            out.write(successRate + "");
+        out.write(FIELD_SEPARATOR);
+        if(connectTime>=0)
+            out.write(connectTime + "");
+        out.write(FIELD_SEPARATOR);
         out.write(EOL);
     }
 
@@ -526,6 +630,22 @@ public class ExtendedEndpoint extends Endpoint {
                     ret.setTLSCapable(true);
             } catch(NumberFormatException nfe) {}
         }
+        //11. smoothed success rate
+        if(linea.length>=11 && !linea[10].isEmpty()) {
+            try {
+                int i = Integer.parseInt(linea[10]);
+                if(i >= 0 && i <= 1000)
+                    ret.successRate = i;
+            } catch(NumberFormatException nfe) {}
+        }
+        //12. smoothed connect time
+        if(linea.length>=12 && !linea[11].isEmpty()) {
+            try {
+                int i = Integer.parseInt(linea[11]);
+                if(i >= 0)
+                    ret.connectTime = i;
+            } catch(NumberFormatException nfe) {}
+        }
         
         // validate address if numeric.
         if(pureNumeric && !NetworkUtils.isValidAddress(host))
@@ -562,6 +682,25 @@ public class ExtendedEndpoint extends Endpoint {
      */
     private static final Comparator<ExtendedEndpoint> PRIORITY_COMPARATOR = new PriorityComparator();
 
+    /**
+     * Returns a Comparator that compares ExtendedEndpoint's by their
+     * success score, where ExtendedEndpoint's with a higher score are more
+     * likely to accept a connection quickly.
+     *
+     * @see #getSuccessScore()
+     */
+    public static Comparator<ExtendedEndpoint> successComparator() {
+        return SUCCESS_COMPARATOR;
+    }
+
+    private static final Comparator<ExtendedEndpoint> SUCCESS_COMPARATOR = new SuccessComparator();
+
+    static class SuccessComparator implements Comparator<ExtendedEndpoint> {
+        public int compare(ExtendedEndpoint a, ExtendedEndpoint b) {
+            return Float.compare(a.getSuccessScore(), b.getSuccessScore());
+        }
+    }
+
     static class PriorityComparator implements Comparator<ExtendedEndpoint> {
         public int compare(ExtendedEndpoint a, ExtendedEndpoint b) {
             int ret=a.connectScore()-b.connectScore();
@@ -1,11 +1,17 @@
 package com.limegroup.gnutella;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
@@ -17,6 +23,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,11 +36,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.limewire.collection.BucketQueue;
 import org.limewire.collection.Cancellable;
 import org.limewire.collection.FixedSizeSortedList;
 import org.limewire.collection.IntSet;
-import org.limewire.collection.ListPartitioner;
 import org.limewire.collection.RandomAccessMap;
 import org.limewire.collection.RandomOrderHashMap;
 import org.limewire.core.settings.ApplicationSettings;
@@ -127,18 +132,14 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
     /**
      * The list of hosts to try. Addresses that are known to be ultrapeers are
      * given priority. Within each priority level, recent hosts are prioritized
-     * over older ones. Our representation consists of a set and a queue, both
-     * bounded in size. The set lets us quickly check if there are duplicates,
-     * while the queue provides ordering. The set is actually a map that points
-     * to itself so we can retrieve an endpoint using its IP and port.
+     * over older ones. The queue is bounded in size and keeps its hosts
+     * packed, so checking for duplicates and finding a host by its IP and
+     * port don't allocate.
      *
-     * INVARIANT: queue and set contain exactly the same elements
      * LOCKING: this
      */
-    private final BucketQueue<ExtendedEndpoint> ENDPOINT_QUEUE = 
-        new BucketQueue<ExtendedEndpoint>(new int[] {NORMAL_SIZE, GOOD_SIZE});
-    private final Map<ExtendedEndpoint, ExtendedEndpoint> ENDPOINT_SET =
-        new HashMap<ExtendedEndpoint, ExtendedEndpoint>();
+    private final PackedHostQueue ENDPOINT_QUEUE = 
+        new PackedHostQueue(new int[] {NORMAL_SIZE, GOOD_SIZE});
 
     /**
      * Hosts advertising free ultrapeer connection slots.
@@ -155,7 +156,8 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         new RandomOrderHashMap<ExtendedEndpoint, ExtendedEndpoint>(200);
 
     /**
-     * Map of locales to sets of hosts with those locales.
+     * Map of locales to sets of hosts with those locales. Each set forgets
+     * its oldest host when it grows too large.
      */
     private final Map<String, Set<ExtendedEndpoint>> LOCALE_SET_MAP =
         new HashMap<String, Set<ExtendedEndpoint>>();
@@ -175,14 +177,17 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
      * to be reachable in future sessions, and even if they don't have any
      * free connection slots we can learn other addresses from them).
      *
+     * The set is actually a map that points to itself so the connection
+     * history of a host can be found by its IP and port.
+     *
      * INVARIANT: queue and set contain exactly the same elements
      * LOCKING: this
      */
     private final FixedSizeSortedList<ExtendedEndpoint> permanentHosts =
         new FixedSizeSortedList<ExtendedEndpoint>(
                 ExtendedEndpoint.priorityComparator(), NORMAL_SIZE);
-    private final Set<ExtendedEndpoint> permanentHostsSet =
-        new HashSet<ExtendedEndpoint>();
+    private final Map<ExtendedEndpoint, ExtendedEndpoint> permanentHostsSet =
+        new HashMap<ExtendedEndpoint, ExtendedEndpoint>();
 
     /**
      * Whether the set of permanent hosts has changed since we last saved it.
@@ -190,42 +195,98 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
     private boolean dirty = false;
 
     /**
-     * Hosts that were loaded from the host file, ordered using the same
-     * criteria as permanentHosts.
+     * Permanent hosts that were added or whose connection history changed
+     * since the host file was last written or checkpointed.
      * 
      * LOCKING: this
      */
-    private final List<ExtendedEndpoint> restoredHosts =
-        new FixedSizeSortedList<ExtendedEndpoint>(
-                ExtendedEndpoint.priorityComparator(), NORMAL_SIZE);
+    private final Set<ExtendedEndpoint> changedPermanentHosts =
+        new HashSet<ExtendedEndpoint>();
 
-    /** 
-     * Partition view of the list of restored hosts.
-     * FIXME: the list is sorted, why not just pop the last element?
+    /**
+     * Hosts that were ejected or removed from the permanent hosts since the
+     * host file was last written or checkpointed. A checkpoint records them
+     * as removed, so they don't come back when the file is read.
+     * 
+     * LOCKING: this
+     */
+    private final Set<ExtendedEndpoint> removedPermanentHosts =
+        new HashSet<ExtendedEndpoint>();
+
+    /**
+     * The number of lines appended to the host file by checkpoints since it
+     * was last written in full.
+     * 
+     * LOCKING: this
+     */
+    private int checkpointedHosts = 0;
+
+    /**
+     * Whether writing the host file failed, so it may be incomplete and
+     * must be written in full before anything is appended to it.
+     * 
+     * LOCKING: this
+     */
+    private boolean rewriteHostFile = false;
+
+    /**
+     * Makes writes of the host file happen one at a time, in the order the
+     * hosts were taken from the catcher. The file is written while holding
+     * only this lock, never while holding the catcher's lock.
+     * 
+     * LOCKING: taken before this
+     */
+    private final Object hostFileLock = new Object();
+
+    /**
+     * Marks a line of the host file that records the removal of a host.
+     */
+    private static final String REMOVED_HOST_PREFIX = "-";
+
+    /**
+     * How often (in milliseconds) to append the changed permanent hosts to
+     * the host file, so a crash doesn't lose what we learned this session.
+     */
+    private static final long HOST_FILE_CHECKPOINT_TIME = 60 * 1000;
+
+    /**
+     * Hosts that were loaded from the host file, ordered by the success
+     * score learned from their connection history, so the hosts most likely
+     * to accept a connection quickly are tried first.
+     * 
+     * LOCKING: this
      */
-    private final ListPartitioner<ExtendedEndpoint> uptimePartitions = 
-        new ListPartitioner<ExtendedEndpoint>(restoredHosts, 3);
+    private final List<ExtendedEndpoint> restoredHosts =
+        new FixedSizeSortedList<ExtendedEndpoint>(
+                ExtendedEndpoint.successComparator(), NORMAL_SIZE);
 
     /**
      * Hosts to which we could not create a TCP connection, and which should
      * therefore not be tried again. Fixed size, which is package accessible
-     * for testing.
+     * for testing. Once full, the oldest host is forgotten.
      * 
-     * LOCKING: this
+     * LOCKING: failedHostsLock
      */
-    private final Set<Endpoint> EXPIRED_HOSTS = new HashSet<Endpoint>();
     protected static final int EXPIRED_HOSTS_SIZE = 500;
+    private final PackedHostSet EXPIRED_HOSTS = new PackedHostSet(EXPIRED_HOSTS_SIZE);
 
     /**
      * Hosts that accepted a TCP connection but not a Gnutella connection, and
      * which are therefore "on probation". Fixed size, which is package
      * accessible for testing.
      * 
-     * LOCKING: this
+     * LOCKING: failedHostsLock
      */    
     private final Set<Endpoint> PROBATION_HOSTS = new HashSet<Endpoint>();
     protected static final int PROBATION_HOSTS_SIZE = 500;
 
+    /**
+     * Guards the expired hosts and the hosts on probation, so validating the
+     * hosts of incoming pongs doesn't wait for the lock of the catcher. Never
+     * acquire the lock of the catcher while holding this.
+     */
+    private final Object failedHostsLock = new Object();
+
     /**
      * How long (in milliseconds) to wait before first recovering hosts on
      * probation. Non-final for testing.
@@ -272,6 +333,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
     private ScheduledFuture probationFuture;
     private ScheduledFuture bootstrapperFuture;
     private ScheduledFuture clearPingedHostsFuture;
+    private ScheduledFuture checkpointFuture;
 
     private final ScheduledExecutorService backgroundExecutor;
     private final ConnectionServices connectionServices;
@@ -317,7 +379,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             public void run() {
                 // Restore probated hosts
                 List<Endpoint> toAdd;
-                synchronized(HostCatcher.this) {
+                synchronized(failedHostsLock) {
                     if(LOG.isTraceEnabled()) {
                         LOG.trace("Restoring " + PROBATION_HOSTS.size() +
                         " probated hosts");
@@ -329,7 +391,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
                     add(e, false);
                 // Take this opportunity to do some logging
                 if(LOG.isTraceEnabled()) {
-                    LOG.trace(ENDPOINT_SET.size() + " ordinary, " +
+                    LOG.trace(ENDPOINT_QUEUE.size() + " ordinary, " +
                             FREE_ULTRAPEER_SLOTS_SET.size() + " UP slots, " +
                             FREE_LEAF_SLOTS_SET.size() + " leaf slots, " +
                             LOCALE_SET_MAP.size() + " locales, " +
@@ -352,6 +414,14 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         bootstrapperFuture = 
             backgroundExecutor.scheduleWithFixedDelay(bootstrapper, 0, 2000,
                     TimeUnit.MILLISECONDS);
+        // Save what we learn about hosts as we go.
+        checkpointFuture =
+            backgroundExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkpoint();
+                }
+            }, HOST_FILE_CHECKPOINT_TIME, HOST_FILE_CHECKPOINT_TIME,
+            TimeUnit.MILLISECONDS);
     }
     
     @Override
@@ -375,6 +445,8 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             bootstrapperFuture.cancel(true);
         if(clearPingedHostsFuture != null)
             clearPingedHostsFuture.cancel(true);
+        if(checkpointFuture != null)
+            checkpointFuture.cancel(false);
         write();
     }
     
@@ -407,9 +479,9 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         // Ping some of the hosts we just loaded
         ArrayList<Endpoint> hosts;
         synchronized(this) {
-            hosts = new ArrayList<Endpoint>(ENDPOINT_SET.size() +
+            hosts = new ArrayList<Endpoint>(ENDPOINT_QUEUE.size() +
                     restoredHosts.size());
-            hosts.addAll(ENDPOINT_SET.keySet());
+            ENDPOINT_QUEUE.addAllTo(hosts);
             hosts.addAll(restoredHosts);
         }
         Collections.shuffle(hosts);
@@ -448,7 +520,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         Collection<ExtendedEndpoint> hosts = new LinkedHashSet<ExtendedEndpoint>(getNumHosts());
         hosts.addAll(FREE_ULTRAPEER_SLOTS_SET.keySet());
         hosts.addAll(FREE_LEAF_SLOTS_SET.keySet());
-        hosts.addAll(ENDPOINT_SET.keySet());
+        ENDPOINT_QUEUE.addAllTo(hosts);
         hosts.addAll(restoredHosts);
         return hosts;
     }
@@ -539,6 +611,12 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             }
             return; // Hit the bootstrap hosts instead
         }
+        // Checkpoints append hosts that are already in the file, the last
+        // line for a host is the most recent one, and a line starting with
+        // REMOVED_HOST_PREFIX drops a host that was removed after it was
+        // written
+        Map<ExtendedEndpoint, ExtendedEndpoint> hosts =
+            new LinkedHashMap<ExtendedEndpoint, ExtendedEndpoint>();
         BufferedReader in = null;
         try {
             in = new BufferedReader(new FileReader(hostFile));
@@ -546,26 +624,41 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
                 String line = in.readLine();
                 if(line == null)
                     break;
+                if(line.startsWith(REMOVED_HOST_PREFIX)) {
+                    try {
+                        hosts.remove(ExtendedEndpoint.read(
+                                line.substring(REMOVED_HOST_PREFIX.length())));
+                    } catch (ParseException pe) {
+                        LOG.info("Exception parsing host file", pe);
+                    }
+                    continue;
+                }
                 try {
                     // Resolve hostnames later
                     ExtendedEndpoint e = ExtendedEndpoint.read(line); 
                     if(e.isUDPHostCache()) {
                         bootstrapper.addUDPHostCache(e);
-                    } else if(isValidHost(e)) {
-                        synchronized(this) {
-                            addPermanent(e);
-                            restoredHosts.add(e);
-                        }
-                        endpointAdded();
                     } else {
-                        if(LOG.isTraceEnabled())
-                            LOG.trace("File contains invalid host: " + line);
+                        hosts.remove(e);
+                        hosts.put(e, e);
                     }
                 } catch (ParseException pe) {
                     LOG.info("Exception parsing host file", pe);
                     continue;
                 }
             }
+            for(ExtendedEndpoint e : hosts.keySet()) {
+                if(isValidHost(e)) {
+                    synchronized(this) {
+                        addPermanent(e);
+                        restoredHosts.add(e);
+                    }
+                    endpointAdded();
+                } else {
+                    if(LOG.isTraceEnabled())
+                        LOG.trace("File contains invalid host: " + e);
+                }
+            }
         } finally {
             try {
                 if(in != null)
@@ -591,22 +684,153 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
     /**
      * Writes hosts to the specified file. Package access for testing.
      */
-    protected synchronized void write(File hostFile) throws IOException {
+    protected void write(File hostFile) throws IOException {
         checkInvariants();
-        LOG.trace("Writing host file");
-        if(dirty || bootstrapper.isWriteDirty()) {
-            FileWriter out = new FileWriter(hostFile);
-                
-            //Write udp hostcache endpoints.
-            bootstrapper.write(out);
-    
-            //Write elements of permanent from worst to best.  Order matters, as it
-            //allows read() to put them into queue in the right order without any
-            //difficulty.
-            for(ExtendedEndpoint e : permanentHosts)
-                e.write(out);
+        synchronized(hostFileLock) {
+            StringWriter hosts = new StringWriter();
+            synchronized(this) {
+                LOG.trace("Writing host file");
+                if(!dirty && !bootstrapper.isWriteDirty())
+                    return;
+                //Write elements of permanent from worst to best.
+                for(ExtendedEndpoint e : permanentHosts)
+                    e.write(hosts);
+                dirty = false;
+                changedPermanentHosts.clear();
+                removedPermanentHosts.clear();
+                checkpointedHosts = 0;
+                rewriteHostFile = false;
+            }
+            
+            boolean written = false;
+            try {
+                FileWriter out = new FileWriter(hostFile);
+                try {
+                    //Write udp hostcache endpoints.
+                    bootstrapper.write(out);
+                    out.write(hosts.toString());
+                } finally {
+                    out.close();
+                }
+                written = true;
+            } finally {
+                if(!written) {
+                    synchronized(this) {
+                        dirty = true;
+                        rewriteHostFile = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the permanent hosts that changed since the last checkpoint to
+     * the host file at the default location.
+     */
+    private void checkpoint() {
+        try {
+            checkpoint(getHostsFile());
+        } catch(IOException e) {
+            if(LOG.isInfoEnabled())
+                LOG.info("Exception checkpointing host file " + getHostsFile(), e);
+        }
+    }
+
+    /**
+     * Appends the permanent hosts that changed since the last checkpoint,
+     * and the hosts that were removed since then, to the specified file
+     * rather than rewriting all of it. The file is written in full instead
+     * if it doesn't exist yet or if it has grown to hold more checkpointed
+     * lines than there are permanent hosts. Package access for testing.
+     */
+    void checkpoint(File hostFile) throws IOException {
+        synchronized(hostFileLock) {
+            boolean exists = hostFile.exists();
+            StringWriter hosts = new StringWriter();
+            synchronized(this) {
+                int lines = changedPermanentHosts.size() + removedPermanentHosts.size();
+                if(lines == 0 && !rewriteHostFile)
+                    return;
+                if(!exists || rewriteHostFile || checkpointedHosts + lines > NORMAL_SIZE) {
+                    hosts = null;
+                } else {
+                    if(LOG.isTraceEnabled())
+                        LOG.trace("Checkpointing " + lines + " hosts");
+                    for(ExtendedEndpoint e : removedPermanentHosts) {
+                        hosts.write(REMOVED_HOST_PREFIX + e.getAddress() + ":" + e.getPort()
+                                + ExtendedEndpoint.EOL);
+                        checkpointedHosts++;
+                    }
+                    for(ExtendedEndpoint e : changedPermanentHosts) {
+                        ExtendedEndpoint current = permanentHostsSet.get(e);
+                        if(current != null) {
+                            current.write(hosts);
+                            checkpointedHosts++;
+                        }
+                    }
+                    removedPermanentHosts.clear();
+                    changedPermanentHosts.clear();
+                }
+            }
             
-            out.close();
+            if(hosts == null) {
+                write(hostFile);
+                return;
+            }
+            
+            boolean written = false;
+            try {
+                truncatePartialLine(hostFile);
+                Writer out = new BufferedWriter(new FileWriter(hostFile, true));
+                try {
+                    out.write(hosts.toString());
+                } finally {
+                    out.close();
+                }
+                written = true;
+            } finally {
+                if(!written) {
+                    synchronized(this) {
+                        rewriteHostFile = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts off the last line of the file if it is incomplete, which happens
+     * if writing it was interrupted, so that appended hosts start on a line
+     * of their own.
+     */
+    private static void truncatePartialLine(File hostFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(hostFile, "rw");
+        try {
+            long length = file.length();
+            byte[] buf = new byte[512];
+            for(long end = length; end > 0; ) {
+                int read = (int)Math.min(buf.length, end);
+                file.seek(end - read);
+                file.readFully(buf, 0, read);
+                for(int i = read - 1; i >= 0; i--) {
+                    if(buf[i] == '\n') {
+                        long complete = end - read + i + 1;
+                        if(complete < length) {
+                            LOG.info("Truncating partial line of host file");
+                            file.setLength(complete);
+                        }
+                        return;
+                    }
+                }
+                end -= read;
+            }
+            if(length > 0) {
+                LOG.info("Truncating partial line of host file");
+                file.setLength(0);
+            }
+        } finally {
+            file.close();
         }
     }
 
@@ -803,7 +1027,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         String locale = ee.getClientLocale();
         Set<ExtendedEndpoint> s = LOCALE_SET_MAP.get(locale);
         if(s == null) {
-            s = new HashSet<ExtendedEndpoint>();
+            s = new LinkedHashSet<ExtendedEndpoint>();
             LOCALE_SET_MAP.put(locale, s);
         }
         s.add(ee);
@@ -896,27 +1120,29 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             return bootstrapper.addUDPHostCache(e);
         }
         
+        if(PackedHostIndex.pack(e) < 0) {
+            // The queue only holds IPv4 hosts, so a host known by name is
+            // added by the address isValidHost resolved it to
+            ExtendedEndpoint resolved = toDottedQuad(e);
+            if(resolved == null) {
+                if(LOG.isTraceEnabled())
+                    LOG.trace("Not adding host without an IPv4 address " + e);
+                return false;
+            }
+            e = resolved;
+        }
+        
         boolean added = false;
         synchronized(this) {
             addPermanent(e);
-            if(ENDPOINT_SET.containsKey(e)) {
-                //TODO: we could adjust the key
-                LOG.trace("Not adding duplicate host");
-                return false;
-            }
-            ExtendedEndpoint removed = ENDPOINT_QUEUE.insert(e, priority);
-            if(removed != e) {
-                // The host was actually added...
+            // The queue ejects its oldest host of the same priority if full
+            added = ENDPOINT_QUEUE.insert(e, priority);
+            if(added) {
                 if(LOG.isInfoEnabled())
                     LOG.info("Adding host " + e);
-                ENDPOINT_SET.put(e, e);
-                if(removed != null) {
-                    // ...and something else was removed
-                    if(LOG.isTraceEnabled())
-                        LOG.trace("Ejected host " + removed);
-                    ENDPOINT_SET.remove(removed);
-                }
-                added = true;
+            } else {
+                //TODO: we could adjust the key
+                LOG.trace("Not adding duplicate host");
             }
         }
         if(added)
@@ -925,6 +1151,24 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         return added;
     }
 
+    /**
+     * Returns a copy of a host known by name that is addressed by its IPv4
+     * address instead, or null if the name doesn't resolve to one.
+     */
+    private static ExtendedEndpoint toDottedQuad(ExtendedEndpoint e) {
+        InetAddress addr = e.getInetAddress();
+        if(!(addr instanceof Inet4Address))
+            return null;
+        ExtendedEndpoint resolved = new ExtendedEndpoint(addr.getHostAddress(),
+                e.getPort(), e.getReportedDailyUptime(), e.getTimeRecorded(), false);
+        resolved.setClientLocale(e.getClientLocale());
+        resolved.setTLSCapable(e.isTLSCapable());
+        resolved.setDHTVersion(e.getDHTVersion());
+        resolved.setDHTMode(e.getDHTMode());
+        resolved.inheritHistory(e);
+        return resolved;
+    }
+
     /**
      * Adds a host to the set that will be saved for future sessions.
      * 
@@ -938,7 +1182,7 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             LOG.trace("Not permanently adding host with private address");
             return false;
         }
-        if(permanentHostsSet.contains(e)) {
+        if(permanentHostsSet.containsKey(e)) {
             //TODO: we could adjust the key
             LOG.trace("Not permanently adding duplicate host");
             return false;
@@ -949,12 +1193,16 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
             // The host was actually added...
             if(LOG.isInfoEnabled())
                 LOG.info("Permanently adding host " + e);
-            permanentHostsSet.add(e);
+            permanentHostsSet.put(e, e);
+            changedPermanentHosts.add(e);
+            removedPermanentHosts.remove(e);
             if(removed != null) {
                 // ...and something else was removed
                 if(LOG.isTraceEnabled())
                     LOG.trace("Ejected permanent host " + removed);
                 permanentHostsSet.remove(removed);
+                changedPermanentHosts.remove(removed);
+                removedPermanentHosts.add(removed);
             }
             dirty = true;
             return true;
@@ -974,9 +1222,11 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
      */
     private boolean removePermanent(ExtendedEndpoint e) {
         boolean removed1 = permanentHosts.remove(e);
-        boolean removed2 = permanentHostsSet.remove(e);
+        boolean removed2 = permanentHostsSet.remove(e) != null;
+        changedPermanentHosts.remove(e);
         assert removed1 == removed2 : "Queue "+removed1+" but set "+removed2;
         if(removed1) {
+            removedPermanentHosts.add(e);
             dirty = true;
             if(LOG.isTraceEnabled())
                 LOG.trace("Removed permanent host " + e);
@@ -1013,8 +1263,9 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         }
 
         // Don't add the host if it has previously failed
-        synchronized(this) {
-            if(EXPIRED_HOSTS.contains(host)) {
+        long key = addr.length == 4 ? PackedHostIndex.pack(addr, host.getPort()) : -1;
+        synchronized(failedHostsLock) {
+            if(key != -1 && EXPIRED_HOSTS.contains(key)) {
                 LOG.trace("Host is invalid: expired");
                 return false;
             }
@@ -1038,28 +1289,23 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
                 LOG.trace(ipp + (capable ? " is" : " is not") + " TLS capable");
             return capable;
         }        
-        // Retrieve an ExtendedEndpoint using its IP and port
-        Endpoint p = new Endpoint(ipp.getAddress(), ipp.getPort());
-        ExtendedEndpoint ee;
-        // Look everywhere
+        // Look everywhere, using the IP and port
+        long key = PackedHostIndex.pack(ipp);
+        boolean capable;
         synchronized(this) {
-            ee = ENDPOINT_SET.get(p);
-            if(ee == null)
-                ee = FREE_ULTRAPEER_SLOTS_SET.get(p);
-            if(ee == null)
-                ee = FREE_LEAF_SLOTS_SET.get(p);
-        }
-        
-        if(ee == null) {
-            if(LOG.isTraceEnabled())
-                LOG.trace(ipp + " is not known to be TLS capable");
-            return false;
-        } else {
-            boolean capable = ee.isTLSCapable();
-            if(LOG.isTraceEnabled())
-                LOG.trace(ipp + (capable ? " is" : " is not") + " TLS capable");
-            return capable;
+            if(key != -1 && ENDPOINT_QUEUE.contains(key)) {
+                capable = ENDPOINT_QUEUE.isTLSCapable(key);
+            } else {
+                Endpoint p = new Endpoint(ipp.getAddress(), ipp.getPort());
+                ExtendedEndpoint ee = FREE_ULTRAPEER_SLOTS_SET.get(p);
+                if(ee == null)
+                    ee = FREE_LEAF_SLOTS_SET.get(p);
+                capable = ee != null && ee.isTLSCapable();
+            }
         }
+        if(LOG.isTraceEnabled())
+            LOG.trace(ipp + (capable ? " is" : " is not") + " known to be TLS capable");
+        return capable;
     }
     
     /**
@@ -1172,7 +1418,18 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
      * a connection to the given host. This allows the catcher to update the
      * host's connection history.
      */
-    public synchronized void doneWithConnect(Endpoint e, boolean success) {
+    public void doneWithConnect(Endpoint e, boolean success) {
+        doneWithConnect(e, success, -1);
+    }
+
+    /**
+     * Notifies the catcher that a connection fetcher has finished attempting
+     * a connection to the given host, which took <code>connectTime</code>
+     * milliseconds to connect and handshake if it succeeded, or -1 if
+     * unknown. This allows the catcher to update the host's connection
+     * history and success score, which are kept in the host file.
+     */
+    public synchronized void doneWithConnect(Endpoint e, boolean success, long connectTime) {
         //Normal host: update key.  TODO: adjustKey() operation may be more
         //efficient.
         if(!(e instanceof ExtendedEndpoint)) {
@@ -1184,9 +1441,14 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         
         ExtendedEndpoint ee = (ExtendedEndpoint)e;
 
+        // A host learned from a pong may already have a history from an
+        // earlier session
+        ExtendedEndpoint known = permanentHostsSet.get(ee);
+        if(known != null && known != ee)
+            ee.inheritHistory(known);
         removePermanent(ee);
         if(success) {
-            ee.recordConnectionSuccess();
+            ee.recordConnectionSuccess(connectTime);
         } else {
             ee.recordConnectionFailure();
         }
@@ -1224,19 +1486,13 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         // No free slots
         if(!ENDPOINT_QUEUE.isEmpty()) {
             LOG.trace("Returning ordinary host");
-            ExtendedEndpoint removed1 = ENDPOINT_QUEUE.extractMax();
-            ExtendedEndpoint removed2 = ENDPOINT_SET.remove(removed1);
-            assert removed1 == removed2 : "Invariant for HostCatcher broken";
-            return removed1;
+            return ENDPOINT_QUEUE.extractMax();
         }
         // Getting pretty desperate now
         if(!restoredHosts.isEmpty()) {
-            LOG.trace("Returning restored host with high uptime");
-            // Last partition has highest uptimes
-            List<ExtendedEndpoint> best = uptimePartitions.getLastPartition();
-            ExtendedEndpoint ee =
-                best.remove((int)(Math.random() * best.size()));
-            return ee;
+            LOG.trace("Returning restored host with best success score");
+            // Last host has the highest score
+            return restoredHosts.remove(restoredHosts.size() - 1);
         }
         LOG.trace("No hosts to return");
         return null;
@@ -1377,8 +1633,10 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         LOG.trace("Resetting failures caused by no internet connection");
 
         synchronized(this) {
-            PROBATION_HOSTS.clear();
-            EXPIRED_HOSTS.clear();
+            synchronized(failedHostsLock) {
+                PROBATION_HOSTS.clear();
+                EXPIRED_HOSTS.clear();
+            }
             bootstrapper.reset();
             restoredHosts.clear();
             uniqueHostPinger.resetData();
@@ -1398,12 +1656,18 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
         FREE_ULTRAPEER_SLOTS_SET.clear();
         LOCALE_SET_MAP.clear();
         ENDPOINT_QUEUE.clear();
-        ENDPOINT_SET.clear();
         restoredHosts.clear();
-        PROBATION_HOSTS.clear();
-        EXPIRED_HOSTS.clear();
+        synchronized(failedHostsLock) {
+            PROBATION_HOSTS.clear();
+            EXPIRED_HOSTS.clear();
+        }
         permanentHosts.clear();
         permanentHostsSet.clear();
+        changedPermanentHosts.clear();
+        removedPermanentHosts.clear();
+        // the hosts in the file are gone, so a checkpoint can't append to it
+        rewriteHostFile = true;
+        dirty = true;
         bootstrapper.reset();
         uniqueHostPinger.resetData();
     }
@@ -1417,14 +1681,9 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
     private void checkInvariants() {
         if(DEBUG) {
             synchronized(this) {
-                // Check ENDPOINT_SET == ENDPOINT_QUEUE
-                for(ExtendedEndpoint ee : ENDPOINT_QUEUE) {
-                    assert ENDPOINT_SET.containsKey(ee);
-                }
-                assert ENDPOINT_QUEUE.size() == ENDPOINT_SET.size();
                 // Check permanentHostsSet === permanentHosts
                 for(ExtendedEndpoint ee : permanentHosts) {
-                    assert permanentHostsSet.contains(ee);
+                    assert permanentHostsSet.containsKey(ee);
                 }
                 assert permanentHosts.size() == permanentHostsSet.size();
             }
@@ -1436,11 +1695,13 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
      * These are hosts that are on the network but that have rejected a 
      * connection attempt.  They will periodically be re-activated as needed.
      */
-    public synchronized void putHostOnProbation(Endpoint host) {
+    public void putHostOnProbation(Endpoint host) {
         LOG.trace("Putting a host on probation");
-        PROBATION_HOSTS.add(host);
-        if(PROBATION_HOSTS.size() > PROBATION_HOSTS_SIZE) {
-            PROBATION_HOSTS.remove(PROBATION_HOSTS.iterator().next());
+        synchronized(failedHostsLock) {
+            PROBATION_HOSTS.add(host);
+            if(PROBATION_HOSTS.size() > PROBATION_HOSTS_SIZE) {
+                PROBATION_HOSTS.remove(PROBATION_HOSTS.iterator().next());
+            }
         }
     }
     
@@ -1449,11 +1710,13 @@ public class HostCatcher implements Service, Bootstrapper.Listener {
      * that we have been unable to create a TCP connection to, let alone a 
      * Gnutella connection.
      */
-    public synchronized void expireHost(Endpoint host) {
+    public void expireHost(Endpoint host) {
         LOG.trace("Expiring a host");
-        EXPIRED_HOSTS.add(host);
-        if(EXPIRED_HOSTS.size() > EXPIRED_HOSTS_SIZE) {
-            EXPIRED_HOSTS.remove(EXPIRED_HOSTS.iterator().next());
+        long key = PackedHostIndex.pack(host);
+        if(key == -1)
+            return;
+        synchronized(failedHostsLock) {
+            EXPIRED_HOSTS.add(key);
         }
     }
     
@@ -45,6 +45,7 @@ import org.limewire.net.address.AddressEvent;
 import org.limewire.net.address.FirewalledAddressSerializer;
 import org.limewire.nio.ByteBufferCache;
 import org.limewire.nio.NIODispatcher;
+import org.limewire.security.ParallelSecureMessageVerifierImpl;
 import org.limewire.security.SecureMessageVerifier;
 import org.limewire.security.SecureMessageVerifierImpl;
 import org.limewire.security.SecurityToken;
@@ -52,6 +53,7 @@ import org.limewire.security.SettingsProvider;
 import org.limewire.security.certificate.LimeWireSecurityCertificateModule;
 import org.limewire.security.id.SecureIdStore;
 import org.limewire.statistic.LimeWireStatisticsModule;
+import org.limewire.statistic.MetricsRegistry;
 import org.limewire.util.JmxUtils;
 
 import com.google.inject.Provides;
@@ -338,8 +340,12 @@ public class LimeWireCoreModule extends AbstractModule {
     }
     
     @Provides @Singleton SecureMessageVerifier smv() {        
-        return new SecureMessageVerifierImpl("GCBADNZQQIASYBQHFKDERTRYAQATBAQBD4BIDAIA7V7VHAI5OUJCSUW7JKOC53HE473BDN2SHTXUIAGDDY7YBNSREZUUKXKAEJI7WWJ5RVMPVP6F6W5DB5WLTNKWZV4BHOAB2NDP6JTGBN3LTFIKLJE7T7UAI6YQELBE7O5J277LPRQ37A5VPZ6GVCTBKDYE7OB7NU6FD3BQENKUCNNBNEJS6Z27HLRLMHLSV37SEIBRTHORJAA4OAQVACLWAUEPCURQXTFSSK4YFIXLQQF7AWA46UBIDAIA67Q2BBOWTM655S54VNODNOCXXF4ZJL537I5OVAXZK5GAWPIHQJTVCWKXR25NIWKP4ZYQOEEBQC2ESFTREPUEYKAWCO346CJSRTEKNYJ4CZ5IWVD4RUUOBI5ODYV3HJTVSFXKG7YL7IQTKYXR7NRHUAJEHPGKJ4N6VBIZBCNIQPP6CWXFT4DJFC3GL2AHWVJFMQAUYO76Z5ESUA4BQQAAFAMAHR2O6ZOZA4SFMDNGGUC7PDA7W7HMUGEA32R7SCKAANQXFWMOD6KJE43YM53HIPVADVKFL5FA6MKL5GHTBHIURAWGGQTXPEGPLXB7KYTMC6TAPUPFYGNWB4THDQVN4PDARIU3UGXQKFHNAQFL6TUJBA6KXTBLAJBSXD54J6NUVIECRUOA7R57AH6GWGO7VOBDRTIYBXPSY7FTI",
-                    null);    
+        ParallelSecureMessageVerifierImpl verifier = new ParallelSecureMessageVerifierImpl("GCBADNZQQIASYBQHFKDERTRYAQATBAQBD4BIDAIA7V7VHAI5OUJCSUW7JKOC53HE473BDN2SHTXUIAGDDY7YBNSREZUUKXKAEJI7WWJ5RVMPVP6F6W5DB5WLTNKWZV4BHOAB2NDP6JTGBN3LTFIKLJE7T7UAI6YQELBE7O5J277LPRQ37A5VPZ6GVCTBKDYE7OB7NU6FD3BQENKUCNNBNEJS6Z27HLRLMHLSV37SEIBRTHORJAA4OAQVACLWAUEPCURQXTFSSK4YFIXLQQF7AWA46UBIDAIA67Q2BBOWTM655S54VNODNOCXXF4ZJL537I5OVAXZK5GAWPIHQJTVCWKXR25NIWKP4ZYQOEEBQC2ESFTREPUEYKAWCO346CJSRTEKNYJ4CZ5IWVD4RUUOBI5ODYV3HJTVSFXKG7YL7IQTKYXR7NRHUAJEHPGKJ4N6VBIZBCNIQPP6CWXFT4DJFC3GL2AHWVJFMQAUYO76Z5ESUA4BQQAAFAMAHR2O6ZOZA4SFMDNGGUC7PDA7W7HMUGEA32R7SCKAANQXFWMOD6KJE43YM53HIPVADVKFL5FA6MKL5GHTBHIURAWGGQTXPEGPLXB7KYTMC6TAPUPFYGNWB4THDQVN4PDARIU3UGXQKFHNAQFL6TUJBA6KXTBLAJBSXD54J6NUVIECRUOA7R57AH6GWGO7VOBDRTIYBXPSY7FTI",
+                    null);
+        
+        JmxUtils.add(LimeWireCoreModule.class, "secureMessageVerifier", verifier);
+        
+        return verifier;
     };
     
     @Provides @Singleton @Named("inspection") SecureMessageVerifier imv() {
@@ -431,8 +437,10 @@ public class LimeWireCoreModule extends AbstractModule {
     /// BELOW ARE ALL HACK PROVIDERS THAT NEED TO BE UPDATED TO CONSTRUCT OBJECTS!
     // (This needs to wait till components are injected and stop using singletons too.)
     
-    @Provides @EagerSingleton NIODispatcher nd() {
-        return NIODispatcher.instance();
+    @Provides @EagerSingleton NIODispatcher nd(MetricsRegistry metrics) {
+        NIODispatcher dispatcher = NIODispatcher.instance();
+        metrics.register("nio.dispatch", dispatcher.getDispatchTimes());
+        return dispatcher;
     }
     
     @Provides @LazySingleton ByteBufferCache bbc(NIODispatcher nd) {
@@ -42,6 +42,8 @@ import org.limewire.security.AddressSecurityToken;
 import org.limewire.security.MACCalculatorRepositoryManager;
 import org.limewire.security.SecurityToken;
 import org.limewire.service.ErrorService;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.statistic.MetricsRegistry;
 import org.limewire.util.ByteUtils;
 import org.limewire.util.Objects;
 import org.limewire.util.StringUtils;
@@ -234,6 +236,15 @@ public abstract class MessageRouterImpl implements MessageRouter {
      */
     private final Object MESSAGE_LISTENER_LOCK = new Object();
 
+    /** Time spent handling messages received over TCP. */
+    private final LatencyHistogram tcpMessageTimes = new LatencyHistogram();
+
+    /** Time spent handling messages received over UDP. */
+    private final LatencyHistogram udpMessageTimes = new LatencyHistogram();
+
+    /** Time spent handling queries that were not duplicates. */
+    private final LatencyHistogram queryTimes = new LatencyHistogram();
+
     /**
      * The time we last received a request for a query key.
      */
@@ -499,6 +510,13 @@ public abstract class MessageRouterImpl implements MessageRouter {
         registry.register(this).in(ServiceStage.EARLY);
     }
     
+    @Inject
+    void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("routing.message.tcp", tcpMessageTimes);
+        metrics.register("routing.message.udp", udpMessageTimes);
+        metrics.register("routing.query", queryTimes);
+    }
+    
     public void initialize() {
     }
     
@@ -636,6 +654,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
      */
     public void handleMessage(Message msg, 
                               ReplyHandler receivingConnection) {
+        long start = System.nanoTime();
         // Increment hops and decrease TTL.
         msg.hop();
         MessageHandler msgHandler = getMessageHandler(msg.getHandlerClass());
@@ -653,6 +672,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
         //clients.
 		//forwardQueryRouteTables();
         notifyMessageListener(msg, receivingConnection);
+        tcpMessageTimes.recordSince(start);
     }
 
     /**
@@ -676,6 +696,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
 	        LOG.trace("Handling UDP message " + msg + " from " + addr);
 	    }
 	    
+	    long start = System.nanoTime();
 	    // Increment hops and decrement TTL.
 	    msg.hop();
 
@@ -700,6 +721,7 @@ public abstract class MessageRouterImpl implements MessageRouter {
         }
         
         notifyMessageListener(msg, replyHandler);
+        udpMessageTimes.recordSince(start);
     }
     
     /* (non-Javadoc)
@@ -862,7 +884,9 @@ public abstract class MessageRouterImpl implements MessageRouter {
             // 1a and 2b2
             // if a new probe or a new request, do everything (so input true
             // below)
+            long start = System.nanoTime();
             handleQueryRequest(request, receivingConnection, counter, true);
+            queryTimes.recordSince(start);
 		} else if (!isProbeQuery) {// probe extension?
             if (wasProbeQuery(request)) {
                 // rebroadcast out but don't locally evaluate....
@@ -899,7 +923,9 @@ public abstract class MessageRouterImpl implements MessageRouter {
 			_queryRouteTable.tryToRouteReply(request.getGUID(), 
 											 handler);
 		if(counter != null) {
+            long start = System.nanoTime();
             handleQueryRequest(request, handler, counter, true);
+            queryTimes.recordSince(start);
             return true;
 		}
 		return false;
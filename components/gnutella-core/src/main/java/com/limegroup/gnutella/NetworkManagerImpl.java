@@ -36,11 +36,14 @@ import org.limewire.net.ProxySettings.ProxyType;
 import org.limewire.net.address.AddressEvent;
 import org.limewire.net.address.FirewalledAddress;
 import org.limewire.nio.ByteBufferCache;
+import org.limewire.nio.ssl.HandshakeStatistics;
 import org.limewire.nio.ssl.SSLEngineTest;
 import org.limewire.nio.ssl.SSLUtils;
 import org.limewire.rudp.RUDPUtils;
 import org.limewire.service.ErrorService;
 import org.limewire.setting.BooleanSetting;
+import org.limewire.setting.IntSetting;
+import org.limewire.statistic.MetricsRegistry;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -140,8 +143,18 @@ public class NetworkManagerImpl implements NetworkManager {
     }
     
 
+    @Inject
+    void registerMetrics(MetricsRegistry metrics) {
+        HandshakeStatistics handshakes = SSLUtils.getHandshakeStatistics();
+        metrics.register("tls.handshake.full", handshakes.getFullHandshakes());
+        metrics.register("tls.handshake.resumed", handshakes.getResumedHandshakes());
+    }
+
     public void start() {
         if(isIncomingTLSEnabled() || isOutgoingTLSEnabled()) {
+            SSLUtils.setSessionCache(SSLSettings.TLS_SESSION_CACHE_SIZE.getValue(),
+                    SSLSettings.TLS_SESSION_TIMEOUT.getValue());
+            HandshakeStatistics.enableCpuTime();
             if(applicationServices.isNewInstall() || applicationServices.isNewJavaVersion() || !SSLSettings.TLS_WORKED_LAST_TIME.getValue()) {
                 //block if new install or new java version, or tls did not work last time we ran limewire.
                 validateTLS();
@@ -532,6 +545,14 @@ public class NetworkManagerImpl implements NetworkManager {
         /** False if we want to report exceptions in TLS handling. */
         public static final BooleanSetting IGNORE_SSL_EXCEPTIONS =
             FACTORY.createRemoteBooleanSetting("IGNORE_SSL_EXCEPTIONS", true);
+        
+        /** The number of TLS sessions cached for resumption, per side. */
+        public static final IntSetting TLS_SESSION_CACHE_SIZE =
+            FACTORY.createRemoteIntSetting("TLS_SESSION_CACHE_SIZE", SSLUtils.DEFAULT_SESSION_CACHE_SIZE);
+        
+        /** The number of seconds a cached TLS session can be resumed for. */
+        public static final IntSetting TLS_SESSION_TIMEOUT =
+            FACTORY.createRemoteIntSetting("TLS_SESSION_TIMEOUT", SSLUtils.DEFAULT_SESSION_TIMEOUT);
     
     }
 
@@ -0,0 +1,188 @@
+package com.limegroup.gnutella;
+
+import java.util.Arrays;
+
+import org.limewire.io.IpPort;
+
+/**
+ * An open addressing hash table from hosts packed into longs to int values,
+ * used by the host cache instead of a <code>HashMap</code> so that looking up
+ * a host neither allocates nor compares hostnames.
+ * <p>
+ * A host is packed as its IPv4 address followed by its port, see
+ * {@link #pack(IpPort)}. Packed hosts are never negative.
+ * <p>
+ * This class is not thread-safe.
+ */
+class PackedHostIndex {
+
+    /** Marks a free entry of the table. */
+    private static final long FREE = -1;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Creates an index sized for up to <code>expectedSize</code> hosts. It
+     * grows if more are added.
+     */
+    PackedHostIndex(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) * 2);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        clear();
+    }
+
+    /** Returns the value of a packed host, or -1 if it isn't in the index. */
+    int get(long key) {
+        for (int i = slot(key); keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return -1;
+    }
+
+    /** Returns true if the packed host is in the index. */
+    boolean contains(long key) {
+        return get(key) != -1;
+    }
+
+    /** Sets the value of a packed host. The value must not be negative. */
+    void put(long key, int value) {
+        assert key >= 0 && value >= 0;
+        int i = slot(key);
+        for (; keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length)
+            grow();
+    }
+
+    /** Removes a packed host, returning its value or -1 if it wasn't there. */
+    int remove(long key) {
+        for (int i = slot(key); keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int value = values[i];
+                removeAt(i);
+                size--;
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Frees entry <code>i</code> and moves the entries after it that
+     * probed past it back, so lookups never have to skip removed entries.
+     */
+    private void removeAt(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == FREE)
+                break;
+            int home = slot(keys[j]);
+            // leave the entry where it is if its home lies cyclically in (i, j]
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+                continue;
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+        keys[i] = FREE;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Packs the IPv4 address and port of a host into a long, or returns -1
+     * if the host's address is not a dotted quad. Hosts known by name are
+     * not resolved, since this is called while holding locks.
+     */
+    static long pack(IpPort host) {
+        long ip = parseDottedQuad(host.getAddress());
+        if (ip == -1)
+            return -1;
+        return ip << 16 | (host.getPort() & 0xFFFF);
+    }
+
+    /**
+     * Parses a dotted quad address without allocating, returning -1 if
+     * <code>address</code> is not one.
+     */
+    private static long parseDottedQuad(String address) {
+        long ip = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet == -1 ? c - '0' : octet * 10 + c - '0';
+                if (octet > 255)
+                    return -1;
+            } else if (c == '.' && octet != -1 && dots < 3) {
+                ip = ip << 8 | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet == -1)
+            return -1;
+        return ip << 8 | octet;
+    }
+
+    /** Packs an IPv4 address and a port into a long. */
+    static long pack(byte[] ip, int port) {
+        return (ip[0] & 0xFFL) << 40 | (ip[1] & 0xFFL) << 32 | (ip[2] & 0xFFL) << 24
+                | (ip[3] & 0xFFL) << 16 | (port & 0xFFFF);
+    }
+
+    /** Returns the dotted quad address of a packed host. */
+    static String getAddress(long key) {
+        return ((key >>> 40) & 0xFF) + "." + ((key >>> 32) & 0xFF) + "."
+                + ((key >>> 24) & 0xFF) + "." + ((key >>> 16) & 0xFF);
+    }
+
+    /** Returns the port of a packed host. */
+    static int getPort(long key) {
+        return (int)(key & 0xFFFF);
+    }
+}
@@ -0,0 +1,201 @@
+package com.limegroup.gnutella;
+
+import java.util.Collection;
+
+import com.limegroup.gnutella.dht.DHTManager.DHTMode;
+
+/**
+ * The hosts {@link HostCatcher} will try to connect to, ordered like a
+ * {@link org.limewire.collection.BucketQueue}: one bucket per priority, the
+ * newest host of the highest priority comes out first, and a full bucket
+ * ejects its oldest host.
+ * <p>
+ * Unlike a <code>BucketQueue</code> of <code>ExtendedEndpoint</code>s this
+ * doesn't keep an object per host. Hosts are packed into longs (see
+ * {@link PackedHostIndex#pack(org.limewire.io.IpPort)}) and the rest of what
+ * a pong tells about them is kept in parallel arrays, so adding, finding and
+ * taking a host are all constant time and allocation free. An
+ * <code>ExtendedEndpoint</code> is only created for a host when it is taken
+ * out of the queue or listed. Only IPv4 hosts can be added.
+ * <p>
+ * This class is not thread-safe.
+ */
+class PackedHostQueue {
+
+    /** The slots of the hosts in each bucket, a ring with the newest first. */
+    private final int[][] buckets;
+
+    /** The index of the newest host in each bucket's ring. */
+    private final int[] heads;
+
+    /** The number of hosts in each bucket. */
+    private final int[] sizes;
+
+    /** The slots not used by any host. */
+    private final int[] freeSlots;
+
+    private int freeCount;
+
+    /** The slot of every host in the queue. */
+    private final PackedHostIndex index;
+
+    // The state of the host in each slot.
+    private final long[] keys;
+    private final int[] dailyUptimes;
+    private final long[] timesRecorded;
+    private final String[] locales;
+    private final boolean[] tlsCapable;
+    private final int[] dhtVersions;
+    private final DHTMode[] dhtModes;
+
+    /**
+     * Creates a queue with <code>capacities.length</code> priorities,
+     * priority <code>i</code> holding up to <code>capacities[i]</code>
+     * hosts.
+     */
+    PackedHostQueue(int[] capacities) {
+        int total = 0;
+        buckets = new int[capacities.length][];
+        for (int i = 0; i < capacities.length; i++) {
+            if (capacities[i] <= 0)
+                throw new IllegalArgumentException("Bad capacity: " + capacities[i]);
+            buckets[i] = new int[capacities[i]];
+            total += capacities[i];
+        }
+        heads = new int[capacities.length];
+        sizes = new int[capacities.length];
+        freeSlots = new int[total];
+        index = new PackedHostIndex(total);
+        keys = new long[total];
+        dailyUptimes = new int[total];
+        timesRecorded = new long[total];
+        locales = new String[total];
+        tlsCapable = new boolean[total];
+        dhtVersions = new int[total];
+        dhtModes = new DHTMode[total];
+        clear();
+    }
+
+    /**
+     * Adds a host with the given priority, ejecting the oldest host of that
+     * priority if its bucket is full.
+     *
+     * @return false if the host was already queued or is not an IPv4 host
+     */
+    boolean insert(ExtendedEndpoint host, int priority) {
+        long key = PackedHostIndex.pack(host);
+        if (key < 0 || index.contains(key))
+            return false;
+
+        int[] bucket = buckets[priority];
+        if (sizes[priority] == bucket.length) {
+            int oldest = bucket[(heads[priority] + sizes[priority] - 1) % bucket.length];
+            release(oldest);
+            sizes[priority]--;
+        }
+
+        int slot = freeSlots[--freeCount];
+        keys[slot] = key;
+        dailyUptimes[slot] = host.getReportedDailyUptime();
+        timesRecorded[slot] = host.getTimeRecorded();
+        locales[slot] = host.getClientLocale();
+        tlsCapable[slot] = host.isTLSCapable();
+        dhtVersions[slot] = host.getDHTVersion();
+        dhtModes[slot] = host.getDHTMode();
+        index.put(key, slot);
+
+        heads[priority] = (heads[priority] + bucket.length - 1) % bucket.length;
+        bucket[heads[priority]] = slot;
+        sizes[priority]++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the newest host of the highest priority, or null
+     * if the queue is empty.
+     */
+    ExtendedEndpoint extractMax() {
+        for (int priority = buckets.length - 1; priority >= 0; priority--) {
+            if (sizes[priority] > 0) {
+                int[] bucket = buckets[priority];
+                int slot = bucket[heads[priority]];
+                heads[priority] = (heads[priority] + 1) % bucket.length;
+                sizes[priority]--;
+                ExtendedEndpoint host = toEndpoint(slot);
+                release(slot);
+                return host;
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if the host is queued. */
+    boolean contains(long key) {
+        return index.contains(key);
+    }
+
+    /** Returns true if the host is queued and known to support TLS. */
+    boolean isTLSCapable(long key) {
+        int slot = index.get(key);
+        return slot != -1 && tlsCapable[slot];
+    }
+
+    /**
+     * Adds all queued hosts to <code>hosts</code>, in the order they would
+     * be taken out.
+     */
+    void addAllTo(Collection<? super ExtendedEndpoint> hosts) {
+        for (int priority = buckets.length - 1; priority >= 0; priority--) {
+            int[] bucket = buckets[priority];
+            for (int i = 0; i < sizes[priority]; i++)
+                hosts.add(toEndpoint(bucket[(heads[priority] + i) % bucket.length]));
+        }
+    }
+
+    /** Returns the number of queued hosts. */
+    int size() {
+        return index.size();
+    }
+
+    /** Returns the number of queued hosts with the given priority. */
+    int size(int priority) {
+        return sizes[priority];
+    }
+
+    boolean isEmpty() {
+        return index.size() == 0;
+    }
+
+    void clear() {
+        index.clear();
+        for (int i = 0; i < buckets.length; i++) {
+            heads[i] = 0;
+            sizes[i] = 0;
+        }
+        for (int i = 0; i < freeSlots.length; i++) {
+            freeSlots[i] = freeSlots.length - 1 - i;
+            locales[i] = null;
+            dhtModes[i] = null;
+        }
+        freeCount = freeSlots.length;
+    }
+
+    /** Forgets the host in a slot, which must already be out of its bucket. */
+    private void release(int slot) {
+        index.remove(keys[slot]);
+        locales[slot] = null;
+        dhtModes[slot] = null;
+        freeSlots[freeCount++] = slot;
+    }
+
+    private ExtendedEndpoint toEndpoint(int slot) {
+        long key = keys[slot];
+        ExtendedEndpoint host = new ExtendedEndpoint(PackedHostIndex.getAddress(key),
+                PackedHostIndex.getPort(key), dailyUptimes[slot], timesRecorded[slot], false);
+        host.setClientLocale(locales[slot]);
+        host.setTLSCapable(tlsCapable[slot]);
+        host.setDHTVersion(dhtVersions[slot]);
+        host.setDHTMode(dhtModes[slot]);
+        return host;
+    }
+}
@@ -0,0 +1,56 @@
+package com.limegroup.gnutella;
+
+/**
+ * A bounded set of hosts packed into longs (see
+ * {@link PackedHostIndex#pack(org.limewire.io.IpPort)}). Once full, adding a
+ * host forgets the oldest one.
+ * <p>
+ * This class is not thread-safe.
+ */
+class PackedHostSet {
+
+    /** The hosts in the order they were added, a ring with the oldest first. */
+    private final long[] hosts;
+
+    private int head;
+
+    private final PackedHostIndex index;
+
+    PackedHostSet(int capacity) {
+        hosts = new long[capacity];
+        index = new PackedHostIndex(capacity);
+    }
+
+    /**
+     * Adds a host, forgetting the oldest host if the set is full.
+     *
+     * @return false if the host was already in the set
+     */
+    boolean add(long key) {
+        if (index.contains(key))
+            return false;
+        int size = index.size();
+        if (size == hosts.length) {
+            index.remove(hosts[head]);
+            hosts[head] = key;
+            head = (head + 1) % hosts.length;
+        } else {
+            hosts[(head + size) % hosts.length] = key;
+        }
+        index.put(key, 0);
+        return true;
+    }
+
+    boolean contains(long key) {
+        return index.contains(key);
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    void clear() {
+        index.clear();
+        head = 0;
+    }
+}
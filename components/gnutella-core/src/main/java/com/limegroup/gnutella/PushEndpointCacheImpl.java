@@ -1,12 +1,13 @@
 package com.limegroup.gnutella;
 
-import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Collections;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -16,7 +17,6 @@ import org.limewire.inject.EagerSingleton;
 import org.limewire.io.Connectable;
 import org.limewire.io.GUID;
 import org.limewire.io.IpPort;
-import org.limewire.io.IpPortSet;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.lifecycle.ServiceScheduler;
 
@@ -30,43 +30,60 @@ class PushEndpointCacheImpl implements PushEndpointCache {
     
     private static final Log LOG = LogFactory.getLog(PushEndpointCacheImpl.class);
     
+    /** The seconds between expiry ticks. */
+    private static final int TICK_SECONDS = 30;
+    
+    /** The ticks an endpoint that isn't used stays in the cache: 20 minutes. */
+    private static final int LIFETIME_TICKS = 40;
+    
     /**
      * A mapping from GUID to a CachedPushEndpoint.  This is used to ensure
      * that all PE's will have access to the same PushProxies, even if
      * multiple PE's exist for a single GUID.  Because access to the proxies
-     * is referenced from this GUID_PROXY_MAP, the PE will always receive the
+     * is referenced from this map, the PE will always receive the
      * most up-to-date set of proxies.
      *
      * Insertion to this map must be manually performed, to allow for temporary
      * PE objects that are used to update pre-existing ones.
      *
-     * There is no explicit removal from the map -- the Weak nature of it will
-     * automatically remove the key/value pairs when the key is garbage
-     * collected.  For this reason, all PEs must reference the exact GUID
-     * object that is stored in the map -- to ensure that the map will not GC
-     * the GUID while it is still in use by a PE.
-     *
-     * The value is a CachedPushEndpoint SetWrapper (containing a WeakReference to the
-     * GUID key as well as the Set of proxies) so that subsequent PEs can 
-     * reference the true key object.  A WeakReference is used to allow
-     * GC'ing to still work and the map to ultimately remove unused keys.
+     * Endpoints are removed when they weren't used for {@link #LIFETIME_TICKS}
+     * ticks; PEs that outlive their mapping fall back to the proxies they
+     * last saw.
+     */
+    private final ConcurrentMap<GUID, CachedPushEndpoint> GUID_PROXY_MAP = 
+        new ConcurrentHashMap<GUID, CachedPushEndpoint>();
+    
+    /**
+     * A timing wheel of the cached endpoints: slot <code>t % length</code>
+     * holds the endpoints that expire at tick <code>t</code>, unless they
+     * were used since they were put in it.
      */
-    private final Map<GUID, CachedPushEndpoint> GUID_PROXY_MAP = 
-        Collections.synchronizedMap(new WeakHashMap<GUID, CachedPushEndpoint>());
+    private final Queue<CachedPushEndpoint>[] expiryWheel;
+    
+    /** The current tick, only advanced by {@link #expire()}. */
+    private volatile int tick;
     
     private final HTTPHeaderUtils httpHeaderUtils;
 
     private final NetworkInstanceUtils networkInstanceUtils;
     
+    @SuppressWarnings("unchecked")
     @Inject
     PushEndpointCacheImpl(HTTPHeaderUtils httpHeaderUtils, NetworkInstanceUtils networkInstanceUtils) {
         this.httpHeaderUtils = httpHeaderUtils;
         this.networkInstanceUtils = networkInstanceUtils;
+        expiryWheel = new Queue[LIFETIME_TICKS + 1];
+        for (int i = 0; i < expiryWheel.length; i++)
+            expiryWheel[i] = new ConcurrentLinkedQueue<CachedPushEndpoint>();
     }
     
     @Inject
     public void register(final @Named("backgroundExecutor") ScheduledExecutorService backgroundExecutor, ServiceScheduler serviceScheduler) {
-        serviceScheduler.scheduleWithFixedDelay("PushEndpointCacheImpl WeakHashMap Cleaner", new WeakCleaner(), 30, 30, TimeUnit.SECONDS, backgroundExecutor);
+        serviceScheduler.scheduleWithFixedDelay("PushEndpointCacheImpl Expirer", new Runnable() {
+            public void run() {
+                expire();
+            }
+        }, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS, backgroundExecutor);
     }
 
     /**
@@ -89,16 +106,13 @@ class PushEndpointCacheImpl implements PushEndpointCache {
      */
     public void overwriteProxies(byte[] guid, Set<? extends IpPort> newSet) {
         GUID g = new GUID(guid);
-        CachedPushEndpoint wrapper ;
-        synchronized(GUID_PROXY_MAP) {
-            wrapper = GUID_PROXY_MAP.get(g);
-            if (wrapper==null) {
-                wrapper = new CachedPushEndpoint(g, newSet);
-                GUID_PROXY_MAP.put(g, wrapper);
-            } else {
-                wrapper.overwriteProxies(newSet);
-            }
+        CachedPushEndpoint wrapper = getCached(g);
+        if (wrapper == null) {
+            wrapper = add(new CachedPushEndpoint(g, newSet));
+            if (wrapper == null)
+                return;
         }
+        wrapper.overwriteProxies(newSet);
     }
     
     public void removePushProxy(byte[] bytes, IpPort pushProxy) {
@@ -106,7 +120,7 @@ class PushEndpointCacheImpl implements PushEndpointCache {
             LOG.debug("Removing push proxy: " + pushProxy + " for " + new GUID(bytes));
         }
         GUID guid = new GUID(bytes);
-        CachedPushEndpoint cachedPushEndpoint = GUID_PROXY_MAP.get(guid);
+        CachedPushEndpoint cachedPushEndpoint = getCached(guid);
         if (cachedPushEndpoint != null) {
             cachedPushEndpoint.removePushProxy(pushProxy);
         }
@@ -134,11 +148,14 @@ class PushEndpointCacheImpl implements PushEndpointCache {
     }
     
     public CachedPushEndpoint getCached(GUID guid) {
-        return GUID_PROXY_MAP.get(guid);
+        CachedPushEndpoint cached = GUID_PROXY_MAP.get(guid);
+        if (cached != null)
+            cached.expires = tick + LIFETIME_TICKS;
+        return cached;
     }
 
     public PushEndpoint getPushEndpoint(GUID guid) {
-        CachedPushEndpoint cached = GUID_PROXY_MAP.get(guid);
+        CachedPushEndpoint cached = getCached(guid);
         return cached != null ? cached.createClone() : null;
     }
     
@@ -156,54 +173,76 @@ class PushEndpointCacheImpl implements PushEndpointCache {
             LOG.debug("Updating proxies for: " + guid + " with: " + pushEndpoint + ", valid: " + valid);
         }
         
-        CachedPushEndpoint existing;
-        GUID guidRef = null;
-        
-        synchronized(GUID_PROXY_MAP) {
-            existing = GUID_PROXY_MAP.get(guid);
-
-            // try to get a hard ref so that the mapping won't expire
-            if (existing!=null)
-                guidRef=existing.getGuid();         
-
-            // if we do not have a mapping for this guid, or it just expired,
-            // add a new one atomically
-            // (we don't care about the proxies of the expired mapping)
-            if (existing == null || guidRef==null) {                
-                existing = new CachedPushEndpoint(guid, pushEndpoint.getFeatures(), pushEndpoint.getFWTVersion(), 
-                        valid ? pushEndpoint.getProxies() : IpPort.EMPTY_SET);
-                GUID_PROXY_MAP.put(guid, existing);
+        CachedPushEndpoint existing = getCached(guid);
+        if (existing == null) {
+            // if we do not have a mapping for this guid, add a new one atomically
+            existing = add(new CachedPushEndpoint(guid, pushEndpoint.getFeatures(), pushEndpoint.getFWTVersion(), 
+                    valid ? pushEndpoint.getProxies() : IpPort.EMPTY_SET));
+            if (existing == null)
                 return guid;
-            }
         }
         
-        // if we got here, means we did have a mapping.  no need to
-        // hold the map mutex when updating just the set
+        // if we got here, means we did have a mapping.
         existing.updateProxies(pushEndpoint.getProxies(), valid);
-        return guidRef;
+        return existing.getGuid();
     }
     
     public void clear() {
         GUID_PROXY_MAP.clear();
+        for (Queue<CachedPushEndpoint> slot : expiryWheel)
+            slot.clear();
     }
     
-    private final class WeakCleaner implements Runnable {
-        public void run() {
-            GUID_PROXY_MAP.size();
+    /**
+     * Adds an endpoint unless there already is one for its GUID, and
+     * returns that existing endpoint or null if it was added.
+     */
+    private CachedPushEndpoint add(CachedPushEndpoint cached) {
+        CachedPushEndpoint existing = GUID_PROXY_MAP.putIfAbsent(cached.getGuid(), cached);
+        if (existing != null) {
+            existing.expires = tick + LIFETIME_TICKS;
+            return existing;
+        }
+        cached.expires = tick + LIFETIME_TICKS;
+        expiryWheel[cached.expires % expiryWheel.length].add(cached);
+        return null;
+    }
+    
+    /**
+     * Advances the timing wheel by a tick, removing the endpoints that
+     * expire and moving those that were used since to the slot of their
+     * new expiry.
+     */
+    void expire() {
+        int now = ++tick;
+        Queue<CachedPushEndpoint> slot = expiryWheel[now % expiryWheel.length];
+        int expired = 0;
+        for (CachedPushEndpoint cached; (cached = slot.poll()) != null; ) {
+            int expires = cached.expires;
+            if (expires > now) {
+                expiryWheel[expires % expiryWheel.length].add(cached);
+            } else if (GUID_PROXY_MAP.remove(cached.getGuid(), cached)) {
+                expired++;
+            }
         }
+        if (LOG.isDebugEnabled() && expired > 0)
+            LOG.debug("Expired " + expired + " push endpoints, " + GUID_PROXY_MAP.size() + " left");
     }
     
     class CachedPushEndpoint extends AbstractPushEndpoint {
         
-        private final WeakReference<GUID> _guidRef;
+        private final GUID _guid;
         /**
-         * Class invariant: never null
+         * Class invariant: never null, interned.
+         * LOCKING: writes under this
          */
-        private Set<IpPort> _proxies;
+        private volatile PushProxySet _proxies;
         private byte _features;
         private int _fwtVersion;
         private IpPort _externalAddr;
         private final byte[] guid;
+        /** The tick this expires at unless it is used. */
+        volatile int expires;
         
         CachedPushEndpoint(GUID guid, Set<? extends IpPort> proxies) {
             this(guid, (byte)0, 0, proxies);
@@ -211,33 +250,28 @@ class PushEndpointCacheImpl implements PushEndpointCache {
         
         CachedPushEndpoint(GUID guid, byte features, int version, Set<? extends IpPort> proxies) {
             this.guid = guid.bytes();
-            _guidRef = new WeakReference<GUID>(guid);
+            _guid = guid;
             _features=features;
             _fwtVersion=version;
             overwriteProxies(proxies);
         }
         
         public synchronized void removePushProxy(IpPort pushProxy) {
-            // It's imortant to use IPortSet instead of Collections.singleton for
-            // comparator correctness based on IpPort.COMPARATOR
-            updateProxies(new IpPortSet(pushProxy), false);
+            _proxies = _proxies.minus(Collections.singleton(pushProxy)).intern();
         }
         
         public synchronized void updateProxies(Set<? extends IpPort> s, boolean add){
-            Set<IpPort> existing = new IpPortSet(_proxies);
             if (add)
-                existing.addAll(s);
+                _proxies = _proxies.plus(s).intern();
             else
-                existing.removeAll(s);
-            
-            _proxies = Collections.unmodifiableSet(existing);
+                _proxies = _proxies.minus(s).intern();
         }
         
         public synchronized void overwriteProxies(Set<? extends IpPort> proxies) {
-            _proxies = Collections.unmodifiableSet(new IpPortSet(proxies));
+            _proxies = PushProxySet.of(proxies).intern();
         }
         
-        public synchronized Set<IpPort> getProxies() {
+        public Set<IpPort> getProxies() {
             return _proxies;
         }
         
@@ -266,7 +300,7 @@ class PushEndpointCacheImpl implements PushEndpointCache {
         }
         
         public GUID getGuid() {
-            return _guidRef.get();
+            return _guid;
         }
 
         public synchronized PushEndpoint createClone() {
@@ -294,7 +328,7 @@ class PushEndpointCacheImpl implements PushEndpointCache {
 
         public synchronized void updateProxies(boolean good) {
             if (!good) {
-                _proxies = Collections.emptySet();
+                _proxies = PushProxySet.EMPTY;
             }
         }
 
@@ -2,12 +2,10 @@ package com.limegroup.gnutella;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Collections;
 import java.util.Set;
 
 import org.limewire.io.GUID;
 import org.limewire.io.IpPort;
-import org.limewire.io.IpPortSet;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.service.ErrorService;
 
@@ -20,9 +18,7 @@ public class PushEndpointImpl extends AbstractPushEndpoint {
 	/**
 	 * the guid as an object to avoid recreating
 	 * If there are other PushEnpoint objects, they all will ultimately
-	 * point to the same GUID object.  This ensures that as long as
-	 * there is at least one PE object for a remote host, the set of
-	 * proxies will not be gc-ed.
+	 * point to the same GUID object.
 	 */
 	private GUID _guid;
 	
@@ -38,11 +34,16 @@ public class PushEndpointImpl extends AbstractPushEndpoint {
 	private final int _fwtVersion;
 	
 	/**
-	 * the set of proxies this has immediately after creating the endpoint
-	 * cleared after registering in the map.  This is used only to 
-	 * hold the parsed proxies until they are put in the map.
+	 * the set of proxies this has immediately after creating the endpoint,
+	 * and the proxies it last saw in the map after registering in it.
+	 * The latter are used if the mapping expired.  Interned, never null.
 	 */
-	private Set<? extends IpPort> _proxies;
+	private PushProxySet _proxies;
+	
+	/**
+	 * whether the proxies were put in the map.
+	 */
+	private boolean _registered;
 	
 	/**
 	 * the external address of this PE.  Needed for firewall-to-firewall
@@ -63,13 +64,10 @@ public class PushEndpointImpl extends AbstractPushEndpoint {
 		_fwtVersion=fwtVersion;
 		_clientGUID=guid;
 		_guid = new GUID(_clientGUID);
-		if (proxies != null) {
-            if (proxies instanceof IpPortSet)
-                _proxies = Collections.unmodifiableSet(proxies);
-            else
-                _proxies = Collections.unmodifiableSet(new IpPortSet(proxies));
-        } else
-            _proxies = Collections.emptySet();
+		if (proxies != null)
+            _proxies = PushProxySet.of(proxies).intern();
+        else
+            _proxies = PushProxySet.EMPTY;
 		_externalAddr = addr;
 		
 		if(addr != null && addr.getAddress().equals(RemoteFileDesc.BOGUS_IP))
@@ -101,13 +99,16 @@ public class PushEndpointImpl extends AbstractPushEndpoint {
 	public Set<? extends IpPort> getProxies() {
 
 	    synchronized(this) {
-	    	if (_proxies!=null)
+	    	if (!_registered)
 	        	return _proxies;
 	    }
 
 	    PushEndpoint current = pushEndpointCache.getCached(_guid);
-	    if (current == null)
-            return Collections.emptySet();        
+	    if (current == null) {
+	        synchronized(this) {
+	            return _proxies;
+	        }
+	    }
 	    return current.getProxies();
 	}
 	
@@ -174,7 +175,9 @@ public class PushEndpointImpl extends AbstractPushEndpoint {
 	
 	public synchronized void updateProxies(boolean good) {
         _guid = pushEndpointCache.updateProxiesFor(_guid, this, good);
-        _proxies = null;
+        _registered = true;
+        PushEndpoint current = pushEndpointCache.getCached(_guid);
+        _proxies = current != null ? PushProxySet.of(current.getProxies()) : PushProxySet.EMPTY;
     }
     
     public PushEndpoint createClone() {
@@ -0,0 +1,226 @@
+package com.limegroup.gnutella;
+
+import java.net.InetAddress;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentMap;
+
+import org.limewire.io.Connectable;
+import org.limewire.io.ConnectableImpl;
+import org.limewire.io.IpPort;
+import org.limewire.io.IpPortImpl;
+import org.limewire.io.IpPortSet;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * An immutable set of push proxies packed into one sorted array of longs,
+ * each holding the IPv4 address, the port and whether the proxy supports
+ * TLS. Iterating the set creates a {@link Connectable} for each proxy.
+ * <p>
+ * The set has the order and membership of an {@link IpPortSet}: proxies are
+ * compared by address and port only. Proxies that aren't IPv4, which none of
+ * the formats push proxies are exchanged in can carry, are left out.
+ * <p>
+ * Many push endpoints share the same proxies, the ultrapeers of firewalled
+ * leaves, so sets are {@link #intern() interned}.
+ */
+final class PushProxySet extends AbstractSet<IpPort> {
+
+    static final PushProxySet EMPTY = new PushProxySet(new long[0]);
+
+    /** The bit of a packed proxy that is set if it supports TLS. */
+    private static final long TLS = 1;
+
+    /** The interned sets, released when no endpoint uses them anymore. */
+    private static final ConcurrentMap<Key, PushProxySet> INTERNED =
+        new MapMaker().weakValues().makeMap();
+
+    /**
+     * The proxies as (port << 33 | address << 1 | tls), sorted, which is the
+     * order of {@link IpPort#COMPARATOR}.
+     */
+    private final long[] proxies;
+
+    private PushProxySet(long[] proxies) {
+        this.proxies = proxies;
+    }
+
+    /** Returns the set of the given proxies. */
+    static PushProxySet of(Collection<? extends IpPort> proxies) {
+        if (proxies instanceof PushProxySet)
+            return (PushProxySet)proxies;
+        long[] packed = new long[proxies.size()];
+        int count = 0;
+        for (IpPort proxy : proxies) {
+            long p = pack(proxy);
+            if (p != -1)
+                packed[count++] = p;
+        }
+        return create(packed, count);
+    }
+
+    /**
+     * Returns the set of the first <code>count</code> packed proxies,
+     * sorting them and merging duplicates.
+     */
+    private static PushProxySet create(long[] packed, int count) {
+        if (count == 0)
+            return EMPTY;
+        Arrays.sort(packed, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct > 0 && (packed[distinct - 1] >>> 1) == (packed[i] >>> 1))
+                packed[distinct - 1] |= packed[i] & TLS;
+            else
+                packed[distinct++] = packed[i];
+        }
+        return new PushProxySet(distinct == packed.length ? packed : Arrays.copyOf(packed, distinct));
+    }
+
+    /** Packs a proxy, returning -1 if its address isn't IPv4. */
+    private static long pack(IpPort proxy) {
+        InetAddress address = proxy.getInetAddress();
+        if (address == null)
+            return -1;
+        byte[] ip = address.getAddress();
+        if (ip.length != 4)
+            return -1;
+        long packed = ((ip[0] & 0xFFL) << 24) | ((ip[1] & 0xFFL) << 16)
+                | ((ip[2] & 0xFFL) << 8) | (ip[3] & 0xFFL);
+        packed = ((proxy.getPort() & 0xFFFFL) << 32 | packed) << 1;
+        if (proxy instanceof Connectable && ((Connectable)proxy).isTLSCapable())
+            packed |= TLS;
+        return packed;
+    }
+
+    /** Returns the proxy packed into <code>packed</code>. */
+    private static Connectable unpack(long packed) {
+        long address = packed >>> 1;
+        byte[] ip = new byte[] { (byte)(address >>> 24), (byte)(address >>> 16),
+                (byte)(address >>> 8), (byte)address };
+        int port = (int)(packed >>> 33) & 0xFFFF;
+        return new ConnectableImpl(new IpPortImpl(ip, port), (packed & TLS) != 0);
+    }
+
+    /**
+     * Returns the interned set with the same proxies as this, which is this
+     * if no such set is in use.
+     */
+    PushProxySet intern() {
+        if (proxies.length == 0)
+            return EMPTY;
+        PushProxySet interned = INTERNED.putIfAbsent(new Key(proxies), this);
+        return interned != null ? interned : this;
+    }
+
+    /** Returns a set of these proxies and the given ones. */
+    PushProxySet plus(Collection<? extends IpPort> others) {
+        long[] packed = Arrays.copyOf(proxies, proxies.length + others.size());
+        int count = proxies.length;
+        for (IpPort proxy : others) {
+            long p = pack(proxy);
+            if (p != -1)
+                packed[count++] = p;
+        }
+        if (count == proxies.length)
+            return this;
+        return create(packed, count);
+    }
+
+    /** Returns a set of these proxies other than the given ones. */
+    PushProxySet minus(Collection<? extends IpPort> others) {
+        boolean[] removed = null;
+        for (IpPort proxy : others) {
+            long p = pack(proxy);
+            int i = p == -1 ? -1 : indexOf(proxies, p);
+            if (i >= 0) {
+                if (removed == null)
+                    removed = new boolean[proxies.length];
+                removed[i] = true;
+            }
+        }
+        if (removed == null)
+            return this;
+        long[] packed = new long[proxies.length];
+        int count = 0;
+        for (int i = 0; i < proxies.length; i++) {
+            if (!removed[i])
+                packed[count++] = proxies[i];
+        }
+        return create(packed, count);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof IpPort))
+            return false;
+        long p = pack((IpPort)o);
+        return p != -1 && indexOf(proxies, p) >= 0;
+    }
+
+    /**
+     * Returns the index of the proxy with the address and port of a packed
+     * proxy, whether it supports TLS or not, or -1.
+     */
+    private static int indexOf(long[] packed, long proxy) {
+        int i = Arrays.binarySearch(packed, proxy & ~TLS);
+        if (i >= 0)
+            return i;
+        i = -i - 1;
+        return i < packed.length && packed[i] == (proxy | TLS) ? i : -1;
+    }
+
+    @Override
+    public int size() {
+        return proxies.length;
+    }
+
+    @Override
+    public Iterator<IpPort> iterator() {
+        return new Iterator<IpPort>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < proxies.length;
+            }
+
+            @Override
+            public IpPort next() {
+                if (next == proxies.length)
+                    throw new NoSuchElementException();
+                return unpack(proxies[next++]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** The key of an interned set, which doesn't keep the set in use. */
+    private static final class Key {
+        private final long[] proxies;
+        private final int hash;
+
+        Key(long[] proxies) {
+            this.proxies = proxies;
+            this.hash = Arrays.hashCode(proxies);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(proxies, ((Key)obj).proxies);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -6,12 +6,15 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.jmdns.JmDNS;
 import javax.jmdns.ServiceInfo;
@@ -48,7 +51,6 @@ import com.limegroup.gnutella.util.LimeWireUtils;
 import com.limegroup.gnutella.xml.LimeXMLDocument;
 import com.limegroup.gnutella.xml.LimeXMLNames;
 
-import de.kapsi.net.daap.AutoCommitTransaction;
 import de.kapsi.net.daap.DaapAuthenticator;
 import de.kapsi.net.daap.DaapConfig;
 import de.kapsi.net.daap.DaapFilter;
@@ -64,6 +66,11 @@ import de.kapsi.net.daap.Transaction;
 /**
  * This class handles the mDNS registration and acts as an
  * interface between LimeWire and DAAP.
+ * <p>
+ * Changes to the shared files are not applied one by one. They are collected
+ * for {@link #BATCH_DELAY} milliseconds and then applied in a single
+ * transaction, so that adding many files at once neither commits a new
+ * database revision per file nor queues a task per file.
  */
 @EagerSingleton
 public class DaapManager {
@@ -81,6 +88,22 @@ public class DaapManager {
      */
     private static final ExecutorService DAAP_EVENT_QUEUE = 
                          ExecutorsHelper.newProcessingQueue("DAAPQUEUE");
+    
+    /**
+     * Milliseconds change events are collected before they're applied.
+     */
+    private static final long BATCH_DELAY = 500;
+    
+    /**
+     * Change events that haven't been applied yet.
+     */
+    private final List<FileViewChangeEvent> pendingEvents = new ArrayList<FileViewChangeEvent>();
+    
+    /**
+     * Whether applying {@link #pendingEvents} is scheduled, guarded by
+     * pendingEvents.
+     */
+    private boolean applyScheduled = false;
 
     private Library library;
     private Database database;
@@ -92,7 +115,6 @@ public class DaapManager {
     private DaapServer server;
     
     private BonjourService bonjour;
-    private AutoCommitTransaction autoCommitTxn;
     
     private boolean enabled = false;
     private int maxPlaylistSize;
@@ -175,7 +197,6 @@ public class DaapManager {
                 String name = DaapSettings.DAAP_LIBRARY_NAME.get();
                 
                 library = new Library(name);
-                autoCommitTxn = new AutoCommitTransaction(library);
                 
                 database = new Database(name);
                 whatsNew = new Playlist(activityCallback.get().translate(I18nMarker.marktr("What's New")));
@@ -262,7 +283,6 @@ public class DaapManager {
         whatsNew = null;
         creativecommons = null;
         database = null;
-        autoCommitTxn = null;
     }
 
     /**
@@ -366,7 +386,7 @@ public class DaapManager {
     /**
      * Handles a change event.
      */
-    private synchronized void handleChangeEvent(FileViewChangeEvent evt) {
+    private synchronized void handleChangeEvent(Transaction txn, FileViewChangeEvent evt) {
         Song song = urnToSong.remove(evt.getOldValue().getSHA1Urn());
         if (song != null) {
             urnToSong.put(evt.getFileDesc().getSHA1Urn(), song);
@@ -379,52 +399,50 @@ public class DaapManager {
                 String name = evt.getFileDesc().getFileName().toLowerCase(Locale.US);
                 
                 if (isSupportedAudioFormat(name)) {
-                    updateSongAudioMeta(autoCommitTxn, song, evt.getFileDesc());
+                    updateSongAudioMeta(txn, song, evt.getFileDesc());
                 } else if (isSupportedVideoFormat(name)) {
-                    updateSongVideoMeta(autoCommitTxn, song, evt.getFileDesc());
+                    updateSongVideoMeta(txn, song, evt.getFileDesc());
                 } else {
-                    database.removeSong(autoCommitTxn, song);
+                    database.removeSong(txn, song);
                 }
-                // auto commit
             }
             
         }
     }
     
-    /** Handles a change in metadata event. */
-    private synchronized void handleMetaChangeEvent(FileViewChangeEvent evt) {
+    /**
+     * Handles a change in metadata event.
+     * 
+     * @param canAdd whether a song may be added for a file that has none yet
+     * @return true if a new song was added
+     */
+    private synchronized boolean handleMetaChangeEvent(Transaction txn, FileViewChangeEvent evt, boolean canAdd) {
         URN urn = evt.getFileDesc().getSHA1Urn();
         Song song = urnToSong.get(urn);
         if (song != null) {
             String name = evt.getFileDesc().getFileName().toLowerCase(Locale.US);                
             if (isSupportedAudioFormat(name)) {
-                updateSongAudioMeta(autoCommitTxn, song, evt.getFileDesc());
+                updateSongAudioMeta(txn, song, evt.getFileDesc());
             } else if (isSupportedVideoFormat(name)) {
-                updateSongVideoMeta(autoCommitTxn, song, evt.getFileDesc());
+                updateSongVideoMeta(txn, song, evt.getFileDesc());
             } else {
-                database.removeSong(autoCommitTxn, song);
+                database.removeSong(txn, song);
             }
+            return false;
         } else {
-            handleAddEvent(evt);
+            return canAdd && handleAddEvent(txn, evt);
         }
     }
 
     /**
      * Handles an add event.
+     * 
+     * @return true if a new song was added
      */
-    private synchronized void handleAddEvent(FileViewChangeEvent evt) {
-        // Transactions synchronize on the Library. So if there's
-        // an ongoing commit we may get a ConcurrentModificationException
-        // because Database has to iterate through all Playlists and
-        // count the Songs.
-        synchronized (library) {
-            if (database.getSongCount() >= maxPlaylistSize) {
-                return;
-            }
-        }
-        
+    private synchronized boolean handleAddEvent(Transaction txn, FileViewChangeEvent evt) {
         FileDesc fileDesc = evt.getFileDesc();
-        if (!(fileDesc instanceof IncompleteFileDesc)) {
+        // the file may have been added by setEnabled() while the event was pending
+        if (!(fileDesc instanceof IncompleteFileDesc) && !urnToSong.containsKey(fileDesc.getSHA1Urn())) {
 
             String name = fileDesc.getFileName().toLowerCase(Locale.US);
 
@@ -439,40 +457,38 @@ public class DaapManager {
             if (song != null) {
                 urnToSong.put(fileDesc.getSHA1Urn(), song);
                 
-                database.getMasterPlaylist().addSong(autoCommitTxn, song);
-                whatsNew.addSong(autoCommitTxn, song);
+                database.getMasterPlaylist().addSong(txn, song);
+                whatsNew.addSong(txn, song);
                 
                 if (fileDesc.isLicensed()) {
-                    creativecommons.addSong(autoCommitTxn, song);
+                    creativecommons.addSong(txn, song);
                 }
 
                 if (isSupportedVideoFormat(name)) {
-                    videos.addSong(autoCommitTxn, song);
+                    videos.addSong(txn, song);
                 }
-                
-                // auto commit
+                return true;
             }
         }
+        return false;
     }
     
     /**
      * Handles a remove event.
      */
-    private synchronized void handleRemoveEvent(FileViewChangeEvent evt) {
+    private synchronized void handleRemoveEvent(Transaction txn, FileViewChangeEvent evt) {
         Song song = urnToSong.remove(evt.getFileDesc().getSHA1Urn());
 
         if (song != null) {
-            database.removeSong(autoCommitTxn, song);
+            database.removeSong(txn, song);
             song.setAttachment(null);
-            
-            // auto commit
         }
     }
     
-    private synchronized void handleClearEvent() {
+    private synchronized void handleClearEvent(Transaction txn) {
         for(Song song : urnToSong.values()) {
             if(song != null) {
-                database.removeSong(autoCommitTxn, song);
+                database.removeSong(txn, song);
                 song.setAttachment(null);
             }
         }
@@ -490,65 +506,73 @@ public class DaapManager {
         if (!enabled || !isServerRunning())
             return;
         
+        long start = System.currentTimeMillis();
         Map<URN, Song> tmpUrnToSong = new HashMap<URN, Song>();
         
         int size = masterPlaylist.getSongCount();        
         Transaction txn = library.beginTransaction();    
    
+        // copy the files so the view isn't locked while the songs are built
+        List<FileDesc> fileDescs;
         gnutellaFileView.getReadLock().lock();
         try {
+            fileDescs = new ArrayList<FileDesc>(gnutellaFileView.size());
             for(FileDesc fd : gnutellaFileView) {
-                String name = fd.getFileName().toLowerCase(Locale.US);
-                boolean audio = isSupportedAudioFormat(name);
+                fileDescs.add(fd);
+            }
+        } finally {
+            gnutellaFileView.getReadLock().unlock();
+        }
+        
+        for(FileDesc fd : fileDescs) {
+            String name = fd.getFileName().toLowerCase(Locale.US);
+            boolean audio = isSupportedAudioFormat(name);
+            
+            if(!audio && !isSupportedVideoFormat(name)) {
+                continue;
+            }
+            
+            URN urn = fd.getSHA1Urn();
+            
+            // 1)
+            // _Remove_ URN from the current 'map'...
+            Song song = urnToSong.remove(urn);
                 
-                if(!audio && !isSupportedVideoFormat(name)) {
-                    continue;
+            // Check if URN is already in the tmpMap.
+            // If so do nothing as we don't want add 
+            // the same file multiple times...
+            if(tmpUrnToSong.containsKey(urn)) {
+                continue;
+            }
+            
+            // This URN was already mapped with a Song.
+            // Save the Song (again) and update the meta
+            // data if necessary
+            if (song != null) {
+                tmpUrnToSong.put(urn, song);
+                
+                if (audio) {
+                    updateSongAudioMeta(txn, song, fd);
+                } else {
+                    updateSongVideoMeta(txn, song, fd);
                 }
                 
-                URN urn = fd.getSHA1Urn();
+            } else if (size < maxPlaylistSize) {
+
+                song = createSong(fd, audio);
+                tmpUrnToSong.put(urn, song);
+                database.getMasterPlaylist().addSong(txn, song);
                 
-                // 1)
-                // _Remove_ URN from the current 'map'...
-                Song song = urnToSong.remove(urn);
-                    
-                // Check if URN is already in the tmpMap.
-                // If so do nothing as we don't want add 
-                // the same file multiple times...
-                if(tmpUrnToSong.containsKey(urn)) {
-                    continue;
+                if (fd.isLicensed()) {
+                    creativecommons.addSong(txn, song);
                 }
                 
-                // This URN was already mapped with a Song.
-                // Save the Song (again) and update the meta
-                // data if necessary
-                if (song != null) {
-                    tmpUrnToSong.put(urn, song);
-                    
-                    if (audio) {
-                        updateSongAudioMeta(txn, song, fd);
-                    } else {
-                        updateSongVideoMeta(txn, song, fd);
-                    }
-                    
-                } else if (size < maxPlaylistSize) {
-    
-                    song = createSong(fd, audio);
-                    tmpUrnToSong.put(urn, song);
-                    database.getMasterPlaylist().addSong(txn, song);
-                    
-                    if (fd.isLicensed()) {
-                        creativecommons.addSong(txn, song);
-                    }
-                    
-                    if (isSupportedVideoFormat(name)) {
-                        videos.addSong(txn, song);
-                    }
-                    
-                    size++;
+                if (isSupportedVideoFormat(name)) {
+                    videos.addSong(txn, song);
                 }
+                
+                size++;
             }
-        } finally {
-            gnutellaFileView.getReadLock().unlock();
         }
         
         // See 1)
@@ -564,6 +588,11 @@ public class DaapManager {
         urnToSong = tmpUrnToSong; // tempMap is the new 'map'
 
         txn.commit();
+        
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Built DAAP database of " + urnToSong.size() + " songs from " + fileDescs.size()
+                    + " files in " + (System.currentTimeMillis() - start) + " ms");
+        }
     }
     
     /**
@@ -1099,30 +1128,79 @@ public class DaapManager {
         if (!DaapSettings.DAAP_ENABLED.getValue())
             return;
 
-        DAAP_EVENT_QUEUE.execute(new Runnable() {
+        synchronized (pendingEvents) {
+            pendingEvents.add(evt);
+            if (applyScheduled) {
+                return;
+            }
+            applyScheduled = true;
+        }
+        backgroundExecutor.schedule(new Runnable() {
             public void run() {
-
-                if (!isEnabled() || !isServerRunning())
-                    return;
-
+                DAAP_EVENT_QUEUE.execute(new Runnable() {
+                    public void run() {
+                        applyPendingEvents();
+                    }
+                });
+            }
+        }, BATCH_DELAY, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Applies all pending change events in a single transaction.
+     */
+    private void applyPendingEvents() {
+        List<FileViewChangeEvent> events;
+        synchronized (pendingEvents) {
+            events = new ArrayList<FileViewChangeEvent>(pendingEvents);
+            pendingEvents.clear();
+            applyScheduled = false;
+        }
+        
+        synchronized (this) {
+            if (!isEnabled() || !isServerRunning())
+                return;
+            
+            long start = System.currentTimeMillis();
+            // Transactions synchronize on the Library. So if there's
+            // an ongoing commit we may get a ConcurrentModificationException
+            // because Database has to iterate through all Playlists and
+            // count the Songs.
+            int size;
+            synchronized (library) {
+                size = database.getSongCount();
+            }
+            
+            Transaction txn = library.beginTransaction();
+            for (FileViewChangeEvent evt : events) {
                 switch (evt.getType()) {
                 case FILE_CHANGED:
-                    handleChangeEvent(evt);
+                    handleChangeEvent(txn, evt);
                     break;
                 case FILE_ADDED:
-                    handleAddEvent(evt);
+                    if (size < maxPlaylistSize && handleAddEvent(txn, evt)) {
+                        size++;
+                    }
                     break;
                 case FILE_REMOVED:
-                    handleRemoveEvent(evt);
+                    handleRemoveEvent(txn, evt);
                     break;
                 case FILES_CLEARED:
-                    handleClearEvent();
+                    handleClearEvent(txn);
                     break;
                 case FILE_META_CHANGED:
-                    handleMetaChangeEvent(evt);
+                    if (handleMetaChangeEvent(txn, evt, size < maxPlaylistSize)) {
+                        size++;
+                    }
                     break;
                 }
             }
-        });
+            txn.commit();
+            
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Applied " + events.size() + " library changes in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
     }
 }
@@ -20,6 +20,7 @@ import org.limewire.io.SecureOutputStream;
 import org.limewire.mojito.MojitoDHT;
 import org.limewire.mojito.MojitoFactory;
 import org.limewire.mojito.db.Database;
+import org.limewire.mojito.db.impl.PersistentDatabaseImpl;
 import org.limewire.mojito.routing.RouteTable;
 import org.limewire.mojito.routing.Vendor;
 import org.limewire.mojito.routing.Version;
@@ -44,6 +45,11 @@ public class ActiveDHTNodeController extends AbstractDHTController {
      */
     private static final File FILE = new File(CommonUtils.getUserSettingsDir(), "active.mojito");
     
+    /**
+     * The file to persist the Database of this Mojito DHT
+     */
+    private static final File DATABASE_FILE = new File(CommonUtils.getUserSettingsDir(), "active.mojito.db");
+    
     ActiveDHTNodeController(Vendor vendor, Version version,
             EventDispatcher<DHTEvent, DHTEventListener> dispatcher,
             DHTControllerFacade dhtControllerFacade) {
@@ -53,6 +59,7 @@ public class ActiveDHTNodeController extends AbstractDHTController {
     @Override
     protected MojitoDHT createMojitoDHT(Vendor vendor, Version version) {
         MojitoDHT dht = MojitoFactory.createDHT("ActiveMojitoDHT", vendor, version);
+        boolean routeTableRestored = false;
         
         if (DHTSettings.PERSIST_ACTIVE_DHT_ROUTETABLE.getValue() 
                 && FILE.exists() && FILE.isFile()) {
@@ -71,17 +78,9 @@ public class ActiveDHTNodeController extends AbstractDHTController {
                 int routeTableVersion = in.readInt();
                 if (routeTableVersion >= getRouteTableVersion()) {
                     RouteTable routeTable = (RouteTable)in.readObject();
-
-                    Database database = null;
-                    try {
-                        if (DHTSettings.PERSIST_DHT_DATABASE.getValue()) {
-                            database = (Database)in.readObject();                                                        
-                        }
-                    } catch (Throwable ignored) {
-                        LOG.error("Throwable", ignored);
-                    }
                     
-                    // The Database depends on the RouteTable!
+                    // The Database follows the RouteTable but it's 
+                    // read from DATABASE_FILE instead
                     if (routeTable != null) {
                         long maxElaspedTime = DHTSettings.MAX_ELAPSED_TIME_SINCE_LAST_CONTACT.getValue();
                         if (maxElaspedTime < Long.MAX_VALUE) {
@@ -89,9 +88,7 @@ public class ActiveDHTNodeController extends AbstractDHTController {
                         }
                         
                         dht.setRouteTable(routeTable);
-                        if (database != null) {
-                            dht.setDatabase(database);
-                        }
+                        routeTableRestored = true;
                     }
                 }
             } catch (Throwable ignored) {
@@ -100,6 +97,21 @@ public class ActiveDHTNodeController extends AbstractDHTController {
                 IOUtils.close(in);
             }
         }
+        
+        if (DHTSettings.PERSIST_DHT_DATABASE.getValue()) {
+            try {
+                PersistentDatabaseImpl database = new PersistentDatabaseImpl(DATABASE_FILE);
+                
+                // The values were stored under the Node ID of the 
+                // persisted RouteTable and are useless without it
+                if (!routeTableRestored) {
+                    database.clear();
+                }
+                dht.setDatabase(database);
+            } catch (IOException err) {
+                LOG.error("IOException", err);
+            }
+        }
         return dht;
     }
     
@@ -114,6 +126,11 @@ public class ActiveDHTNodeController extends AbstractDHTController {
         //Notify our ultrapeers that we disconnected
         sendUpdatedCapabilities();
         
+        Database database = dht.getDatabase();
+        if (database instanceof PersistentDatabaseImpl) {
+            ((PersistentDatabaseImpl)database).close();
+        }
+        
         if (DHTSettings.PERSIST_ACTIVE_DHT_ROUTETABLE.getValue()) {
             ObjectOutputStream out = null;
             try {
@@ -126,11 +143,9 @@ public class ActiveDHTNodeController extends AbstractDHTController {
                 synchronized (dht) {
                     out.writeObject(dht.getRouteTable());
                     
-                    Database database = null;
-                    if (DHTSettings.PERSIST_DHT_DATABASE.getValue()) {
-                        database = dht.getDatabase();
-                    }                    
-                    out.writeObject(database);
+                    // The Database is persisted in DATABASE_FILE, the
+                    // null keeps the format readable by older versions
+                    out.writeObject(null);
                 }
                 out.flush();
             } catch (IOException ignored) {
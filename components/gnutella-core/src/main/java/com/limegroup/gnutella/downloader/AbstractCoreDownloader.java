@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.limewire.core.api.Category;
 import org.limewire.core.api.download.DownloadException;
@@ -50,6 +51,9 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
 	
 	/** The default fileName this should use. */
 	private String defaultFileName;
+	
+	/** Counts the changes to the state saved in the memento. */
+	private final AtomicInteger mementoChanges = new AtomicInteger();
 
 	private final SaveLocationManager saveLocationManager;
 	private final CategoryManager categoryManager;
@@ -77,6 +81,7 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
      * @see com.limegroup.gnutella.downloader.CoreDownloader#setAttribute(java.lang.String, java.io.Serializable)
      */
 	public Object setAttribute(String key, Object value, boolean serialize) {
+	    mementoChanged();
 	    return attributes.put( key, new Attribute(serialize, value) );
 	}
 
@@ -95,6 +100,7 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
      * @see com.limegroup.gnutella.downloader.CoreDownloader#removeAttribute(java.lang.String)
      */
 	public Object removeAttribute(String key) {
+	    mementoChanged();
 	    return attributes.remove( key );
 	}
 	
@@ -178,6 +184,7 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
 	
 	protected synchronized void setSaveFileInternal(File saveFile) {
 	    this.saveFile = saveFile;
+	    mementoChanged();
 	}
 	
 	public synchronized File getSaveFile() {
@@ -210,6 +217,7 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
     /** Sets the default filename this will use. */
     protected synchronized void setDefaultFileName(String defaultFileName) {
         this.defaultFileName = defaultFileName;
+        mementoChanged();
     }
     
     public synchronized void initFromMemento(DownloadMemento memento) throws InvalidDataException {
@@ -268,5 +276,23 @@ public abstract class AbstractCoreDownloader implements CoreDownloader {
         return true;
     }
     
+    /**
+     * Returns {@link CoreDownloader#UNTRACKED_MEMENTO_STAMP}. Subclasses that
+     * call {@link #mementoChanged()} whenever the state they save changes
+     * can return {@link #getMementoChanges()} instead.
+     */
+    public long getMementoStamp() {
+        return UNTRACKED_MEMENTO_STAMP;
+    }
+    
+    /** Notes that the state saved in the memento has changed. */
+    protected void mementoChanged() {
+        mementoChanges.incrementAndGet();
+    }
+    
+    /** Returns the number of times {@link #mementoChanged()} was called. */
+    protected int getMementoChanges() {
+        return mementoChanges.get();
+    }
     
 }
@@ -87,4 +87,15 @@ public interface CoreDownloader extends Downloader, ListenerSupport<DownloadStat
      */
     public boolean isMementoSupported();
 
+    /**
+     * Returns a stamp that changes whenever the state saved by
+     * {@link #toMemento()} changes, or {@link #UNTRACKED_MEMENTO_STAMP} if
+     * this downloader does not keep track of its changes. Used to avoid
+     * constructing mementos of downloads that have not changed.
+     */
+    public long getMementoStamp();
+
+    /** The memento stamp of downloaders that don't track their changes. */
+    public static final long UNTRACKED_MEMENTO_STAMP = -1;
+
 }
\ No newline at end of file
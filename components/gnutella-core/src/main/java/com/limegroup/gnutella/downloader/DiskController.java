@@ -15,6 +15,8 @@ import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.concurrent.ManagedThread;
 import org.limewire.inject.EagerSingleton;
 import org.limewire.lifecycle.ServiceScheduler;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.statistic.MetricsRegistry;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -49,6 +51,10 @@ public class DiskController {
     private int chunksScheduled = 0;
     /** A lock to use for the queue size + chunksScheduled. */
     private final Object SCHEDULE_LOCK = new Object();
+    /** Time spent writing a chunk, including verifying the blocks it completes. */
+    private final LatencyHistogram chunkJobTimes = new LatencyHistogram();
+    /** Time chunks wait in the queue before they are written. */
+    private final LatencyHistogram chunkQueueTimes = new LatencyHistogram();
     
     @Inject
     public DiskController() {
@@ -60,6 +66,12 @@ public class DiskController {
         serviceScheduler.scheduleWithFixedDelay("DiskContrller.CacheCleaner", new CacheCleaner(), 10, 10, TimeUnit.MINUTES, backgroundExecutor);
     }
     
+    @Inject
+    void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("disk.write", chunkJobTimes);
+        metrics.register("disk.queue", chunkQueueTimes);
+    }
+    
     /** Adds a DelayedWrite to the queue of writers. */
     public void addDelayedWrite(DelayedWrite dw) {
         synchronized(CACHE) {
@@ -83,11 +95,15 @@ public class DiskController {
     public void addDiskJob(final ChunkDiskJob job) {
         synchronized(SCHEDULE_LOCK) {
             chunksScheduled++;
+            final long scheduled = System.nanoTime();
             QUEUE.execute(new Runnable() {
                 public void run() {
+                    long start = System.nanoTime();
+                    chunkQueueTimes.record(start - scheduled);
                     try {
                         job.runChunkJob(job.getChunk());
                     } finally {
+                        chunkJobTimes.recordSince(start);
                         synchronized(SCHEDULE_LOCK) {
                             chunksScheduled--;
                         }
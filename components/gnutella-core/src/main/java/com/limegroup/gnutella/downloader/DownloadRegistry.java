@@ -0,0 +1,210 @@
+package com.limegroup.gnutella.downloader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.limewire.io.GUID;
+
+import com.limegroup.gnutella.URN;
+
+/**
+ * Indexes the downloads of a download manager by SHA1, query GUID and
+ * incomplete file, so that finding the download an incoming source or
+ * query reply belongs to doesn't require going through all downloads.
+ * <p>
+ * A download can learn its SHA1 after it was added, from the first source
+ * that has one. Until then it is kept in a short list of unhashed downloads
+ * which is checked on every lookup by SHA1; the unhashed downloads are also
+ * returned as {@link #getCandidates(URN) candidates} for every SHA1, since
+ * they match sources by name and size.
+ * <p>
+ * Downloads are added and removed while holding the lock of this registry,
+ * lookups never block.
+ */
+public class DownloadRegistry {
+
+    private static final CoreDownloader[] EMPTY = new CoreDownloader[0];
+
+    private final Map<URN, CoreDownloader[]> bySha1 = new ConcurrentHashMap<URN, CoreDownloader[]>();
+
+    private final Map<GUID, CoreDownloader[]> byQueryGuid = new ConcurrentHashMap<GUID, CoreDownloader[]>();
+
+    /**
+     * The downloads that were found for an incomplete file before; checked
+     * again on every lookup, since the incomplete file of a download is not
+     * final.
+     */
+    private final Map<File, CoreDownloader> byIncompleteFile = new ConcurrentHashMap<File, CoreDownloader>();
+
+    /** The downloads that didn't have a SHA1 when last checked. */
+    private volatile CoreDownloader[] unhashed = EMPTY;
+
+    /**
+     * The SHA1 each download was indexed under.
+     * LOCKING: this
+     */
+    private final Map<CoreDownloader, URN> indexedSha1s = new HashMap<CoreDownloader, URN>();
+
+    /** Adds a download to the registry. */
+    public synchronized void add(CoreDownloader downloader) {
+        if (indexedSha1s.containsKey(downloader) || contains(unhashed, downloader))
+            return;
+        URN sha1 = downloader.getSha1Urn();
+        if (sha1 != null) {
+            indexedSha1s.put(downloader, sha1);
+            bySha1.put(sha1, append(bySha1.get(sha1), downloader));
+        } else {
+            unhashed = append(unhashed, downloader);
+        }
+        GUID queryGuid = downloader.getQueryGUID();
+        if (queryGuid != null)
+            byQueryGuid.put(queryGuid, append(byQueryGuid.get(queryGuid), downloader));
+    }
+
+    /** Removes a download from the registry. */
+    public synchronized void remove(CoreDownloader downloader) {
+        URN sha1 = indexedSha1s.remove(downloader);
+        if (sha1 != null)
+            removeFrom(bySha1, sha1, downloader);
+        else
+            unhashed = without(unhashed, downloader);
+        GUID queryGuid = downloader.getQueryGUID();
+        if (queryGuid != null)
+            removeFrom(byQueryGuid, queryGuid, downloader);
+        while (byIncompleteFile.values().remove(downloader));
+    }
+
+    /** Removes all downloads from the registry. */
+    public synchronized void clear() {
+        bySha1.clear();
+        byQueryGuid.clear();
+        byIncompleteFile.clear();
+        indexedSha1s.clear();
+        unhashed = EMPTY;
+    }
+
+    /**
+     * Returns the first download of the file with the given SHA1, or null if
+     * there is none.
+     */
+    public CoreDownloader getDownloader(URN sha1) {
+        indexNewSha1s();
+        CoreDownloader[] downloaders = bySha1.get(sha1);
+        return downloaders != null ? downloaders[0] : null;
+    }
+
+    /**
+     * Returns the downloads that may accept a source for the file with the
+     * given SHA1: those of that file, followed by those that don't know the
+     * SHA1 of their file yet.
+     */
+    public List<CoreDownloader> getCandidates(URN sha1) {
+        indexNewSha1s();
+        CoreDownloader[] matching = bySha1.get(sha1);
+        CoreDownloader[] unhashed = this.unhashed;
+        if (matching == null && unhashed.length == 0)
+            return Collections.emptyList();
+        List<CoreDownloader> candidates = new ArrayList<CoreDownloader>(
+                (matching != null ? matching.length : 0) + unhashed.length);
+        if (matching != null)
+            Collections.addAll(candidates, matching);
+        Collections.addAll(candidates, unhashed);
+        return candidates;
+    }
+
+    /**
+     * Returns true if a download was started from a result of the query
+     * with the given GUID.
+     */
+    public boolean isQueryGuidDownloading(GUID queryGuid) {
+        return byQueryGuid.containsKey(queryGuid);
+    }
+
+    /**
+     * Returns the download that was last found for the incomplete file, if
+     * it still uses that file.
+     */
+    public CoreDownloader getCachedDownloader(File incompleteFile) {
+        CoreDownloader downloader = byIncompleteFile.get(incompleteFile);
+        if (downloader != null && downloader.conflictsWithIncompleteFile(incompleteFile))
+            return downloader;
+        return null;
+    }
+
+    /**
+     * Remembers that <code>downloader</code> uses the incomplete file, so
+     * that {@link #getCachedDownloader(File)} can find it.
+     */
+    public synchronized void cacheDownloader(File incompleteFile, CoreDownloader downloader) {
+        if (indexedSha1s.containsKey(downloader) || contains(unhashed, downloader))
+            byIncompleteFile.put(incompleteFile, downloader);
+    }
+
+    /**
+     * Moves the unhashed downloads that learned their SHA1 since the last
+     * lookup into the index.
+     */
+    private void indexNewSha1s() {
+        CoreDownloader[] unhashed = this.unhashed;
+        for (CoreDownloader downloader : unhashed) {
+            if (downloader.getSha1Urn() != null) {
+                synchronized (this) {
+                    for (CoreDownloader current : this.unhashed) {
+                        URN sha1 = current.getSha1Urn();
+                        if (sha1 != null) {
+                            this.unhashed = without(this.unhashed, current);
+                            indexedSha1s.put(current, sha1);
+                            bySha1.put(sha1, append(bySha1.get(sha1), current));
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, CoreDownloader[]> index, K key,
+            CoreDownloader downloader) {
+        CoreDownloader[] remaining = without(index.get(key), downloader);
+        if (remaining.length == 0)
+            index.remove(key);
+        else
+            index.put(key, remaining);
+    }
+
+    private static CoreDownloader[] append(CoreDownloader[] downloaders, CoreDownloader downloader) {
+        if (downloaders == null)
+            return new CoreDownloader[] { downloader };
+        CoreDownloader[] copy = new CoreDownloader[downloaders.length + 1];
+        System.arraycopy(downloaders, 0, copy, 0, downloaders.length);
+        copy[downloaders.length] = downloader;
+        return copy;
+    }
+
+    private static CoreDownloader[] without(CoreDownloader[] downloaders, CoreDownloader downloader) {
+        if (downloaders == null)
+            return EMPTY;
+        for (int i = 0; i < downloaders.length; i++) {
+            if (downloaders[i] == downloader) {
+                CoreDownloader[] copy = new CoreDownloader[downloaders.length - 1];
+                System.arraycopy(downloaders, 0, copy, 0, i);
+                System.arraycopy(downloaders, i + 1, copy, i, copy.length - i);
+                return copy;
+            }
+        }
+        return downloaders;
+    }
+
+    private static boolean contains(CoreDownloader[] downloaders, CoreDownloader downloader) {
+        for (CoreDownloader current : downloaders) {
+            if (current == downloader)
+                return true;
+        }
+        return false;
+    }
+}
@@ -15,6 +15,8 @@ import com.limegroup.bittorrent.BTDownloader;
 import com.limegroup.bittorrent.BTDownloaderImpl;
 import com.limegroup.bittorrent.BTTorrentFileDownloader;
 import com.limegroup.bittorrent.BTTorrentFileDownloaderImpl;
+import com.limegroup.gnutella.downloader.serial.DownloadJournal;
+import com.limegroup.gnutella.downloader.serial.DownloadJournalImpl;
 import com.limegroup.gnutella.downloader.serial.DownloadSerializeSettings;
 import com.limegroup.gnutella.downloader.serial.DownloadSerializeSettingsImpl;
 import com.limegroup.gnutella.downloader.serial.DownloadSerializer;
@@ -40,6 +42,7 @@ public class LimeWireDownloadModule extends AbstractModule {
         bind(PushedSocketHandlerRegistry.class).to(PushDownloadManager.class);
         bind(CoreDownloaderFactory.class).to(CoreDownloaderFactoryImpl.class);
         bind(DownloadSerializer.class).to(DownloadSerializerImpl.class);
+        bind(DownloadJournal.class).to(DownloadJournalImpl.class);
         bind(DownloadSerializeSettings.class).to(DownloadSerializeSettingsImpl.class);
         bind(OldDownloadConverter.class).to(OldDownloadConverterImpl.class);
         bind(DownloadSerializeSettings.class).annotatedWith(Names.named("oldDownloadSettings")).to(OldDownloadSettings.class);
@@ -552,7 +552,8 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
             rfds = Collections.emptyList();
         }
 
-        cachedRFDs.addAll(rfds);
+        if (cachedRFDs.addAll(rfds))
+            mementoChanged();
         for (RemoteFileDesc rfd : rfds) {
             if (rfd.getAddress() instanceof PermanentAddress) {
                 permanentRFDs.add(rfd);
@@ -683,8 +684,10 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
 
         for (Iterator<RemoteFileDesc> iter = cachedRFDs.iterator(); iter.hasNext();) {
             RemoteFileDesc rfd = iter.next();
-            if (rfd.getSHA1Urn() != null && !getSha1Urn().equals(rfd.getSHA1Urn()))
+            if (rfd.getSHA1Urn() != null && !getSha1Urn().equals(rfd.getSHA1Urn())) {
                 iter.remove();
+                mementoChanged();
+            }
         }
     }
 
@@ -783,6 +786,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
             if (complete) {
                 synchronized (this) {
                     cachedRFDs.clear(); // the call right before this serializes. 
+                    mementoChanged();
                 }
             }
         }
@@ -1043,6 +1047,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
             commonOutFile.setScanForExistingBlocks(true, incompleteFile.length());
             incompleteFileManager.addEntry(incompleteFile, commonOutFile, shouldPublishIFD());
         }
+        mementoChanged();
     }
 
     protected void initializeIncompleteFile() throws IOException {
@@ -1057,6 +1062,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
             incompleteFile = getIncompleteFile(getSaveFile().getName(), sha1,
                     getContentLength());
         }
+        mementoChanged();
 
         if (LOG.isWarnEnabled())
             LOG.warn("Incomplete File: " + incompleteFile);
@@ -1448,8 +1454,8 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
         }
 
         //add to allFiles for resume purposes if caching...
-        if (cache || rfd.getAddress() instanceof PermanentAddress)
-            cachedRFDs.add(rfd);
+        if ((cache || rfd.getAddress() instanceof PermanentAddress) && cachedRFDs.add(rfd))
+            mementoChanged();
     }
 
     /* (non-Javadoc)
@@ -1638,8 +1644,8 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
         if (LOG.isDebugEnabled())
             LOG.debug("informing mesh that " + rfd + " is " + good);
 
-        if (good)
-            cachedRFDs.add(rfd);
+        if (good && cachedRFDs.add(rfd))
+            mementoChanged();
 
         if (!rfd.isAltLocCapable())
             return;
@@ -1798,6 +1804,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
         if (downloadSHA1 != null && !sha1.equals(downloadSHA1))
             throw new IllegalStateException("sha1 already set to: " + downloadSHA1);
         this.downloadSHA1 = sha1;
+        mementoChanged();
     }
 
     /* (non-Javadoc)
@@ -2561,9 +2568,13 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
             permanentRFDs.add(rfd);
             return;
         }
-        if (cachedRFDs.remove(rfd) && cachedRFDs.isEmpty()) {
-            // remember our last RFD
-            cachedRFDs.add(rfd);
+        if (cachedRFDs.remove(rfd)) {
+            if (cachedRFDs.isEmpty()) {
+                // remember our last RFD
+                cachedRFDs.add(rfd);
+            } else {
+                mementoChanged();
+            }
         }
     }
 
@@ -2750,6 +2761,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
 
     protected synchronized void setContentLength(long contentLength) {
         this.contentLength = contentLength;
+        mementoChanged();
     }
 
     /* (non-Javadoc)
@@ -3182,6 +3194,7 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
 
     protected synchronized void setIncompleteFile(File incompleteFile) {
         this.incompleteFile = incompleteFile;
+        mementoChanged();
     }
 
     protected synchronized File getIncompleteFile() {
@@ -3229,6 +3242,17 @@ class ManagedDownloaderImpl extends AbstractCoreDownloader implements AltLocList
         gmem.setRemoteHosts(getRemoteHostMementos());
     }
 
+    /**
+     * Returns a stamp made of the changes to the state of this download and
+     * those to the ranges of its verifying file.
+     */
+    @Override
+    public long getMementoStamp() {
+        VerifyingFile file = commonOutFile;
+        long blockChanges = file != null ? file.getSerializableChanges() : 0;
+        return ((long)getMementoChanges() << 32) | (blockChanges & 0xFFFFFFFFL);
+    }
+
     private Set<RemoteHostMemento> getRemoteHostMementos() {
         Set<RemoteHostMemento> mementos = new HashSet<RemoteHostMemento>(cachedRFDs.size());
         for (RemoteFileDesc rfd : cachedRFDs) {
@@ -102,6 +102,12 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
     private final ExecutorService PUSH_THREAD_POOL =
         ExecutorsHelper.newFixedSizeThreadPool(10, "PushProxy Requests");
     
+    /**
+     * The number of proxies a push is sent through at the same time, so
+     * a slow or dead proxy doesn't hold up the others.
+     */
+    private static final int PARALLEL_PUSH_PROXIES = 3;
+    
     /**
      * Number of files that we have sent a udp push for and are waiting a connection.
      * LOCKING: obtain UDP_FAILOVER if manipulating the contained sets as well!
@@ -503,8 +509,10 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
     }
     
     /**
-     * Attempts to send a push through the given proxies.  If any succeed,
-     * the observer will be notified immediately.  If all fail, the PushMessageSender
+     * Attempts to send a push through the given proxies, contacting up to
+     * {@link #PARALLEL_PUSH_PROXIES} of them at the same time.  Once any
+     * succeeds, no further proxies are contacted and the observer will be
+     * notified when the host connects back.  If all fail, the PushMessageSender
      * is told to send the push through the network.
      */
     private void sendPushThroughProxies(PushData data, Set<? extends IpPort> proxies) {
@@ -565,8 +573,18 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
             HttpConnectionParams.setConnectionTimeout(params, 5000);
             HttpConnectionParams.setSoTimeout(params, 5000);
             params = new DefaultedHttpParams(params, defaultParams.get());
-            Shutdownable s = httpExecutor.get().executeAny(l, PUSH_THREAD_POOL, methods, params, data.getMultiShutdownable());
-            data.getMultiShutdownable().addShutdownable(s);
+            // deal the proxies out to the lanes, each of which tries its
+            // proxies one after the other
+            int laneCount = Math.min(PARALLEL_PUSH_PROXIES, methods.size());
+            List<List<HttpHead>> lanes = new ArrayList<List<HttpHead>>(laneCount);
+            for (int i = 0; i < laneCount; i++)
+                lanes.add(new ArrayList<HttpHead>());
+            for (int i = 0; i < methods.size(); i++)
+                lanes.get(i % laneCount).add(methods.get(i));
+            for (List<HttpHead> lane : lanes) {
+                Shutdownable s = httpExecutor.get().executeAny(l, PUSH_THREAD_POOL, lane, params, data.getMultiShutdownable());
+                data.getMultiShutdownable().addShutdownable(s);
+            }
         } else {
             sendPushThroughNetwork(data);    
         }
@@ -591,25 +609,46 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
      * Listener for callbacks from http requests succeeding or failing.
      * This will ensure that only enough proxies are contacted as necessary,
      * and send through the network if necessary.
+     * <p>
+     * The requests are executed on several threads at once.
      */
     private class PushHttpClientListener implements HttpClientListener {
-        /** The HttpMethods that are being executed. */
+        /** 
+         * The HttpMethods that are being executed and have not completed.
+         * LOCKING: itself
+         */
         private final Collection<HttpUriRequest> methods;
 
         /** Information about the push. */
         private final PushData data;
+        
+        /** Whether a proxy accepted the push. */
+        private final AtomicBoolean succeeded = new AtomicBoolean(false);
 
         PushHttpClientListener(Collection<? extends HttpUriRequest> methods, PushData data) {
             this.methods = new LinkedList<HttpUriRequest>(methods);
             this.data = data;
         }
+        
+        /**
+         * Removes a request that failed, returning true if it was the last
+         * one and none succeeded.
+         */
+        private boolean failed(HttpUriRequest request) {
+            boolean allFailed;
+            synchronized (methods) {
+                methods.remove(request);
+                allFailed = methods.isEmpty();
+            }
+            // a successful request is only removed after succeeded is set
+            return allFailed && !succeeded.get();
+        }
 
         public boolean requestFailed(HttpUriRequest request, HttpResponse response, IOException exc) {
             if (LOG.isWarnEnabled()) {
                 LOG.warn("PushProxy request exception: " + request.getURI(), exc);
             }
             httpExecutor.get().releaseResources(response);
-            methods.remove(request);
 
             URI uri = request.getURI();
             if (LOG.isDebugEnabled()) {
@@ -618,20 +657,25 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
             }
             removePushProxy(data.file.getClientGUID(), uri);
 
-            if (methods.isEmpty()) // all failed
+            if (failed(request)) // all failed
                 sendPushThroughNetwork(data);
             return true;
         }
 
         public boolean requestComplete(HttpUriRequest request, HttpResponse response) {
-            methods.remove(request);
             int statusCode = response.getStatusLine().getStatusCode();
             httpExecutor.get().releaseResources(response);
             if (statusCode == 202) {
                 if (LOG.isDebugEnabled())
                     LOG.debug("Successful push proxy: " + request.getURI());
 
-                if (data.isFWTransfer()) {
+                boolean first = succeeded.compareAndSet(false, true);
+                synchronized (methods) {
+                    methods.remove(request);
+                }
+                // the host connects back once, no matter how many proxies
+                // forwarded the push
+                if (first && data.isFWTransfer()) {
                     LOG.debug("Starting fwt communication");
                     AbstractNBSocket socket = udpSelectorProvider.get().openSocketChannel()
                             .socket();
@@ -653,7 +697,7 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
 
             removePushProxy(data.file.getClientGUID(), request.getURI());
 
-            if (methods.isEmpty()) // all failed
+            if (failed(request)) // all failed
                 sendPushThroughNetwork(data);
 
             return true; // try more.
@@ -661,7 +705,8 @@ public class PushDownloadManager implements ConnectionAcceptor, PushedSocketHand
 
         @Override
         public boolean allowRequest(HttpUriRequest request) {
-            return true;
+            // don't contact the remaining proxies of other lanes either
+            return !succeeded.get();
         }
     }
      
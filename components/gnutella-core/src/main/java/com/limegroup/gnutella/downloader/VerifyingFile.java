@@ -116,6 +116,12 @@ public class VerifyingFile {
      */
     private IntervalSet savedCorruptBlocks;
     
+    /**
+     * Counts the changes to the ranges returned by
+     * {@link #getSerializableBlocks()}.
+     */
+    private int serializableChanges;
+    
     /**
      * Ranges which are pending writing & verification.
      */
@@ -225,6 +231,7 @@ public class VerifyingFile {
     public synchronized void addInterval(Range interval) {
         //delegates to underlying IntervalSet
         partialBlocks.add(interval);
+        serializableChanges++;
     }
 
     public void registerWriteCallback(WriteRequest request, WriteCallback callback) {
@@ -442,6 +449,15 @@ public class VerifyingFile {
         return ret.getAllIntervalsAsList();
         
     }
+    
+    /**
+     * Returns a number that changes whenever the ranges returned by
+     * {@link #getSerializableBlocks()} change.
+     */
+    public synchronized int getSerializableChanges() {
+        return serializableChanges;
+    }
+    
     /**
      * While iterating over the result a lock to the verifying file should
      * be held to ensure the interval lists are not modified elsewhere.
@@ -711,6 +727,7 @@ public class VerifyingFile {
             if (verifiedBlocks.getSize() > 0) {
                 partialBlocks.add(verifiedBlocks);
                 verifiedBlocks.clear();
+                serializableChanges++;
                 diskController.get().addDiskJobWithoutChunk(new EmptyVerifier(existingFileSize));
             }
         }
@@ -770,6 +787,7 @@ public class VerifyingFile {
                 byte[] tmp = diskController.get().getPowerOf2Chunk(Math.min(VERIFYABLE_CHUNK,tree.getNodeSize()));
                 boolean good = !tree.isCorrupt(i, fos, tmp);
                 synchronized (this) {
+                    serializableChanges++;
                     partialBlocks.delete(i);
                     if (good)
                         verifiedBlocks.add(i);
@@ -898,6 +916,7 @@ public class VerifyingFile {
                 synchronized (VerifyingFile.this) {
                     pendingBlocks.delete(intvl);
                     partialBlocks.add(intvl);
+                    serializableChanges++;
                     freedPending = true;
                 }
 
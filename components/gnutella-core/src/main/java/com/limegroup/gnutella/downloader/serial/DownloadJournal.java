@@ -0,0 +1,42 @@
+package com.limegroup.gnutella.downloader.serial;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.limegroup.gnutella.downloader.CoreDownloader;
+
+/**
+ * Saves the state of all downloads in an append-only journal, so that a
+ * checkpoint only has to write the downloads that changed since the last
+ * one.
+ */
+public interface DownloadJournal {
+
+    /**
+     * Reads all saved downloads from disk, in the order they were last
+     * checkpointed in.
+     */
+    public List<DownloadMemento> readFromDisk() throws IOException;
+
+    /**
+     * Saves the state of the downloads that changed since the last
+     * checkpoint, and forgets the downloads that are no longer in
+     * <code>downloaders</code>.
+     *
+     * @param downloaders all downloads, in the order they should be read
+     *        back in
+     * @return false if the journal could not be written
+     */
+    public boolean checkpoint(List<? extends CoreDownloader> downloaders);
+
+    /**
+     * Writes all downloads to the snapshot of the {@link DownloadSerializer}
+     * too, which is what previous versions read.
+     *
+     * @return false if the snapshot could not be written
+     */
+    public boolean writeSnapshot(List<? extends CoreDownloader> downloaders);
+
+    /** Closes the journal. The next checkpoint reopens it. */
+    public void close();
+}
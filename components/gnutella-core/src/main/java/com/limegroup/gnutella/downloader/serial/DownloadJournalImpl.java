@@ -0,0 +1,536 @@
+package com.limegroup.gnutella.downloader.serial;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.io.IOUtils;
+import org.limewire.service.ErrorService;
+import org.limewire.util.ConverterObjectInputStream;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.limegroup.gnutella.downloader.CoreDownloader;
+
+/**
+ * Keeps the state of all downloads in a journal of records.
+ * <p>
+ * Every download gets an id the first time it is checkpointed. A checkpoint
+ * appends a <code>PUT</code> record with the serialized memento of every
+ * download whose {@link CoreDownloader#getMementoStamp() memento stamp}
+ * changed and whose memento differs from the one saved last, a
+ * <code>REMOVE</code> record for every download that is gone, and an
+ * <code>ORDER</code> record if the downloads were reordered. Downloads are
+ * read back in the order of the last <code>ORDER</code> record, followed by
+ * those that were first saved after it. Every record carries a checksum;
+ * reading stops at the first incomplete or corrupt record, which is where a
+ * crash leaves the journal.
+ * <p>
+ * Once the journal is several times as large as the records of the current
+ * downloads, it is compacted by copying those records to a new file, which
+ * then replaces the journal. The first checkpoint after startup writes a new
+ * journal of all downloads the same way.
+ * <p>
+ * If there is no journal, downloads are read from the snapshot of the
+ * {@link DownloadSerializer}, which previous versions wrote. The snapshot
+ * is still written when a new journal is started and by
+ * {@link #writeSnapshot(List)}, so that previous versions find the
+ * downloads after a downgrade. A journal that can't be read is reported
+ * as an error.
+ */
+@Singleton
+public class DownloadJournalImpl implements DownloadJournal {
+
+    private static final Log LOG = LogFactory.getLog(DownloadJournalImpl.class);
+
+    /** The first bytes of a journal, "LWDJ". */
+    private static final int MAGIC = 0x4C57444A;
+
+    private static final int VERSION = 1;
+
+    /** The length of the magic number and version. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** Record with the serialized memento of a download. */
+    private static final byte PUT = 1;
+
+    /** Record of a download that was removed. */
+    private static final byte REMOVE = 2;
+
+    /** Record with the ids of all downloads, in order. */
+    private static final byte ORDER = 3;
+
+    /**
+     * The length of the type, id and data length before the data of a record
+     * and of the checksum after it.
+     */
+    private static final int RECORD_OVERHEAD = 13;
+
+    /**
+     * The journal is compacted once it is this many times as large as the
+     * records of the current downloads.
+     */
+    private static final int COMPACTION_RATIO = 3;
+
+    /** The journal is never compacted while it is smaller than this. */
+    private static final long MIN_COMPACTION_LENGTH = 256 * 1024;
+
+    private final DownloadSerializeSettings downloadSerializeSettings;
+
+    private final DownloadSerializer downloadSerializer;
+
+    /**
+     * The open journal, null if the next checkpoint has to write a new one.
+     * LOCKING: this
+     */
+    private RandomAccessFile journal;
+
+    /** The length of the journal. LOCKING: this */
+    private long length;
+
+    /**
+     * The total length of the last records of the current downloads.
+     * LOCKING: this
+     */
+    private long liveLength;
+
+    /** What was saved of every download. LOCKING: this */
+    private final Map<CoreDownloader, Entry> entries = new IdentityHashMap<CoreDownloader, Entry>();
+
+    /** LOCKING: this */
+    private int nextId;
+
+    /**
+     * The number of the current checkpoint, used to find the downloads that
+     * are gone. LOCKING: this
+     */
+    private int checkpoint;
+
+    @Inject
+    public DownloadJournalImpl(DownloadSerializeSettings downloadSerializeSettings,
+            DownloadSerializer downloadSerializer) {
+        this.downloadSerializeSettings = downloadSerializeSettings;
+        this.downloadSerializer = downloadSerializer;
+    }
+
+    /**
+     * Reads all saved downloads from the journal, or from the snapshot of
+     * the {@link DownloadSerializer} if no journal was written yet.
+     */
+    public synchronized List<DownloadMemento> readFromDisk() throws IOException {
+        File file = downloadSerializeSettings.getJournalFile();
+        File replacedFile = getReplacedFile();
+        if (!file.exists() && replacedFile.exists()) {
+            // a crash while install() replaced the journal
+            File compactionFile = getCompactionFile();
+            File recovered = compactionFile.exists() ? compactionFile : replacedFile;
+            LOG.warn("Recovering download journal from " + recovered);
+            if (!recovered.renameTo(file))
+                return read(recovered);
+            replacedFile.delete();
+        }
+        if (!file.exists())
+            return downloadSerializer.readFromDisk();
+        return read(file);
+    }
+    
+    /** Replays a journal, reporting it if it can't be read. */
+    private List<DownloadMemento> read(File file) throws IOException {
+        try {
+            return replay(file);
+        } catch (IOException iox) {
+            ErrorService.error(iox, "Unable to read download journal " + file 
+                    + ", length: " + file.length());
+            throw iox;
+        }
+    }
+
+    public synchronized boolean checkpoint(List<? extends CoreDownloader> downloaders) {
+        try {
+            boolean rewrite = journal == null;
+            if (rewrite)
+                create();
+            checkpoint++;
+            // a new journal saves every download, so the snapshot comes cheap
+            List<DownloadMemento> snapshot = rewrite ? new ArrayList<DownloadMemento>() : null;
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            List<Entry> current = new ArrayList<Entry>(downloaders.size());
+            boolean reordered = false;
+            boolean added = false;
+            int lastRank = -1;
+            for (CoreDownloader downloader : downloaders) {
+                if (!downloader.isMementoSupported())
+                    continue;
+                Entry entry = entries.get(downloader);
+                if (entry == null) {
+                    entry = save(downloader, null, out, buffer, snapshot);
+                    if (entry == null)
+                        continue;
+                    entries.put(downloader, entry);
+                    added = true;
+                } else {
+                    save(downloader, entry, out, buffer, snapshot);
+                    reordered |= added || entry.rank < lastRank;
+                    lastRank = entry.rank;
+                }
+                entry.checkpoint = checkpoint;
+                current.add(entry);
+            }
+
+            for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+                Entry entry = iter.next();
+                if (entry.checkpoint != checkpoint) {
+                    writeRecord(out, REMOVE, entry.id, new byte[0]);
+                    liveLength -= entry.recordLength;
+                    iter.remove();
+                }
+            }
+
+            if (reordered) {
+                ByteArrayOutputStream ids = new ByteArrayOutputStream(current.size() * 4);
+                DataOutputStream idsOut = new DataOutputStream(ids);
+                for (Entry entry : current)
+                    idsOut.writeInt(entry.id);
+                writeRecord(out, ORDER, 0, ids.toByteArray());
+            }
+            for (int i = 0; i < current.size(); i++)
+                current.get(i).rank = i;
+
+            if (buffer.size() > 0) {
+                journal.seek(length);
+                journal.write(buffer.toByteArray());
+                journal.getChannel().force(false);
+                length += buffer.size();
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Appended " + buffer.size() + " bytes to download journal");
+            }
+
+            if (rewrite) {
+                install();
+                downloadSerializer.writeToDisk(snapshot);
+            } else if (length > MIN_COMPACTION_LENGTH
+                    && length > COMPACTION_RATIO * (liveLength + HEADER_LENGTH))
+                compact(current);
+            return true;
+        } catch (IOException iox) {
+            LOG.warn("Unable to write download journal!", iox);
+            close();
+            return false;
+        }
+    }
+
+    public synchronized boolean writeSnapshot(List<? extends CoreDownloader> downloaders) {
+        List<DownloadMemento> mementos = new ArrayList<DownloadMemento>(downloaders.size());
+        for (CoreDownloader downloader : downloaders) {
+            if (downloader.isMementoSupported())
+                mementos.add(downloader.toMemento());
+        }
+        return downloadSerializer.writeToDisk(mementos);
+    }
+
+    public synchronized void close() {
+        IOUtils.close(journal);
+        journal = null;
+        entries.clear();
+    }
+
+    /**
+     * Appends a <code>PUT</code> record for the download to <code>out</code>
+     * if its memento changed since it was last saved in <code>entry</code>.
+     *
+     * @param entry the entry of the download, null if it is new
+     * @param snapshot the list to add the memento to if one is built, or null
+     * @return the entry of the download, null if it is new and could not be
+     *         serialized
+     */
+    private Entry save(CoreDownloader downloader, Entry entry, DataOutputStream out,
+            ByteArrayOutputStream buffer, List<DownloadMemento> snapshot) throws IOException {
+        // read the stamp first, so changes made while the memento is built
+        // are saved by the next checkpoint
+        long stamp = downloader.getMementoStamp();
+        if (entry != null && stamp != CoreDownloader.UNTRACKED_MEMENTO_STAMP && stamp == entry.stamp)
+            return entry;
+
+        byte[] data;
+        try {
+            DownloadMemento memento = downloader.toMemento();
+            data = toBytes(memento);
+            if (snapshot != null)
+                snapshot.add(memento);
+        } catch (IOException iox) {
+            LOG.warn("Unable to serialize download: " + downloader, iox);
+            return entry;
+        }
+
+        if (entry == null) {
+            entry = new Entry(nextId++);
+        } else if (data.length + RECORD_OVERHEAD == entry.recordLength
+                && checksum(PUT, entry.id, data) == entry.checksum) {
+            entry.stamp = stamp;
+            return entry;
+        }
+
+        liveLength -= entry.recordLength;
+        entry.offset = length + buffer.size();
+        entry.checksum = writeRecord(out, PUT, entry.id, data);
+        entry.recordLength = data.length + RECORD_OVERHEAD;
+        entry.stamp = stamp;
+        liveLength += entry.recordLength;
+        return entry;
+    }
+
+    /** Starts writing a new journal to the compaction file. */
+    private void create() throws IOException {
+        entries.clear();
+        liveLength = 0;
+        nextId = 0;
+        journal = openCompactionFile();
+        length = HEADER_LENGTH;
+    }
+
+    /**
+     * Copies the records of the current downloads to a new journal, in the
+     * order they are in, and replaces the journal with it.
+     */
+    private void compact(List<Entry> current) throws IOException {
+        RandomAccessFile compacted = openCompactionFile();
+        long[] offsets = new long[current.size()];
+        long compactedLength = HEADER_LENGTH;
+        try {
+            byte[] record = new byte[0];
+            for (int i = 0; i < offsets.length; i++) {
+                Entry entry = current.get(i);
+                if (record.length < entry.recordLength)
+                    record = new byte[entry.recordLength];
+                journal.seek(entry.offset);
+                journal.readFully(record, 0, entry.recordLength);
+                compacted.write(record, 0, entry.recordLength);
+                offsets[i] = compactedLength;
+                compactedLength += entry.recordLength;
+            }
+        } catch (IOException iox) {
+            // the journal itself is still intact
+            LOG.warn("Unable to compact download journal", iox);
+            IOUtils.close(compacted);
+            getCompactionFile().delete();
+            return;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Compacted download journal from " + length + " to " + compactedLength + " bytes");
+        IOUtils.close(journal);
+        journal = compacted;
+        length = compactedLength;
+        for (int i = 0; i < offsets.length; i++)
+            current.get(i).offset = offsets[i];
+        install();
+    }
+
+    /**
+     * Replaces the journal with the compaction file being written. The
+     * journal is moved aside rather than deleted first, so that a journal
+     * missing next to a replaced one means the compaction file, which is
+     * forced to disk before, is complete.
+     */
+    private void install() throws IOException {
+        journal.getChannel().force(true);
+        journal.close();
+        journal = null;
+        File file = downloadSerializeSettings.getJournalFile();
+        File replaced = getReplacedFile();
+        replaced.delete();
+        if (file.exists() && !file.renameTo(replaced))
+            throw new IOException("Unable to rename " + file + " to " + replaced);
+        if (!getCompactionFile().renameTo(file))
+            throw new IOException("Unable to rename " + getCompactionFile() + " to " + file);
+        replaced.delete();
+        journal = new RandomAccessFile(file, "rw");
+    }
+
+    private RandomAccessFile openCompactionFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getCompactionFile(), "rw");
+        file.setLength(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        return file;
+    }
+
+    private File getCompactionFile() {
+        File file = downloadSerializeSettings.getJournalFile();
+        return new File(file.getParentFile(), file.getName() + ".new");
+    }
+
+    /** Returns the file the journal is moved to while it is replaced. */
+    private File getReplacedFile() {
+        File file = downloadSerializeSettings.getJournalFile();
+        return new File(file.getParentFile(), file.getName() + ".old");
+    }
+
+    /**
+     * Reads the downloads from the journal, up to the first incomplete or
+     * corrupt record.
+     */
+    private List<DownloadMemento> replay(File file) throws IOException {
+        Map<Integer, byte[]> records = new LinkedHashMap<Integer, byte[]>();
+        int[] order = null;
+        long remaining = file.length() - HEADER_LENGTH;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a download journal: " + file);
+            while (remaining >= RECORD_OVERHEAD) {
+                byte type = in.readByte();
+                int id = in.readInt();
+                int size = in.readInt();
+                if (size < 0 || size > remaining - RECORD_OVERHEAD)
+                    break;
+                byte[] data = new byte[size];
+                in.readFully(data);
+                if (in.readInt() != checksum(type, id, data))
+                    break;
+                if (type == PUT) {
+                    records.put(id, data);
+                } else if (type == REMOVE) {
+                    records.remove(id);
+                } else if (type == ORDER) {
+                    DataInputStream ids = new DataInputStream(new ByteArrayInputStream(data));
+                    order = new int[size / 4];
+                    for (int i = 0; i < order.length; i++)
+                        order[i] = ids.readInt();
+                } else {
+                    break;
+                }
+                remaining -= RECORD_OVERHEAD + size;
+            }
+        } finally {
+            IOUtils.close(in);
+        }
+        if (remaining > 0)
+            LOG.warn("Ignoring the last " + remaining + " bytes of the download journal");
+
+        List<byte[]> ordered = new ArrayList<byte[]>(records.size());
+        if (order != null) {
+            for (int id : order) {
+                byte[] data = records.remove(id);
+                if (data != null)
+                    ordered.add(data);
+            }
+        }
+        ordered.addAll(records.values());
+
+        if (ordered.isEmpty())
+            return Collections.emptyList();
+        List<DownloadMemento> mementos = new ArrayList<DownloadMemento>(ordered.size());
+        for (byte[] data : ordered) {
+            DownloadMemento memento = toMemento(data);
+            if (memento != null)
+                mementos.add(memento);
+        }
+        return mementos;
+    }
+
+    /**
+     * Writes a record to <code>out</code>.
+     *
+     * @return the checksum of the record
+     */
+    private static int writeRecord(DataOutputStream out, byte type, int id, byte[] data)
+            throws IOException {
+        int checksum = checksum(type, id, data);
+        out.writeByte(type);
+        out.writeInt(id);
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeInt(checksum);
+        return checksum;
+    }
+
+    private static int checksum(byte type, int id, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        update(crc, id);
+        update(crc, data.length);
+        crc.update(data);
+        return (int)crc.getValue();
+    }
+
+    private static void update(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private static byte[] toBytes(DownloadMemento memento) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(memento);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Returns the memento serialized in <code>data</code>, or null if it can't be read. */
+    private static DownloadMemento toMemento(byte[] data) {
+        ObjectInputStream in = null;
+        try {
+            in = new ConverterObjectInputStream(new ByteArrayInputStream(data));
+            Object memento = in.readObject();
+            if (memento instanceof DownloadMemento)
+                return (DownloadMemento)memento;
+            LOG.warn("Not a download memento: " + memento);
+        } catch (Throwable ignored) {
+            LOG.warn("Unable to read download from journal", ignored);
+        } finally {
+            IOUtils.close(in);
+        }
+        return null;
+    }
+
+    /** What was saved of a download. */
+    private static class Entry {
+        /** The id of the download in the journal. */
+        private final int id;
+
+        /** The position of the download when it was last checkpointed. */
+        private int rank = -1;
+
+        /** The memento stamp of the download when it was last saved. */
+        private long stamp;
+
+        /** The offset of the last <code>PUT</code> record of the download. */
+        private long offset;
+
+        /** The length of that record. */
+        private int recordLength;
+
+        /** The checksum of that record. */
+        private int checksum;
+
+        /** The number of the last checkpoint the download was part of. */
+        private int checkpoint;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
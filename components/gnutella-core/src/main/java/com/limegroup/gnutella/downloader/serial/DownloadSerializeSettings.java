@@ -1,11 +1,14 @@
-package com.limegroup.gnutella.downloader.serial;
-
-import java.io.File;
-
-public interface DownloadSerializeSettings {
-    
-    public File getSaveFile();
-    
-    public File getBackupFile();
-
-}
+package com.limegroup.gnutella.downloader.serial;
+
+import java.io.File;
+
+public interface DownloadSerializeSettings {
+    
+    public File getSaveFile();
+    
+    public File getBackupFile();
+    
+    /** Returns the file the download journal is kept in. */
+    public File getJournalFile();
+
+}
@@ -1,17 +1,21 @@
-package com.limegroup.gnutella.downloader.serial;
-
-import java.io.File;
-
-import org.limewire.util.CommonUtils;
-
-public class DownloadSerializeSettingsImpl implements DownloadSerializeSettings {
-    
-    public File getBackupFile() {
-        return new File(CommonUtils.getUserSettingsDir(), "downloads.bak");
-    }
-    
-    public File getSaveFile() {
-        return new File(CommonUtils.getUserSettingsDir(), "downloads.dat");
-    }
-
-}
+package com.limegroup.gnutella.downloader.serial;
+
+import java.io.File;
+
+import org.limewire.util.CommonUtils;
+
+public class DownloadSerializeSettingsImpl implements DownloadSerializeSettings {
+    
+    public File getBackupFile() {
+        return new File(CommonUtils.getUserSettingsDir(), "downloads.bak");
+    }
+    
+    public File getSaveFile() {
+        return new File(CommonUtils.getUserSettingsDir(), "downloads.dat");
+    }
+    
+    public File getJournalFile() {
+        return new File(CommonUtils.getUserSettingsDir(), "downloads.journal");
+    }
+
+}
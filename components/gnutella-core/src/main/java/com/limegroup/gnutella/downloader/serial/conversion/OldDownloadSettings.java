@@ -18,4 +18,9 @@ public class OldDownloadSettings implements DownloadSerializeSettings {
         return SharingSettings.OLD_DOWNLOAD_SNAPSHOT_FILE.get();
     }
 
+    /** Returns null, old versions didn't keep a journal. */
+    public File getJournalFile() {
+        return null;
+    }
+
 }
@@ -146,7 +146,20 @@ public enum HTTPHeaderName {
     FW_NODE_INFO("X-FW-Node-Info"),
     
     /** Header to signal interest in and support of non-metadata urns. **/
-    NMS1("X-NMS1");
+    NMS1("X-NMS1"),
+    
+    /**
+     * Header for the version of a browsed library. Sent by the browsing host
+     * to ask for the changes since that version only.
+     */
+    LIBRARY_VERSION("X-Library-Version"),
+    
+    /**
+     * Header for the sha1 urns of the files removed from a browsed library,
+     * separated by commas. Its presence marks a browse that only contains
+     * the changed files.
+     */
+    LIBRARY_REMOVED("X-Library-Removed");
     /**
      * Constant for the HTTP header name as a string.
      */
@@ -14,4 +14,7 @@ public interface FileDescFactory {
             Set<? extends URN> urns, int index, String completedName, long completedSize,
             VerifyingFile vf);
 
+    /** Releases what a FileDesc that was removed from the library holds on to. */
+    void release(FileDesc fd);
+
 }
@@ -3,40 +3,38 @@ package com.limegroup.gnutella.library;
 import java.io.File;
 import java.util.Set;
 
-import org.limewire.listener.SourcedEventMulticaster;
-
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.downloader.VerifyingFile;
-import com.limegroup.gnutella.licenses.LicenseFactory;
 
 @Singleton
 class FileDescFactoryImpl implements FileDescFactory {
     
-    private final RareFileStrategy rareFileStrategy;
-    private final SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster;
-    private final LicenseFactory licenseFactory;
+    private final FileDescStore store;
     
     @Inject
-    public FileDescFactoryImpl(RareFileStrategy rareFileStrategy,
-            SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster,
-            LicenseFactory licenseFactory) {
-        this.rareFileStrategy = rareFileStrategy;
-        this.multicaster = multicaster;
-        this.licenseFactory = licenseFactory;
+    public FileDescFactoryImpl(FileDescStore store) {
+        this.store = store;
     }
 
     @Override
     public FileDesc createFileDesc(File file, Set<? extends URN> urns, int index) {
-        return new FileDescImpl(rareFileStrategy, licenseFactory, multicaster, file, urns, index);
+        return new FileDescImpl(store, file, urns, index);
     }
     
     @Override
     public IncompleteFileDesc createIncompleteFileDesc(File file, Set<? extends URN> urns,
             int index, String completedName, long completedSize, VerifyingFile vf) {
-        return new IncompleteFileDescImpl(rareFileStrategy, licenseFactory, multicaster, file, urns,
+        return new IncompleteFileDescImpl(store, file, urns,
                 index, completedName, completedSize, vf);
     }
 
+    @Override
+    public void release(FileDesc fd) {
+        if(fd instanceof FileDescImpl) {
+            store.release((FileDescImpl)fd);
+        }
+    }
+
 }
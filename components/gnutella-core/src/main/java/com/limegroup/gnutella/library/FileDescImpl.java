@@ -3,6 +3,7 @@ package com.limegroup.gnutella.library;
 import static com.limegroup.gnutella.Constants.MAX_FILE_SIZE;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,7 +18,6 @@ import org.limewire.util.Objects;
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.UrnSet;
 import com.limegroup.gnutella.licenses.License;
-import com.limegroup.gnutella.licenses.LicenseFactory;
 import com.limegroup.gnutella.licenses.LicenseType;
 import com.limegroup.gnutella.routing.HashFunction;
 import com.limegroup.gnutella.xml.LimeXMLDocument;
@@ -26,6 +26,10 @@ import com.limegroup.gnutella.xml.LimeXMLDocument;
 /**
  * This class contains data for an individual shared file.  It also provides
  * various utility methods for checking against the encapsulated data.<p>
+ * 
+ * Sizes, timestamps, counters and flags are kept in the shared
+ * {@link FileDescStore}; the XML documents and client properties are only
+ * allocated once they are used.
  */
 
 class FileDescImpl implements FileDesc {
@@ -49,57 +53,22 @@ class FileDescImpl implements FileDesc {
 	private License _license;
 	
 	/**
-	 * The LimeXMLDocs associated with this FileDesc.
+	 * The LimeXMLDocs associated with this FileDesc, null until the first
+	 * one is added. LOCKING: this.
 	 */
-	private final CopyOnWriteArrayList<LimeXMLDocument> _limeXMLDocs = new CopyOnWriteArrayList<LimeXMLDocument>();
+	private volatile CopyOnWriteArrayList<LimeXMLDocument> _limeXMLDocs;
 
-	/**
-	 * The size of the associated File.
-	 */
-	private final long fileSize;
-	
-	private final long lastModified;
+	/** The store holding the sizes, timestamps and counters of this FileDesc. */
+	private final FileDescStore store;
 	
 	/**
-	 * The number of hits this file has recieved.
-	 */
-	private int hits;
-	
-	/** 
-	 * The number of times this file has had attempted uploads
-	 */
-	private int _attemptedUploads;
-	
-    /**
-     * The time when the last attempt was made to upload this file
-     */
-    private long lastAttemptedUploadTime = System.currentTimeMillis();
-    
-	/** 
-	 * The number of times this file has had completed uploads
+	 * The values of this FileDesc if its slot in the store was reused or
+	 * it was removed. LOCKING: written under store.
 	 */
-	private int _completedUploads;
-	
-	/** True if this is a store file. */
-    private volatile boolean storeFile;
-    
-    /** True if this can be shared. */
-    private volatile boolean isShareable = true;
+	private volatile FileDescStore.Values detached;
     
-    private final SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster;
-    private final RareFileStrategy rareFileStrategy;
-    private final LicenseFactory licenseFactory;
-    
-    private final ConcurrentHashMap<String, Object> clientProperties =
-        new ConcurrentHashMap<String, Object>(4, 0.75f, 1); // non-default initialCapacity,
-                                                            // concurrencyLevel, saves
-                                                            // ~1k memory / file.
-
-                                                            // consider sizing even smaller,
-                                                            // using other Map impls, or
-                                                            // eliminating the use of a
-                                                            // Map altogether
-
+    /** Client properties, null until the first one is put. LOCKING: this. */
+    private volatile ConcurrentHashMap<String, Object> clientProperties;
 	    
     /**
 	 * Constructs a new <tt>FileDesc</tt> instance from the specified 
@@ -109,8 +78,7 @@ class FileDescImpl implements FileDesc {
      * @param urns the URNs to associate with this FileDesc
      * @param index the index in the FileManager
      */
-    FileDescImpl(RareFileStrategy rareFileStrategy, LicenseFactory licenseFactory,
-            SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster,
+    FileDescImpl(FileDescStore store,
             File file,
             Set<? extends URN> urns,
             int index) {
@@ -119,24 +87,34 @@ class FileDescImpl implements FileDesc {
 			throw new IndexOutOfBoundsException("negative index (" + index + ") not permitted in FileDesc");
 		}
         
-        fileSize = file.length();
+        long fileSize = file.length();
         assert fileSize >= 0 && fileSize <= MAX_FILE_SIZE : "invalid size "+fileSize+" of file "+file;
         Objects.nonNull(urns, "urns");
         
-		this.rareFileStrategy = rareFileStrategy;
-		this.multicaster = multicaster;
-		this.licenseFactory = licenseFactory;
+		this.store = store;
 		this.file = Objects.nonNull(file, "file");
         this.index = index;
         this.urns = UrnSet.unmodifiableSet(urns); 
-        this.lastModified = file.lastModified();
         
-        hits = 0; // Starts off with 0 hits
+        store.allocate(this, fileSize, file.lastModified());
+    }
+    
+    /**
+     * Returns the values of this FileDesc if it no longer owns its slot in
+     * the store, otherwise null.
+     */
+    FileDescStore.Values getDetached() {
+        return detached;
+    }
+    
+    /** Hands this FileDesc its own copy of its values. Called under store. */
+    void detach(FileDescStore.Values values) {
+        detached = values;
     }
     
     @Override
     public boolean isRareFile() {
-        return rareFileStrategy.isRareFile(this);
+        return store.getRareFileStrategy().isRareFile(this);
     }
 
 	/* (non-Javadoc)
@@ -157,7 +135,7 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#getFileSize()
      */
 	public long getFileSize() {
-		return fileSize;
+		return store.getSize(this);
 	}
 
 	/* (non-Javadoc)
@@ -171,7 +149,7 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#lastModified()
      */
 	public long lastModified() {
-		return lastModified;
+		return store.getLastModified(this);
 	}
 
 	/* (non-Javadoc)
@@ -211,6 +189,7 @@ class FileDescImpl implements FileDesc {
             UrnSet newSet = UrnSet.modifiableSet(urns);
             newSet.add(urn);
             urns = UrnSet.unmodifiableSet(newSet);
+            SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster = store.getMulticaster();
             if(multicaster != null && urn.isTTRoot()) {
                 multicaster.handleEvent(new FileDescChangeEvent(this, FileDescChangeEvent.Type.TT_ROOT_ADDED, urn));
             }
@@ -238,7 +217,12 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#addLimeXMLDocument(com.limegroup.gnutella.xml.LimeXMLDocument)
      */
 	public void addLimeXMLDocument(LimeXMLDocument doc) {
-        _limeXMLDocs.add(doc);
+        synchronized(this) {
+            if(_limeXMLDocs == null) {
+                _limeXMLDocs = new CopyOnWriteArrayList<LimeXMLDocument>();
+            }
+            _limeXMLDocs.add(doc);
+        }
         
 	    doc.initIdentifier(file);
 	    assignLicense(doc);
@@ -249,7 +233,10 @@ class FileDescImpl implements FileDesc {
      */
     public boolean replaceLimeXMLDocument(LimeXMLDocument oldDoc, 
                                           LimeXMLDocument newDoc) {
-        synchronized(_limeXMLDocs) {
+        synchronized(this) {
+            if(_limeXMLDocs == null)
+                return false;
+            
             int index = _limeXMLDocs.indexOf(oldDoc);
             if( index == -1 )
                 return false;
@@ -267,7 +254,7 @@ class FileDescImpl implements FileDesc {
         if(doc.isLicenseAvailable()) {
             String license = doc.getLicenseString();
             if(license != null) {
-                _license = licenseFactory.create(license);
+                _license = store.getLicenseFactory().create(license);
             } else {
                 _license = null;
             }
@@ -275,13 +262,13 @@ class FileDescImpl implements FileDesc {
             _license = null;
         }
         
-        storeFile = doc.getLicenseString() != null &&
+        store.setStoreFile(this, doc.getLicenseString() != null &&
                     (doc.getLicenseString().equals(LicenseType.LIMEWIRE_STORE_PURCHASE.name()) ||
-                     doc.getLicenseString().equals(LicenseType.LIMEWIRE_STORE_RESHAREABLE.name()));
+                     doc.getLicenseString().equals(LicenseType.LIMEWIRE_STORE_RESHAREABLE.name())));
         
         if(doc.getLicenseString() != null &&
                     doc.getLicenseString().equals(LicenseType.LIMEWIRE_STORE_PURCHASE.name())) {
-            isShareable = false;
+            store.setShareable(this, false);
         }
     }
     
@@ -289,8 +276,8 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#removeLimeXMLDocument(com.limegroup.gnutella.xml.LimeXMLDocument)
      */
     public boolean removeLimeXMLDocument(LimeXMLDocument toRemove) {
-        
-        if (!_limeXMLDocs.remove(toRemove))
+        List<LimeXMLDocument> docs = _limeXMLDocs;
+        if (docs == null || !docs.remove(toRemove))
             return false;
         
         if(_license != null && toRemove.isLicenseAvailable())
@@ -303,7 +290,11 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#getLimeXMLDocuments()
      */
     public List<LimeXMLDocument> getLimeXMLDocuments() {
-        return _limeXMLDocs;
+        List<LimeXMLDocument> docs = _limeXMLDocs;
+        if(docs == null) {
+            return Collections.emptyList();
+        }
+        return docs;
     }
     
     /* (non-Javadoc)
@@ -350,50 +341,49 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#incrementHitCount()
      */    
     public int incrementHitCount() {
-        return ++hits;
+        return store.incrementHits(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#getHitCount()
      */
     public int getHitCount() {
-        return hits;
+        return store.getHits(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#incrementAttemptedUploads()
      */    
-    public synchronized int incrementAttemptedUploads() {
-        lastAttemptedUploadTime = System.currentTimeMillis();
-        return ++_attemptedUploads;
+    public int incrementAttemptedUploads() {
+        return store.incrementAttemptedUploads(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#getAttemptedUploads()
      */
-    public synchronized int getAttemptedUploads() {
-        return _attemptedUploads;
+    public int getAttemptedUploads() {
+        return store.getAttemptedUploads(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#getLastAttemptedUploadTime()
      */
-    public synchronized long getLastAttemptedUploadTime() {
-        return lastAttemptedUploadTime;
+    public long getLastAttemptedUploadTime() {
+        return store.getLastAttemptedUploadTime(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#incrementCompletedUploads()
      */    
     public int incrementCompletedUploads() {
-        return ++_completedUploads;
+        return store.incrementCompletedUploads(this);
     }
     
     /* (non-Javadoc)
      * @see com.limegroup.gnutella.library.FileDesc#getCompletedUploads()
      */
     public int getCompletedUploads() {
-        return _completedUploads;
+        return store.getCompletedUploads(this);
     }       
     
 	// overrides Object.toString to provide a more useful description
@@ -407,7 +397,7 @@ class FileDescImpl implements FileDesc {
 				"modTime:  "+lastModified()+"\r\n"+
 				"File:     "+file+"\r\n"+
 				"urns:     "+urns+"\r\n"+
-				"docs:     "+ _limeXMLDocs+"\r\n");
+				"docs:     "+ getLimeXMLDocuments()+"\r\n");
 	}
     
     /* (non-Javadoc)
@@ -456,31 +446,45 @@ class FileDescImpl implements FileDesc {
      * @see com.limegroup.gnutella.library.FileDesc#isStoreFile()
      */
     public boolean isStoreFile() {
-        return storeFile;
+        return store.isStoreFile(this);
     }
     
     public boolean isShareable() {
-        return isShareable;
+        return store.isShareable(this);
     }
     
     @Override
     public void addListener(EventListener<FileDescChangeEvent> listener) {
-        multicaster.addListener(this, listener);
+        store.getMulticaster().addListener(this, listener);
     }
     
     @Override
     public boolean removeListener(EventListener<FileDescChangeEvent> listener) {
-        return multicaster.removeListener(this, listener);
+        return store.getMulticaster().removeListener(this, listener);
     }
     
     @Override
     public Object getClientProperty(String property) {
-        return clientProperties.get(property);
+        ConcurrentHashMap<String, Object> properties = clientProperties;
+        if(properties == null) {
+            return null;
+        }
+        return properties.get(property);
     }
     
     @Override
     public void putClientProperty(String property, Object value) {
-        clientProperties.put(property, value);
+        ConcurrentHashMap<String, Object> properties = clientProperties;
+        if(properties == null) {
+            synchronized(this) {
+                properties = clientProperties;
+                if(properties == null) {
+                    properties = new ConcurrentHashMap<String, Object>(4, 0.75f, 1);
+                    clientProperties = properties;
+                }
+            }
+        }
+        properties.put(property, value);
     }
 }
 
@@ -0,0 +1,317 @@
+package com.limegroup.gnutella.library;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.limewire.listener.SourcedEventMulticaster;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.limegroup.gnutella.licenses.LicenseFactory;
+
+/**
+ * Stores the per-file sizes, timestamps, counters and flags of all
+ * {@link FileDescImpl FileDescs} in primitive arrays indexed by the
+ * index of the <code>FileDesc</code>, along with the collaborators every
+ * <code>FileDesc</code> shares. This keeps each <code>FileDesc</code> down
+ * to a handful of references, which matters for libraries with hundreds of
+ * thousands of files.
+ * <p>
+ * Indices are reused when the library is cleared. When a
+ * <code>FileDesc</code> is removed, or its slot is handed to a new
+ * <code>FileDesc</code>, its values are copied into a small object held by
+ * that <code>FileDesc</code>, so anybody still holding on to it sees
+ * consistent values and the store doesn't keep it alive.
+ * <p>
+ * This class is thread-safe. Writes lock the store, reads don't.
+ */
+@Singleton
+class FileDescStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int STORE_FILE = 1;
+    private static final int SHAREABLE = 1 << 1;
+
+    private final RareFileStrategy rareFileStrategy;
+    private final LicenseFactory licenseFactory;
+    private final SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster;
+
+    /**
+     * The columns, replaced by bigger copies as the library grows. Written
+     * under this; read without locking.
+     */
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+
+    @Inject
+    FileDescStore(RareFileStrategy rareFileStrategy, LicenseFactory licenseFactory,
+            SourcedEventMulticaster<FileDescChangeEvent, FileDesc> multicaster) {
+        this.rareFileStrategy = rareFileStrategy;
+        this.licenseFactory = licenseFactory;
+        this.multicaster = multicaster;
+    }
+
+    RareFileStrategy getRareFileStrategy() {
+        return rareFileStrategy;
+    }
+
+    LicenseFactory getLicenseFactory() {
+        return licenseFactory;
+    }
+
+    SourcedEventMulticaster<FileDescChangeEvent, FileDesc> getMulticaster() {
+        return multicaster;
+    }
+
+    /**
+     * Assigns the slot of the FileDesc's index to it, detaching whichever
+     * FileDesc previously owned the slot.
+     */
+    synchronized void allocate(FileDescImpl fd, long size, long modified) {
+        int index = fd.getIndex();
+        ensureCapacity(index + 1);
+        Columns c = columns;
+
+        FileDescImpl previous = c.owners[index];
+        if(previous != null && previous != fd) {
+            previous.detach(c.copy(index));
+        }
+
+        c.owners[index] = fd;
+        c.sizes.set(index, size);
+        c.lastModified.set(index, modified);
+        c.lastAttemptedUploadTimes.set(index, System.currentTimeMillis());
+        c.hits.set(index, 0);
+        c.attemptedUploads.set(index, 0);
+        c.completedUploads.set(index, 0);
+        c.flags.set(index, SHAREABLE);
+    }
+
+    /**
+     * Detaches a FileDesc that was removed from the library from its slot,
+     * so that the store no longer refers to it.
+     */
+    synchronized void release(FileDescImpl fd) {
+        Columns c = columns;
+        int index = fd.getIndex();
+        if(index < c.owners.length && c.owners[index] == fd) {
+            fd.detach(c.copy(index));
+            c.owners[index] = null;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        Columns c = columns;
+        if(capacity <= c.owners.length) {
+            return;
+        }
+        columns = new Columns(c, Math.max(capacity, c.owners.length * 2));
+    }
+
+    /*
+     * Reads don't lock. They check that the FileDesc still owns its slot,
+     * read the column and check again: writers detach the previous owner
+     * before they overwrite its slot, and the columns are read and written
+     * with volatile semantics, so a reader that sees a value of the new
+     * owner also sees the previous owner detached, and then reads the
+     * detached values instead.
+     */
+
+    long getSize(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            long size = columns.sizes.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return size;
+            }
+        }
+        return values.size;
+    }
+
+    long getLastModified(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            long modified = columns.lastModified.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return modified;
+            }
+        }
+        return values.lastModified;
+    }
+
+    synchronized int incrementHits(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        return values != null ? ++values.hits : columns.hits.incrementAndGet(fd.getIndex());
+    }
+
+    int getHits(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            int hits = columns.hits.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return hits;
+            }
+        }
+        return values.hits;
+    }
+
+    synchronized int incrementAttemptedUploads(FileDescImpl fd) {
+        long now = System.currentTimeMillis();
+        Values values = fd.getDetached();
+        if(values != null) {
+            values.lastAttemptedUploadTime = now;
+            return ++values.attemptedUploads;
+        } else {
+            Columns c = columns;
+            c.lastAttemptedUploadTimes.set(fd.getIndex(), now);
+            return c.attemptedUploads.incrementAndGet(fd.getIndex());
+        }
+    }
+
+    int getAttemptedUploads(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            int attempted = columns.attemptedUploads.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return attempted;
+            }
+        }
+        return values.attemptedUploads;
+    }
+
+    long getLastAttemptedUploadTime(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            long time = columns.lastAttemptedUploadTimes.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return time;
+            }
+        }
+        return values.lastAttemptedUploadTime;
+    }
+
+    synchronized int incrementCompletedUploads(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        return values != null ? ++values.completedUploads : columns.completedUploads.incrementAndGet(fd.getIndex());
+    }
+
+    int getCompletedUploads(FileDescImpl fd) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            int completed = columns.completedUploads.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return completed;
+            }
+        }
+        return values.completedUploads;
+    }
+
+    boolean isStoreFile(FileDescImpl fd) {
+        return isSet(fd, STORE_FILE);
+    }
+
+    void setStoreFile(FileDescImpl fd, boolean storeFile) {
+        set(fd, STORE_FILE, storeFile);
+    }
+
+    boolean isShareable(FileDescImpl fd) {
+        return isSet(fd, SHAREABLE);
+    }
+
+    void setShareable(FileDescImpl fd, boolean shareable) {
+        set(fd, SHAREABLE, shareable);
+    }
+
+    private boolean isSet(FileDescImpl fd, int flag) {
+        Values values = fd.getDetached();
+        if(values == null) {
+            int current = columns.flags.get(fd.getIndex());
+            values = fd.getDetached();
+            if(values == null) {
+                return (current & flag) != 0;
+            }
+        }
+        return (values.flags & flag) != 0;
+    }
+
+    private synchronized void set(FileDescImpl fd, int flag, boolean on) {
+        Values values = fd.getDetached();
+        if(values != null) {
+            values.flags = on ? (values.flags | flag) : (values.flags & ~flag);
+        } else {
+            AtomicIntegerArray flags = columns.flags;
+            int current = flags.get(fd.getIndex());
+            flags.set(fd.getIndex(), on ? (current | flag) : (current & ~flag));
+        }
+    }
+
+    /**
+     * The columns of all slots. The values are kept in atomic arrays so
+     * that unlocked reads see them in the order they were written.
+     */
+    private static class Columns {
+        /** The FileDesc currently owning each slot. Only used under the store. */
+        private final FileDescImpl[] owners;
+        private final AtomicLongArray sizes;
+        private final AtomicLongArray lastModified;
+        private final AtomicLongArray lastAttemptedUploadTimes;
+        private final AtomicIntegerArray hits;
+        private final AtomicIntegerArray attemptedUploads;
+        private final AtomicIntegerArray completedUploads;
+        private final AtomicIntegerArray flags;
+
+        Columns(int capacity) {
+            owners = new FileDescImpl[capacity];
+            sizes = new AtomicLongArray(capacity);
+            lastModified = new AtomicLongArray(capacity);
+            lastAttemptedUploadTimes = new AtomicLongArray(capacity);
+            hits = new AtomicIntegerArray(capacity);
+            attemptedUploads = new AtomicIntegerArray(capacity);
+            completedUploads = new AtomicIntegerArray(capacity);
+            flags = new AtomicIntegerArray(capacity);
+        }
+
+        Columns(Columns c, int capacity) {
+            this(capacity);
+            System.arraycopy(c.owners, 0, owners, 0, c.owners.length);
+            for(int i = 0; i < c.owners.length; i++) {
+                sizes.set(i, c.sizes.get(i));
+                lastModified.set(i, c.lastModified.get(i));
+                lastAttemptedUploadTimes.set(i, c.lastAttemptedUploadTimes.get(i));
+                hits.set(i, c.hits.get(i));
+                attemptedUploads.set(i, c.attemptedUploads.get(i));
+                completedUploads.set(i, c.completedUploads.get(i));
+                flags.set(i, c.flags.get(i));
+            }
+        }
+
+        Values copy(int index) {
+            Values values = new Values();
+            values.size = sizes.get(index);
+            values.lastModified = lastModified.get(index);
+            values.lastAttemptedUploadTime = lastAttemptedUploadTimes.get(index);
+            values.hits = hits.get(index);
+            values.attemptedUploads = attemptedUploads.get(index);
+            values.completedUploads = completedUploads.get(index);
+            values.flags = flags.get(index);
+            return values;
+        }
+    }
+
+    /** The values of a FileDesc whose slot was reused. */
+    static class Values {
+        private volatile long size;
+        private volatile long lastModified;
+        private volatile long lastAttemptedUploadTime;
+        private volatile int hits;
+        private volatile int attemptedUploads;
+        private volatile int completedUploads;
+        private volatile int flags;
+    }
+}
@@ -26,6 +26,8 @@ class FileManagerImpl implements FileManager, Service {
     
     private Saver saver;
     
+    private DirectoryWatcher directoryWatcher;
+    
     /**
      * Whether the FileManager has been shutdown.
      */
@@ -86,6 +88,10 @@ class FileManagerImpl implements FileManager, Service {
                 this.saver = new Saver();
                 backgroundExecutor.scheduleWithFixedDelay(saver, 1, 1, TimeUnit.MINUTES);
             }
+            if (directoryWatcher == null) {
+                this.directoryWatcher = new DirectoryWatcher();
+                backgroundExecutor.scheduleWithFixedDelay(directoryWatcher, 10, 10, TimeUnit.SECONDS);
+            }
         }
     }
 
@@ -102,4 +108,13 @@ class FileManagerImpl implements FileManager, Service {
             }
         }
     }
+    
+    /** Applies renames & removals of managed files made outside of LimeWire. */
+    private class DirectoryWatcher implements Runnable {
+        public void run() {
+            if (!shutdown && library.isLoadFinished()) {
+                library.checkForChanges();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -112,6 +113,9 @@ class LibraryImpl implements Library, FileCollection {
     /** All the library data for this library -- loaded on-demand. */
     private final LibraryFileData fileData;  
     
+    /** The directories containing managed files, as of their last verification. */
+    private final LibrarySnapshot snapshot;
+    
     /** The revision this finished loading. */
     private volatile boolean loadingFinished = false;
     
@@ -130,6 +134,7 @@ class LibraryImpl implements Library, FileCollection {
                 URNFilter urnFilter, CategoryManager categoryManager
                 ) {
         this.fileData = new LibraryFileData(categoryManager);
+        this.snapshot = new LibrarySnapshot();
         this.urnCache = urnCache;
         this.fileDescFactory = fileDescFactory;
         this.fileDescMulticaster = fileDescMulticaster;
@@ -319,6 +324,7 @@ class LibraryImpl implements Library, FileCollection {
     public void clear() {
         clearImpl();
         getLibraryData().clearFileData();
+        snapshot.clear();
     }
     
     /** Actually performs the clear & dispatches an event. Does not save the clear to LibraryFileData. */
@@ -328,6 +334,11 @@ class LibraryImpl implements Library, FileCollection {
         try {
             fileFutures = new HashMap<File, Future>(fileToFutures);
             fileToFutures.clear();
+            for(FileDesc fd : files) {
+                if(fd != null) {
+                    fileDescFactory.release(fd);
+                }
+            }
             files.clear();
             urnMap.clear();
             fileToFileDescMap.clear();
@@ -428,6 +439,12 @@ class LibraryImpl implements Library, FileCollection {
         return add(file, list, null);
     }
     
+    private ListeningFuture<FileDesc> add(File originalFile, 
+            List<? extends LimeXMLDocument> metadata,
+            FileDesc oldFileDesc) {
+        return add(originalFile, metadata, oldFileDesc, false);
+    }
+    
     /**
      * Adds a managed file.  Returns a future that can be used to get the FD or failure
      * event from adding the file.  Failures are throws as ExecutionExceptions from the Future.
@@ -436,20 +453,28 @@ class LibraryImpl implements Library, FileCollection {
      * @param metadata - any LimeXMLDocs associated with this file
      * @param rev - current  version of LimeXMLDocs being used
      * @param oldFileDesc the old FileDesc this is replacing
+     * @param unchanged true if the file is a canonical file whose size and
+     *        modification time have not changed since it was last verified,
+     *        in which case it does not need to be canonicalized or physically
+     *        checked
      */
     private ListeningFuture<FileDesc> add(File originalFile, 
             final List<? extends LimeXMLDocument> metadata,
-            final FileDesc oldFileDesc) {
+            final FileDesc oldFileDesc, boolean unchanged) {
         LOG.debugf("Attempting to load file: {0}", originalFile);
 
         File file = null;
-        // Make sure capitals are resolved properly, etc.
-        try {
-            file = FileUtils.getCanonicalFile(originalFile);
-        } catch (IOException e) {
-            LOG.debugf("Not adding {0} because canonicalize failed", originalFile);
-            dispatchFailure(originalFile, null);            
-            return new SimpleFuture<FileDesc>(createFailureException(originalFile, oldFileDesc, FileViewChangeFailedException.Reason.CANT_CANONICALIZE));
+        if(unchanged) {
+            file = originalFile;
+        } else {
+            // Make sure capitals are resolved properly, etc.
+            try {
+                file = FileUtils.getCanonicalFile(originalFile);
+            } catch (IOException e) {
+                LOG.debugf("Not adding {0} because canonicalize failed", originalFile);
+                dispatchFailure(originalFile, null);            
+                return new SimpleFuture<FileDesc>(createFailureException(originalFile, oldFileDesc, FileViewChangeFailedException.Reason.CANT_CANONICALIZE));
+            }
         }
         
         rwLock.readLock().lock();
@@ -465,7 +490,7 @@ class LibraryImpl implements Library, FileCollection {
         }
         
         //make sure a FileDesc can be created from this file
-        if (!LibraryUtils.isFilePhysicallyManagable(file)) {
+        if (!unchanged && !LibraryUtils.isFilePhysicallyManagable(file)) {
             LOG.debugf("Not adding {0} because file isn't physically manageable", file);
             dispatchFailure(file, oldFileDesc);
             return new SimpleFuture<FileDesc>(createFailureException(file, oldFileDesc, FileViewChangeFailedException.Reason.NOT_MANAGEABLE));
@@ -528,6 +553,8 @@ class LibraryImpl implements Library, FileCollection {
         if(fd != null) {
             if(UrnSet.getSha1(urns) == null) {
                 // Create a FileDesc & add it before we have a set of URNs for it.
+                // Its metadata is read while it is being hashed.
+                xmlController.prefetchXml(fd);
                 ListeningFuture<Set<URN>> urnFuture = urnCache.calculateAndCacheSHA1(file);
                 setFutureForFile(file, urnFuture);  
                 LOG.debugf("Submitting URN future for {0}", file);
@@ -561,6 +588,10 @@ class LibraryImpl implements Library, FileCollection {
                 } else {
                     LOG.debugf("URNs precalculated for {0}, but needs safe-check or XML", file);
                     broadcastQueued(file);
+                    if(!loadedXML && allowsXML) {
+                        // Read the metadata while earlier files are finished.
+                        xmlController.prefetchXml(fd);
+                    }
                     rwLock.writeLock().lock();
                     try {
                         LOG.debugf("Submitting finish loading FD for {0}", fd.getFile());
@@ -652,6 +683,14 @@ class LibraryImpl implements Library, FileCollection {
             rwLock.writeLock().unlock();
         }
         
+        if(newFD != null && !failed) {
+            snapshot.setFileVerified(file, newFD.getFileSize(), newFD.lastModified());
+            File parent = file.getParentFile();
+            if(parent != null) {
+                snapshot.track(parent);
+            }
+        }
+        
         if(fd == null) {
             dispatchFailure(file, oldFileDesc);
             task.setException(createFailureException(file, oldFileDesc, FileViewChangeFailedException.Reason.INVALID_URN));
@@ -761,6 +800,7 @@ class LibraryImpl implements Library, FileCollection {
         }
         if(fd != null) {
             getLibraryData().removeManagedFile(file);
+            snapshot.removeFile(file);
         }
         if(cancelled) {
             broadcastFinished(file);
@@ -776,6 +816,7 @@ class LibraryImpl implements Library, FileCollection {
         rm = fileToFileDescMap.remove(file);
         assert rm == fd;
         fileDescMulticaster.removeListeners(fd);
+        fileDescFactory.release(fd);
     }
 
     /** Generic method for adding a fileDesc's URNS to a map */
@@ -946,13 +987,17 @@ class LibraryImpl implements Library, FileCollection {
                 }
             }
         };
+        // Files that haven't changed since they were last verified are
+        // known to exist & be canonical, so skip checking them.
+        snapshot.load();
         int i = 0;
         for(File file : getLibraryData().getManagedFiles()) {
             // don't hog CPU...
             if(i % 2 == 0) {
                 Thread.yield();
             }
-            ListeningFuture<FileDesc> future = add(file, LimeXMLDocument.EMPTY_LIST, null);
+            boolean unchanged = snapshot.isFileUnchanged(file);
+            ListeningFuture<FileDesc> future = add(file, LimeXMLDocument.EMPTY_LIST, null, unchanged);
             future.addFutureListener(indivListeners);
             futures.add(future);
             i++;
@@ -966,6 +1011,121 @@ class LibraryImpl implements Library, FileCollection {
         dispatch(new LibraryStatusEvent(this, LibraryStatusEvent.Type.SAVE));
         urnCache.persistCache();
         getLibraryData().save();
+        snapshot.save();
+    }
+    
+    /**
+     * Looks at every directory containing managed files that changed since
+     * it was last verified.  Managed files that disappeared from those
+     * directories are renamed if a file with the same size, modification
+     * time and SHA1 appeared in any of them, and removed otherwise.
+     */
+    void checkForChanges() {
+        List<File> changed = snapshot.getChangedDirectories();
+        if(changed.isEmpty()) {
+            return;
+        }
+        
+        // Remember the modification times before looking inside, so that
+        // changes made while verifying are picked up next time.
+        Map<File, Long> modified = new HashMap<File, Long>(changed.size());
+        for(File directory : changed) {
+            modified.put(directory, Long.valueOf(directory.lastModified()));
+        }
+        
+        List<FileDesc> candidates = new ArrayList<FileDesc>();
+        Set<File> populated = new HashSet<File>();
+        rwLock.readLock().lock();
+        try {
+            for(FileDesc fd : fileToFileDescMap.values()) {
+                if(fd instanceof IncompleteFileDesc) {
+                    continue;
+                }
+                File parent = fd.getFile().getParentFile();
+                if(parent != null && modified.containsKey(parent)) {
+                    candidates.add(fd);
+                    populated.add(parent);
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        
+        List<FileDesc> missing = new ArrayList<FileDesc>();
+        for(FileDesc fd : candidates) {
+            if(!fd.getFile().exists()) {
+                missing.add(fd);
+            }
+        }
+        
+        if(!missing.isEmpty()) {
+            List<File> appeared = new ArrayList<File>();
+            for(File directory : changed) {
+                File[] listed = directory.listFiles();
+                if(listed != null) {
+                    for(File file : listed) {
+                        if(file.isFile() && !contains(file)) {
+                            appeared.add(file);
+                        }
+                    }
+                }
+            }
+            
+            // Files of the same size & modification time are only told
+            // apart by their SHA1, so each may be claimed by one rename.
+            Set<File> claimed = Collections.synchronizedSet(new HashSet<File>());
+            for(FileDesc fd : missing) {
+                List<File> matches = new ArrayList<File>();
+                for(File file : appeared) {
+                    if(file.length() == fd.getFileSize() && file.lastModified() == fd.lastModified()) {
+                        matches.add(file);
+                        populated.add(file.getParentFile());
+                    }
+                }
+                checkRenamed(fd, matches.iterator(), claimed);
+            }
+        }
+        
+        for(Map.Entry<File, Long> entry : modified.entrySet()) {
+            long lastModified = entry.getValue().longValue();
+            if(lastModified == 0L || !populated.contains(entry.getKey())) {
+                snapshot.remove(entry.getKey());
+            } else {
+                snapshot.setVerified(entry.getKey(), lastModified);
+            }
+        }
+    }
+
+    /**
+     * Renames the missing file of the FileDesc to the first of the candidates
+     * that has the same SHA1 and was not claimed by another rename, or
+     * removes it if there is none.  The candidates are hashed one at a time
+     * without blocking, their URNs are cached for the renamed file.
+     */
+    private void checkRenamed(final FileDesc fd, final Iterator<File> candidates,
+            final Set<File> claimed) {
+        if(!candidates.hasNext()) {
+            LOG.debugf("Detected removal of {0}", fd.getFile());
+            remove(fd.getFile());
+            return;
+        }
+        
+        final File candidate = candidates.next();
+        urnCache.calculateAndCacheSHA1(candidate).addFutureListener(new EventListener<FutureEvent<Set<URN>>>() {
+            @Override
+            public void handleEvent(FutureEvent<Set<URN>> event) {
+                URN sha1 = null;
+                if(event.getType() == FutureEvent.Type.SUCCESS) {
+                    sha1 = UrnSet.getSha1(event.getResult());
+                }
+                if(sha1 != null && sha1.equals(fd.getSHA1Urn()) && claimed.add(candidate)) {
+                    LOG.debugf("Detected rename of {0} to {1}", fd.getFile(), candidate);
+                    fileRenamed(fd.getFile(), candidate);
+                } else {
+                    checkRenamed(fd, candidates, claimed);
+                }
+            }
+        });
     }
 
     /**
@@ -0,0 +1,222 @@
+package com.limegroup.gnutella.library;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.limewire.io.IOUtils;
+import org.limewire.logging.Log;
+import org.limewire.logging.LogFactory;
+import org.limewire.util.CommonUtils;
+import org.limewire.util.FileUtils;
+import org.limewire.util.GenericsUtils;
+import org.limewire.util.GenericsUtils.ScanMode;
+
+/**
+ * Remembers the size and modification time of every managed file as of the
+ * time it was last verified, and the modification time of every directory
+ * that contains managed files as of the last time the library verified the
+ * contents of that directory.
+ * <p>
+ * If a file's size and modification time still match the snapshot, the
+ * file is known to exist under the canonical name it was stored with and to
+ * be unchanged, so the library skips canonicalizing and re-checking it at
+ * startup. Adding, removing or renaming an entry of a directory changes its
+ * modification time, which the library uses to find the few directories
+ * that need to be looked at while running.
+ * <p>
+ * This class is thread-safe.
+ */
+class LibrarySnapshot {
+
+    private static final Log LOG = LogFactory.getLog(LibrarySnapshot.class);
+
+    /** Modification time of a directory that has not been verified yet. */
+    private static final Long UNVERIFIED = Long.valueOf(-1);
+
+    private final File saveFile = new File(CommonUtils.getUserSettingsDir(), "librarysnapshot.dat");
+    private final File backupFile = new File(CommonUtils.getUserSettingsDir(), "librarysnapshot.bak");
+
+    /** Canonical directory path -> modification time when last verified. */
+    private final Map<String, Long> directories = new HashMap<String, Long>();
+
+    /** Canonical file path -> size & modification time when last verified. */
+    private final Map<String, long[]> files = new HashMap<String, long[]>();
+
+    private boolean loaded = false;
+
+    private boolean dirty = false;
+
+    /** Loads the snapshot from disk, if it wasn't loaded already. */
+    synchronized void load() {
+        if(loaded) {
+            return;
+        }
+
+        loaded = true;
+        if(!loadFromFile(saveFile) && !loadFromFile(backupFile)) {
+            directories.clear();
+            files.clear();
+        }
+    }
+
+    private boolean loadFromFile(File file) {
+        if(!file.exists()) {
+            return false;
+        }
+
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Map<String, Map> read = GenericsUtils.scanForMap(in.readObject(),
+                    String.class, Map.class, ScanMode.REMOVE);
+            Map<String, Long> readDirectories = GenericsUtils.scanForMap(read.get("directories"),
+                    String.class, Long.class, ScanMode.REMOVE);
+            Map<String, long[]> readFiles = GenericsUtils.scanForMap(read.get("files"),
+                    String.class, long[].class, ScanMode.REMOVE);
+            directories.clear();
+            directories.putAll(readDirectories);
+            files.clear();
+            for(Map.Entry<String, long[]> entry : readFiles.entrySet()) {
+                if(entry.getValue().length == 2) {
+                    files.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return true;
+        } catch(Throwable t) {
+            LOG.error("Error loading library snapshot", t);
+            return false;
+        } finally {
+            IOUtils.close(in);
+        }
+    }
+
+    /** Writes the snapshot to disk if it changed since it was last written. */
+    synchronized void save() {
+        if(!loaded || !dirty) {
+            return;
+        }
+
+        Map<String, Object> snapshot = new HashMap<String, Object>();
+        snapshot.put("directories", new HashMap<String, Long>(directories));
+        snapshot.put("files", new HashMap<String, long[]>(files));
+        if(FileUtils.writeWithBackupFile(snapshot, backupFile, saveFile, LOG)) {
+            dirty = false;
+        }
+    }
+
+    /**
+     * Returns true if the directory was verified before and has not been
+     * modified since.
+     */
+    boolean isUnchanged(File directory) {
+        Long modified;
+        synchronized(this) {
+            modified = directories.get(directory.getPath());
+        }
+        if(modified == null || modified.equals(UNVERIFIED)) {
+            return false;
+        }
+
+        long current = directory.lastModified();
+        return current != 0L && current == modified.longValue();
+    }
+
+    /**
+     * Starts tracking the given directory if it isn't tracked already.
+     * The directory will be reported as changed until it is verified.
+     */
+    synchronized void track(File directory) {
+        if(!directories.containsKey(directory.getPath())) {
+            directories.put(directory.getPath(), UNVERIFIED);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Marks the given directory as verified as of the given modification
+     * time.
+     */
+    synchronized void setVerified(File directory, long modified) {
+        Long old = directories.put(directory.getPath(), Long.valueOf(modified));
+        if(old == null || old.longValue() != modified) {
+            dirty = true;
+        }
+    }
+
+    /** Stops tracking the given directory. */
+    synchronized void remove(File directory) {
+        if(directories.remove(directory.getPath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns true if the file was verified before and its size and
+     * modification time have not changed since.
+     */
+    boolean isFileUnchanged(File file) {
+        long[] verified;
+        synchronized(this) {
+            verified = files.get(file.getPath());
+        }
+        if(verified == null) {
+            return false;
+        }
+
+        long modified = file.lastModified();
+        return modified != 0L && modified == verified[1] && file.length() == verified[0];
+    }
+
+    /**
+     * Marks the given file as verified as of the given size and
+     * modification time.
+     */
+    synchronized void setFileVerified(File file, long size, long modified) {
+        long[] old = files.put(file.getPath(), new long[] { size, modified });
+        if(old == null || old[0] != size || old[1] != modified) {
+            dirty = true;
+        }
+    }
+
+    /** Stops tracking the given file. */
+    synchronized void removeFile(File file) {
+        if(files.remove(file.getPath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Stops tracking all files and directories. */
+    synchronized void clear() {
+        if(!directories.isEmpty() || !files.isEmpty()) {
+            directories.clear();
+            files.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns all tracked directories that are unverified or whose
+     * modification time changed since they were verified.
+     */
+    List<File> getChangedDirectories() {
+        List<String> paths;
+        synchronized(this) {
+            paths = new ArrayList<String>(directories.keySet());
+        }
+
+        List<File> changed = new ArrayList<File>();
+        for(String path : paths) {
+            File directory = new File(path);
+            if(!isUnchanged(directory)) {
+                changed.add(directory);
+            }
+        }
+        return changed;
+    }
+}
@@ -23,8 +23,6 @@ import org.limewire.lifecycle.ServiceRegistry;
 import org.limewire.listener.EventListener;
 import org.limewire.listener.ListenerSupport;
 import org.limewire.util.FileUtils;
-import org.limewire.util.I18NConvert;
-import org.limewire.util.StringUtils;
 
 import com.google.common.base.Predicate;
 import com.google.inject.Inject;
@@ -35,7 +33,8 @@ import com.limegroup.gnutella.Response;
 import com.limegroup.gnutella.ResponseFactory;
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.messages.QueryRequest;
-import com.limegroup.gnutella.util.QueryUtils;
+import com.limegroup.gnutella.util.KeywordTokenizer;
+import com.limegroup.gnutella.util.KeywordTokens;
 import com.limegroup.gnutella.xml.LimeXMLDocument;
 import com.limegroup.gnutella.xml.LimeXMLReplyCollection;
 import com.limegroup.gnutella.xml.LimeXMLSchema;
@@ -393,9 +392,10 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
      */
     private void loadKeywords(StringTrie<IntSet> trie, FileDesc fd) {
         // Index the filename. For each keyword...
-        String[] keywords = extractKeywords(fd);
+        KeywordTokens keywords = extractKeywords(fd);
 
-        for (String keyword : keywords) {
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
             synchronized (trie) {
                 // Ensure the _keywordTrie has a set of indices associated with
                 // keyword.
@@ -412,8 +412,9 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
 
     private void removeKeywords(StringTrie<IntSet> trie, FileDesc fd) {
         // Remove references to this from index.
-        String[] keywords = extractKeywords(fd);
-        for (String keyword : keywords) {
+        KeywordTokens keywords = extractKeywords(fd);
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
             synchronized (trie) {
                 IntSet indices = trie.get(keyword);
                 if (indices != null) {
@@ -437,18 +438,12 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
         // returns an iterator of one element and there is only one keyword.
         IntSet ret = priors;
 
-        // For each keyword in the query.... (Note that we avoid calling
-        // StringUtils.split and take advantage of Trie's offset/limit feature.)
-        for (int i = 0; i < query.length();) {
-            if (QueryUtils.isDelimiter(query.charAt(i))) {
-                i++;
-                continue;
-            }
-            int j;
-            for (j = i + 1; j < query.length(); j++) {
-                if (QueryUtils.isDelimiter(query.charAt(j)))
-                    break;
-            }
+        // For each keyword in the query, split like the file paths are
+        // indexed.... (Note that we avoid creating strings and take advantage
+        // of Trie's offset/limit feature.)
+        final int length = query.length();
+        for (int i = KeywordTokenizer.FILE_PATHS.keywordStart(query, 0, length); i < length;) {
+            int j = KeywordTokenizer.FILE_PATHS.keywordEnd(query, i, length);
 
             // Search for keyword, i.e., keywords[i...j-1].
             Iterator<IntSet> iter;
@@ -500,7 +495,7 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
                     // Optimization: no matches after intersect => failure
                     if (ret.size() == 0)
                         return null;
-                    i = j;
+                    i = KeywordTokenizer.FILE_PATHS.keywordStart(query, j, length);
                 }
             }
         }
@@ -516,11 +511,10 @@ class SharedFilesKeywordIndexImpl implements SharedFilesKeywordIndex {
      * 
      * @param fd the <tt>FileDesc</tt> containing a file system path with
      *        keywords to extact
-     * @return an array of keyword strings for the given file
+     * @return the keywords of the given file
      */
-    private static String[] extractKeywords(FileDesc fd) {
-        return StringUtils.split(I18NConvert.instance().getNorm(fd.getPath()),
-                QueryUtils.DELIMITERS);
+    private static KeywordTokens extractKeywords(FileDesc fd) {
+        return KeywordTokenizer.FILE_PATHS.tokenize(fd.getPath());
     }
 
     /**
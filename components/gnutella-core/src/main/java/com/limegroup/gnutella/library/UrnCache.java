@@ -28,6 +28,8 @@ import org.limewire.inject.EagerSingleton;
 import org.limewire.io.IOUtils;
 import org.limewire.lifecycle.ServiceScheduler;
 import org.limewire.listener.EventBroadcaster;
+import org.limewire.statistic.LatencyHistogram;
+import org.limewire.statistic.MetricsRegistry;
 import org.limewire.util.CommonUtils;
 import org.limewire.util.ConverterObjectInputStream;
 import org.limewire.util.FileUtils;
@@ -80,6 +82,12 @@ public final class UrnCache {
     
     private final EventBroadcaster<FileProcessingEvent> broadcaster;
 
+    /** Time spent calculating the SHA1 of a file. */
+    private final LatencyHistogram sha1Times = new LatencyHistogram();
+
+    /** Time spent calculating the non-metadata SHA1 of a file. */
+    private final LatencyHistogram nms1Times = new LatencyHistogram();
+
     /**
      * Create and initialize urn cache.
      */
@@ -111,6 +119,12 @@ public final class UrnCache {
         }, 30, 30, TimeUnit.SECONDS, scheduledExecutorService);
     }
 
+    @Inject
+    void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("hashing.sha1", sha1Times);
+        metrics.register("hashing.nms1", nms1Times);
+    }
+
     /**
      * Calculates the given File's URN and caches it. The callback will be
      * notified of the URNs. If they're already calculated, the callback will be
@@ -343,7 +357,9 @@ public final class UrnCache {
                 if (LOG.isDebugEnabled())
                     LOG.debug("Hashing sha1 file: " + file);
                 try {
+                    long start = System.nanoTime();
                     UrnSet calculatedUrns = URN.generateUrnsFromFile(file);
+                    sha1Times.recordSince(start);
                     UrnSet set = new UrnSet();
                     synchronized (UrnCache.this) {
                         set.addAll(getUrns(file));
@@ -389,7 +405,9 @@ public final class UrnCache {
                     LOG.debug("Hashing nmsa file: " + file);
                 if(AudioHashingUtils.canCreateNonMetaDataSHA1(file)) {
                     try {
+                        long start = System.nanoTime();
                         nms1 = AudioHashingUtils.generateNonMetaDataSHA1FromFile(file);
+                        nms1Times.recordSince(start);
                         if(nms1 != null) {
                             UrnSet set = new UrnSet();
                             synchronized (UrnCache.this) {
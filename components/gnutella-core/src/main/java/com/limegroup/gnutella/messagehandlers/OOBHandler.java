@@ -2,10 +2,9 @@ package com.limegroup.gnutella.messagehandlers;
 
 import java.net.InetSocketAddress;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -19,6 +18,8 @@ import org.limewire.io.NetworkUtils;
 import org.limewire.security.InvalidSecurityTokenException;
 import org.limewire.security.MACCalculatorRepositoryManager;
 import org.limewire.security.SecurityToken;
+import org.limewire.statistic.MetricsRegistry;
+import org.limewire.statistic.StripedCounter;
 import org.limewire.util.ByteUtils;
 
 import com.google.inject.Inject;
@@ -27,6 +28,7 @@ import com.google.inject.name.Named;
 import com.limegroup.gnutella.BypassedResultsCache;
 import com.limegroup.gnutella.MessageRouter;
 import com.limegroup.gnutella.ReplyHandler;
+import com.limegroup.gnutella.Response;
 import com.limegroup.gnutella.messages.BadPacketException;
 import com.limegroup.gnutella.messages.Message;
 import com.limegroup.gnutella.messages.QueryReply;
@@ -38,6 +40,12 @@ import com.limegroup.gnutella.statistics.OutOfBandStatistics;
  * Handles {@link ReplyNumberVendorMessage} and {@link QueryReply} for 
  * out-of-band search results and manages a cache of session objects 
  * to keep track of the results that have alreay been received.
+ * <p>
+ * Replies are handled without a global lock: sessions are kept in an
+ * {@link OOBSessionTable} and each session guards its own counts. The
+ * number of sessions is capped by {@link SearchSettings#MAX_OOB_SESSIONS};
+ * results offered while the table is full are bypassed before a security
+ * token is computed for them.
  */
 @Singleton
 public class OOBHandler implements MessageHandler, Runnable {
@@ -50,6 +58,11 @@ public class OOBHandler implements MessageHandler, Runnable {
     private static final int IGNORED_ADDRESS_LIFETIME = 10 * 60 * 1000;
     /** Magic port number that means an address should be ignored */
     private static final int IGNORE = -1;
+    /** 
+     * How long to keep a session at most; replies are only routed for
+     * queries that are younger. 
+     */
+    private static final long SESSION_LIFETIME = 10 * 60 * 1000;
     /** Don't ignore localhost (used for testing) */
     private static final int LOCALHOST =
         ByteUtils.leb2int(new byte[]{127, 0, 0, 1}, 0);
@@ -64,8 +77,8 @@ public class OOBHandler implements MessageHandler, Runnable {
     
     private final NetworkInstanceUtils networkInstanceUtils;
 	
-    private final Map<Integer,OOBSession> sessions =
-        Collections.synchronizedMap(new HashMap<Integer,OOBSession>());
+    private final OOBSessionTable sessions =
+        new OOBSessionTable((int)(SESSION_LIFETIME / MessageRouter.CLEAR_TIME));
     
     /**
      * The port associated with each responding address and the time at which
@@ -74,19 +87,40 @@ public class OOBHandler implements MessageHandler, Runnable {
      * is IGNORE, RNVMs from the address should be ignored.
      */
     private final Map<Integer,ResponderPort> responderPorts =
-        Collections.synchronizedMap(new HashMap<Integer,ResponderPort>());
+        new ConcurrentHashMap<Integer,ResponderPort>();
+    
+    /** The OOBv3 replies handled, and those of them that were dropped. */
+    private final StripedCounter replies;
+    private final StripedCounter droppedReplies;
+    
+    /** The OOBv3 sessions opened, and those that could not be for lack of room. */
+    private final StripedCounter openedSessions;
+    private final StripedCounter rejectedSessions;
+    
+    // the values of the counters at the end of the previous expiry and when it was
+    private long lastReplies;
+    private long lastDroppedReplies;
+    private long lastExpired = System.currentTimeMillis();
+    
+    private volatile float replyRate;
+    private volatile float dropRate;
     
     @Inject
 	public OOBHandler(MessageRouter router, 
             MACCalculatorRepositoryManager MACCalculatorRepositoryManager,
             @Named("backgroundExecutor") ScheduledExecutorService executor,
             OutOfBandStatistics outOfBandStatistics,
-            NetworkInstanceUtils networkInstanceUtils) {
+            NetworkInstanceUtils networkInstanceUtils,
+            MetricsRegistry metrics) {
 		this.router = router;
 		this.MACCalculatorRepositoryManager = MACCalculatorRepositoryManager;
         this.executor = executor;
         this.outOfBandStatistics = outOfBandStatistics;
         this.networkInstanceUtils = networkInstanceUtils;
+        this.replies = metrics.getCounter("oob.replies");
+        this.droppedReplies = metrics.getCounter("oob.replies.dropped");
+        this.openedSessions = metrics.getCounter("oob.sessions");
+        this.rejectedSessions = metrics.getCounter("oob.sessions.rejected");
 	}
 
 	public void handleMessage(Message msg, InetSocketAddress addr, ReplyHandler handler) {
@@ -131,20 +165,35 @@ public class OOBHandler implements MessageHandler, Runnable {
 				
 		LimeACKVendorMessage ack = null;
         if (msg.isOOBv3()) {
+            int maxSessions = SearchSettings.MAX_OOB_SESSIONS.getValue();
+            if (sessions.isFull(maxSessions)) {
+                // don't compute a token that could not be stored anyway
+                LOG.debug("Too many OOB sessions - bypassing source");
+                rejectedSessions.increment();
+                router.addBypassedSource(msg, handler);
+                outOfBandStatistics.addBypassedResponse(msg.getNumResults());
+                return;
+            }
             SecurityToken t = new OOBSecurityToken(new OOBSecurityToken.OOBTokenData(handler, msg.getGUID(), toRequest), 
                     MACCalculatorRepositoryManager); 
-            int hash = Arrays.hashCode(t.getBytes());
-            synchronized(sessions) {
-                if(!sessions.containsKey(hash)) {
-                    sessions.put(hash, new OOBSession(t, toRequest, new GUID(msg.getGUID())));
-                    ack = new LimeACKVendorMessage(g, toRequest, t);
-                    if(LOG.isDebugEnabled()) {
-                        LOG.debug("Sending OOBv3 LimeACK to " +
-                                handler.getAddress() + ":" + handler.getPort());
-                    }
-                } else {
-                    LOG.debug("RNVM has already been acked");
+            int key = OOBSessionTable.getKey(t);
+            boolean acked = sessions.contains(key);
+            if(!acked && sessions.add(new OOBSession(t, toRequest, g), maxSessions)) {
+                openedSessions.increment();
+                ack = new LimeACKVendorMessage(g, toRequest, t);
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Sending OOBv3 LimeACK to " +
+                            handler.getAddress() + ":" + handler.getPort());
                 }
+            } else if(acked || sessions.contains(key)) {
+                LOG.debug("RNVM has already been acked");
+            } else {
+                // another session took the last free slot meanwhile
+                LOG.debug("Too many OOB sessions - bypassing source");
+                rejectedSessions.increment();
+                router.addBypassedSource(msg, handler);
+                outOfBandStatistics.addBypassedResponse(msg.getNumResults());
+                return;
             }
         } else {
             ack = new LimeACKVendorMessage(g, toRequest);
@@ -218,6 +267,8 @@ public class OOBHandler implements MessageHandler, Runnable {
             token = getVerifiedSecurityToken(reply, handler);
         } catch(InvalidSecurityTokenException e) {
             LOG.debug("Invalid security token");
+            replies.increment();
+            droppedReplies.increment();
             return;
         }
         if(token == null) {
@@ -231,6 +282,7 @@ public class OOBHandler implements MessageHandler, Runnable {
         
         int numResps = reply.getResultCount();
         outOfBandStatistics.addReceivedResponse(numResps);
+        replies.increment();
         
         /*
          * Router will handle the reply if it
@@ -240,41 +292,40 @@ public class OOBHandler implements MessageHandler, Runnable {
         GUID queryGUID = new GUID(reply.getGUID());
         if (!router.isQueryAlive(queryGUID)) {
             LOG.debug("Query is dead - bypassing source");
+            sessions.remove(token);
             router.addBypassedSource(reply, handler);
+            droppedReplies.increment();
+            return;
         }
-        else {
-            synchronized(sessions) {
-                int hashKey = Arrays.hashCode(token.getBytes());
-                OOBSession session = sessions.get(hashKey);
-                if(session == null) {
-                    LOG.debug("Query is alive but OOB session has expired");
-                    return;
-                }
-
-                int remaining = session.getRemainingResultsCount() - numResps;
-                if(LOG.isDebugEnabled()) {
-                    LOG.debug("Reply has " + numResps + " results, " +
-                            remaining + " remaining");
-                }
-                if(remaining >= 0) {
-                    // parsing of query reply already done here in message dispatcher thread
-                    try {
-                        int added = session.countAddedResponses(reply.getResultsArray());
-                        if(LOG.isDebugEnabled())
-                            LOG.debug("Reply has " + added + " new results");                        
-                        if(added > 0) {
-                            LOG.debug("Handling as an OOBv3 reply");
-                            router.handleQueryReply(reply, handler);
-                        }
-                    } 
-                    catch (BadPacketException e) {
-                        LOG.debug("Error getting results");
-                        // ignore packet
-                    }
-                } else {
-                    tooManyResults(handlerAddress);
-                }
-            }
+        
+        OOBSession session = sessions.get(token);
+        if(session == null) {
+            LOG.debug("Query is alive but OOB session has expired");
+            droppedReplies.increment();
+            return;
+        }
+        
+        // parsing of query reply already done here in message dispatcher thread
+        Response[] responses;
+        try {
+            responses = reply.getResultsArray();
+        } catch (BadPacketException e) {
+            LOG.debug("Error getting results");
+            // ignore packet
+            droppedReplies.increment();
+            return;
+        }
+        
+        int added = session.addReply(responses);
+        if(LOG.isDebugEnabled())
+            LOG.debug("Reply has " + numResps + " results, " + added + " new");
+        if(added > 0) {
+            LOG.debug("Handling as an OOBv3 reply");
+            router.handleQueryReply(reply, handler);
+        } else {
+            droppedReplies.increment();
+            if(added < 0)
+                tooManyResults(handlerAddress);
         }
     }
     
@@ -290,31 +341,31 @@ public class OOBHandler implements MessageHandler, Runnable {
         if(address == LOCALHOST)
             return false;
         long now = System.currentTimeMillis();
-        synchronized(responderPorts) {
-            ResponderPort rp = responderPorts.get(address);
-            if(rp == null || rp.hasExpired(now)) {
-                // No port is known for this address
-                rp = new ResponderPort(port, now);
-                responderPorts.put(address, rp);
-                return false;
-            } else if(rp.port == IGNORE) {
-                // Continue ignoring the address
-                rp.timestamp = now;
-                return true;
-            } else if(rp.port != port) {
-                if(LOG.isInfoEnabled()) {
-                    String ip = NetworkUtils.ip2string(addr);
-                    LOG.info("Ignoring " + ip + " - too many ports");
-                }
-                // Too many ports - ignore the address for a while
-                rp = new ResponderPort(IGNORE, now);
-                responderPorts.put(address, rp);
-                return true;
-            }
-            else {
-                // Same port as before
-                return false;
+        // racing messages from one address may both record their ports,
+        // the next message from the address then finds the mismatch
+        ResponderPort rp = responderPorts.get(address);
+        if(rp == null || rp.hasExpired(now)) {
+            // No port is known for this address
+            rp = new ResponderPort(port, now);
+            responderPorts.put(address, rp);
+            return false;
+        } else if(rp.port == IGNORE) {
+            // Continue ignoring the address
+            rp.timestamp = now;
+            return true;
+        } else if(rp.port != port) {
+            if(LOG.isInfoEnabled()) {
+                String ip = NetworkUtils.ip2string(addr);
+                LOG.info("Ignoring " + ip + " - too many ports");
             }
+            // Too many ports - ignore the address for a while
+            rp = new ResponderPort(IGNORE, now);
+            responderPorts.put(address, rp);
+            return true;
+        }
+        else {
+            // Same port as before
+            return false;
         }
     }
     
@@ -326,20 +377,18 @@ public class OOBHandler implements MessageHandler, Runnable {
             return;
         Integer address = ByteUtils.leb2int(addr, 0);
         long now = System.currentTimeMillis();
-        synchronized(responderPorts) {
-            ResponderPort rp = responderPorts.get(address);
-            if(rp == null || rp.port != IGNORE) {
-                if(LOG.isInfoEnabled()) {
-                    String ip = NetworkUtils.ip2string(addr);
-                    LOG.info("Ignoring " + ip + " - too many results");
-                }
-                // Too many results - ignore the address for a while
-                rp = new ResponderPort(IGNORE, now);
-                responderPorts.put(address, rp);
-            } else {
-                // Continue ignoring the address
-                rp.timestamp = now;
+        ResponderPort rp = responderPorts.get(address);
+        if(rp == null || rp.port != IGNORE) {
+            if(LOG.isInfoEnabled()) {
+                String ip = NetworkUtils.ip2string(addr);
+                LOG.info("Ignoring " + ip + " - too many results");
             }
+            // Too many results - ignore the address for a while
+            rp = new ResponderPort(IGNORE, now);
+            responderPorts.put(address, rp);
+        } else {
+            // Continue ignoring the address
+            rp.timestamp = now;
         }
     }
     
@@ -368,36 +417,62 @@ public class OOBHandler implements MessageHandler, Runnable {
     }
 
 	private void expire() {
-	    synchronized(sessions) {
-            if(LOG.isDebugEnabled())
-                LOG.debug(sessions.size() + " OOB sessions");
-	        Iterator<Map.Entry<Integer,OOBSession>> iter =
-                sessions.entrySet().iterator();
-	        while(iter.hasNext()) {
-	            if(!router.isQueryAlive(iter.next().getValue().getGUID()))
-	                iter.remove();
-	        }
-        }
+        int expired = sessions.expire(router);
+        if(LOG.isDebugEnabled())
+            LOG.debug(sessions.size() + " OOB sessions, " + expired + " expired");
         long now = System.currentTimeMillis();
-        synchronized(responderPorts) {
-            if(LOG.isDebugEnabled())
-                LOG.debug(responderPorts.size() + " responder ports");
-            Iterator<Map.Entry<Integer,ResponderPort>> iter =
-                responderPorts.entrySet().iterator();
-            while(iter.hasNext()) {
-                if(iter.next().getValue().hasExpired(now))
-                    iter.remove();
-            }
-	    }
+        if(LOG.isDebugEnabled())
+            LOG.debug(responderPorts.size() + " responder ports");
+        Iterator<ResponderPort> iter =
+            responderPorts.values().iterator();
+        while(iter.hasNext()) {
+            if(iter.next().hasExpired(now))
+                iter.remove();
+        }
+        updateRates(now);
 	}
-	
+    
+    /**
+     * Computes the rates of OOBv3 replies since the previous call.
+     */
+    private synchronized void updateRates(long now) {
+        long total = replies.sum();
+        long dropped = droppedReplies.sum();
+        float seconds = Math.max(now - lastExpired, 1) / 1000f;
+        replyRate = (total - lastReplies) / seconds;
+        dropRate = (dropped - lastDroppedReplies) / seconds;
+        lastReplies = total;
+        lastDroppedReplies = dropped;
+        lastExpired = now;
+        if(LOG.isDebugEnabled())
+            LOG.debug(replyRate + " OOB replies/s, " + dropRate + " dropped/s");
+    }
+    
+    /**
+     * Returns the number of OOBv3 replies handled per second, averaged
+     * over the interval between the last two expiries.
+     */
+    public float getReplyRate() {
+        return replyRate;
+    }
+    
+    /**
+     * Returns the number of OOBv3 replies dropped per second, averaged
+     * over the interval between the last two expiries. Replies are dropped
+     * if their token is invalid, their query or session is gone, they
+     * carry no new results or more results than were requested.
+     */
+    public float getDropRate() {
+        return dropRate;
+    }
+    
 	public void run() {
 		expire();
 	}
     
     private static class ResponderPort {
         final int port;
-        long timestamp;
+        volatile long timestamp;
         
         ResponderPort(int port, long timestamp) {
             this.port = port;
@@ -12,10 +12,14 @@ import com.limegroup.gnutella.URN;
 
 /**
  * A session of OOB result exchange between the local host and a remote host.
+ * <p>
+ * Replies of the same session may be handled by several threads at once, so
+ * the counts of a session are guarded by the session itself.
  */
 class OOBSession {
     
     private final SecurityToken token;
+    private final int key;
     private final IntSet urnHashCodes;
     
     private IntSet responseHashCodes;
@@ -23,8 +27,12 @@ class OOBSession {
     private final int requestedResponseCount;
     private final GUID guid;
     
+    /** The slot of the timing wheel of its table this session is in. */
+    private volatile int slot;
+    
     OOBSession(SecurityToken token, int requestedResponseCount, GUID guid) {
         this.token = token;
+        this.key = OOBSessionTable.getKey(token);
         this.requestedResponseCount = requestedResponseCount;
         this.urnHashCodes = new IntSet(requestedResponseCount);
         this.guid = guid;
@@ -33,11 +41,39 @@ class OOBSession {
     GUID getGUID() {
         return guid;
     }
+    
+    /**
+     * Returns the key of this session in an {@link OOBSessionTable}.
+     */
+    int getKey() {
+        return key;
+    }
+    
+    int getSlot() {
+        return slot;
+    }
+    
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+    
+    /**
+     * Counts the responses of a reply uniquely, unless the reply has more
+     * responses than are still expected.
+     * 
+     * @return the number of responses not counted before, or -1 if the reply
+     * has more responses than are still expected
+     */
+    synchronized int addReply(Response[] responses) {
+        if (getRemainingResultsCount() < responses.length)
+            return -1;
+        return countAddedResponses(responses);
+    }
 	
     /**
      * Counts the responses uniquely. 
      */
-    int countAddedResponses(Response[] responses) {
+    synchronized int countAddedResponses(Response[] responses) {
         int added = 0;
         for (Response response : responses) {
             Set<URN> urns = response.getUrns();
@@ -59,7 +95,7 @@ class OOBSession {
     /**
      * Returns the number of results that are still expected to come in.
      */
-    final int getRemainingResultsCount() {
+    final synchronized int getRemainingResultsCount() {
         return requestedResponseCount - urnHashCodes.size() - (responseHashCodes != null ? responseHashCodes.size() : 0); 
     }
     
@@ -70,4 +106,9 @@ class OOBSession {
 		OOBSession other = (OOBSession) o;
 		return Arrays.equals(token.getBytes(), other.token.getBytes());
 	}
+    
+    @Override
+    public int hashCode() {
+        return key;
+    }
 }
\ No newline at end of file
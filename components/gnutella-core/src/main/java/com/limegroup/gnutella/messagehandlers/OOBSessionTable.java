@@ -0,0 +1,187 @@
+package com.limegroup.gnutella.messagehandlers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.limewire.io.GUID;
+import org.limewire.security.SecurityToken;
+
+import com.limegroup.gnutella.MessageRouter;
+
+/**
+ * The {@link OOBSession OOB sessions} of {@link OOBHandler}, keyed by the
+ * hash of their security tokens.
+ * <p>
+ * Sessions are looked up and added without locking, so replies to different
+ * sessions don't contend. The table holds at most a given number of
+ * sessions and refuses to add more until some have expired.
+ * <p>
+ * Sessions expire on a timing wheel: every {@link #expire(MessageRouter)}
+ * advances the wheel by one tick and drops the sessions that were added a
+ * full turn ago, without looking at any other session. Sessions of queries
+ * that are no longer alive are dropped on every tick too; they are found
+ * through the sessions of each query, so this looks at each query once
+ * rather than at every session. Sessions can also be dropped earlier with
+ * {@link #remove(SecurityToken)}.
+ */
+class OOBSessionTable {
+
+    private final ConcurrentMap<Integer, OOBSession> sessions =
+        new ConcurrentHashMap<Integer, OOBSession>();
+
+    /**
+     * The number of sessions in the table, kept separately because counting
+     * the entries of a <code>ConcurrentHashMap</code> may lock it.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The sessions added during each tick of the wheel. */
+    private final Set<OOBSession>[] wheel;
+
+    /** The sessions of each query. */
+    private final ConcurrentMap<GUID, Set<OOBSession>> queries =
+        new ConcurrentHashMap<GUID, Set<OOBSession>>();
+
+    /** The slot of the wheel new sessions go to. */
+    private volatile int current;
+
+    /**
+     * Creates a table whose sessions expire after <code>ticks</code> calls
+     * of {@link #expire(MessageRouter)}.
+     */
+    @SuppressWarnings("unchecked")
+    OOBSessionTable(int ticks) {
+        if (ticks <= 0)
+            throw new IllegalArgumentException("Bad number of ticks: " + ticks);
+        wheel = new Set[ticks];
+        for (int i = 0; i < ticks; i++)
+            wheel[i] = newSessionSet();
+    }
+
+    private static Set<OOBSession> newSessionSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<OOBSession, Boolean>());
+    }
+
+    /** Returns the key of the session with the given security token. */
+    static int getKey(SecurityToken token) {
+        return Arrays.hashCode(token.getBytes());
+    }
+
+    /** Returns the session with the given security token, or null. */
+    OOBSession get(SecurityToken token) {
+        return sessions.get(getKey(token));
+    }
+
+    /** Returns true if there is a session with the given key. */
+    boolean contains(int key) {
+        return sessions.containsKey(key);
+    }
+
+    /**
+     * Returns true if the table holds <code>maxSessions</code> sessions or
+     * more, so that adding a session would fail.
+     */
+    boolean isFull(int maxSessions) {
+        return size.get() >= maxSessions;
+    }
+
+    /**
+     * Adds a session unless there already is a session with the same key
+     * or the table already holds <code>maxSessions</code> sessions.
+     *
+     * @return true if the session was added
+     */
+    boolean add(OOBSession session, int maxSessions) {
+        if (size.incrementAndGet() > maxSessions) {
+            size.decrementAndGet();
+            return false;
+        }
+        session.setSlot(current);
+        if (sessions.putIfAbsent(session.getKey(), session) != null) {
+            size.decrementAndGet();
+            return false;
+        }
+        wheel[session.getSlot()].add(session);
+        Set<OOBSession> query = queries.get(session.getGUID());
+        if (query == null) {
+            Set<OOBSession> created = newSessionSet();
+            query = queries.putIfAbsent(session.getGUID(), created);
+            if (query == null)
+                query = created;
+        }
+        query.add(session);
+        // the session may have been removed before it was linked
+        if (sessions.get(session.getKey()) != session)
+            unlink(session);
+        return true;
+    }
+
+    /** Returns the number of sessions in the table. */
+    int size() {
+        return size.get();
+    }
+
+    /** Removes the session with the given security token, if any. */
+    void remove(SecurityToken token) {
+        OOBSession session = sessions.get(getKey(token));
+        if (session != null)
+            remove(session);
+    }
+
+    /**
+     * Advances the wheel by one tick, dropping the sessions that were added
+     * a full turn ago and the sessions of queries the router no longer
+     * routes replies for.
+     * <p>
+     * Must not be called concurrently.
+     *
+     * @return the number of sessions dropped
+     */
+    int expire(MessageRouter router) {
+        int next = (current + 1) % wheel.length;
+        int expired = 0;
+        // no session is added to the next slot before current moves to it
+        for (OOBSession session : wheel[next]) {
+            if (remove(session))
+                expired++;
+        }
+        wheel[next].clear();
+        current = next;
+
+        for (Map.Entry<GUID, Set<OOBSession>> entry : queries.entrySet()) {
+            Set<OOBSession> query = entry.getValue();
+            if (query.isEmpty()) {
+                // a session added to it meanwhile still expires on the wheel
+                queries.remove(entry.getKey(), query);
+            } else if (!router.isQueryAlive(entry.getKey())) {
+                for (OOBSession session : query) {
+                    if (remove(session))
+                        expired++;
+                }
+            }
+        }
+        return expired;
+    }
+
+    private boolean remove(OOBSession session) {
+        if (sessions.remove(session.getKey(), session)) {
+            size.decrementAndGet();
+            unlink(session);
+            return true;
+        }
+        return false;
+    }
+
+    /** Removes a session from its slot of the wheel and from its query. */
+    private void unlink(OOBSession session) {
+        wheel[session.getSlot()].remove(session);
+        Set<OOBSession> query = queries.get(session.getGUID());
+        if (query != null)
+            query.remove(session);
+    }
+}
@@ -4,18 +4,23 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 
 /**
  * Allows multiple GGEP blocks to be parsed, storing
  * the 'secure GGEP' block separately.  Can store
  * the position where the secure block began & ended,
  * so that the rest of the data can be properly verified.
+ * <p>
+ * The normal blocks are kept as a {@link GGEPView} of the scanned data,
+ * which must not be modified afterwards.
  */
 public class GGEPParser {
     
     private static final Log LOG = LogFactory.getLog(GGEPParser.class);
     
-    private GGEP normal = null;
+    private GGEPView normal = null;
+    private GGEP normalGGEP = null;
     private GGEP secure  = null;
     private int secureStart = -1;
     private int secureEnd = -1;
@@ -41,7 +46,7 @@ public class GGEPParser {
         }
             
         int[] storage = new int[1];
-        GGEP normal = null;
+        GGEPView normal = null;
         GGEP secure = null;
         int secureStart = -1;
         int secureEnd = -1;
@@ -53,9 +58,9 @@ public class GGEPParser {
                 if(data[idx] != GGEP.GGEP_PREFIX_MAGIC_NUMBER)
                     break;
                 
-                GGEP ggep = new GGEP(data, idx, storage);
+                GGEPView ggep = new GGEPView(data, idx, storage);
                 if(ggep.hasKey(GGEPKeys.GGEP_HEADER_SECURE_BLOCK)) {
-                    secure = ggep;
+                    secure = ggep.toGGEP();
                     secureStart = idx;
                     secureEnd = storage[0];
                     break;
@@ -75,13 +80,25 @@ public class GGEPParser {
         }
         
         this.normal = normal;
+        this.normalGGEP = null;
         this.secure = secure;
         this.secureStart = secureStart;
         this.secureEnd = secureEnd;
     }
     
     
+    /**
+     * Returns a copy of the merged normal blocks, or null if there are none.
+     * Prefer {@link #getNormalGGEPView()} for reading single extensions.
+     */
     public GGEP getNormalGGEP() {
+        if(normalGGEP == null && normal != null)
+            normalGGEP = normal.toGGEP();
+        return normalGGEP;
+    }
+
+    /** Returns a view of the merged normal blocks, or null if there are none. */
+    public GGEPView getNormalGGEPView() {
         return normal;
     }
     
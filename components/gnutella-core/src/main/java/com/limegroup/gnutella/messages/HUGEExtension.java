@@ -10,6 +10,7 @@ import java.util.Set;
 
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 
 import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.UrnSet;
@@ -17,12 +18,16 @@ import com.limegroup.gnutella.UrnSet;
 /** 
  * Encapsulation of a HUGE block.  Offers various get methods to retrieve its
  * contents, and handles parsing, etc.
+ * <p>
+ * GGEP blocks are kept as views of the bytes passed to the constructor,
+ * which must not be modified afterwards.
  */
 public class HUGEExtension {
 
     // the disparate types of objects encoded in a HUGE extension - one set per
     // (lazily constructed)
     // -----------------------------------------
+    private GGEPView _ggepView = null;
     private GGEP _ggep = null;
     private Set<URN> _urns = null;
     private Set<URN.Type> _urnTypes = null;
@@ -35,9 +40,19 @@ public class HUGEExtension {
      *  @return the merged GGEP of all GGEPs in this HUGE extension or null
      *  if no GGEPs were found
      */
-    public GGEP getGGEP() {
+    public synchronized GGEP getGGEP() {
+        if (_ggep == null && _ggepView != null)
+            _ggep = _ggepView.toGGEP();
         return _ggep;
     }
+
+    /**
+     *  @return a view of the merged GGEP of all GGEPs in this HUGE extension
+     *  or null if no GGEPs were found
+     */
+    public GGEPView getGGEPView() {
+        return _ggepView;
+    }
     
     /**
      * Returns unmodifiable list of GGEP blocks.
@@ -89,11 +104,15 @@ public class HUGEExtension {
                 int[] endIndex = new int[1];
                 endIndex[0] = currIndex+1;
                 try {
-                    GGEP ggep = new GGEP(extsBytes, currIndex, endIndex);
-                    if (_ggep == null) {
-                        _ggep = new GGEP();
+                    GGEPView ggep = new GGEPView(extsBytes, currIndex, endIndex);
+                    if (_ggepView == null) {
+                        _ggepView = ggep;
+                    } else {
+                        // don't merge into the view of the first block
+                        if (_ggepBlocks.size() == 1)
+                            _ggepView = new GGEPView(_ggepView);
+                        _ggepView.merge(ggep);
                     }
-                    _ggep.merge(ggep);
                     if (_ggepBlocks == null) {
                         _ggepBlocks = new ArrayList<GGEPBlock>(2);
                     }
@@ -143,18 +162,26 @@ public class HUGEExtension {
         
         private int end;
         
+        private final GGEPView view;
+        
         private GGEP ggep;
         
-        public GGEPBlock(GGEP ggep, int start, int end) {
-            this.ggep = ggep;
+        public GGEPBlock(GGEPView view, int start, int end) {
+            this.view = view;
             this.start = start;
             this.end = end;
         }
         
-        public GGEP getGGEP() {
+        public synchronized GGEP getGGEP() {
+            if (ggep == null)
+                ggep = view.toGGEP();
             return ggep;
         }
         
+        public GGEPView getGGEPView() {
+            return view;
+        }
+        
         public int getStartPos() {
             return start;
         }
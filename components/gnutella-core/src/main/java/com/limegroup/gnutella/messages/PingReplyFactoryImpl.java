@@ -11,12 +11,12 @@ import org.limewire.core.settings.ApplicationSettings;
 import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.IpPort;
 import org.limewire.io.NetworkInstanceUtils;
 import org.limewire.io.NetworkUtils;
 import org.limewire.security.AddressSecurityToken;
 import org.limewire.security.MACCalculatorRepositoryManager;
-import org.limewire.service.ErrorService;
 import org.limewire.util.ByteUtils;
 import org.limewire.util.StringUtils;
 
@@ -212,21 +212,10 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
         } catch (UnknownHostException e) {
             throw new IllegalArgumentException(e);
         }
-        byte[] extensions = null;
-        if (ggep != null) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try {
-                ggep.write(baos);
-            } catch (IOException e) {
-                // this should not happen
-                ErrorService.error(e);
-            }
-            extensions = baos.toByteArray();
-        }
-        int length = PingReply.STANDARD_PAYLOAD_SIZE
-                + (extensions == null ? 0 : extensions.length);
-
-        byte[] payload = new byte[length];
+        // write the GGEP block straight into the payload, the view of it is
+        // built as it is written rather than by parsing it again
+        GGEPView view = ggep == null ? null : ggep.toView(PingReply.STANDARD_PAYLOAD_SIZE);
+        byte[] payload = view == null ? new byte[PingReply.STANDARD_PAYLOAD_SIZE] : view.getData();
         //It's ok if casting port, files, or kbytes turns negative.
         ByteUtils.short2leb((short) port, payload, 0);
         //payload stores IP in BIG-ENDIAN
@@ -238,14 +227,8 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
         ByteUtils.int2leb((int) (isUltrapeer ? mark(kbytes) : kbytes), payload,
                 10);
 
-        //Encode GGEP block if included.
-        if (extensions != null) {
-            System.arraycopy(extensions, 0, payload,
-                    PingReply.STANDARD_PAYLOAD_SIZE, extensions.length);
-        }
-
         try {
-            return new PingReplyImpl(guid, ttl, (byte) 0, payload, ggep, ip,
+            return new PingReplyImpl(guid, ttl, (byte) 0, payload, view, ip,
                     Network.UNKNOWN, macCalculatorRepositoryManager, networkInstanceUtils);
         } catch (BadPacketException e) {
             throw new IllegalStateException(e);
@@ -279,7 +262,7 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
 
         InetAddress ip = null;
 
-        GGEP ggep = parseGGEP(payload);
+        GGEPView ggep = parseGGEP(payload);
 
         if (ggep != null) {
             if (ggep.hasKey(GGEPKeys.GGEP_HEADER_CLIENT_LOCALE)) {
@@ -523,8 +506,11 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
     }
 
     // TODO : change this to look for multiple GGEP block in the payload....
-    /** Ensure GGEP data parsed...if possible. */
-    private GGEP parseGGEP(final byte[] PAYLOAD) {
+    /**
+     * Ensure GGEP data parsed...if possible.  Values are only decoded
+     * when they are read, so the payload must not be modified.
+     */
+    private GGEPView parseGGEP(final byte[] PAYLOAD) {
         //Return if this is a plain pong without space for GGEP.  If 
         //this has bad GGEP data, multiple calls to
         //parseGGEP will result in multiple parse attempts.  While this is
@@ -534,7 +520,7 @@ public class PingReplyFactoryImpl implements PingReplyFactory {
             return null;
 
         try {
-            return new GGEP(PAYLOAD, PingReply.STANDARD_PAYLOAD_SIZE, null);
+            return new GGEPView(PAYLOAD, PingReply.STANDARD_PAYLOAD_SIZE, null);
         } catch (BadGGEPBlockException e) {
             return null;
         }
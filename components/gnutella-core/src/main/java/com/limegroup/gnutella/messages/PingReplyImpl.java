@@ -15,7 +15,7 @@ import org.limewire.collection.BitNumbers;
 import org.limewire.core.settings.ApplicationSettings;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.Connectable;
-import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.InvalidDataException;
 import org.limewire.io.IpPort;
 import org.limewire.io.IpPortImpl;
@@ -172,7 +172,7 @@ public class PingReplyImpl extends AbstractMessage implements IpPort, Connectabl
      * @param payload the message payload
      * @throws BadPacketException
      */
-    protected PingReplyImpl(byte[] guid, byte ttl, byte hops, byte[] payload, GGEP ggep,
+    protected PingReplyImpl(byte[] guid, byte ttl, byte hops, byte[] payload, GGEPView ggep,
             InetAddress ip, Network network, MACCalculatorRepositoryManager manager,
             NetworkInstanceUtils networkInstanceUtils) throws BadPacketException {
         super(guid, Message.F_PING_REPLY, ttl, hops, payload.length, network);
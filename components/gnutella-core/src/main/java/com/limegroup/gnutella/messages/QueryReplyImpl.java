@@ -23,6 +23,7 @@ import org.limewire.io.BadGGEPBlockException;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.ConnectableImpl;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.GUID;
 import org.limewire.io.InvalidDataException;
 import org.limewire.io.IpPort;
@@ -850,7 +851,7 @@ public class QueryReplyImpl extends AbstractMessage implements QueryReply {
                 if ((control & GGEP_MASK) != 0 && (flags & GGEP_MASK) != 0) {
                     GGEPParser parser = new GGEPParser();
                     parser.scanForGGEPs(_payload, i + 2);
-                    GGEP ggep = parser.getNormalGGEP();
+                    GGEPView ggep = parser.getNormalGGEPView();
                     if (ggep != null) {
                         _data.setGGEPStart(parser.getNormalStartIndex());
                         _data.setGGEPEnd(parser.getNormalEndIndex());
@@ -1190,7 +1191,7 @@ public class QueryReplyImpl extends AbstractMessage implements QueryReply {
          * @param ggeps the array of GGEP extensions that may or may not contain
          *        push proxy data
          */
-        public Set<? extends IpPort> getPushProxies(GGEP ggep) {
+        public Set<? extends IpPort> getPushProxies(GGEPView ggep) {
             Set<IpPort> proxies = null;
             BitNumbers bn = null;
 
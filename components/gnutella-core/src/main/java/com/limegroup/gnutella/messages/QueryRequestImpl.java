@@ -17,6 +17,7 @@ import org.limewire.core.settings.MessageSettings;
 import org.limewire.core.settings.SearchSettings;
 import org.limewire.io.BadGGEPPropertyException;
 import org.limewire.io.GGEP;
+import org.limewire.io.GGEPView;
 import org.limewire.io.GUID;
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
@@ -1022,7 +1023,7 @@ public class QueryRequestImpl extends AbstractMessage implements QueryRequest {
                 byte[] extsBytes = readNullTerminatedBytes(bais);
                 huge = new HUGEExtension(extsBytes);
                 hugeEnd = bais.getPos();
-                GGEP ggep = huge.getGGEP();
+                GGEPView ggep = huge.getGGEPView();
 
                 if(ggep != null) {
                     try {
@@ -0,0 +1,408 @@
+package com.limegroup.gnutella.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.collection.FixedsizeForgetfulHashMap;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.concurrent.ListeningExecutorService;
+import org.limewire.inject.EagerSingleton;
+import org.limewire.io.IOUtils;
+import org.limewire.lifecycle.Service;
+import org.limewire.lifecycle.ServiceRegistry;
+import org.limewire.lifecycle.ServiceScheduler;
+import org.limewire.statistic.MetricsRegistry;
+import org.limewire.statistic.StripedCounter;
+import org.limewire.util.CommonUtils;
+import org.limewire.util.FileUtils;
+import org.limewire.util.GenericsUtils;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+/**
+ * Extracts the metadata of files on a pool of its own, so that the library
+ * can extract it while files are still being hashed, and remembers what it
+ * extracted.
+ * <p>
+ * {@link #prefetch(File)} queues a file for extraction; a later
+ * {@link #parse(File)} of the file waits for that extraction instead of
+ * reading the file again. A prefetched result is held until it is parsed,
+ * or {@link #discard(File) discarded} if the file won't be parsed after all,
+ * and at most {@link #RECENT_SIZE} of them are, so that extraction can't run
+ * further ahead of the library than that. Results are also kept for a short
+ * while, so the collections of several schemas that read the same file share
+ * one extraction.
+ * <p>
+ * Files that have no metadata or can't be parsed are remembered across
+ * sessions by path, size and modification time, so unchanged files aren't
+ * parsed again on every start. Files that do have metadata don't need this,
+ * their documents are saved by the XML collections. The files are loaded on
+ * the extraction pool and saved periodically and on shutdown.
+ * <p>
+ * The time taken to extract each format is recorded in the
+ * {@link MetricsRegistry} as <code>metadata.read.&lt;extension&gt;</code>.
+ */
+@EagerSingleton
+public class MetaDataExtractor {
+
+    private static final Log LOG = LogFactory.getLog(MetaDataExtractor.class);
+
+    /** The file remembering files without metadata. */
+    private static final File CACHE_FILE =
+        new File(CommonUtils.getUserSettingsDir(), "nometadata.cache");
+
+    /** Last good version of above. */
+    private static final File CACHE_BACKUP_FILE =
+        new File(CommonUtils.getUserSettingsDir(), "nometadata.bak");
+
+    /** The number of extraction threads; extraction is mostly disk bound. */
+    private static final int THREADS =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The number of recent extractions that are kept, and of prefetched
+     * extractions that may wait to be parsed.
+     */
+    private static final int RECENT_SIZE = 256;
+
+    private final Provider<MetaDataFactory> metaDataFactory;
+
+    private final MetricsRegistry metrics;
+
+    private final ListeningExecutorService executor =
+        ExecutorsHelper.newFixedSizeThreadPool(THREADS, "MetaDataExtractor");
+
+    /** The extractions that were prefetched and not parsed yet. LOCKING: itself. */
+    private final Map<File, Future<Extraction>> pending =
+        new HashMap<File, Future<Extraction>>();
+
+    /** Recent extractions. LOCKING: itself. */
+    private final Map<File, Extraction> recent =
+        new FixedsizeForgetfulHashMap<File, Extraction>(RECENT_SIZE);
+
+    /** The counter of extractions answered without reading the file. */
+    private final StripedCounter hits;
+
+    /** Loads the files without metadata, see {@link #getNoMetaData()}. */
+    private final Future<Map<String, long[]>> cacheLoader;
+
+    /**
+     * The size and modification time of each file without metadata, by
+     * path, or null until it was loaded. LOCKING: this.
+     */
+    private Map<String, long[]> noMetaData;
+
+    /** Whether <code>noMetaData</code> changed since it was saved. LOCKING: this. */
+    private boolean dirty;
+
+    @Inject
+    MetaDataExtractor(Provider<MetaDataFactory> metaDataFactory, MetricsRegistry metrics) {
+        this.metaDataFactory = metaDataFactory;
+        this.metrics = metrics;
+        this.hits = metrics.getCounter("metadata.read.cached");
+        this.cacheLoader = executor.submit(new Callable<Map<String, long[]>>() {
+            @Override
+            public Map<String, long[]> call() {
+                return readCache();
+            }
+        });
+    }
+
+    @Inject
+    void register(@Named("backgroundExecutor") ScheduledExecutorService scheduledExecutorService,
+            ServiceScheduler serviceScheduler, ServiceRegistry registry) {
+        registry.register(new Service() {
+            @Override
+            public String getServiceName() {
+                return "Metadata Cache";
+            }
+            @Override
+            public void initialize() {
+            }
+            @Override
+            public void start() {
+            }
+            @Override
+            public void stop() {
+                persistCache();
+            }
+        });
+        serviceScheduler.scheduleWithFixedDelay("metadata cache persister", new Runnable() {
+            @Override
+            public void run() {
+                persistCache();
+            }
+        }, 30, 30, TimeUnit.SECONDS, scheduledExecutorService);
+    }
+
+    /**
+     * Queues a file for extraction, unless it can't have metadata, its
+     * metadata is already known or {@link #RECENT_SIZE} prefetched files
+     * are waiting to be parsed.
+     */
+    public void prefetch(final File file) {
+        if (!metaDataFactory.get().containsReader(file) || isKnown(file))
+            return;
+        synchronized (pending) {
+            if (pending.size() >= RECENT_SIZE || pending.containsKey(file))
+                return;
+            pending.put(file, executor.submit(new Callable<Extraction>() {
+                @Override
+                public Extraction call() {
+                    return extract(file);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Drops the prefetched extraction of a file that won't be parsed, for
+     * example because it was removed from the library before its metadata
+     * was loaded, or its XML was reused from a previous session.
+     */
+    public void discard(File file) {
+        Future<Extraction> future;
+        synchronized (pending) {
+            future = pending.remove(file);
+        }
+        if (future != null)
+            future.cancel(false);
+    }
+
+    /** Drops all prefetched extractions, when the library is cleared. */
+    public void discardAll() {
+        synchronized (pending) {
+            for (Future<Extraction> future : pending.values())
+                future.cancel(false);
+            pending.clear();
+        }
+    }
+
+    /**
+     * Returns the metadata of a file, or null if the file format is not
+     * supported or the file has no metadata. Waits for the file's
+     * extraction if it was prefetched.
+     *
+     * @throws IOException if the file could not be parsed
+     */
+    public MetaData parse(File file) throws IOException {
+        Extraction extraction = null;
+        Future<Extraction> future;
+        synchronized (pending) {
+            future = pending.remove(file);
+        }
+        if (future != null) {
+            extraction = getResult(future);
+        } else {
+            extraction = getRecent(file);
+            if (extraction != null) {
+                hits.increment();
+            } else if (hasNoMetaData(file)) {
+                hits.increment();
+                return null;
+            } else {
+                extraction = extract(file);
+            }
+        }
+        if (extraction.exception != null)
+            throw (IOException)new IOException().initCause(extraction.exception);
+        return extraction.data;
+    }
+
+    /**
+     * Reads the metadata of a file and remembers the result.
+     */
+    private Extraction extract(File file) {
+        long size = file.length();
+        long modified = file.lastModified();
+        long start = System.nanoTime();
+        Extraction extraction;
+        try {
+            extraction = new Extraction(size, modified, metaDataFactory.get().parse(file), null);
+        } catch (IOException e) {
+            extraction = new Extraction(size, modified, null, e);
+        }
+        metrics.getHistogram("metadata.read." + getExtension(file)).recordSince(start);
+
+        synchronized (recent) {
+            recent.put(file, extraction);
+        }
+        if (extraction.data == null && !isTransientFailure(extraction.exception)
+                && modified != 0) {
+            if (LOG.isDebugEnabled())
+                LOG.debug("No metadata in " + file);
+            synchronized (this) {
+                getNoMetaData().put(file.getAbsolutePath(), new long[] { size, modified });
+                dirty = true;
+            }
+        }
+        return extraction;
+    }
+
+    /** Returns true if prefetching the file would not find out anything new. */
+    private boolean isKnown(File file) {
+        return getRecent(file) != null || hasNoMetaData(file);
+    }
+
+    /** Returns the recent extraction of an unchanged file, or null. */
+    private Extraction getRecent(File file) {
+        Extraction extraction;
+        synchronized (recent) {
+            extraction = recent.get(file);
+        }
+        if (extraction == null || !extraction.isFor(file.length(), file.lastModified()))
+            return null;
+        return extraction;
+    }
+
+    /** Returns true if the file had no metadata and hasn't changed since. */
+    private synchronized boolean hasNoMetaData(File file) {
+        long[] known = getNoMetaData().get(file.getAbsolutePath());
+        return known != null && known[0] == file.length() && known[1] == file.lastModified();
+    }
+
+    /**
+     * Returns the files without metadata, waiting for them to be loaded
+     * the first time. LOCKING: this.
+     */
+    private Map<String, long[]> getNoMetaData() {
+        if (noMetaData == null) {
+            boolean interrupted = false;
+            try {
+                while (noMetaData == null) {
+                    try {
+                        noMetaData = cacheLoader.get();
+                    } catch (InterruptedException tryAgain) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                LOG.error("Unable to load metadata cache", e);
+                noMetaData = new HashMap<String, long[]>();
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+        return noMetaData;
+    }
+
+    /** Waits for an extraction that was prefetched. */
+    private Extraction getResult(Future<Extraction> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException tryAgain) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw (IOException)new IOException().initCause(e.getCause());
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if parsing failed because the file couldn't be opened,
+     * for example because another program had locked it, so that it
+     * should be parsed again next time.
+     */
+    private static boolean isTransientFailure(IOException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof FileNotFoundException || t instanceof OutOfMemoryError)
+                return true;
+        }
+        return false;
+    }
+
+    private static String getExtension(File file) {
+        String extension = FileUtils.getFileExtension(file).toLowerCase(Locale.US);
+        return extension.isEmpty() ? "none" : extension;
+    }
+
+    /**
+     * Loads the files without metadata, dropping those that changed or no
+     * longer exist.
+     */
+    private static Map<String, long[]> readCache() {
+        Map<String, long[]> map = readCache(CACHE_FILE);
+        if (map == null)
+            map = readCache(CACHE_BACKUP_FILE);
+        if (map == null)
+            return new HashMap<String, long[]>();
+        for (Iterator<Map.Entry<String, long[]>> i = map.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, long[]> entry = i.next();
+            File file = new File(entry.getKey());
+            long[] known = entry.getValue();
+            if (known == null || known.length != 2 || known[0] != file.length()
+                    || known[1] != file.lastModified())
+                i.remove();
+        }
+        return map;
+    }
+
+    private static Map<String, long[]> readCache(File file) {
+        if (!file.exists())
+            return null;
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return GenericsUtils.scanForMap(in.readObject(), String.class, long[].class,
+                    GenericsUtils.ScanMode.REMOVE);
+        } catch (Throwable t) {
+            LOG.error("Unable to read metadata cache", t);
+            return null;
+        } finally {
+            IOUtils.close(in);
+        }
+    }
+
+    /** Saves the files without metadata if they changed. */
+    synchronized void persistCache() {
+        if (!dirty)
+            return;
+        if (FileUtils.writeWithBackupFile(noMetaData, CACHE_BACKUP_FILE, CACHE_FILE, LOG))
+            dirty = false;
+    }
+
+    /** The outcome of reading the metadata of a file. */
+    private static class Extraction {
+        private final long size;
+        private final long modified;
+        private final MetaData data;
+        private final IOException exception;
+
+        Extraction(long size, long modified, MetaData data, IOException exception) {
+            this.size = size;
+            this.modified = modified;
+            this.data = data;
+            this.exception = exception;
+        }
+
+        /** Returns true if the file still has the given size and time. */
+        boolean isFor(long size, long modified) {
+            return this.size == size && this.modified == modified && modified != 0;
+        }
+    }
+}
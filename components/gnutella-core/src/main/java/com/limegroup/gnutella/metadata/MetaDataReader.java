@@ -9,7 +9,6 @@ import org.apache.commons.logging.LogFactory;
 import org.limewire.util.NameValue;
 
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.limegroup.gnutella.xml.LimeXMLDocument;
 import com.limegroup.gnutella.xml.LimeXMLDocumentFactory;
@@ -26,15 +25,15 @@ public class MetaDataReader {
     
     private final LimeXMLDocumentFactory limeXMLDocumentFactory;
     private final LimeXMLSchemaRepository limeXMLSchemaRepository;
-    private final Provider<MetaDataFactory> metaDataFactory;
+    private final MetaDataExtractor metaDataExtractor;
 
     @Inject
     MetaDataReader(LimeXMLDocumentFactory limeXMLDocumentFactory,
             LimeXMLSchemaRepository limeXMLSchemaRepository,
-            Provider<MetaDataFactory> metaDataFactory) {
+            MetaDataExtractor metaDataExtractor) {
         this.limeXMLDocumentFactory = limeXMLDocumentFactory;
         this.limeXMLSchemaRepository = limeXMLSchemaRepository;
-        this.metaDataFactory = metaDataFactory;
+        this.metaDataExtractor = metaDataExtractor;
     }
 
     /**
@@ -42,7 +41,7 @@ public class MetaDataReader {
      * given schemaURI.
      */
     public LimeXMLDocument readDocument(File file) throws IOException {
-        MetaData data = metaDataFactory.get().parse(file);
+        MetaData data = metaDataExtractor.parse(file);
         if (data == null)
             throw new IOException("unable to parse file");
 
@@ -3,12 +3,9 @@ package com.limegroup.gnutella.metadata.bittorrent;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Map;
 
 import org.limewire.bittorrent.BTData;
 import org.limewire.bittorrent.BTDataImpl;
-import org.limewire.bittorrent.BTDataValueException;
-import org.limewire.bittorrent.bencoding.Token;
 import org.limewire.io.IOUtils;
 
 import com.limegroup.gnutella.metadata.MetaData;
@@ -24,13 +21,8 @@ public class TorrentMetaReader implements MetaReader {
         FileInputStream torrentInputStream = null;
         try {
             torrentInputStream = new FileInputStream(torrentFile);
-            Object obj = Token.parse(torrentInputStream.getChannel());
-            if (!(obj instanceof Map)) {
-                throw new BTDataValueException("expected map");
-            }
-            
-            BTData btData = new BTDataImpl((Map)obj);
-            btData.clearPieces(); // save memory
+            // don't keep the pieces to save memory
+            BTData btData = BTDataImpl.read(torrentInputStream.getChannel(), false);
             return new TorrentMetaData(btData);
         } finally {
             IOUtils.close(torrentInputStream);
@@ -14,7 +14,7 @@ public class AddressToken extends KeywordToken {
      * it's too easy for a spammer to use multiple ports. Therefore we should
      * be a little bit cautious about using an address to identify spammers.  
      */
-    private static final float ADDRESS_WEIGHT = 0.2f;
+    static final float ADDRESS_WEIGHT = 0.2f;
 
     public AddressToken(String address) {
         super(address);
@@ -25,6 +25,17 @@ public class AddressToken extends KeywordToken {
         return ADDRESS_WEIGHT;
     }
 
+    @Override
+    long getFingerprint() {
+        return fingerprint(keyword);
+    }
+
+    /** Returns the fingerprint of the token for the given address. */
+    static long fingerprint(String address) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.ADDRESS), address));
+    }
+
     @Override public boolean equals(Object o) {
         if(!(o instanceof AddressToken))
             return false;
@@ -10,7 +10,7 @@ public class ApproximateSizeToken extends Token {
      * filter by URN or size - we consider the approximate size, but give it
      * a lower weight than the exact size
      */
-    private static final float APPROXIMATE_SIZE_WEIGHT = 0.3f;
+    static final float APPROXIMATE_SIZE_WEIGHT = 0.3f;
     
     /**
      * How many bits of the size should be discarded?
@@ -28,6 +28,17 @@ public class ApproximateSizeToken extends Token {
         return APPROXIMATE_SIZE_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(size);
+    }
+    
+    /** Returns the fingerprint of the token for the given file size. */
+    static long fingerprint(long size) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.APPROXIMATE_SIZE), size >> SHIFT << SHIFT));
+    }
+    
     @Override
     public int hashCode() {
         return (int)size;
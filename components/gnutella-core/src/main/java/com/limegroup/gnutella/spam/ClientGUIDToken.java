@@ -1,5 +1,7 @@
 package com.limegroup.gnutella.spam;
 
+import org.limewire.util.Base32;
+
 /**
  * A token representing the client GUID of a responding client.
  */
@@ -9,7 +11,7 @@ public class ClientGUIDToken extends KeywordToken {
      * Unlike an IP address, a client GUID should never be shared by spammers
      * and non-spammers, so we can give it a high weight as a spam indicator.
      */
-    private static final float CLIENT_GUID_WEIGHT = 0.6f;
+    static final float CLIENT_GUID_WEIGHT = 0.6f;
     
     ClientGUIDToken(String guid) {
         super(guid);
@@ -20,6 +22,17 @@ public class ClientGUIDToken extends KeywordToken {
         return CLIENT_GUID_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(Base32.decode(keyword));
+    }
+    
+    /** Returns the fingerprint of the token for the given client GUID. */
+    static long fingerprint(byte[] guid) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.CLIENT_GUID), guid));
+    }
+    
     @Override
     public boolean equals(Object o) {
         if(!(o instanceof ClientGUIDToken))
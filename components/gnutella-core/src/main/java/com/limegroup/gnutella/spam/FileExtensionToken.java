@@ -9,7 +9,7 @@ public class FileExtensionToken extends KeywordToken {
      * A file extension is a poor indicator of spam, so we give it a lower
      * weight than other keywords.
      */
-    private static final float EXTENSION_WEIGHT = 0.05f;
+    static final float EXTENSION_WEIGHT = 0.05f;
     
     FileExtensionToken(String extension) {
         super(extension);
@@ -20,6 +20,17 @@ public class FileExtensionToken extends KeywordToken {
         return EXTENSION_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(keyword);
+    }
+
+    /** Returns the fingerprint of the token for the given extension. */
+    static long fingerprint(String extension) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.EXTENSION), extension));
+    }
+
     @Override
     public boolean equals(Object o) {
         if(!(o instanceof FileExtensionToken))
@@ -0,0 +1,62 @@
+package com.limegroup.gnutella.spam;
+
+/**
+ * The distinct token fingerprints the {@link Tokenizer} extracted from a
+ * search result, a reply or a query, with the weight of each token.
+ * <p>
+ * Instances are reused, so tokenizing a result doesn't allocate a set of
+ * tokens. A result has a few dozen tokens at most, so duplicates are found
+ * by a linear scan.
+ * <p>
+ * This class is not thread-safe.
+ */
+class FingerprintList {
+
+    private long[] fingerprints = new long[32];
+
+    private float[] weights = new float[32];
+
+    private int size;
+
+    /**
+     * Adds a fingerprint unless it is already in the list.
+     *
+     * @param weight the weight of the token, see {@link Token#getWeight()}
+     */
+    void add(long fingerprint, float weight) {
+        for (int i = 0; i < size; i++) {
+            if (fingerprints[i] == fingerprint)
+                return;
+        }
+        if (size == fingerprints.length) {
+            long[] newFingerprints = new long[size * 2];
+            System.arraycopy(fingerprints, 0, newFingerprints, 0, size);
+            fingerprints = newFingerprints;
+            float[] newWeights = new float[size * 2];
+            System.arraycopy(weights, 0, newWeights, 0, size);
+            weights = newWeights;
+        }
+        fingerprints[size] = fingerprint;
+        weights[size] = weight;
+        size++;
+    }
+
+    /** Returns the number of fingerprints. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the <code>i</code>th fingerprint. */
+    long getFingerprint(int i) {
+        return fingerprints[i];
+    }
+
+    /** Returns the weight of the token with the <code>i</code>th fingerprint. */
+    float getWeight(int i) {
+        return weights[i];
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
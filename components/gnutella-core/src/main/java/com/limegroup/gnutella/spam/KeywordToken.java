@@ -12,7 +12,7 @@ public class KeywordToken extends Token {
      * indicator of spam. However, the same keyword may occur in a large
      * number of files, so we don't want to be too hasty.
      */
-    private static final float KEYWORD_WEIGHT = 0.15f;
+    static final float KEYWORD_WEIGHT = 0.15f;
     
 	protected final String keyword;
     
@@ -25,6 +25,17 @@ public class KeywordToken extends Token {
         return KEYWORD_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(keyword, 0, keyword.length());
+    }
+    
+    /** Returns the fingerprint of the keyword <code>text[start .. end)</code>. */
+    static long fingerprint(CharSequence text, int start, int end) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.KEYWORD), text, start, end));
+    }
+    
     @Override
     public int hashCode() {
         return keyword.hashCode();
@@ -2,20 +2,15 @@ package com.limegroup.gnutella.spam;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -36,6 +31,15 @@ import com.limegroup.gnutella.RemoteFileDesc;
 import com.limegroup.gnutella.messages.QueryReply;
 import com.limegroup.gnutella.messages.QueryRequest;
 
+/**
+ * Keeps the spam ratings of tokens and rates search results by the tokens
+ * the {@link Tokenizer} extracts from them.
+ * <p>
+ * Tokens are only handled as {@link TokenFingerprint fingerprints}: rating a
+ * result creates no token objects and reads the ratings from a
+ * {@link TokenRatingMap} without locking, so results can be rated
+ * concurrently. Changing ratings synchronizes on this table.
+ */
 @EagerSingleton
 public class RatingTable implements Service {
     private static final Log LOG = LogFactory.getLog(RatingTable.class);
@@ -43,61 +47,57 @@ public class RatingTable implements Service {
     /**
      * Don't hold more than this many entries in memory or save more than
      * this many entries to disk. The size is a tradeoff - tokens should be
-     * discarded when they become irrelevant, but not before.
+     * discarded when they become irrelevant, but not before. An entry takes
+     * about 20 bytes, so the table takes about 420KB.
      */
-    private static final int MAX_SIZE = 5000;
+    private static final int MAX_SIZE = 20000;
+
+    /** Identifies the format of the ratings file. */
+    private static final int FILE_VERSION = 1;
 
     /**
-     * Initial size of the rating table - should not be too large as many
-     * users probably don't use the spam filter.
+     * The file for storing ratings between sessions.
      */
-    private static final int INITIAL_SIZE = 100;
+    private final File spamRatings;
 
     /**
-     * The file for storing tokens between sessions.
+     * The file tokens were stored in by earlier versions, as a serialized
+     * list of {@link Token Tokens}. It is only read if there is no
+     * ratings file.
      */
     private final File spamDat;
 
     /**
-     * A map containing a limited number of tokens. We use a map rather than
-     * a set so that we can retrieve a stored token by using an equivalent
-     * token as a key. This allows us to use a token without rating data to
-     * retrieve an equivalent token that has rating data.
-     * <p>
-     * The size of the map is limited. Entries are discarded in
-     * least-recently-used order when the map is full, on the assumption that
-     * the least-recently-used token is the least important to keep. Tokens
-     * with zero ratings are not stored in the map.
-     * <p>
-     * LOCKING: this.
+     * The ratings of a limited number of tokens. Entries are discarded in
+     * approximately least-recently-used order when the map is full, on the
+     * assumption that the least-recently-used token is the least important
+     * to keep. Tokens with zero ratings are not stored in the map.
      */
-    private final Map<Token, Token> tokenMap
-    = new LinkedHashMap<Token, Token>(INITIAL_SIZE, 0.75f, true) {
-        // This method will be called on every get(), put(), and putAll()
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Token, Token> e) {
-            if(size() > MAX_SIZE) {
-                if(LOG.isDebugEnabled())
-                    LOG.debug("Discarding token " + e.getValue());
-                return true;
-            }
-            return false;
-        }
-    };
+    private final TokenRatingMap ratings = new TokenRatingMap(MAX_SIZE);
 
     /**
-     * Tokens that the user has searched for during this session (could be
-     * keywords, XML metadata, and maybe URNs in the future). They will not
-     * contribute to the spam ratings of search results, because spammers
-     * often echo the search terms.
+     * The sorted fingerprints of the tokens that the user has searched for
+     * during this session (could be keywords, XML metadata, and maybe URNs
+     * in the future). They will not contribute to the spam ratings of search
+     * results, because spammers often echo the search terms.
+     * <p>
+     * LOCKING: replaced under this, read without locking.
      */
-    private final HashSet<Token> searchTokens = new HashSet<Token>();
+    private volatile long[] searchTokens = new long[0];
 
     /**
      * Whether the rating table needs to be saved. LOCKING: this.
      */
     private boolean dirty = false;
 
+    /** Reused to tokenize results. */
+    private final ThreadLocal<FingerprintList> tokenLists = new ThreadLocal<FingerprintList>() {
+        @Override
+        protected FingerprintList initialValue() {
+            return new FingerprintList();
+        }
+    };
+
     private final Tokenizer tokenizer;
     private final TemplateHashTokenFactory templateHashTokenFactory;
     private final ScheduledExecutorService backgroundExecutor;
@@ -109,6 +109,7 @@ public class RatingTable implements Service {
         this.tokenizer = tokenizer;
         this.templateHashTokenFactory = templateHashTokenFactory;
         this.backgroundExecutor = backgroundExecutor;
+        spamRatings = new File(CommonUtils.getUserSettingsDir(), "spam.ratings");
         spamDat = new File(CommonUtils.getUserSettingsDir(), "spam.dat");
     }
 
@@ -125,7 +126,10 @@ public class RatingTable implements Service {
     }
 
     public synchronized void start() {
-        load(spamDat);
+        if(spamRatings.exists())
+            load(spamRatings);
+        else
+            loadTokens(spamDat);
         loadSpamTokensFromSettings();
         // Save the ratings every five minutes (if necessary)
         backgroundExecutor.scheduleWithFixedDelay(new Runnable() {
@@ -163,7 +167,7 @@ public class RatingTable implements Service {
      */
     synchronized void clear() {
         LOG.debug("Clearing ratings");
-        tokenMap.clear();
+        ratings.clear();
         dirty = true;
     }
 
@@ -173,8 +177,11 @@ public class RatingTable implements Service {
      * @param desc the RemoteFileDesc to rate
      * @return the rating for the RemoteFileDesc
      */
-    synchronized float getRating(RemoteFileDesc desc) {
-        float rating = getRating(lookup(tokenizer.getTokens(desc)));
+    float getRating(RemoteFileDesc desc) {
+        FingerprintList tokens = tokenLists.get();
+        tokens.clear();
+        tokenizer.getTokens(desc, tokens);
+        float rating = getRating(tokens);
         if(LOG.isDebugEnabled()) {
             String addr = desc.getAddress().getAddressDescription();
             LOG.debug("Result from " + addr + " rated " + rating);
@@ -183,15 +190,20 @@ public class RatingTable implements Service {
     }
 
     /**
-     * Returns the combined rating for a set of tokens.
+     * Returns the combined rating for a list of tokens, ignoring search
+     * tokens.
      * 
-     * @param tokens a set of tokens to be rated
+     * @param tokens a list of tokens to be rated
      * @return the combined rating for the tokens
      */
-    private float getRating(Set<Token> tokens) {
+    private float getRating(FingerprintList tokens) {
+        long[] ignored = searchTokens;
         float rating = 1;
-        for(Token t : tokens)
-            rating *= 1 - t.getRating();
+        for(int i = 0; i < tokens.size(); i++) {
+            long t = tokens.getFingerprint(i);
+            if(Arrays.binarySearch(ignored, t) < 0)
+                rating *= 1 - ratings.get(t);
+        }
         return 1 - rating;
     }
 
@@ -202,7 +214,9 @@ public class RatingTable implements Service {
      * @param rating a rating between 0 (not spam) and 1 (spam)
      */
     synchronized void rate(RemoteFileDesc[] descs, float rating) {
-        rateInternal(lookup(tokenizer.getTokens(descs)), rating);
+        FingerprintList tokens = new FingerprintList();
+        tokenizer.getTokens(descs, tokens);
+        rateInternal(tokens, rating);
     }
 
     /**
@@ -212,7 +226,9 @@ public class RatingTable implements Service {
      * @param rating a rating between 0 (not spam) and 1 (spam)
      */
     synchronized void rate(QueryReply qr, float rating) {
-        rateInternal(lookup(tokenizer.getNonKeywordTokens(qr)), rating);
+        FingerprintList tokens = new FingerprintList();
+        tokenizer.getNonKeywordTokens(qr, tokens);
+        rateInternal(tokens, rating);
     }
 
     /**
@@ -223,12 +239,11 @@ public class RatingTable implements Service {
     private void setRatingIfUnrated(Token t, float rating) {
         if(rating == 0f)
             return;
-        Token stored = tokenMap.get(t);
-        if(stored == null) {
+        long fingerprint = t.getFingerprint();
+        if(ratings.get(fingerprint) == 0f) {
             if(LOG.isDebugEnabled())
                 LOG.debug("Setting rating of " + t + " to " + rating);
-            t.setRating(rating);
-            tokenMap.put(t, t);
+            ratings.put(fingerprint, rating);
             dirty = true;
         } else {
             if(LOG.isDebugEnabled())
@@ -243,86 +258,117 @@ public class RatingTable implements Service {
      * @param qr the QueryRequest to clear
      */
     synchronized void clear(QueryRequest qr) {
-        for(Token t : tokenizer.getTokens(qr)) {
+        FingerprintList tokens = new FingerprintList();
+        tokenizer.getTokens(qr, tokens);
+        long[] ignored = searchTokens;
+        long[] added = new long[ignored.length + tokens.size()];
+        System.arraycopy(ignored, 0, added, 0, ignored.length);
+        int count = ignored.length;
+        for(int i = 0; i < tokens.size(); i++) {
+            long t = tokens.getFingerprint(i);
             if(LOG.isDebugEnabled())
-                LOG.debug("Clearing search token " + t);
-            searchTokens.add(t); // Ignore the token for this session
+                LOG.debug("Clearing search token " + Long.toHexString(t));
+            // Ignore the token for this session
+            if(Arrays.binarySearch(ignored, t) < 0)
+                added[count++] = t;
             // Clear the rating for future sessions
-            if(tokenMap.remove(t) != null)
+            if(ratings.remove(t))
                 dirty = true;
         }
+        added = Arrays.copyOf(added, count);
+        Arrays.sort(added);
+        searchTokens = added;
     }
 
     /**
-     * Assigns the given rating to a set of tokens, storing any that have
+     * Updates the ratings of a list of tokens, storing any that have
      * non-zero ratings after being updated and removing from the map any that
-     * have zero ratings after being updated. LOCKING: this.
+     * have zero ratings after being updated. Search tokens are not rated.
+     * LOCKING: this.
      * 
-     * @param tokens a set of tokens to be rated
+     * @param tokens a list of tokens to be rated
      * @param rating a rating between 0 (not spam) and 1 (spam)
      */
-    private void rateInternal(Set<Token> tokens, float rating) {
-        for(Token t : tokens) {
-            float before = t.getRating();
-            t.updateRating(rating);
-            float after = t.getRating();
+    private void rateInternal(FingerprintList tokens, float rating) {
+        long[] ignored = searchTokens;
+        for(int i = 0; i < tokens.size(); i++) {
+            long t = tokens.getFingerprint(i);
+            if(Arrays.binarySearch(ignored, t) >= 0) {
+                if(LOG.isDebugEnabled())
+                    LOG.debug("Ignoring search token " + Long.toHexString(t));
+                continue;
+            }
+            float before = ratings.get(t);
+            float after = Token.updateRating(before, rating, tokens.getWeight(i));
             if(LOG.isDebugEnabled())
-                LOG.debug(t + " was rated " + before + ", now rated " + after);
-            if(after == 0f)
-                tokenMap.remove(t);
-            else
-                tokenMap.put(t, t);
+                LOG.debug(Long.toHexString(t) + " was rated " + before + ", now rated " + after);
+            ratings.put(t, after);
             dirty = true;
         }
     }
 
     /**
-     * Replaces each token with an equivalent previously stored token, or
-     * returns the token that was passed in if no equivalent exists. Tokens
-     * that have been searched for during this session are not returned.
-     * 
-     * @param tokens a set of tokens to be replaced
-     * @return a set of equivalent tokens, with search tokens removed
-     */
-    private Set<Token> lookup(Set<Token> tokens) {
-        Set<Token> newTokens = new HashSet<Token>();
-        for(Token t : tokens) {
-            if(!searchTokens.contains(t))
-                newTokens.add(lookup(t));
-            else if(LOG.isDebugEnabled())
-                LOG.debug("Ignoring search token " + t);
-        }
-        return newTokens;
-    }
-
-    /**
-     * Returns an equivalent previously stored token if any such token exists,
-     * otherwise returns the token that was passed in. LOCKING: this.
-     * 
-     * @param token the token to look up
-     * @return the same token or a previously stored equivalent
+     * Looks up a single token and returns its rating (for testing).
      */
-    private Token lookup(Token token) {
-        Token stored = tokenMap.get(token);
-        return stored == null ? token : stored;
+    float lookupAndGetRating(Token token) {
+        long fingerprint = token.getFingerprint();
+        if(Arrays.binarySearch(searchTokens, fingerprint) >= 0)
+            return 0;
+        return ratings.get(fingerprint);
     }
 
     /**
-     * Looks up a single token and returns its rating (for testing).
+     * Loads ratings from disk. Package access for testing.
      */
-    synchronized float lookupAndGetRating(Token token) {
-        return getRating(Collections.singleton(lookup(token)));
+    void load(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(
+                            new FileInputStream(file)));
+            if(in.readInt() != FILE_VERSION) {
+                LOG.debug("Unknown spam ratings format");
+                return;
+            }
+            int count = in.readInt();
+            // the version & count are followed by a long & float per entry
+            if(count < 0 || count > MAX_SIZE || count > (file.length() - 8) / 12) {
+                if(LOG.isDebugEnabled())
+                    LOG.debug("Invalid spam ratings count " + count);
+                synchronized(this) {
+                    ratings.clear();
+                }
+                return;
+            }
+            long[] fingerprints = new long[count];
+            float[] values = new float[count];
+            for(int i = 0; i < count; i++) {
+                fingerprints[i] = in.readLong();
+                values[i] = in.readFloat();
+            }
+            synchronized(this) {
+                ratings.clear();
+                for(int i = 0; i < count; i++)
+                    ratings.put(fingerprints[i], values[i]);
+                if(LOG.isDebugEnabled())
+                    LOG.debug("Loaded " + ratings.size() + " entries");
+            }
+        } catch(IOException e) {
+            LOG.debug("Error loading spam ratings: ", e);
+        } finally {
+            IOUtils.close(in);
+        }
     }
 
     /**
-     * Loads ratings from disk. Package access for testing.
+     * Loads ratings from a file written by earlier versions, which stored
+     * serialized tokens. Package access for testing.
      */
-    void load(File file) {
+    void loadTokens(File file) {
         if(!file.exists()) {
             LOG.debug("No ratings to load");
             return;
         }
-        Map<Token, Token> temporaryMap = new HashMap<Token, Token>();
         ObjectInputStream is = null;
         try {
             is = new ObjectInputStream(
@@ -331,27 +377,27 @@ public class RatingTable implements Service {
             List<Token> list = GenericsUtils.scanForList(is.readObject(),
                     Token.class, GenericsUtils.ScanMode.REMOVE);
             int zeroes = 0, converted = 0;
-            for(Token t : list) {
-                // Convert old template tokens into template hash tokens
-                if(t instanceof TemplateToken) {
-                    t = templateHashTokenFactory.convert((TemplateToken) t);
-                    converted++;
-                }
-                if(t.getRating() > 0f) {
-                    if(LOG.isDebugEnabled())
-                        LOG.debug("Loading " + t + ", rated " + t.getRating());
-                    temporaryMap.put(t, t);
-                } else {
-                    zeroes++;
-                }
-            }
             synchronized(this) {
-                tokenMap.clear();
-                tokenMap.putAll(temporaryMap);
-                if(zeroes > 0 || converted > 0)
-                    dirty = true;
+                ratings.clear();
+                // The list holds the least-recently-used token first
+                for(Token t : list) {
+                    // Convert old template tokens into template hash tokens
+                    if(t instanceof TemplateToken) {
+                        t = templateHashTokenFactory.convert((TemplateToken) t);
+                        converted++;
+                    }
+                    if(t.getRating() > 0f) {
+                        if(LOG.isDebugEnabled())
+                            LOG.debug("Loading " + t + ", rated " + t.getRating());
+                        ratings.put(t.getFingerprint(), t.getRating());
+                    } else {
+                        zeroes++;
+                    }
+                }
+                // Save in the new format
+                dirty = true;
                 if(LOG.isDebugEnabled()) {
-                    LOG.debug("Loaded " + tokenMap.size() +
+                    LOG.debug("Loaded " + ratings.size() +
                             " entries, converted " + converted + ", skipped " +
                             zeroes + " with zero scores");
                 }
@@ -371,51 +417,44 @@ public class RatingTable implements Service {
      * Saves ratings to disk.
      */
     void save() {
-        ArrayList<Token> list;
+        long[] fingerprints;
+        float[] values;
+        int count;
         synchronized(this) {
             if(!dirty) {
                 LOG.debug("Ratings do not need to be saved");
                 return;
             }
             dirty = false;
-            list = new ArrayList<Token>(tokenMap.size());
-            // The iterator returns the least-recently-used entry first
-            for(Map.Entry<Token,Token> e : tokenMap.entrySet()) {
-                Token t = e.getKey();
-                if(LOG.isDebugEnabled())
-                    LOG.debug("Saving " + t + ", rated " + t.getRating());
-                list.add(t);
-            }
+            fingerprints = new long[ratings.size()];
+            values = new float[fingerprints.length];
+            count = ratings.copyTo(fingerprints, values);
         }
-        ObjectOutputStream oos = null;
+        DataOutputStream out = null;
         try {
-            oos = new ObjectOutputStream(
+            out = new DataOutputStream(
                     new BufferedOutputStream(
-                            new FileOutputStream(spamDat)));
-            oos.writeObject(list);
-            oos.flush();
+                            new FileOutputStream(spamRatings)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(count);
+            for(int i = 0; i < count; i++) {
+                out.writeLong(fingerprints[i]);
+                out.writeFloat(values[i]);
+            }
+            out.flush();
             if(LOG.isDebugEnabled())
-                LOG.debug("Saved " + list.size() + " entries");
+                LOG.debug("Saved " + count + " entries");
         } catch (IOException iox) {
             LOG.debug("Error saving spam ratings: ", iox);
         } finally {
-            IOUtils.close(oos);
+            IOUtils.close(out);
         }
     }
 
     /**
      * @return the number of tokens in the rating table (for testing)
      */
-    synchronized int size() {
-        return tokenMap.size();
-    }
-
-    /**
-     * @return the least-recently-used token in the table (for testing)
-     */
-    synchronized Token getLeastRecentlyUsed() {
-        for(Map.Entry<Token,Token> e : tokenMap.entrySet())
-            return e.getKey();
-        return null; // Empty
+    int size() {
+        return ratings.size();
     }
-}
\ No newline at end of file
+}
@@ -9,7 +9,7 @@ public class SizeToken extends Token {
      * Exact file size is a fairly accurate identifier of a file, so we will
      * consider a certain file size spam after only a couple of bad ratings.
      */
-    private static final float SIZE_WEIGHT = 0.6f;
+    static final float SIZE_WEIGHT = 0.6f;
     
     private final long size;
     
@@ -22,6 +22,17 @@ public class SizeToken extends Token {
         return SIZE_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(size);
+    }
+    
+    /** Returns the fingerprint of the token for the given file size. */
+    static long fingerprint(long size) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.SIZE), size));
+    }
+    
     @Override
     public int hashCode() {
         return (int)size;
@@ -14,7 +14,7 @@ public class TemplateHashToken extends Token {
      * Unlike keywords or file extensions, templates should be quite unlikely to
      * occur in both spam and non-spam responses, so we give them a high weight.
      */
-    private static final float TEMPLATE_HASH_WEIGHT = 0.9f;
+    static final float TEMPLATE_HASH_WEIGHT = 0.9f;
 
     private final byte[] hash;
 
@@ -27,6 +27,17 @@ public class TemplateHashToken extends Token {
         return TEMPLATE_HASH_WEIGHT;
     }
 
+    @Override
+    long getFingerprint() {
+        return fingerprint(hash);
+    }
+
+    /** Returns the fingerprint of the token for the given template hash. */
+    static long fingerprint(byte[] hash) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.TEMPLATE_HASH), hash));
+    }
+
     @Override
     public int hashCode() {
         return Arrays.hashCode(hash);
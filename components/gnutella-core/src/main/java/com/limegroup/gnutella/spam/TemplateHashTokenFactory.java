@@ -29,6 +29,20 @@ public class TemplateHashTokenFactory {
      * the resulting template. Otherwise returns null.
      */
     public TemplateHashToken create(String query, String filename) {
+        String template = createTemplate(query, filename);
+        return template == null ? null : new TemplateHashToken(hash(template));
+    }
+
+    /**
+     * Returns the fingerprint of the token {@link #create(String, String)}
+     * would return, or 0 if it would return null.
+     */
+    long createFingerprint(String query, String filename) {
+        String template = createTemplate(query, filename);
+        return template == null ? 0 : TemplateHashToken.fingerprint(hash(template));
+    }
+
+    private String createTemplate(String query, String filename) {
         query = normalize(query);
         filename = normalize(filename);
         if(filename.contains(query)) {
@@ -36,7 +50,7 @@ public class TemplateHashTokenFactory {
             template = template.replaceFirst("^[0-9\\s]*", "");
             if(LOG.isDebugEnabled())
                 LOG.debug("Created template: " + template);
-            return createFromTemplate(template);
+            return template;
         }
         LOG.debug("Did not create template");
         return null;
@@ -53,12 +67,12 @@ public class TemplateHashTokenFactory {
      * Creates a template hash token from a template token and returns it.
      */
     public TemplateHashToken convert(TemplateToken tt) {
-        TemplateHashToken tht = createFromTemplate(tt.keyword);
+        TemplateHashToken tht = new TemplateHashToken(hash(tt.keyword));
         tht.setRating(tt.getRating());
         return tht;
     }
 
-    private TemplateHashToken createFromTemplate(String template) {
+    private byte[] hash(String template) {
         byte[] utf8 = StringUtils.toUTF8Bytes(template);
         synchronized(this) {
             sha1.reset();
@@ -66,7 +80,7 @@ public class TemplateHashTokenFactory {
             byte[] hash = sha1.digest();
             if(LOG.isDebugEnabled())
                 LOG.debug("Template hash: " + Base32.encode(hash));
-            return new TemplateHashToken(hash);
+            return hash;
         }
     }
 }
@@ -62,6 +62,17 @@ public class TemplateToken extends KeywordToken {
         return weight;
     }
 
+    @Override
+    long getFingerprint() {
+        return fingerprint(keyword);
+    }
+
+    /** Returns the fingerprint of the token for the given template. */
+    static long fingerprint(String template) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.TEMPLATE), template));
+    }
+
     @Override public boolean equals(Object o) {
         if(!(o instanceof TemplateToken))
             return false;
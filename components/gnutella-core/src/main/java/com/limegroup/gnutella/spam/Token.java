@@ -51,7 +51,24 @@ public abstract class Token implements Serializable {
      * @param update the new rating
      */
     protected void updateRating(float update) {
-        float weight = getWeight();
-        rating = rating * (1 - weight) + update * weight;
+        rating = updateRating(rating, update, getWeight());
     }
+
+    /**
+     * Returns a rating updated with an exponential moving average.
+     * 
+     * @param rating the current rating
+     * @param update the new rating
+     * @param weight the weight of the new rating
+     */
+    static float updateRating(float rating, float update, float weight) {
+        return rating * (1 - weight) + update * weight;
+    }
+
+    /**
+     * Returns the fingerprint of this token, see {@link TokenFingerprint}.
+     * Tokens are equal if and only if their fingerprints are, barring
+     * collisions of 64-bit hashes.
+     */
+    abstract long getFingerprint();
 }
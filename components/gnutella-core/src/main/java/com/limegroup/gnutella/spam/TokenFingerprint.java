@@ -0,0 +1,84 @@
+package com.limegroup.gnutella.spam;
+
+/**
+ * Hashes tokens to the 64-bit fingerprints that {@link RatingTable} keys
+ * its ratings by.
+ * <p>
+ * A fingerprint is built incrementally: {@link #start(int)} with the kind
+ * of token, then any number of <code>add</code> calls, then
+ * {@link #finish(long)}. Adding the parts of a string one by one gives the
+ * same fingerprint as adding the whole string, so fingerprints can be
+ * computed from pieces of text without creating the token or its string.
+ * Each kind of token fingerprints its content the same way whether it is
+ * created as a {@link Token} or only fingerprinted by the {@link Tokenizer}.
+ */
+final class TokenFingerprint {
+
+    // the kinds of tokens, so that equal content of different kinds differs
+    static final int KEYWORD = 1;
+    static final int ADDRESS = 2;
+    static final int XML_KEYWORD = 3;
+    static final int EXTENSION = 4;
+    static final int URN = 5;
+    static final int CLIENT_GUID = 6;
+    static final int SIZE = 7;
+    static final int APPROXIMATE_SIZE = 8;
+    static final int TEMPLATE_HASH = 9;
+    static final int TEMPLATE = 10;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private TokenFingerprint() {
+    }
+
+    /** Starts the fingerprint of a token of the given kind. */
+    static long start(int kind) {
+        return add(FNV_OFFSET, (long)kind);
+    }
+
+    /** Adds a char to a fingerprint. */
+    static long add(long hash, char c) {
+        hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    /** Adds the chars <code>text[start .. end)</code> to a fingerprint. */
+    static long add(long hash, CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++)
+            hash = add(hash, text.charAt(i));
+        return hash;
+    }
+
+    /** Adds all chars of a string to a fingerprint. */
+    static long add(long hash, CharSequence text) {
+        return add(hash, text, 0, text.length());
+    }
+
+    /** Adds bytes to a fingerprint. */
+    static long add(long hash, byte[] bytes) {
+        for (byte b : bytes)
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        return hash;
+    }
+
+    /** Adds a long to a fingerprint. */
+    static long add(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8)
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Finishes a fingerprint, mixing its bits so that similar tokens have
+     * unrelated fingerprints. A finished fingerprint is never 0.
+     */
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
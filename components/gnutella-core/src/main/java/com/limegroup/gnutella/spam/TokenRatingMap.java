@@ -0,0 +1,216 @@
+package com.limegroup.gnutella.spam;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The non-zero spam ratings of a limited number of tokens, keyed by
+ * {@link TokenFingerprint fingerprint}.
+ * <p>
+ * The ratings are kept in an open addressing hash table of primitive arrays,
+ * 13 bytes per slot and no objects per token. Ratings are read without
+ * locking: changes that move entries bump a version, and a reader that
+ * overlapped such a change probes again. Changes are rare (the user rating
+ * results, spam replies) and synchronize on the map.
+ * <p>
+ * When the map is full, a token is evicted with the CLOCK algorithm: reading
+ * a rating marks its token as referenced, and a hand sweeping the table
+ * evicts the first token that was not referenced since the hand last
+ * passed it, which approximates evicting the least recently used token.
+ */
+class TokenRatingMap {
+
+    /** Marks a free slot; fingerprints are never 0. */
+    private static final long FREE = 0;
+
+    private final AtomicLongArray fingerprints;
+
+    /** The ratings as {@link Float#floatToIntBits(float) int bits}. */
+    private final AtomicIntegerArray ratings;
+
+    /**
+     * Whether the token in each slot was read since the clock hand last
+     * passed it. Written by readers without synchronization; a lost update
+     * only makes eviction slightly less accurate.
+     */
+    private final byte[] referenced;
+
+    private final int mask;
+
+    private final int maxSize;
+
+    /** Odd while entries are being moved. LOCKING: writes under this. */
+    private volatile int version;
+
+    /** LOCKING: writes under this. */
+    private volatile int size;
+
+    /** LOCKING: this. */
+    private int hand;
+
+    /**
+     * Creates a map holding up to <code>maxSize</code> ratings, in a table
+     * of at least <code>maxSize * 3 / 2</code> slots.
+     */
+    TokenRatingMap(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Bad size: " + maxSize);
+        int capacity = Integer.highestOneBit(maxSize * 3 / 2 + 1) * 2;
+        fingerprints = new AtomicLongArray(capacity);
+        ratings = new AtomicIntegerArray(capacity);
+        referenced = new byte[capacity];
+        mask = capacity - 1;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the rating of a token, 0 if it is not in the map, and marks
+     * the token as referenced.
+     */
+    float get(long fingerprint) {
+        while (true) {
+            int before = version;
+            if ((before & 1) == 0) {
+                int slot = find(fingerprint);
+                int bits = slot == -1 ? 0 : ratings.get(slot);
+                if (version == before) {
+                    if (slot == -1)
+                        return 0;
+                    referenced[slot] = 1;
+                    return Float.intBitsToFloat(bits);
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Sets the rating of a token, evicting another token if the map is full.
+     * A rating of 0 removes the token.
+     */
+    synchronized void put(long fingerprint, float rating) {
+        if (rating == 0f) {
+            remove(fingerprint);
+            return;
+        }
+        int bits = Float.floatToIntBits(rating);
+        int slot = find(fingerprint);
+        if (slot != -1) {
+            ratings.set(slot, bits);
+            return;
+        }
+        if (size == maxSize)
+            evict();
+        slot = fingerprintSlot(fingerprint);
+        while (fingerprints.get(slot) != FREE)
+            slot = (slot + 1) & mask;
+        // readers that find the fingerprint must find its rating
+        ratings.set(slot, bits);
+        referenced[slot] = 1;
+        fingerprints.set(slot, fingerprint);
+        size++;
+    }
+
+    /** Removes a token, returning true if it was in the map. */
+    synchronized boolean remove(long fingerprint) {
+        int slot = find(fingerprint);
+        if (slot == -1)
+            return false;
+        removeAt(slot);
+        return true;
+    }
+
+    synchronized void clear() {
+        version++;
+        for (int i = 0; i <= mask; i++)
+            fingerprints.set(i, FREE);
+        size = 0;
+        version++;
+    }
+
+    /** Returns the number of tokens in the map. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copies the fingerprints and ratings of all tokens to arrays of at least
+     * {@link #size()} elements, returning the number of tokens copied.
+     */
+    synchronized int copyTo(long[] fingerprintsOut, float[] ratingsOut) {
+        int count = 0;
+        for (int i = 0; i <= mask; i++) {
+            long fingerprint = fingerprints.get(i);
+            if (fingerprint != FREE) {
+                fingerprintsOut[count] = fingerprint;
+                ratingsOut[count] = Float.intBitsToFloat(ratings.get(i));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the slot of a fingerprint or -1. Gives up after probing every
+     * slot, which can only happen while entries are being moved.
+     */
+    private int find(long fingerprint) {
+        int slot = fingerprintSlot(fingerprint);
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = fingerprints.get(slot);
+            if (current == fingerprint)
+                return slot;
+            if (current == FREE)
+                return -1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Evicts the first token the clock hand finds unreferenced. LOCKING: this. */
+    private void evict() {
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (fingerprints.get(hand) == FREE)
+                continue;
+            if (referenced[hand] != 0) {
+                referenced[hand] = 0;
+                continue;
+            }
+            removeAt(hand);
+            return;
+        }
+    }
+
+    /**
+     * Frees slot <code>i</code> and moves the entries after it that probed
+     * past it back, so lookups never have to skip removed entries.
+     * LOCKING: this.
+     */
+    private void removeAt(int i) {
+        version++;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long fingerprint = fingerprints.get(j);
+            if (fingerprint == FREE)
+                break;
+            int home = fingerprintSlot(fingerprint);
+            // leave the entry where it is if its home lies cyclically in (i, j]
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+                continue;
+            ratings.set(i, ratings.get(j));
+            referenced[i] = referenced[j];
+            fingerprints.set(i, fingerprint);
+            i = j;
+        }
+        fingerprints.set(i, FREE);
+        size--;
+        version++;
+    }
+
+    private int fingerprintSlot(long fingerprint) {
+        // fingerprints are already well mixed
+        return (int)fingerprint & mask;
+    }
+}
@@ -1,7 +1,5 @@
 package com.limegroup.gnutella.spam;
 
-import java.util.HashSet;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,14 +21,17 @@ import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.messages.BadPacketException;
 import com.limegroup.gnutella.messages.QueryReply;
 import com.limegroup.gnutella.messages.QueryRequest;
-import com.limegroup.gnutella.util.QueryUtils;
+import com.limegroup.gnutella.util.KeywordTokenizer;
+import com.limegroup.gnutella.util.KeywordTokens;
 import com.limegroup.gnutella.xml.LimeXMLDocument;
 import com.limegroup.gnutella.xml.LimeXMLNames;
 import com.limegroup.gnutella.xml.XMLStringUtils;
 
 /**
  * This class splits a RemoteFileDesc or a QueryRequest into tokens that will be
- * put into the RatingTable.
+ * put into the RatingTable. The tokens are not created; only their
+ * fingerprints and weights are added to a {@link FingerprintList}, see
+ * {@link TokenFingerprint}.
  * <p>
  * Currently, it extracts the following data to build a token:
  * <ul>
@@ -58,6 +59,14 @@ public class Tokenizer {
     private final ResponseVerifier responseVerifier;
     private final TemplateHashTokenFactory templateHashTokenFactory;
 
+    /** Reused to split text into keywords. */
+    private final ThreadLocal<KeywordTokens> keywordTokens = new ThreadLocal<KeywordTokens>() {
+        @Override
+        protected KeywordTokens initialValue() {
+            return new KeywordTokens();
+        }
+    };
+
     @Inject
     Tokenizer(NetworkInstanceUtils networkInstanceUtils,
             ResponseVerifier responseVerifier,
@@ -68,39 +77,35 @@ public class Tokenizer {
     }
 
     /**
-     * Extracts a set of tokens from a RemoteFileDesc.
+     * Extracts the tokens of a RemoteFileDesc.
      * 
      * @param desc the RemoteFileDesc that should be tokenized
-     * @return a non-empty set of Tokens
+     * @param list the list to which the tokens should be added
      */
-    public Set<Token> getTokens(RemoteFileDesc desc) {
-        Set<Token> set = new HashSet<Token>();
-        tokenize(desc, set);
-        return set;
+    void getTokens(RemoteFileDesc desc, FingerprintList list) {
+        tokenize(desc, list);
     }
 
     /**
-     * Extracts a set of tokens from an array of RemoteFileDescs - useful if the
+     * Extracts the tokens of an array of RemoteFileDescs - useful if the
      * user wants to mark multiple RFDs from a TableLine as spam (or not), which
      * should rate each token only once.
      * 
      * @param descs the array of RemoteFileDescs that should be tokenized
-     * @return a non-empty set of Tokens
+     * @param list the list to which the tokens should be added
      */
-    public Set<Token> getTokens(RemoteFileDesc[] descs) {
-        Set<Token> set = new HashSet<Token>();
+    void getTokens(RemoteFileDesc[] descs, FingerprintList list) {
         for(RemoteFileDesc desc : descs)
-            tokenize(desc, set);
-        return set;
+            tokenize(desc, list);
     }
 
     /**
-     * Extracts a set of tokens from a RemoteFileDesc.
+     * Extracts the tokens of a RemoteFileDesc.
      * 
      * @param desc the RemoteFileDesc that should be tokenized
-     * @param set the set to which the tokens should be added
+     * @param list the list to which the tokens should be added
      */
-    private void tokenize(RemoteFileDesc desc, Set<Token> set) {
+    private void tokenize(RemoteFileDesc desc, FingerprintList list) {
         if(LOG.isDebugEnabled()) {
             String addr = desc.getAddress().getAddressDescription();
             LOG.debug("Tokenizing result from " + addr);
@@ -110,35 +115,34 @@ public class Tokenizer {
         if(queryGUID != null) {
             String query = responseVerifier.getQueryString(queryGUID);
             if(query != null) {
-                Token t = templateHashTokenFactory.create(query, name);
-                if(t != null)
-                    set.add(t);
+                long t = templateHashTokenFactory.createFingerprint(query, name);
+                if(t != 0)
+                    list.add(t, TemplateHashToken.TEMPLATE_HASH_WEIGHT);
             }
         }
-        getKeywordTokens(FileUtils.getFilenameNoExtension(name), set);
+        getKeywordTokens(FileUtils.getFilenameNoExtension(name), list);
         String ext = FileUtils.getFileExtension(name);
         if(!ext.equals(""))
-            set.add(new FileExtensionToken(ext));
+            list.add(FileExtensionToken.fingerprint(ext), FileExtensionToken.EXTENSION_WEIGHT);
         LimeXMLDocument doc = desc.getXMLDocument();
         if(doc != null) {
-            getKeywordTokens(doc, set);
+            getKeywordTokens(doc, list);
             String infohash = doc.getValue(LimeXMLNames.TORRENT_INFO_HASH);
             if(infohash != null)
-                set.add(new UrnToken("urn:sha1:" + infohash));
+                list.add(UrnToken.fingerprintSHA1(infohash), UrnToken.URN_WEIGHT);
         }
         URN urn = desc.getSHA1Urn();
         if(urn != null)
-            set.add(new UrnToken(urn.toString()));
-        set.add(new SizeToken(desc.getSize()));
-        set.add(new ApproximateSizeToken(desc.getSize()));
+            list.add(UrnToken.fingerprint(urn.toString()), UrnToken.URN_WEIGHT);
+        getSizeTokens(desc.getSize(), list);
         // Ignore friend addresses and private addresses such as 192.168.x.x
         Address address = desc.getAddress();
         if(address instanceof Connectable) {
             Connectable connectable = (Connectable)address;
             if(!networkInstanceUtils.isPrivateAddress(connectable.getInetAddress()))
-                set.add(new AddressToken(connectable.getAddress()));
+                list.add(AddressToken.fingerprint(connectable.getAddress()), AddressToken.ADDRESS_WEIGHT);
         }
-        set.add(new ClientGUIDToken(Base32.encode(desc.getClientGUID())));
+        list.add(ClientGUIDToken.fingerprint(desc.getClientGUID()), ClientGUIDToken.CLIENT_GUID_WEIGHT);
     }
 
     /**
@@ -146,49 +150,45 @@ public class Tokenizer {
      * ignored, but templates are extracted from the filenames.
      * 
      * @param qr the QueryReply that should be tokenized
-     * @return a non-empty set of Tokens
+     * @param list the list to which the tokens should be added
      */
-    public Set<Token> getNonKeywordTokens(QueryReply qr) {
+    void getNonKeywordTokens(QueryReply qr, FingerprintList list) {
         if(LOG.isDebugEnabled())
             LOG.debug("Tokenizing query reply from " + qr.getIP());
-        Set<Token> set = new HashSet<Token>();
         String query = responseVerifier.getQueryString(qr.getGUID());
         // Client GUID
-        set.add(new ClientGUIDToken(Base32.encode(qr.getClientGUID())));
+        list.add(ClientGUIDToken.fingerprint(qr.getClientGUID()), ClientGUIDToken.CLIENT_GUID_WEIGHT);
         // Responder's address, unless private
         String ip = qr.getIP();
         if(!networkInstanceUtils.isPrivateAddress(ip))
-            set.add(new AddressToken(ip));
+            list.add(AddressToken.fingerprint(ip), AddressToken.ADDRESS_WEIGHT);
         try {
             for(Response r : qr.getResultsArray()) {
                 // Template
                 if(query != null) {
-                    Token t = templateHashTokenFactory.create(query, r.getName());
-                    if(t != null)
-                        set.add(t);
+                    long t = templateHashTokenFactory.createFingerprint(query, r.getName());
+                    if(t != 0)
+                        list.add(t, TemplateHashToken.TEMPLATE_HASH_WEIGHT);
                 }
                 // URNs
                 for(URN urn : r.getUrns())
-                    set.add(new UrnToken(urn.toString()));
+                    list.add(UrnToken.fingerprint(urn.toString()), UrnToken.URN_WEIGHT);
                 LimeXMLDocument doc = r.getDocument();
                 if(doc != null) {
                     String infohash = doc.getValue(LimeXMLNames.TORRENT_INFO_HASH);
                     if(infohash != null)
-                        set.add(new UrnToken("urn:sha1:" + infohash));
+                        list.add(UrnToken.fingerprintSHA1(infohash), UrnToken.URN_WEIGHT);
                 }
                 // File sizes
-                long size = r.getSize();
-                set.add(new SizeToken(size));
-                set.add(new ApproximateSizeToken(size));
+                getSizeTokens(r.getSize(), list);
                 // Alt-loc addresses, unless private
                 for(IpPort ipp : r.getLocations()) {
                     ip = ipp.getInetAddress().getHostAddress();
                     if(!networkInstanceUtils.isPrivateAddress(ip))
-                        set.add(new AddressToken(ip));
+                        list.add(AddressToken.fingerprint(ip), AddressToken.ADDRESS_WEIGHT);
                 }
             }
         } catch(BadPacketException ignored) {}
-        return set;
     }
 
     /**
@@ -197,80 +197,81 @@ public class Tokenizer {
      * for spam rating purposes for the rest of the session.
      * 
      * @param qr the QueryRequest that should be tokenized
-     * @return a set of Tokens, may be empty
+     * @param list the list to which the tokens should be added
      */
-    public Set<Token> getTokens(QueryRequest qr) {
+    void getTokens(QueryRequest qr, FingerprintList list) {
         if(LOG.isDebugEnabled())
             LOG.debug("Tokenizing " + qr);
-        Set<Token> set = new HashSet<Token>();
-        getKeywordTokens(qr.getQuery(), set);
+        getKeywordTokens(qr.getQuery(), list);
         LimeXMLDocument xml = qr.getRichQuery();
         if(xml != null)
-            getKeywordTokens(xml, set);
+            getKeywordTokens(xml, list);
         Set<URN> urns = qr.getQueryUrns();
         for(URN urn : urns)
-            set.add(new UrnToken(urn.toString()));
-        return set;
+            list.add(UrnToken.fingerprint(urn.toString()), UrnToken.URN_WEIGHT);
+    }
+
+    /**
+     * Adds the exact and the approximate size tokens of a file size.
+     */
+    private void getSizeTokens(long size, FingerprintList list) {
+        list.add(SizeToken.fingerprint(size), SizeToken.SIZE_WEIGHT);
+        list.add(ApproximateSizeToken.fingerprint(size),
+                ApproximateSizeToken.APPROXIMATE_SIZE_WEIGHT);
     }
 
     /**
      * Extracts KeywordTokens from an XML metadata document.
      * 
      * @param doc the LimeXMLDocument that should be tokenized
-     * @param set the set to which the tokens should be added
+     * @param list the list to which the tokens should be added
      */
-    private void getKeywordTokens(LimeXMLDocument doc, Set<Token> set) {
+    private void getKeywordTokens(LimeXMLDocument doc, FingerprintList list) {
         for(Map.Entry<String, String> entry : doc.getNameValueSet()) {
             String name = entry.getKey().toString();
             String value = entry.getValue().toString();
-            getXMLKeywords(name, value, set);
+            getXMLKeywords(name, value, list);
         }
     }
 
     /**
      * Extracts XMLKeywordTokens from the field name and value of an XML
-     * metadata item.
+     * metadata item. The simple field name is the last part of the
+     * canonical field name (eg audios_audio_bitrate becomes bitrate).
      * 
      * @param name the field name as a String (eg audios_audio_bitrate)
      * @param value the value as a String
-     * @param set the set to which the tokens should be added
+     * @param list the list to which the tokens should be added
      */
-    private void getXMLKeywords(String name, String value, Set<Token> set) {
-        name = extractSimpleFieldName(name);
-        name.toLowerCase(Locale.US);
-        value.toLowerCase(Locale.US);
-        for(String keyword : QueryUtils.extractKeywords(value, false)) {
-            if(keyword.length() > MAX_KEYWORD_LENGTH)
-                keyword = keyword.substring(0, MAX_KEYWORD_LENGTH);
-            set.add(new XMLKeywordToken(name, keyword));
-        }
-    }
-
-    /**
-     * Extracts the last part of the field name for a canonical field name (eg
-     * audios_audio_bitrate becomes bitrate).
-     * 
-     * @param name the canonical field name
-     * @return the last part of the canonical field name
-     */
-    private String extractSimpleFieldName(String name) {
+    private void getXMLKeywords(String name, String value, FingerprintList list) {
         int idx1 = name.lastIndexOf(XMLStringUtils.DELIMITER);
         int idx2 = name.lastIndexOf(XMLStringUtils.DELIMITER, idx1 - 1);
-        return name.substring(idx2 + XMLStringUtils.DELIMITER.length(), idx1);
+        int nameStart = idx2 + XMLStringUtils.DELIMITER.length();
+        KeywordTokens keywords = keywordTokens.get();
+        KeywordTokenizer.KEYWORDS_WITHOUT_NUMBERS.tokenize(value, keywords);
+        for(int i = 0; i < keywords.size(); i++) {
+            String keyword = keywords.get(i);
+            int length = Math.min(keyword.length(), MAX_KEYWORD_LENGTH);
+            list.add(XMLKeywordToken.fingerprint(name, nameStart, idx1, keyword, length),
+                    XMLKeywordToken.XML_WEIGHT);
+        }
     }
 
     /**
-     * Splits a String into keyword tokens using QueryUtils.extractKeywords().
+     * Splits a String into keyword tokens using
+     * {@link KeywordTokenizer#KEYWORDS_WITHOUT_NUMBERS}. Keywords longer than
+     * {@link #MAX_KEYWORD_LENGTH} are truncated.
      * 
      * @param str the String to tokenize
-     * @param set the set to which the tokens should be added
+     * @param list the list to which the tokens should be added
      */
-    private void getKeywordTokens(String str, Set<Token> set) {
-        str.toLowerCase(Locale.US);
-        for(String keyword : QueryUtils.extractKeywords(str, false)) {
-            if(keyword.length() > MAX_KEYWORD_LENGTH)
-                keyword = keyword.substring(0, MAX_KEYWORD_LENGTH);
-            set.add(new KeywordToken(keyword));
+    private void getKeywordTokens(String str, FingerprintList list) {
+        KeywordTokens keywords = keywordTokens.get();
+        KeywordTokenizer.KEYWORDS_WITHOUT_NUMBERS.tokenize(str, keywords);
+        for(int i = 0; i < keywords.size(); i++) {
+            String keyword = keywords.get(i);
+            int length = Math.min(keyword.length(), MAX_KEYWORD_LENGTH);
+            list.add(KeywordToken.fingerprint(keyword, 0, length), KeywordToken.KEYWORD_WEIGHT);
         }
     }
-}
\ No newline at end of file
+}
@@ -9,7 +9,7 @@ public class UrnToken extends KeywordToken {
      * We consider a URN to be a very accurate spam indicator - if the user
      * marks it as spam once, it should always be considered spam.
      */
-    private static final float URN_WEIGHT = 1;
+    static final float URN_WEIGHT = 1;
     
     UrnToken(String urn) {
         super(urn);
@@ -20,6 +20,27 @@ public class UrnToken extends KeywordToken {
         return URN_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return fingerprint(keyword);
+    }
+    
+    /** Returns the fingerprint of the token for the given URN string. */
+    static long fingerprint(String urn) {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.URN), urn));
+    }
+    
+    /**
+     * Returns the fingerprint of the token for the SHA1 URN with the given
+     * base32 hash, like <code>fingerprint("urn:sha1:" + hash)</code>.
+     */
+    static long fingerprintSHA1(String hash) {
+        long fingerprint = TokenFingerprint.start(TokenFingerprint.URN);
+        fingerprint = TokenFingerprint.add(fingerprint, "urn:sha1:");
+        return TokenFingerprint.finish(TokenFingerprint.add(fingerprint, hash));
+    }
+    
     @Override
     public boolean equals(Object o) {
         if(!(o instanceof UrnToken))
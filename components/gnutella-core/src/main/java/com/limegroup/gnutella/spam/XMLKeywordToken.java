@@ -10,7 +10,7 @@ public class XMLKeywordToken extends KeywordToken {
      * files, so we don't want to be too hasty about considering them spam.
      * However, they are slightly more specific than normal keywords.
      */
-    private static final float XML_WEIGHT = 0.2f;
+    static final float XML_WEIGHT = 0.2f;
 
     XMLKeywordToken(String name, String value) {
         super(name + ":" + value);
@@ -21,6 +21,25 @@ public class XMLKeywordToken extends KeywordToken {
         return XML_WEIGHT;
     }
     
+    @Override
+    long getFingerprint() {
+        return TokenFingerprint.finish(TokenFingerprint.add(
+                TokenFingerprint.start(TokenFingerprint.XML_KEYWORD), keyword));
+    }
+    
+    /**
+     * Returns the fingerprint of the token for the field name
+     * <code>name[nameStart .. nameEnd)</code> and the keyword
+     * <code>keyword[0 .. keywordEnd)</code>.
+     */
+    static long fingerprint(CharSequence name, int nameStart, int nameEnd,
+            CharSequence keyword, int keywordEnd) {
+        long hash = TokenFingerprint.start(TokenFingerprint.XML_KEYWORD);
+        hash = TokenFingerprint.add(hash, name, nameStart, nameEnd);
+        hash = TokenFingerprint.add(hash, ':');
+        return TokenFingerprint.finish(TokenFingerprint.add(hash, keyword, 0, keywordEnd));
+    }
+    
     @Override
     public boolean equals(Object o) {
         if(!(o instanceof XMLKeywordToken))
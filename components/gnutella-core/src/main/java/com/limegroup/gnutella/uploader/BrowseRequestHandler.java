@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
@@ -29,11 +31,13 @@ import org.limewire.http.entity.AbstractProducingNHttpEntity;
 import org.limewire.i18n.I18nMarker;
 import org.limewire.io.GUID;
 import org.limewire.nio.channel.NoInterestWritableByteChannel;
+import org.limewire.util.StringUtils;
 
 import com.google.inject.Provider;
 import com.limegroup.gnutella.Constants;
 import com.limegroup.gnutella.Response;
 import com.limegroup.gnutella.ResponseFactory;
+import com.limegroup.gnutella.URN;
 import com.limegroup.gnutella.Uploader.UploadStatus;
 import com.limegroup.gnutella.connection.BasicQueue;
 import com.limegroup.gnutella.connection.ConnectionStats;
@@ -45,12 +49,19 @@ import com.limegroup.gnutella.library.FileView;
 import com.limegroup.gnutella.messages.Message;
 import com.limegroup.gnutella.messages.OutgoingQueryReplyFactory;
 import com.limegroup.gnutella.messages.QueryReply;
+import com.limegroup.gnutella.uploader.LibraryManifest.Delta;
 import com.limegroup.gnutella.uploader.authentication.HttpRequestFileViewProvider;
 
 /**
  * Responds to Gnutella browse requests by returning a list of all shared files.
  * Only supports the application/x-gnutella-packets mime-type, browsing through
  * HTML is not supported.
+ * <p>
+ * Every response carries the version of the browsed files in the
+ * {@link HTTPHeaderName#LIBRARY_VERSION} header. If a request carries the
+ * version of an earlier browse and the changes since then are known, only
+ * the added and changed files are returned and the removed ones are listed
+ * in the {@link HTTPHeaderName#LIBRARY_REMOVED} header.
  */
 public class BrowseRequestHandler extends SimpleNHttpRequestHandler {
 
@@ -67,17 +78,20 @@ public class BrowseRequestHandler extends SimpleNHttpRequestHandler {
 
     private final HttpRequestFileViewProvider browseRequestFileListProvider;
     private final BrowseTracker tracker;
+    private final LibraryManifest libraryManifest;
 
     BrowseRequestHandler(HTTPUploadSessionManager sessionManager,
             Provider<ResponseFactory> responseFactory,
             OutgoingQueryReplyFactory outgoingQueryReplyFactory,
             HttpRequestFileViewProvider browseRequestFileListProvider,
-            BrowseTracker tracker) {
+            BrowseTracker tracker,
+            LibraryManifest libraryManifest) {
         this.sessionManager = sessionManager;
         this.responseFactory = responseFactory;
         this.outgoingQueryReplyFactory = outgoingQueryReplyFactory;
         this.browseRequestFileListProvider = browseRequestFileListProvider;
         this.tracker = tracker;
+        this.libraryManifest = libraryManifest;
     }
     
     public ConsumingNHttpEntity entityRequest(HttpEntityEnclosingRequest request,
@@ -109,12 +123,22 @@ public class BrowseRequestHandler extends SimpleNHttpRequestHandler {
                         context, UploadType.BROWSE_HOST, friendID, friendID);
             }
             uploader.setState(UploadStatus.BROWSE_HOST);
-            Iterable<FileView> lists = browseRequestFileListProvider.getFileViews(friendID, context);
-            List<Iterable<FileDesc>> iterables = new ArrayList<Iterable<FileDesc>>();
-            for (FileView list : lists) {
-                iterables.add(list.pausableIterable());
+            List<FileView> views = new ArrayList<FileView>();
+            for (FileView list : browseRequestFileListProvider.getFileViews(friendID, context)) {
+                views.add(list);
             }
-            Iterable<FileDesc> files = new MultiIterable<FileDesc>(iterables.toArray(new Iterable[0]));
+            // take the version before looking at the files, so changes made
+            // in the meantime are sent again rather than missed
+            String version = libraryManifest.getVersion(views);
+            Iterable<FileDesc> files = getDelta(request, response, views);
+            if (files == null) {
+                List<Iterable<FileDesc>> iterables = new ArrayList<Iterable<FileDesc>>();
+                for (FileView list : views) {
+                    iterables.add(list.pausableIterable());
+                }
+                files = new MultiIterable<FileDesc>(iterables.toArray(new Iterable[0]));
+            }
+            response.addHeader(HTTPHeaderName.LIBRARY_VERSION.create(version));
             if (!HttpCoreUtils.hasHeaderListValue(request, "Accept", Constants.QUERYREPLY_MIME_TYPE)) {
                 if (LOG.isDebugEnabled())
                     LOG.debug("Browse request is missing Accept header");
@@ -136,6 +160,29 @@ public class BrowseRequestHandler extends SimpleNHttpRequestHandler {
         sessionManager.sendResponse(uploader, response);
     }
     
+    /**
+     * Returns the files changed since the library version sent in
+     * <code>request</code> and adds the removed ones to <code>response</code>,
+     * or returns null if all files have to be sent.
+     */
+    private Iterable<FileDesc> getDelta(HttpRequest request, HttpResponse response, List<FileView> views) {
+        Header versionHeader = request.getFirstHeader(HTTPHeaderName.LIBRARY_VERSION.httpStringValue());
+        if (versionHeader == null) {
+            return null;
+        }
+        Delta delta = libraryManifest.getDelta(versionHeader.getValue(), views);
+        if (delta == null) {
+            if (LOG.isDebugEnabled())
+                LOG.debug("changes since " + versionHeader.getValue() + " unknown, sending all files");
+            return null;
+        }
+        Collection<URN> removed = delta.getRemovedUrns();
+        response.addHeader(HTTPHeaderName.LIBRARY_REMOVED.create(StringUtils.explode(removed.toArray(), ",")));
+        if (LOG.isDebugEnabled())
+            LOG.debug("sending " + delta.getChangedFiles().size() + " changed and " + removed.size() + " removed files");
+        return delta.getChangedFiles();
+    }
+    
     static boolean shouldIncludeNMS1Urns(HttpRequest request) {
         boolean includeNMS1Urns = HttpCoreUtils.hasHeaderListValue(request, HTTPHeaderName.NMS1.httpStringValue(), "1");
         if (includeNMS1Urns) {
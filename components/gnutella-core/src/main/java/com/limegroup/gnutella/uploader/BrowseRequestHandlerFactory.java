@@ -17,23 +17,26 @@ public class BrowseRequestHandlerFactory {
     private final Provider<ResponseFactory> responseFactory;
     private final OutgoingQueryReplyFactory outgoingQueryReplyFactory;
     private final BrowseTracker tracker;
+    private final LibraryManifest libraryManifest;
 
     @Inject
     public BrowseRequestHandlerFactory(HTTPUploadSessionManager sessionManager,
             Provider<ResponseFactory> responseFactory,
             OutgoingQueryReplyFactory outgoingQueryReplyFactory,
-            BrowseTracker tracker) {
+            BrowseTracker tracker,
+            LibraryManifest libraryManifest) {
         this.sessionManager = sessionManager;
         this.responseFactory = responseFactory;
         this.outgoingQueryReplyFactory = outgoingQueryReplyFactory;
         this.tracker = tracker;
+        this.libraryManifest = libraryManifest;
     }
     
     public BrowseRequestHandler createBrowseRequestHandler(HttpRequestFileViewProvider browseRequestFileListProvider,
                                                            boolean requiresAuthentication) {
         if(!requiresAuthentication) {
             return new BrowseRequestHandler(sessionManager, responseFactory, outgoingQueryReplyFactory,
-                    browseRequestFileListProvider, tracker);
+                    browseRequestFileListProvider, tracker, libraryManifest);
         } else {
             return new ProtectedBrowseRequestHandler(sessionManager, responseFactory, outgoingQueryReplyFactory,
                     browseRequestFileListProvider);
@@ -43,7 +46,7 @@ public class BrowseRequestHandlerFactory {
     @RequiresAuthentication 
     class ProtectedBrowseRequestHandler extends BrowseRequestHandler {
         ProtectedBrowseRequestHandler(HTTPUploadSessionManager sessionManager, Provider<ResponseFactory> responseFactory, OutgoingQueryReplyFactory outgoingQueryReplyFactory, HttpRequestFileViewProvider browseRequestFileListProvider) {
-            super(sessionManager, responseFactory, outgoingQueryReplyFactory, browseRequestFileListProvider, tracker);
+            super(sessionManager, responseFactory, outgoingQueryReplyFactory, browseRequestFileListProvider, tracker, libraryManifest);
         }
     }
 
@@ -0,0 +1,255 @@
+package com.limegroup.gnutella.uploader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.limewire.listener.EventListener;
+
+import com.google.inject.Singleton;
+import com.limegroup.gnutella.URN;
+import com.limegroup.gnutella.library.FileDesc;
+import com.limegroup.gnutella.library.FileView;
+import com.limegroup.gnutella.library.FileViewChangeEvent;
+
+/**
+ * Versions the shared file views so that a browsing host can ask for the
+ * files that changed since its last browse instead of the whole library.
+ * <p>
+ * Each browsed {@link FileView} gets a change log that records the URNs of
+ * the files added to, removed from or changed in the view, numbered by a
+ * version that is incremented with every change. The version of a browse
+ * is a token made up of the version of each view it covered, prefixed by an
+ * epoch that is random per session, so that tokens from earlier sessions
+ * never match.
+ * <p>
+ * Only the last {@link #MAX_CHANGES} changes of a view are kept; if a token
+ * is older than that, or too many files were removed, a full browse is
+ * needed.
+ */
+@Singleton
+public class LibraryManifest {
+
+    /** Maximum number of changes remembered per view. */
+    static final int MAX_CHANGES = 1000;
+
+    /**
+     * Maximum number of removed files in a delta, so that they fit into a
+     * response header.
+     */
+    static final int MAX_REMOVED = 100;
+
+    private final String epoch = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+
+    private final Map<FileView, ChangeLog> changeLogs = new WeakHashMap<FileView, ChangeLog>();
+
+    private int nextId = 0;
+
+    /**
+     * Returns the current version of the files in <code>views</code>.
+     */
+    public String getVersion(List<FileView> views) {
+        StringBuilder version = new StringBuilder(epoch).append(':');
+        for (int i = 0; i < views.size(); i++) {
+            if (i > 0) {
+                version.append(',');
+            }
+            ChangeLog changeLog = getChangeLog(views.get(i));
+            version.append(changeLog.id).append('.').append(changeLog.getVersion());
+        }
+        return version.toString();
+    }
+
+    /**
+     * Returns the changes to the files in <code>views</code> since the
+     * version <code>token</code>, or null if they are not known and all files
+     * have to be sent.
+     */
+    public Delta getDelta(String token, List<FileView> views) {
+        Map<Integer, Long> versions = parse(token);
+        if (versions == null || versions.size() != views.size()) {
+            return null;
+        }
+        Set<URN> touched = new HashSet<URN>();
+        for (FileView view : views) {
+            ChangeLog changeLog = getChangeLog(view);
+            Long since = versions.get(changeLog.id);
+            if (since == null || !changeLog.collect(since, touched)) {
+                return null;
+            }
+        }
+        Delta delta = new Delta();
+        for (URN urn : touched) {
+            FileDesc fileDesc = null;
+            for (FileView view : views) {
+                fileDesc = view.getFileDesc(urn);
+                if (fileDesc != null) {
+                    break;
+                }
+            }
+            if (fileDesc != null) {
+                delta.changed.add(fileDesc);
+            } else {
+                delta.removed.add(urn);
+            }
+        }
+        return delta.removed.size() > MAX_REMOVED ? null : delta;
+    }
+
+    /**
+     * Parses a token created by {@link #getVersion(List)} into a map of
+     * change log ids to versions.
+     *
+     * @return null if the token is from a different session or malformed
+     */
+    private Map<Integer, Long> parse(String token) {
+        if (!token.startsWith(epoch + ":")) {
+            return null;
+        }
+        Map<Integer, Long> versions = new HashMap<Integer, Long>();
+        String list = token.substring(epoch.length() + 1);
+        if (list.length() == 0) {
+            return versions;
+        }
+        try {
+            for (String entry : list.split(",")) {
+                int dot = entry.indexOf('.');
+                if (dot == -1) {
+                    return null;
+                }
+                versions.put(Integer.valueOf(entry.substring(0, dot)), Long.valueOf(entry.substring(dot + 1)));
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return versions;
+    }
+
+    private synchronized ChangeLog getChangeLog(FileView view) {
+        ChangeLog changeLog = changeLogs.get(view);
+        if (changeLog == null) {
+            changeLog = new ChangeLog(nextId++);
+            changeLogs.put(view, changeLog);
+            view.addListener(changeLog);
+        }
+        return changeLog;
+    }
+
+    /**
+     * The files that changed since a version.
+     */
+    public static class Delta {
+
+        private final Collection<FileDesc> changed = new ArrayList<FileDesc>();
+
+        private final Collection<URN> removed = new ArrayList<URN>();
+
+        /**
+         * Returns the files that were added or changed.
+         */
+        public Collection<FileDesc> getChangedFiles() {
+            return changed;
+        }
+
+        /**
+         * Returns the URNs of the files that were removed.
+         */
+        public Collection<URN> getRemovedUrns() {
+            return removed;
+        }
+    }
+
+    /**
+     * Records the URNs touched by the changes to a single view.
+     */
+    private static class ChangeLog implements EventListener<FileViewChangeEvent> {
+
+        private final int id;
+
+        private final ArrayDeque<Change> changes = new ArrayDeque<Change>();
+
+        private long version = 0;
+
+        /** Changes before this version are not known anymore. */
+        private long oldest = 0;
+
+        ChangeLog(int id) {
+            this.id = id;
+        }
+
+        synchronized long getVersion() {
+            return version;
+        }
+
+        @Override
+        public synchronized void handleEvent(FileViewChangeEvent event) {
+            switch (event.getType()) {
+            case FILE_ADDED:
+            case FILE_REMOVED:
+            case FILE_META_CHANGED:
+                add(event.getFileDesc());
+                break;
+            case FILE_CHANGED:
+                add(event.getOldValue());
+                add(event.getFileDesc());
+                break;
+            case FILES_CLEARED:
+                changes.clear();
+                oldest = ++version;
+                break;
+            }
+        }
+
+        private void add(FileDesc fileDesc) {
+            URN urn = fileDesc.getSHA1Urn();
+            if (urn == null) {
+                return;
+            }
+            changes.addLast(new Change(++version, urn));
+            if (changes.size() > MAX_CHANGES) {
+                oldest = changes.removeFirst().version;
+            }
+        }
+
+        /**
+         * Adds the URNs touched by changes after version <code>since</code>
+         * to <code>urns</code>.
+         *
+         * @return false if the changes since that version are not known
+         */
+        synchronized boolean collect(long since, Set<URN> urns) {
+            if (since < oldest || since > version) {
+                return false;
+            }
+            Iterator<Change> iterator = changes.descendingIterator();
+            while (iterator.hasNext()) {
+                Change change = iterator.next();
+                if (change.version <= since) {
+                    break;
+                }
+                urns.add(change.urn);
+            }
+            return true;
+        }
+    }
+
+    private static class Change {
+
+        private final long version;
+
+        private final URN urn;
+
+        Change(long version, URN urn) {
+            this.version = version;
+            this.urn = urn;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.limegroup.gnutella.util;
+
+import org.limewire.util.I18NConvert;
+
+/**
+ * Normalizes and splits text into keywords, for indexing shared files and
+ * XML metadata, for matching queries against them and for rating results as
+ * spam.
+ * <p>
+ * Text is processed as slices of the original <code>CharSequence</code>.
+ * Normalizing with {@link I18NConvert} is expensive, so the text is first cut
+ * at delimiters that normalization leaves alone, and the normalized form of
+ * each piece is memoized. Keywords are memoized as well, so a keyword that was
+ * seen recently is returned without creating a new string. Both caches are
+ * small and lossy: on a collision the older entry is simply replaced.
+ * <p>
+ * This class is thread-safe.
+ */
+public class KeywordTokenizer {
+
+    /**
+     * Normalizes file paths and splits them at {@link QueryUtils#DELIMITERS},
+     * for the keyword index of shared files. The index splits queries with
+     * it too.
+     */
+    public static final KeywordTokenizer FILE_PATHS = new KeywordTokenizer(true, false, true);
+
+    /**
+     * Normalizes XML metadata values and extracts their keywords, like
+     * {@link QueryUtils#extractKeywords(String, boolean)} does for
+     * normalized text.
+     */
+    public static final KeywordTokenizer METADATA = new KeywordTokenizer(true, true, true);
+
+    /**
+     * Extracts keywords, including numbers, for
+     * {@link QueryUtils#extractKeywords(String, boolean)}.
+     */
+    public static final KeywordTokenizer KEYWORDS = new KeywordTokenizer(false, true, true);
+
+    /**
+     * Extracts keywords, but no numbers, for
+     * {@link QueryUtils#extractKeywords(String, boolean)} and for rating
+     * results as spam.
+     */
+    public static final KeywordTokenizer KEYWORDS_WITHOUT_NUMBERS = new KeywordTokenizer(false, true, false);
+
+    /** The number of normalized pieces of text that are memoized. */
+    private static final int NORMALIZED_CACHE_SIZE = 1024;
+
+    /** The number of keywords that are memoized. */
+    private static final int TOKEN_CACHE_SIZE = 4096;
+
+    /** Pieces of text and their normalized form, shared by all tokenizers. */
+    private static final Normalized[] normalizedCache = new Normalized[NORMALIZED_CACHE_SIZE];
+
+    /** Recently seen keywords, shared by all tokenizers. */
+    private static final String[] tokenCache = new String[TOKEN_CACHE_SIZE];
+
+    /** Whether text is normalized before it is split. */
+    private final boolean normalize;
+
+    /**
+     * Whether this extracts keywords: splits at illegal characters too,
+     * converts to lower case and drops trivial words.
+     */
+    private final boolean keywords;
+
+    /** Whether numbers are kept as keywords. */
+    private final boolean allowNumbers;
+
+    private KeywordTokenizer(boolean normalize, boolean keywords, boolean allowNumbers) {
+        this.normalize = normalize;
+        this.keywords = keywords;
+        this.allowNumbers = allowNumbers;
+    }
+
+    /**
+     * Returns the keywords of the given text in a new
+     * <code>KeywordTokens</code>.
+     */
+    public KeywordTokens tokenize(CharSequence text) {
+        KeywordTokens tokens = new KeywordTokens();
+        tokenize(text, tokens);
+        return tokens;
+    }
+
+    /**
+     * Replaces the contents of <code>tokens</code> with the keywords of
+     * the given text.
+     */
+    public void tokenize(CharSequence text, KeywordTokens tokens) {
+        tokens.clear();
+        if (!normalize) {
+            split(text, 0, text.length(), tokens);
+            return;
+        }
+
+        final int length = text.length();
+        for (int i = 0; i < length;) {
+            if (isStableDelimiter(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int j = i + 1;
+            while (j < length && !isStableDelimiter(text.charAt(j)))
+                j++;
+            String normalized = normalize(text, i, j);
+            split(normalized, 0, normalized.length(), tokens);
+            i = j;
+        }
+    }
+
+    /**
+     * Adds the keywords of text[start .. end) to tokens.
+     */
+    private void split(CharSequence text, int start, int end, KeywordTokens tokens) {
+        for (int i = keywordStart(text, start, end); i < end; ) {
+            int j = keywordEnd(text, i, end);
+            String token = keywords ? toLowerCaseToken(text, i, j) : token(text, i, j);
+            if (!keywords || accept(token))
+                tokens.add(token);
+            i = keywordStart(text, j, end);
+        }
+    }
+
+    /**
+     * Returns the index of the first character of the next keyword in
+     * text[start .. end), or end if there is none. Together with
+     * {@link #keywordEnd(CharSequence, int, int)} this splits text that is
+     * already normalized without creating strings; the keywords are not
+     * converted to lower case or filtered.
+     */
+    public int keywordStart(CharSequence text, int start, int end) {
+        while (start < end && isDelimiter(text.charAt(start)))
+            start++;
+        return start;
+    }
+
+    /**
+     * Returns the index after the last character of the keyword that starts
+     * at text[start], looking no further than end.
+     */
+    public int keywordEnd(CharSequence text, int start, int end) {
+        while (start < end && !isDelimiter(text.charAt(start)))
+            start++;
+        return start;
+    }
+
+    private boolean isDelimiter(char c) {
+        return keywords ? QueryUtils.isDelimiterOrIllegal(c) : QueryUtils.isDelimiter(c);
+    }
+
+    /**
+     * Returns true if the character is one of {@link QueryUtils#DELIMITERS}
+     * and normalizing text that contains it returns the concatenation of
+     * the normalized text on either side of it.  '+' is removed by
+     * normalization, so "a+b" is normalized to a single keyword.
+     */
+    private static boolean isStableDelimiter(char c) {
+        return c != '+' && QueryUtils.isDelimiter(c);
+    }
+
+    /** Returns true if a lower-case keyword should be kept. */
+    private boolean accept(String token) {
+        if (QueryUtils.isTrivialWord(token))
+            return false;
+        return allowNumbers || !isNumber(token);
+    }
+
+    /**
+     * Returns true if the lower-case token can be parsed as a double.
+     * Parsing is only attempted for tokens starting with a digit, since
+     * '+', '-' and '.' are delimiters and "NaN" and "Infinity" are not
+     * lower case.
+     */
+    private static boolean isNumber(String token) {
+        int i = 0;
+        while (i < token.length() && token.charAt(i) <= ' ')
+            i++;
+        if (i == token.length() || !Character.isDigit(token.charAt(i)))
+            return false;
+        try {
+            Double.parseDouble(token);
+            return true;
+        } catch (NumberFormatException normalWord) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the normalized form of text[start .. end).
+     */
+    private static String normalize(CharSequence text, int start, int end) {
+        int index = hash(text, start, end) & (NORMALIZED_CACHE_SIZE - 1);
+        Normalized cached = normalizedCache[index];
+        if (cached != null && equals(cached.text, text, start, end))
+            return cached.normalized;
+
+        String piece = text.subSequence(start, end).toString();
+        String normalized = I18NConvert.instance().getNorm(piece);
+        normalizedCache[index] = new Normalized(piece, normalized);
+        return normalized;
+    }
+
+    /**
+     * Returns text[start .. end) as a string, reusing a recently created
+     * string with the same characters.
+     */
+    private static String token(CharSequence text, int start, int end) {
+        int index = hash(text, start, end) & (TOKEN_CACHE_SIZE - 1);
+        String cached = tokenCache[index];
+        if (cached != null && equals(cached, text, start, end))
+            return cached;
+
+        String token = text.subSequence(start, end).toString();
+        tokenCache[index] = token;
+        return token;
+    }
+
+    /**
+     * Returns text[start .. end) converted to lower case in the default
+     * locale, like {@link String#toLowerCase()}.  Text that is already
+     * lower case is not copied.
+     */
+    private static String toLowerCaseToken(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 128 || (c >= 'A' && c <= 'Z')) {
+                String lower = text.subSequence(start, end).toString().toLowerCase();
+                return token(lower, 0, lower.length());
+            }
+        }
+        return token(text, start, end);
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + text.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(String s, CharSequence text, int start, int end) {
+        if (s.length() != end - start)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != text.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    /** A piece of text and its normalized form. */
+    private static class Normalized {
+        private final String text;
+        private final String normalized;
+
+        Normalized(String text, String normalized) {
+            this.text = text;
+            this.normalized = normalized;
+        }
+    }
+}
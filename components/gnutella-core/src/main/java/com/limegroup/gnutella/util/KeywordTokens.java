@@ -0,0 +1,97 @@
+package com.limegroup.gnutella.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The distinct keywords a {@link KeywordTokenizer} extracted from a piece of
+ * text, in the order they first appeared.
+ * <p>
+ * Instances can be reused for several pieces of text, which avoids allocating
+ * new collections for every file name, query or result that is tokenized.
+ * The keywords themselves are shared with other tokenizations of the same
+ * words.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class KeywordTokens {
+
+    /** Above this many keywords, duplicates are detected with a set. */
+    private static final int MAX_LINEAR_SIZE = 16;
+
+    private String[] tokens = new String[8];
+
+    private int size;
+
+    /** The keywords as a set, created once there are many of them. */
+    private Set<String> set;
+
+    /** Returns the number of keywords. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true if no keywords were found. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the i'th keyword. */
+    public String get(int i) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+        return tokens[i];
+    }
+
+    /** Returns true if the given keyword was found. */
+    public boolean contains(String token) {
+        if (set != null)
+            return set.contains(token);
+        for (int i = 0; i < size; i++) {
+            String t = tokens[i];
+            if (t == token || t.equals(token))
+                return true;
+        }
+        return false;
+    }
+
+    /** Removes all keywords, so this can be reused. */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            tokens[i] = null;
+        size = 0;
+        set = null;
+    }
+
+    /** Adds the keyword if it wasn't found before. */
+    void add(String token) {
+        if (contains(token))
+            return;
+
+        if (size == tokens.length) {
+            String[] newTokens = new String[size * 2];
+            System.arraycopy(tokens, 0, newTokens, 0, size);
+            tokens = newTokens;
+        }
+        tokens[size++] = token;
+
+        if (set != null) {
+            set.add(token);
+        } else if (size > MAX_LINEAR_SIZE) {
+            set = new HashSet<String>();
+            for (int i = 0; i < size; i++)
+                set.add(tokens[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(tokens[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -31,6 +31,8 @@ public class QueryUtils {
      */
     private static final String DELIMITERS_AND_ILLEGAL;
     
+    private static final char[] DELIMITERS_AND_ILLEGAL_CHARACTERS;
+    
     static {
         // must be lower-case
         TRIVIAL_WORDS = Arrays.asList("the", "an", "a", "and");
@@ -40,6 +42,9 @@ public class QueryUtils {
         char[] illegal = SearchSettings.ILLEGAL_CHARS.get();
         StringBuilder sb = new StringBuilder(DELIMITERS.length() + illegal.length);
         DELIMITERS_AND_ILLEGAL = sb.append(illegal).append(DELIMITERS).toString();
+        characters = DELIMITERS_AND_ILLEGAL.toCharArray();
+        Arrays.sort(characters);
+        DELIMITERS_AND_ILLEGAL_CHARACTERS = characters;
     }
     
 
@@ -68,18 +73,11 @@ public class QueryUtils {
      */
     public static final void extractKeywords(String str, boolean allowNumbers,
             Set<String> set) {        
-        StringTokenizer st = new StringTokenizer(str, DELIMITERS_AND_ILLEGAL);
-        while(st.hasMoreTokens()) {
-            String currToken = st.nextToken().toLowerCase();
-            if(!allowNumbers) {
-                try {                
-                    Double.parseDouble(currToken); // NFE if not a number
-                    continue;
-                } catch(NumberFormatException normalWord) {}
-            }
-            if(!TRIVIAL_WORDS.contains(currToken))
-                set.add(currToken);
-        }
+        KeywordTokenizer tokenizer = allowNumbers ? KeywordTokenizer.KEYWORDS
+                : KeywordTokenizer.KEYWORDS_WITHOUT_NUMBERS;
+        KeywordTokens keywords = tokenizer.tokenize(str);
+        for(int i = 0; i < keywords.size(); i++)
+            set.add(keywords.get(i));
     }
 
     /**
@@ -197,6 +195,19 @@ public class QueryUtils {
     public static final boolean isDelimiter(char c) {
         return Arrays.binarySearch(DELIMITERS_CHARACTERS, c) >= 0;
     }
+
+    /**
+     * Returns true if c separates keywords in
+     * {@link #extractKeywords(String, boolean)}.
+     */
+    static boolean isDelimiterOrIllegal(char c) {
+        return Arrays.binarySearch(DELIMITERS_AND_ILLEGAL_CHARACTERS, c) >= 0;
+    }
+
+    /** Returns true if the lower-case word is not considered a keyword. */
+    static boolean isTrivialWord(String word) {
+        return TRIVIAL_WORDS.contains(word);
+    }
     
     /**
      * Returns true if the filename contains all the words in the query. The
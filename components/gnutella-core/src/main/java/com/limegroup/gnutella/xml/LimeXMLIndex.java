@@ -0,0 +1,486 @@
+package com.limegroup.gnutella.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.limewire.collection.IdentityHashSet;
+import org.limewire.collection.IntSet;
+import org.limewire.util.I18NConvert;
+
+import com.limegroup.gnutella.util.KeywordTokenizer;
+import com.limegroup.gnutella.util.KeywordTokens;
+
+/**
+ * An index of the documents of a {@link LimeXMLReplyCollection} that
+ * answers queries with the same documents as matching every document with
+ * {@link LimeXMLUtils#match(LimeXMLDocument, LimeXMLDocument, boolean)},
+ * without matching documents one by one.
+ * <p>
+ * Documents are numbered, and each field is indexed as a column: the
+ * distinct values of the field form a sorted dictionary, each value with
+ * the set of documents that have it. From the dictionary are built
+ * <ul>
+ * <li>the set of documents for each keyword of the field, which select the
+ *     documents a query may match,
+ * <li>the sorted starts of the words of each normalized value, which find
+ *     the values a query value prefixes a word of,
+ * <li>the sorted numeric values, which find the values in a range.
+ * </ul>
+ * Each distinct value is tokenized, normalized and parsed once. The sets of
+ * documents are kept as sorted arrays of document numbers; a query turns
+ * the ones it needs into bit sets and combines those.
+ * <p>
+ * An index is never modified after it is built, so it can be read without
+ * locking.
+ */
+final class LimeXMLIndex {
+
+    static final LimeXMLIndex EMPTY =
+        new LimeXMLIndex(Collections.<LimeXMLDocument>emptyList());
+
+    /** The documents, by number. */
+    private final LimeXMLDocument[] documents;
+
+    /** The index of each field that any document has a value for. */
+    private final Map<String, FieldIndex> fields;
+
+    /** Indexes the given documents. */
+    LimeXMLIndex(Collection<LimeXMLDocument> docs) {
+        documents = docs.toArray(new LimeXMLDocument[docs.size()]);
+        Map<String, Map<String, IntSet>> columns = new HashMap<String, Map<String, IntSet>>();
+        for (int i = 0; i < documents.length; i++) {
+            for (Map.Entry<String, String> entry : documents[i].getNameValueSet()) {
+                String value = entry.getValue();
+                if (value == null || value.length() == 0)
+                    continue;
+                Map<String, IntSet> column = columns.get(entry.getKey());
+                if (column == null) {
+                    column = new HashMap<String, IntSet>();
+                    columns.put(entry.getKey(), column);
+                }
+                IntSet withValue = column.get(value);
+                if (withValue == null) {
+                    withValue = new IntSet();
+                    column.put(value, withValue);
+                }
+                withValue.add(i);
+            }
+        }
+        fields = new HashMap<String, FieldIndex>();
+        for (Map.Entry<String, Map<String, IntSet>> column : columns.entrySet())
+            fields.put(column.getKey(), new FieldIndex(column.getValue()));
+    }
+
+    /** Returns the number of documents in the index. */
+    int size() {
+        return documents.length;
+    }
+
+    /**
+     * Returns the documents that match a query document, as described in
+     * {@link LimeXMLReplyCollection#getMatchingDocuments(LimeXMLDocument)}.
+     */
+    Set<LimeXMLDocument> getMatchingDocuments(LimeXMLDocument query) {
+        Collection<Map.Entry<String, String>> entries = query.getNameValueSet();
+
+        // the documents with all keywords of the query value in any queried field
+        BitSet candidates = new BitSet(documents.length);
+        for (Map.Entry<String, String> entry : entries) {
+            FieldIndex field = fields.get(entry.getKey());
+            if (field != null)
+                candidates.or(field.getDocumentsWithKeywords(entry.getValue()));
+        }
+        if (candidates.isEmpty())
+            return Collections.emptySet();
+
+        // the documents with a value for, and matching, each non-empty query value
+        int size = entries.size();
+        BitSet[] present = new BitSet[size];
+        BitSet[] matching = new BitSet[size];
+        BitSet bitrateMatches = null;
+        int count = 0;
+        for (Map.Entry<String, String> entry : entries) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            if (value.length() == 0)
+                continue; // "" matches everything
+            FieldIndex field = fields.get(name);
+            if (name.endsWith("license_type__")) {
+                if (field == null)
+                    return Collections.emptySet();
+                candidates.and(field.getDocumentsWithValuePrefix(value));
+                if (candidates.isEmpty())
+                    return Collections.emptySet();
+            }
+            if (field == null) {
+                present[count++] = new BitSet();
+                continue;
+            }
+            present[count] = field.present;
+            String lowerCase = value.toLowerCase(Locale.US);
+            Double number = parseNumber(value);
+            if (number == null) {
+                matching[count] = field.getDocumentsWithWordPrefix(lowerCase);
+            } else {
+                // numbers only match equal numbers, other values as strings
+                BitSet equal = field.getDocumentsWithNumbersBetween(number, number);
+                BitSet words = field.getDocumentsWithWordPrefix(lowerCase);
+                words.andNot(field.numeric);
+                words.or(equal);
+                matching[count] = words;
+                if (name.equals(LimeXMLNames.AUDIO_BITRATE))
+                    bitrateMatches = equal;
+            }
+            count++;
+        }
+
+        Set<LimeXMLDocument> matches = null;
+        for (int doc = candidates.nextSetBit(0); doc >= 0; doc = candidates.nextSetBit(doc + 1)) {
+            int matchCount = 0;
+            int nullCount = 0;
+            for (int j = 0; j < count; j++) {
+                if (!present[j].get(doc))
+                    nullCount++;
+                else if (matching[j].get(doc))
+                    matchCount++;
+            }
+            boolean matchedBitrate = bitrateMatches != null && bitrateMatches.get(doc);
+            if (LimeXMLUtils.isMatch(size, matchCount, nullCount, matchedBitrate, false)) {
+                if (matches == null)
+                    matches = new IdentityHashSet<LimeXMLDocument>();
+                matches.add(documents[doc]);
+            }
+        }
+        if (matches == null)
+            return Collections.emptySet();
+        return matches;
+    }
+
+    /**
+     * Returns the documents that have every keyword of a plain text query
+     * in any of their fields.
+     */
+    Set<LimeXMLDocument> getMatchingDocuments(String query) {
+        KeywordTokens keywords = KeywordTokenizer.KEYWORDS.tokenize(query);
+        BitSet matches = null;
+        for (int i = 0; i < keywords.size(); i++) {
+            String keyword = canonicalCase(keywords.get(i));
+            BitSet withKeyword = new BitSet(documents.length);
+            for (FieldIndex field : fields.values())
+                field.addDocumentsWithKeyword(keyword, withKeyword);
+            if (matches == null)
+                matches = withKeyword;
+            else
+                matches.and(withKeyword);
+            if (matches.isEmpty())
+                return Collections.emptySet();
+        }
+        if (matches == null)
+            return Collections.emptySet();
+        Set<LimeXMLDocument> documents = new IdentityHashSet<LimeXMLDocument>();
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1))
+            documents.add(this.documents[doc]);
+        return documents;
+    }
+
+    /**
+     * Returns the number a value parses to the way
+     * {@link LimeXMLUtils#match(LimeXMLDocument, LimeXMLDocument, boolean)}
+     * parses it, or null if it isn't a number. -0 is returned as 0, which
+     * it equals.
+     */
+    private static Double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value) + 0.0;
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /** Lower cases keywords the way the keyword tries used to. */
+    private static String canonicalCase(String s) {
+        return s.toUpperCase(Locale.US).toLowerCase(Locale.US);
+    }
+
+    /** Sets the bits of the given documents. */
+    private static void addAll(BitSet set, int[] docs) {
+        for (int doc : docs)
+            set.set(doc);
+    }
+
+    /** Returns the numbers in a set, in order. */
+    private static int[] toArray(IntSet set) {
+        int[] array = new int[set.size()];
+        int i = 0;
+        for (IntSet.IntSetIterator iterator = set.iterator(); iterator.hasNext();)
+            array[i++] = iterator.next();
+        return array;
+    }
+
+    /** Compares <code>s</code> from <code>offset</code> with another string. */
+    private static int compareFrom(String s, int offset, String other) {
+        int length = Math.min(s.length() - offset, other.length());
+        for (int i = 0; i < length; i++) {
+            int diff = s.charAt(offset + i) - other.charAt(i);
+            if (diff != 0)
+                return diff;
+        }
+        return (s.length() - offset) - other.length();
+    }
+
+    /** The index of one field. */
+    private static final class FieldIndex {
+
+        /** The distinct values of the field, sorted. */
+        private final String[] values;
+
+        /** The documents with each value. */
+        private final int[][] valueDocuments;
+
+        /** The normalized form of each value. */
+        private final String[] normalized;
+
+        /**
+         * The starts of the words of the normalized values, as the number of
+         * the value in the upper and the offset in the lower half, sorted by
+         * the text from the start on.
+         */
+        private final long[] wordStarts;
+
+        /** The distinct keywords of the values, sorted. */
+        private final String[] keywords;
+
+        /** The documents with each keyword. */
+        private final int[][] keywordDocuments;
+
+        /** The values that are numbers, sorted. */
+        private final double[] numbers;
+
+        /** The number of the value of each number. */
+        private final int[] numberValues;
+
+        /** The documents that have a value for this field. */
+        private final BitSet present = new BitSet();
+
+        /** The documents whose value is a number. */
+        private final BitSet numeric = new BitSet();
+
+        FieldIndex(Map<String, IntSet> column) {
+            values = column.keySet().toArray(new String[column.size()]);
+            Arrays.sort(values);
+            valueDocuments = new int[values.length][];
+            normalized = new String[values.length];
+
+            // the numbers of the values with each keyword
+            Map<String, List<Integer>> keywordMap = new HashMap<String, List<Integer>>();
+            KeywordTokens tokens = new KeywordTokens();
+            int wordCount = 0;
+            int numberCount = 0;
+            double[] allNumbers = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                int[] docs = toArray(column.get(values[i]));
+                valueDocuments[i] = docs;
+                addAll(present, docs);
+
+                normalized[i] = I18NConvert.instance().getNorm(values[i]);
+                wordCount += countWordStarts(normalized[i]);
+
+                KeywordTokenizer.METADATA.tokenize(values[i], tokens);
+                for (int j = 0; j < tokens.size(); j++) {
+                    String keyword = canonicalCase(tokens.get(j));
+                    List<Integer> withKeyword = keywordMap.get(keyword);
+                    if (withKeyword == null) {
+                        withKeyword = new ArrayList<Integer>(1);
+                        keywordMap.put(keyword, withKeyword);
+                    }
+                    withKeyword.add(i);
+                }
+
+                Double number = parseNumber(values[i]);
+                if (number != null) {
+                    addAll(numeric, docs);
+                    allNumbers[i] = number;
+                    numberCount++;
+                } else {
+                    allNumbers[i] = Double.NaN;
+                }
+            }
+
+            keywords = keywordMap.keySet().toArray(new String[keywordMap.size()]);
+            Arrays.sort(keywords);
+            keywordDocuments = new int[keywords.length][];
+            for (int i = 0; i < keywords.length; i++)
+                keywordDocuments[i] = merge(keywordMap.get(keywords[i]));
+
+            Long[] starts = new Long[wordCount];
+            int next = 0;
+            for (int i = 0; i < normalized.length; i++) {
+                String value = normalized[i];
+                for (int j = 0; j < value.length(); j++) {
+                    if (j == 0 || value.charAt(j - 1) == ' ')
+                        starts[next++] = ((long)i << 32) | j;
+                }
+            }
+            Arrays.sort(starts, new Comparator<Long>() {
+                @Override
+                public int compare(Long a, Long b) {
+                    String s = normalized[(int)(a >>> 32)];
+                    String t = normalized[(int)(b >>> 32)];
+                    int i = (int)(long)a;
+                    int j = (int)(long)b;
+                    while (i < s.length() && j < t.length()) {
+                        int diff = s.charAt(i++) - t.charAt(j++);
+                        if (diff != 0)
+                            return diff;
+                    }
+                    return (s.length() - i) - (t.length() - j);
+                }
+            });
+            wordStarts = new long[wordCount];
+            for (int i = 0; i < wordCount; i++)
+                wordStarts[i] = starts[i];
+
+            // NaN sorts last and never equals anything, so it is left out
+            Integer[] byNumber = new Integer[values.length];
+            for (int i = 0; i < byNumber.length; i++)
+                byNumber[i] = i;
+            final double[] unsorted = allNumbers;
+            Arrays.sort(byNumber, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(unsorted[a], unsorted[b]);
+                }
+            });
+            int realCount = 0;
+            while (realCount < numberCount && !Double.isNaN(unsorted[byNumber[realCount]]))
+                realCount++;
+            numbers = new double[realCount];
+            numberValues = new int[realCount];
+            for (int i = 0; i < realCount; i++) {
+                numberValues[i] = byNumber[i];
+                numbers[i] = unsorted[byNumber[i]];
+            }
+        }
+
+        /**
+         * Returns the documents that have all keywords of a query value, each
+         * as a prefix of a keyword of their value.
+         */
+        BitSet getDocumentsWithKeywords(String query) {
+            KeywordTokens queryKeywords = KeywordTokenizer.KEYWORDS.tokenize(query);
+            BitSet matches = null;
+            for (int i = 0; i < queryKeywords.size(); i++) {
+                BitSet withKeyword = new BitSet();
+                addDocumentsWithKeyword(canonicalCase(queryKeywords.get(i)), withKeyword);
+                if (matches == null)
+                    matches = withKeyword;
+                else
+                    matches.and(withKeyword);
+                if (matches.isEmpty())
+                    break;
+            }
+            return matches == null ? new BitSet() : matches;
+        }
+
+        /** Adds the documents with a keyword that <code>prefix</code> prefixes. */
+        void addDocumentsWithKeyword(String prefix, BitSet matches) {
+            int i = Arrays.binarySearch(keywords, prefix);
+            for (i = i < 0 ? -i - 1 : i; i < keywords.length && keywords[i].startsWith(prefix); i++)
+                addAll(matches, keywordDocuments[i]);
+        }
+
+        /** Returns the documents whose value starts with <code>prefix</code>. */
+        BitSet getDocumentsWithValuePrefix(String prefix) {
+            BitSet matches = new BitSet();
+            int i = Arrays.binarySearch(values, prefix);
+            for (i = i < 0 ? -i - 1 : i; i < values.length && values[i].startsWith(prefix); i++)
+                addAll(matches, valueDocuments[i]);
+            return matches;
+        }
+
+        /**
+         * Returns the documents whose normalized value has a word that
+         * <code>prefix</code> prefixes, the text from the word on.
+         */
+        BitSet getDocumentsWithWordPrefix(String prefix) {
+            int low = 0;
+            int high = wordStarts.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                long start = wordStarts[middle];
+                if (compareFrom(normalized[(int)(start >>> 32)], (int)start, prefix) < 0)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            BitSet matches = new BitSet();
+            for (int i = low; i < wordStarts.length; i++) {
+                long start = wordStarts[i];
+                int value = (int)(start >>> 32);
+                if (!normalized[value].startsWith(prefix, (int)start))
+                    break;
+                addAll(matches, valueDocuments[value]);
+            }
+            return matches;
+        }
+
+        /** Returns the documents whose value is a number in [min, max]. */
+        BitSet getDocumentsWithNumbersBetween(double min, double max) {
+            int low = 0;
+            int high = numbers.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (numbers[middle] < min)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            BitSet matches = new BitSet();
+            for (int i = low; i < numbers.length && numbers[i] <= max; i++)
+                addAll(matches, valueDocuments[numberValues[i]]);
+            return matches;
+        }
+
+        /** Returns the sorted union of the documents with the given values. */
+        private int[] merge(List<Integer> valueNumbers) {
+            if (valueNumbers.size() == 1)
+                return valueDocuments[valueNumbers.get(0)];
+            int length = 0;
+            for (int value : valueNumbers)
+                length += valueDocuments[value].length;
+            int[] docs = new int[length];
+            int next = 0;
+            for (int value : valueNumbers) {
+                int[] withValue = valueDocuments[value];
+                System.arraycopy(withValue, 0, docs, next, withValue.length);
+                next += withValue.length;
+            }
+            Arrays.sort(docs);
+            int distinct = 0;
+            for (int i = 0; i < docs.length; i++) {
+                if (distinct == 0 || docs[i] != docs[distinct - 1])
+                    docs[distinct++] = docs[i];
+            }
+            return distinct == docs.length ? docs : Arrays.copyOf(docs, distinct);
+        }
+
+        /** Returns the number of words of a normalized value. */
+        private static int countWordStarts(String value) {
+            int count = 0;
+            for (int j = 0; j < value.length(); j++) {
+                if (j == 0 || value.charAt(j - 1) == ' ')
+                    count++;
+            }
+            return count;
+        }
+    }
+}
@@ -13,21 +13,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.limewire.collection.IdentityHashSet;
-import org.limewire.collection.StringTrie;
 import org.limewire.io.IOUtils;
 import org.limewire.util.ConverterObjectInputStream;
 import org.limewire.util.FileUtils;
 import org.limewire.util.GenericsUtils;
-import org.limewire.util.I18NConvert;
 import org.limewire.util.NameValue;
 import org.limewire.util.Objects;
 import org.limewire.util.StringUtils;
@@ -43,7 +43,6 @@ import com.limegroup.gnutella.metadata.MetaDataFactory;
 import com.limegroup.gnutella.metadata.MetaDataReader;
 import com.limegroup.gnutella.metadata.MetaDataWriter;
 import com.limegroup.gnutella.metadata.audio.AudioMetaData;
-import com.limegroup.gnutella.util.QueryUtils;
 
 /**
  * Maps LimeXMLDocuments for FileDescs in a specific schema.
@@ -73,16 +72,53 @@ public class LimeXMLReplyCollection {
     private final Map<?, LimeXMLDocument> oldMap;
     
     /**
-     * A mapping of fields in the LimeXMLDocument to a Trie
-     * that has a lookup table for the values of that field.
-     * <p>
-     * The Trie value is a mapping of keywords in LimeXMLDocuments
-     * to the list of documents that have that keyword.
-     * <p>
-     * SYNCHRONIZATION: Synchronize on LOCK when accessing,
-     *  adding or removing.
+     * The least delay, in milliseconds, between a change of the documents
+     * and updating the index, so that changes in a burst, like while the
+     * library loads, update it once.
+     */
+    private static final long INDEX_DELAY = 500;
+
+    /**
+     * The index of all documents is rebuilt once the documents added and
+     * removed since it was built are more than this part of it...
+     */
+    private static final int REBUILD_RATIO = 8;
+
+    /** ...and more than this many. */
+    private static final int MIN_REBUILD_CHANGES = 1000;
+
+    /**
+     * The documents, other than LWS documents, that queries are answered
+     * from. It is replaced after the documents change, and read without
+     * locking.
+     */
+    private volatile IndexedDocuments index = IndexedDocuments.EMPTY;
+
+    /**
+     * The documents added since the index of all documents was built.
+     * LOCKING: LOCK
+     */
+    private Set<LimeXMLDocument> addedDocs = new IdentityHashSet<LimeXMLDocument>();
+
+    /**
+     * The documents of the index of all documents that were removed since
+     * it was built. LOCKING: LOCK
      */
-    private final Map<String, StringTrie<List<LimeXMLDocument>>> trieMap;
+    private Set<LimeXMLDocument> removedDocs = new IdentityHashSet<LimeXMLDocument>();
+
+    /** Whether an update of the index is scheduled and hasn't started. */
+    private final AtomicBoolean indexUpdateScheduled = new AtomicBoolean();
+
+    /**
+     * The delay before updating the index, four times as long as the last
+     * update took, so that indexing takes at most a fifth of the time of
+     * the indexing thread.
+     */
+    private volatile long indexDelay = INDEX_DELAY;
+
+    private final ScheduledExecutorService backgroundExecutor;
+
+    private final Executor indexExecutor;
     
     /**
      * Whether or not data became dirty after we last wrote to disk.
@@ -128,16 +164,20 @@ public class LimeXMLReplyCollection {
      * @param limeXMLDocumentFactory factory object for {@link LimeXMLDocument}
      * @param metaDataReader also used to construct {@link LimeXMLDocument}
      * @param metaDataFactory the MetaDataFactory used in this class
+     * @param backgroundExecutor used to delay updating the index of the documents
+     * @param indexExecutor used to update the index of the documents
      */
     LimeXMLReplyCollection(String URI, File path, Provider<Library> library,
             Provider<LimeXMLDocumentFactory> limeXMLDocumentFactory, Provider<MetaDataReader> metaDataReader,
-            Provider<MetaDataFactory> metaDataFactory) {
+            Provider<MetaDataFactory> metaDataFactory, ScheduledExecutorService backgroundExecutor,
+            Executor indexExecutor) {
         this.schemaURI = URI;
         this.library = library;
         this.limeXMLDocumentFactory = limeXMLDocumentFactory;
         this.metaDataReader = metaDataReader;
         this.metaDataFactory = metaDataFactory;
-        this.trieMap = new HashMap<String, StringTrie<List<LimeXMLDocument>>>();
+        this.backgroundExecutor = backgroundExecutor;
+        this.indexExecutor = indexExecutor;
         this.mainMap = new HashMap<FileAndUrn, LimeXMLDocument>();
         this.savedDocsDir = path;
         this.oldMap = readMapFromDisk();
@@ -323,72 +363,90 @@ public class LimeXMLReplyCollection {
     }
     
     /**
-     * Adds the keywords of this LimeXMLDocument into the correct Trie 
-     * for the field of the value.
+     * Schedules updating the index, unless an update is already scheduled
+     * that will see the latest documents. The timer only hands the update
+     * to the indexing thread, so indexing never holds up the timer.
      */
-    private void addKeywords(LimeXMLDocument doc) {
-        synchronized(LOCK) {
-            for(Map.Entry<String, String> entry : doc.getNameValueSet()) {
-                final String name = entry.getKey();
-                final String value = I18NConvert.instance().getNorm(entry.getValue());
-                StringTrie<List<LimeXMLDocument>> trie = trieMap.get(name);
-                // if no lookup table created yet, create one & insert.
-                if(trie == null) {
-                    trie = new StringTrie<List<LimeXMLDocument>>(true); //ignore case.
-                    trieMap.put(name, trie);
+    private void indexChanged() {
+        if(indexUpdateScheduled.compareAndSet(false, true)) {
+            backgroundExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    indexExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateIndex();
+                        }
+                    });
                 }
+            }, indexDelay, TimeUnit.MILLISECONDS);
+        }
+    }
 
-                // extract document metadata attribute into keywords
-                // and index document into trie based on every one of its keywords
-                Set<String> valuesKeywords = QueryUtils.extractKeywords(value, true);
-
-                for (String keyword : valuesKeywords) {
-                    List<LimeXMLDocument> allDocs = trie.get(keyword);
+    /**
+     * Records that a document was added, for the next update of the index.
+     * LOCKING: LOCK
+     */
+    private void docAdded(LimeXMLDocument doc) {
+        if(isLWSDoc(doc))
+            return;
+        if(!removedDocs.remove(doc))
+            addedDocs.add(doc);
+        indexChanged();
+    }
 
-                    // if no list of docs for this keyword created, create & insert.
-                    if (allDocs == null) {
-                        allDocs = new LinkedList<LimeXMLDocument>();
-                        trie.add(keyword, allDocs);
-                    }
-                    allDocs.add(doc);
-                }
-            }
-        }
+    /**
+     * Records that a document was removed, for the next update of the index.
+     * LOCKING: LOCK
+     */
+    private void docRemoved(LimeXMLDocument doc) {
+        if(doc == null || isLWSDoc(doc))
+            return;
+        if(!addedDocs.remove(doc))
+            removedDocs.add(doc);
+        indexChanged();
     }
     
     /**
-     * Removes the keywords of this LimeXMLDocument from the appropriate Trie.
-     * If the list is emptied, it is removed from the Trie.
+     * Indexes the documents added since the index of all documents was
+     * built, or rebuilds that index once enough changed since, and replaces
+     * the index. Runs on the indexing thread.
      */
-    private void removeKeywords(LimeXMLDocument doc) {
+    private void updateIndex() {
+        LimeXMLIndex all = index.all;
+        List<LimeXMLDocument> docs;
+        Set<LimeXMLDocument> removed = null;
         synchronized(LOCK) {
-            for(Map.Entry<String, String> entry : doc.getNameValueSet()) {
-                final String name = entry.getKey();
-                StringTrie<List<LimeXMLDocument>> trie = trieMap.get(name);
-                // if no trie, ignore.
-                if(trie == null)
-                    continue;
-                    
-                final String value = I18NConvert.instance().getNorm(entry.getValue());
-
-                // extract keywords from the metadata attribute value
-                // and remove the LimeXMLDocument from the index for each keyword
-                Set<String> keywords = QueryUtils.extractKeywords(value, true);
-
-                for (String keyword : keywords) {
-                    List<LimeXMLDocument> allDocs = trie.get(keyword);
-                    // if no list, ignore.
-                    if (allDocs == null) {
-                        continue;
-                    }
-                    allDocs.remove(doc);
-                    // if we emptied the doc, remove from trie...
-                    if (allDocs.size() == 0) {
-                        trie.remove(keyword);
-                    }
+            // changes from now on need another update
+            indexUpdateScheduled.set(false);
+            int changes = addedDocs.size() + removedDocs.size();
+            if(changes > Math.max(MIN_REBUILD_CHANGES, all.size() / REBUILD_RATIO)) {
+                docs = new ArrayList<LimeXMLDocument>(mainMap.size());
+                for(LimeXMLDocument doc : mainMap.values()) {
+                    if(!isLWSDoc(doc))
+                        docs.add(doc);
                 }
+                // the new index has every document
+                addedDocs = new IdentityHashSet<LimeXMLDocument>();
+                removedDocs = new IdentityHashSet<LimeXMLDocument>();
+            } else {
+                docs = new ArrayList<LimeXMLDocument>(addedDocs);
+                removed = new IdentityHashSet<LimeXMLDocument>(removedDocs);
             }
         }
+        long start = System.nanoTime();
+        LimeXMLIndex newIndex = new LimeXMLIndex(docs);
+        long took = (System.nanoTime() - start) / 1000000;
+        if(removed == null) {
+            if(LOG.isDebugEnabled())
+                LOG.debug("Indexed all " + docs.size() + " documents of " + schemaURI + " in " + took + " ms");
+            index = new IndexedDocuments(newIndex, Collections.<LimeXMLDocument>emptySet(), LimeXMLIndex.EMPTY);
+        } else {
+            if(LOG.isDebugEnabled())
+                LOG.debug("Indexed " + docs.size() + " added documents of " + schemaURI + " in " + took + " ms");
+            index = new IndexedDocuments(all, removed, newIndex);
+        }
+        indexDelay = Math.max(INDEX_DELAY, took * 4);
     }
 
     /**
@@ -401,9 +459,8 @@ public class LimeXMLReplyCollection {
 
         synchronized(LOCK){
             dirty = true;
-            mainMap.put(new FileAndUrn(fd),replyDoc);
-            if(!isLWSDoc(replyDoc))
-            	addKeywords(replyDoc);
+            docRemoved(mainMap.put(new FileAndUrn(fd),replyDoc));
+            docAdded(replyDoc);
         }
         
         fd.addLimeXMLDocument(replyDoc);
@@ -430,149 +487,27 @@ public class LimeXMLReplyCollection {
         
     /**
      * Returns all documents that match the particular query.
-     * If no documents match, this returns an empty list.
+     * If no documents match, this returns an empty set.
      * <p>
-     * This goes through the following methodology:
-     * <pre>
-     * 1) Looks in the index trie to determine if ANY
-     *    of the values in the query's document match.
-     *    If they do, adds the document to a set of
-     *    possible matches.  A set is used so the same
-     *    document is not added multiple times.
-     * 2) If no documents matched, returns an empty list.
-     * 3) Iterates through the possible matching documents
-     *    and does a fine-grained matchup, using XML-specific
-     *    matching techniques.
-     * 4) Returns an empty list if nothing matched or
-     *    a list of the matching documents.
-     * </pre>
+     * A document matches if, for any field of the query, it has every
+     * keyword of the query's value as the prefix of a keyword of its value
+     * of the field, and {@link LimeXMLUtils#match(LimeXMLDocument, 
+     * LimeXMLDocument, boolean)} matches it with the query. Both are 
+     * evaluated on the index, without matching documents one by one.
+     * <p>
+     * Documents that were added or changed moments ago may not be found
+     * yet, the index is updated half a second or more after changes.
      */    
     public Set<LimeXMLDocument> getMatchingDocuments(LimeXMLDocument query) {
-        // First get a list of anything that could possibly match.
-        // This uses a set so we don't add the same doc twice ...
-        Set<LimeXMLDocument> matching = null;
-        synchronized(LOCK) {
-            
-            for(Map.Entry<String, String> entry : query.getNameValueSet()) {
-                // Get the name of the particular field being queried for.
-                Set<String> metadata = Collections.singleton(entry.getKey());
-
-                // Get the value of that field being queried for.
-                final String value = entry.getValue();
-
-                Set<LimeXMLDocument> repliesForMetadata = getMatchingDocumentsIntersectKeywords(metadata, value);
-
-                if (!repliesForMetadata.isEmpty()) {
-
-                    if (matching == null) {
-                        matching = new IdentityHashSet<LimeXMLDocument>();
-                    }
-                    matching.addAll(repliesForMetadata);
-                }
-            }
-        }
-        
-        // no matches?... exit.
-        if( matching == null || matching.size() == 0) {
-            return Collections.emptySet();
-        }
-
-
-        // Now filter that list using the real XML matching tool...
-        Set<LimeXMLDocument> actualMatches = null;
-
-        for(LimeXMLDocument currReplyDoc : matching) {
-            if (LimeXMLUtils.match(currReplyDoc, query, false)) {
-                if( actualMatches == null ) {
-                    actualMatches = new IdentityHashSet<LimeXMLDocument>();
-                }
-                actualMatches.add(currReplyDoc);
-            }
-        }
-        
-        // No actual matches?... exit.
-        if( actualMatches == null || actualMatches.size() == 0 )
-            return Collections.emptySet();
-
-        return actualMatches;
-    }
-
-    public Set<LimeXMLDocument> getMatchingDocuments(String query) {
-        synchronized(LOCK) {
-            return getMatchingDocumentsIntersectKeywords(trieMap.keySet(), query);
-        }
+        return index.getMatchingDocuments(query);
     }
 
     /**
-     * Returns a Set of matching {@link LimeXMLDocument}s for a passed in Set of metadata fields.
-     * The query string is broken down into keywords, and only results common
-     * to all keywords are returned.
-     * <p/>
-     * <ol>
-     *    <li>Extract keywords from query</li>
-     *    <li>For each keyword, search the metadata fields for matches (names of metadata fields are passed in)</li>
-     *    <li>Return the matching LimeXMLDocuments common to all keywords</li>
-     * </ol>
-     * <p/>
-     * NOTE: Caller of this method MUST SYNCHRONIZE on {@link #LOCK}
-     *
-     * @param metadataFields names of metadata fields to search for matches
-     * @param query the query string to use for the search
-     * @return LimeXMLDocuments
+     * Returns the documents that have every keyword of the query as the
+     * prefix of a keyword of any of their fields.
      */
-    private Set<LimeXMLDocument> getMatchingDocumentsIntersectKeywords(Set<String> metadataFields, String query) {
-        Set<LimeXMLDocument> matches = new IdentityHashSet<LimeXMLDocument>();
-        Set<String> keywords = QueryUtils.extractKeywords(query, true);
-
-        for (String keyword : keywords) {
-
-            Set<LimeXMLDocument> allMatchedDocsForKeyword =
-                    getMatchingDocumentsForMetadata(metadataFields, keyword);
-
-            // matches contains all common lime xml docs that match
-            // all keywords in the query
-            if (matches.size() == 0) {
-                matches.addAll(allMatchedDocsForKeyword);
-            } else {
-                matches.retainAll(allMatchedDocsForKeyword);
-            }
-
-            // if no docs in common, there is no chance of a match
-            if (matches.size() == 0) {
-                return Collections.emptySet();
-            }
-        }
-        return matches;
-    }
-
-    /**
-     * Returns a Set of matching {@link LimeXMLDocument}s for a passed in Set of metadata fields and a search term
-     * This method does not break the search term into keywords.
-     * <p/>
-     * NOTE: Caller of this method MUST SYNCHRONIZE on {@link #mainMap}
-     *
-     * @param metadataFields names of metadata fields to search for matches
-     * @param searchTerm the query string to use for the search
-     * @return LimeXMLDocuments
-     */
-    private Set<LimeXMLDocument> getMatchingDocumentsForMetadata(Set<String> metadataFields, String searchTerm) {
-
-        // first, add all lime xml doc matches from all Lists in Iterator
-        Set<LimeXMLDocument> matches = new IdentityHashSet<LimeXMLDocument>();
-
-        for (String metadataFieldName : metadataFields) {
-
-            // get StringTrie associated with metadata field
-            StringTrie<List<LimeXMLDocument>> trie = trieMap.get(metadataFieldName);
-            if(trie == null) {
-                continue;
-            }
-            Iterator<List<LimeXMLDocument>> iter = trie.getPrefixedBy(searchTerm);
-            while (iter.hasNext()) {
-                matches.addAll(iter.next());
-            }
-        }
-        return matches;
+    public Set<LimeXMLDocument> getMatchingDocuments(String query) {
+        return index.getMatchingDocuments(query);
     }
 
     /**
@@ -590,9 +525,8 @@ public class LimeXMLReplyCollection {
             dirty = true;
             oldDoc = mainMap.put(new FileAndUrn(fd),newDoc);
             assert oldDoc != null : "attempted to replace doc that did not exist!!";
-            removeKeywords(oldDoc);
-            if(!isLWSDoc(newDoc))
-                addKeywords(newDoc);
+            docRemoved(oldDoc);
+            docAdded(newDoc);
         }
        
         boolean replaced = fd.replaceLimeXMLDocument(oldDoc, newDoc);
@@ -610,14 +544,14 @@ public class LimeXMLReplyCollection {
         LimeXMLDocument val;
         synchronized(LOCK) {
             val = mainMap.remove(new FileAndUrn(fd));
-            if(val != null)
+            if(val != null) {
                 dirty = true;
+                docRemoved(val);
+            }
         }
         
-        if(val != null) {
+        if(val != null)
             fd.removeLimeXMLDocument(val);
-            removeKeywords(val);
-        }
         
         if(LOG.isDebugEnabled())
             LOG.debug("removed: " + val);
@@ -976,4 +910,48 @@ public class LimeXMLReplyCollection {
             }
         }
     }
+
+    /**
+     * The documents queries are answered from: an index of all documents
+     * as of when it was built, the documents removed from it since, and an
+     * index of the documents added since. Never modified.
+     */
+    private static final class IndexedDocuments {
+        
+        static final IndexedDocuments EMPTY = new IndexedDocuments(LimeXMLIndex.EMPTY,
+                Collections.<LimeXMLDocument>emptySet(), LimeXMLIndex.EMPTY);
+        
+        private final LimeXMLIndex all;
+        
+        private final Set<LimeXMLDocument> removed;
+        
+        private final LimeXMLIndex added;
+        
+        IndexedDocuments(LimeXMLIndex all, Set<LimeXMLDocument> removed, LimeXMLIndex added) {
+            this.all = all;
+            this.removed = removed;
+            this.added = added;
+        }
+        
+        Set<LimeXMLDocument> getMatchingDocuments(LimeXMLDocument query) {
+            return merge(all.getMatchingDocuments(query), added.getMatchingDocuments(query));
+        }
+        
+        Set<LimeXMLDocument> getMatchingDocuments(String query) {
+            return merge(all.getMatchingDocuments(query), added.getMatchingDocuments(query));
+        }
+        
+        /** Returns the matches of both indexes, less the removed documents. */
+        private Set<LimeXMLDocument> merge(Set<LimeXMLDocument> fromAll, Set<LimeXMLDocument> fromAdded) {
+            if(removed.isEmpty() && fromAdded.isEmpty())
+                return fromAll;
+            Set<LimeXMLDocument> matches = new IdentityHashSet<LimeXMLDocument>();
+            for(LimeXMLDocument doc : fromAll) {
+                if(!removed.contains(doc))
+                    matches.add(doc);
+            }
+            matches.addAll(fromAdded);
+            return matches;
+        }
+    }
 }
@@ -1,8 +1,16 @@
 package com.limegroup.gnutella.xml;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.concurrent.ManagedThread;
+
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.limegroup.gnutella.library.Library;
 import com.limegroup.gnutella.metadata.MetaDataFactory;
 import com.limegroup.gnutella.metadata.MetaDataReader;
@@ -20,20 +28,38 @@ class LimeXMLReplyCollectionFactoryImpl implements LimeXMLReplyCollectionFactory
     
     private final Provider<MetaDataFactory> metaDataFactory;
     
+    private final ScheduledExecutorService backgroundExecutor;
+    
+    /**
+     * The thread that indexes the documents of all collections, at a low
+     * priority since queries are answered from the last index meanwhile.
+     */
+    private final Executor indexExecutor = ExecutorsHelper.newProcessingQueue(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new ManagedThread(r, "XMLIndexer");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+    
     @Inject
     public LimeXMLReplyCollectionFactoryImpl(
             Provider<LimeXMLProperties> limeXMLProperties, Provider<Library> library,
             Provider<LimeXMLDocumentFactory> limeXMLDocumentFactory, Provider<MetaDataReader> metaDataReader,
-            Provider<MetaDataFactory> metaDataFactory) {
+            Provider<MetaDataFactory> metaDataFactory,
+            @Named("backgroundExecutor") ScheduledExecutorService backgroundExecutor) {
         this.limeXMLProperties = limeXMLProperties;
         this.library = library;
         this.limeXMLDocumentFactory = limeXMLDocumentFactory;
         this.metaDataReader = metaDataReader;
         this.metaDataFactory = metaDataFactory;
+        this.backgroundExecutor = backgroundExecutor;
     }
 
     public LimeXMLReplyCollection createLimeXMLReplyCollection(String URI) {
-        return new LimeXMLReplyCollection(URI, limeXMLProperties.get().getXMLDocsDir(), library, limeXMLDocumentFactory, metaDataReader, metaDataFactory);
+        return new LimeXMLReplyCollection(URI, limeXMLProperties.get().getXMLDocsDir(), library, limeXMLDocumentFactory, metaDataReader, metaDataFactory, backgroundExecutor, indexExecutor);
     }
 
 }
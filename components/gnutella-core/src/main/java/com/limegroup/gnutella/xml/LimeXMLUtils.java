@@ -211,6 +211,16 @@ public class LimeXMLUtils {
                     matchCount++;
             }
         }
+        return isMatch(size, matchCount, nullCount, matchedBitrate, allowAllNulls);
+    }
+
+    /**
+     * Decides whether a reply matches a query of <code>size</code> fields,
+     * <code>matchCount</code> of which matched the reply and
+     * <code>nullCount</code> of which the reply has no value for.
+     */
+    static boolean isMatch(int size, int matchCount, int nullCount,
+                           boolean matchedBitrate, boolean allowAllNulls) {
         // The metric of a correct match is that whatever fields are specified
         // in the query must have prefix match* with the fields in the reply
         // unless the reply has a null for that field, in which case we are OK 
@@ -20,6 +20,7 @@ import com.limegroup.gnutella.library.FileDescChangeEvent;
 import com.limegroup.gnutella.library.FileViewChangeEvent;
 import com.limegroup.gnutella.library.Library;
 import com.limegroup.gnutella.library.LibraryStatusEvent;
+import com.limegroup.gnutella.metadata.MetaDataExtractor;
 
 
 /** 
@@ -34,11 +35,14 @@ public class SchemaReplyCollectionMapper implements XmlController {
     
     protected final Provider<LimeXMLReplyCollectionFactory> limeXMLReplyCollectionFactory;
     protected final Provider<LimeXMLSchemaRepository> limeXMLSchemaRepository;
+    private final Provider<MetaDataExtractor> metaDataExtractor;
     
     @Inject SchemaReplyCollectionMapper(Provider<LimeXMLReplyCollectionFactory> limeXMLReplyCollectionFactory,
-            Provider<LimeXMLSchemaRepository> limeXMLSchemaRepository) {
+            Provider<LimeXMLSchemaRepository> limeXMLSchemaRepository,
+            Provider<MetaDataExtractor> metaDataExtractor) {
         this.limeXMLReplyCollectionFactory = limeXMLReplyCollectionFactory;
         this.limeXMLSchemaRepository = limeXMLSchemaRepository;
+        this.metaDataExtractor = metaDataExtractor;
         
         mapper = new ConcurrentHashMap<String, LimeXMLReplyCollection>();
     }
@@ -95,6 +99,7 @@ public class SchemaReplyCollectionMapper implements XmlController {
                             removeFileDesc(event.getOldValue());
                             break; 
                         case FILES_CLEARED:
+                            metaDataExtractor.get().discardAll();
                             loadSchemas();
                             break;
                         }
@@ -130,6 +135,7 @@ public class SchemaReplyCollectionMapper implements XmlController {
     }
     
     private void removeFileDesc(FileDesc fd) {
+        metaDataExtractor.get().discard(fd.getFile());
         // Get the schema URI of each document and remove from the collection
         // We must remember the schemas and then remove the doc, or we will
         // get a concurrent mod exception because removing the doc also
@@ -187,6 +193,10 @@ public class SchemaReplyCollectionMapper implements XmlController {
                 loaded = true;
             }
         }
+        if(loaded) {
+            // the file won't be parsed, so its prefetched metadata isn't needed
+            metaDataExtractor.get().discard(fd.getFile());
+        }
         return loaded;
     }
     
@@ -204,9 +214,18 @@ public class SchemaReplyCollectionMapper implements XmlController {
                 loaded = true;
             }
         }
+        // a prefetch the collections didn't parse won't be parsed later
+        metaDataExtractor.get().discard(fd.getFile());
         return loaded;
     }
     
+    @Override
+    public void prefetchXml(FileDesc fd) {
+        if(fd.getLimeXMLDocuments().isEmpty() && canConstructXml(fd)) {
+            metaDataExtractor.get().prefetch(fd.getFile());
+        }
+    }
+    
     /**
      * Loads all the SchemaURI to a HashMap with the replyCollection. 
      */
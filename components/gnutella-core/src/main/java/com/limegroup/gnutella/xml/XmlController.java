@@ -21,4 +21,11 @@ public interface XmlController {
     /** Loads new XML for a file. Returns true if anything loaded. */
     boolean loadXml(FileDesc fd);
 
+    /**
+     * Starts reading the metadata of a file in the background if XML may have
+     * to be constructed for it, so that a later {@link #loadXml(FileDesc)}
+     * doesn't have to wait for the file to be read.
+     */
+    void prefetchXml(FileDesc fd);
+
 }
@@ -294,13 +294,7 @@ public class GGEP {
                 boolean shouldEncode = shouldCOBSEncode(currData);
                 boolean shouldCompress = shouldCompress(currHeader);
                 if (currData != null) {
-                    if (shouldCompress) {
-                        currData = IOUtils.deflate(currData);
-                        if(currData.length > MAX_VALUE_SIZE_IN_BYTES)
-                            throw new IllegalArgumentException("value for ["
-                              + currHeader + "] too large after compression");
-                    } if (shouldEncode)
-                        currData = GGEP.cobsEncode(currData);
+                    currData = encode(currHeader, currData, shouldEncode, shouldCompress);
                     dataLen = currData.length;
                 }
                 writeHeader(currHeader, dataLen, 
@@ -312,6 +306,74 @@ public class GGEP {
         }
     }
     
+    /**
+     * Writes this GGEP instance into a new array, after <code>offset</code>
+     * bytes that are left for the caller to fill in, and returns a view of
+     * it. The view records where each extension is as it is written, so the
+     * block doesn't have to be parsed again to read it back.
+     * @return a view of the written block, or null if this block is empty
+     */
+    public GGEPView toView(int offset) {
+        Set<String> headers = getHeaders();
+        if (headers.isEmpty())
+            return null;
+        
+        // encode all the values first to size the array exactly
+        byte[][] keys = new byte[headers.size()][];
+        byte[][] values = new byte[keys.length][];
+        byte[] flags = new byte[keys.length];
+        int length = offset + 1;
+        int i = 0;
+        for (String header : headers) {
+            byte[] value = get(header);
+            boolean shouldEncode = shouldCOBSEncode(value);
+            boolean shouldCompress = shouldCompress(header);
+            if (value != null)
+                value = encode(header, value, shouldEncode, shouldCompress);
+            int dataLen = value == null ? 0 : value.length;
+            keys[i] = StringUtils.toAsciiBytes(header);
+            values[i] = value;
+            flags[i] = headerFlags(keys[i], i == keys.length - 1,
+                                   shouldEncode, shouldCompress);
+            length += 1 + keys[i].length + dataLengthSize(dataLen) + dataLen;
+            i++;
+        }
+        
+        byte[] data = new byte[length];
+        GGEPView view = new GGEPView(data);
+        int currIndex = offset;
+        data[currIndex++] = GGEP_PREFIX_MAGIC_NUMBER;
+        for (i = 0; i < keys.length; i++) {
+            data[currIndex++] = flags[i];
+            int keyOffset = currIndex;
+            System.arraycopy(keys[i], 0, data, currIndex, keys[i].length);
+            currIndex += keys[i].length;
+            int dataLen = values[i] == null ? 0 : values[i].length;
+            currIndex = writeDataLength(dataLen, data, currIndex);
+            if (dataLen > 0)
+                System.arraycopy(values[i], 0, data, currIndex, dataLen);
+            view.add(flags[i], keyOffset, currIndex, dataLen);
+            currIndex += dataLen;
+        }
+        return view;
+    }
+    
+    /**
+     * Returns the value as it is written, compressed and COBS encoded as
+     * needed.
+     */
+    private byte[] encode(String header, byte[] data, 
+                          boolean shouldEncode, boolean shouldCompress) {
+        if (shouldCompress) {
+            data = IOUtils.deflate(data);
+            if(data.length > MAX_VALUE_SIZE_IN_BYTES)
+                throw new IllegalArgumentException("value for ["
+                  + header + "] too large after compression");
+        } if (shouldEncode)
+            data = GGEP.cobsEncode(data);
+        return data;
+    }
+    
     /**
      * Returns the GGEP as a byte array.
      * @return an empty array if GGEP is empty
@@ -343,6 +405,18 @@ public class GGEP {
 
         // 1. WRITE THE HEADER FLAGS
         byte[] headerBytes = StringUtils.toAsciiBytes(header);
+        out.write(headerFlags(headerBytes, isLast, isEncoded, isCompressed));
+
+        // 2. WRITE THE HEADER
+        out.write(headerBytes);
+
+        // 3. WRITE THE DATA LEN
+        byte[] length = new byte[3];
+        out.write(length, 0, writeDataLength(dataLen, length, 0));
+    }
+    
+    private static byte headerFlags(byte[] headerBytes, boolean isLast,
+                                    boolean isEncoded, boolean isCompressed) {
         int flags = 0x00;
         if (isLast)
             flags |= 0x80;
@@ -351,29 +425,32 @@ public class GGEP {
         if (isCompressed)
             flags |= 0x20;
         flags |= headerBytes.length;
-        out.write(flags);
-
-        // 2. WRITE THE HEADER
-        out.write(headerBytes);
-
-        // 3. WRITE THE DATA LEN
-        // possibly 3 bytes
-        int toWrite;
+        return (byte)flags;
+    }
+    
+    /** Returns the number of bytes the data length is written in. */
+    private static int dataLengthSize(int dataLen) {
+        return 1 + (dataLen > 0x3F ? 1 : 0) + (dataLen > 0xFFF ? 1 : 0);
+    }
+    
+    /**
+     * Writes the data length into buf at offset, possibly in 3 bytes.
+     * @return the offset after the data length
+     */
+    private static int writeDataLength(int dataLen, byte[] buf, int offset) {
         int begin = dataLen & 0x3F000;
         if (dataLen > 0x00000fff) {
             begin = begin >> 12; // relevant bytes at the bottom now...
-            toWrite = 0x80 | begin;
-            out.write(toWrite);
+            buf[offset++] = (byte)(0x80 | begin);
         }
         int middle = dataLen & 0xFC0;
         if (dataLen > 0x0000003f) {
             middle = middle >> 6; // relevant bytes at the bottom now...
-            toWrite = 0x80 | middle;
-            out.write(toWrite);
+            buf[offset++] = (byte)(0x80 | middle);
         }
         int end = dataLen & 0x3F; // shut off everything except last 6 bits...
-        toWrite = 0x40 | end;
-        out.write(toWrite);
+        buf[offset++] = (byte)(0x40 | end);
+        return offset;
     }
     
     /**
@@ -643,6 +720,17 @@ public class GGEP {
             return (byte[])value;
     }
 
+    /**
+     * Adds an extension that was read from a well-formed GGEP block,
+     * without validating it again.
+     */
+    void putParsed(String key, byte[] value, boolean compressed) {
+        if(compressed)
+            _props.put(key, new NeedsCompression(value));
+        else
+            _props.put(key, value);
+    }
+
     private void validateKey(String key) throws IllegalArgumentException {
         if (!StringUtils.isAsciiOnly(key)) {
             throw new IllegalArgumentException("key is not ascii only: " + key);
@@ -722,23 +810,54 @@ public class GGEP {
      *  @return the original COBS decoded string
      */
     static byte[] cobsDecode(byte[] src) throws IOException {
-        final int srcLen = src.length;
-        int currIndex = 0;
-        int code = 0;
-        ByteArrayOutputStream sink = new ByteArrayOutputStream();        
-    
-        while (currIndex < srcLen) {
-            code = ByteUtils.ubyte2int(src[currIndex++]);
-            if ((currIndex+(code-2)) >= srcLen)
-                throw new IOException();
+        return cobsDecode(src, 0, src.length);
+    }
+
+    /**
+     * Decodes the COBS-encoded bytes src[offset .. offset+length).
+     * @see #cobsDecode(byte[])
+     */
+    static byte[] cobsDecode(byte[] src, int offset, int length) throws IOException {
+        int decodedLength = cobsDecodedLength(src, offset, length);
+        if (decodedLength < 0)
+            throw new IOException();
+
+        final int end = offset + length;
+        int currIndex = offset;
+        int sinkIndex = 0;
+        byte[] sink = new byte[decodedLength];
+        while (currIndex < end) {
+            int code = ByteUtils.ubyte2int(src[currIndex++]);
             for (int i = 1; i < code; i++) {
-                sink.write(src[currIndex++]);
+                sink[sinkIndex++] = src[currIndex++];
             }
-            if (currIndex < srcLen) // don't write this last one, it isn't used
-                if (code < 0xFF) sink.write(0);
+            if (currIndex < end) // don't write this last one, it isn't used
+                if (code < 0xFF) sink[sinkIndex++] = 0;
         }
-    
-        return sink.toByteArray();
+        return sink;
+    }
+
+    /**
+     * Returns the number of bytes the COBS-encoded bytes
+     * src[offset .. offset+length) decode to, or -1 if they are not
+     * properly encoded.  Does not allocate anything.
+     */
+    static int cobsDecodedLength(byte[] src, int offset, int length) {
+        final int end = offset + length;
+        int currIndex = offset;
+        int decodedLength = 0;
+        while (currIndex < end) {
+            int code = ByteUtils.ubyte2int(src[currIndex++]);
+            if ((currIndex+(code-2)) >= end)
+                return -1;
+            if (code > 1) {
+                currIndex += code - 1;
+                decodedLength += code - 1;
+            }
+            if (currIndex < end && code < 0xFF)
+                decodedLength++;
+        }
+        return decodedLength;
     }
 
     static int cobsFinishBlock(int code, ByteArrayOutputStream sink, 
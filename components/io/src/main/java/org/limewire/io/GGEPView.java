@@ -0,0 +1,416 @@
+package org.limewire.io;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.limewire.util.ByteUtils;
+import org.limewire.util.StringUtils;
+
+/**
+ * A read-only view of a GGEP block that is stored in a larger array of bytes,
+ * such as the payload of a message.
+ * <p>
+ * Unlike {@link GGEP}, which copies the key and value of every extension when
+ * it is parsed, a <code>GGEPView</code> only records where each extension's
+ * key and value start in the underlying array. Keys are compared in place and
+ * values are copied, COBS-decoded or inflated when they are asked for, so
+ * looking up a handful of extensions in a large block costs next to nothing.
+ * Numbers and strings stored as plain values are read straight out of the
+ * array.
+ * <p>
+ * The structure of the block, including the COBS encoding of its values, is
+ * checked when the view is created. Compressed values are only inflated on
+ * access; if they turn out to be corrupt the extension behaves as if it had
+ * no value.
+ * <p>
+ * The view refers to the array it was created with, which must not be
+ * modified afterwards. Use {@link #toGGEP()} to get a mutable copy.
+ */
+public class GGEPView {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The bytes the extensions are stored in. */
+    private final byte[] data;
+
+    /** The number of extensions, including duplicate keys. */
+    private int count;
+
+    /** The header flags of each extension. */
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    /** The offset of each extension's key, its length is in its flags. */
+    private int[] keyOffsets = new int[INITIAL_CAPACITY];
+
+    /** The offset of each extension's raw value. */
+    private int[] valueOffsets = new int[INITIAL_CAPACITY];
+
+    /** The length of each extension's raw value. */
+    private int[] valueLengths = new int[INITIAL_CAPACITY];
+
+    /** True if any value is COBS encoded. */
+    private boolean useCOBS;
+
+    /**
+     * Constructs a view of the GGEP block starting at data[offset].
+     */
+    public GGEPView(byte[] data, int offset) throws BadGGEPBlockException {
+        this(data, offset, null);
+    }
+
+    /**
+     *  Constructs a view of the GGEP block beginning at data[beginOffset].
+     *  @param data the bytes of the message, which must not be modified
+     *  while the view is in use.
+     *  @param beginOffset the begin index of the GGEP prefix.
+     *  @param endOffset if you want to get the offset where the GGEP block
+     *  ends (more precisely, one above the ending index), then send me a
+     *  int[1].  I'll put the endOffset in endOffset[0].  If you don't care,
+     *  null will do....
+     *  @exception BadGGEPBlockException Thrown if the block could not be parsed
+     *  correctly.
+     */
+    public GGEPView(byte[] data, final int beginOffset, int[] endOffset)
+      throws BadGGEPBlockException {
+        this.data = data;
+
+        if (data.length - beginOffset < 4)
+            throw new BadGGEPBlockException();
+
+        // all GGEP blocks start with this prefix....
+        if (data[beginOffset] != GGEP.GGEP_PREFIX_MAGIC_NUMBER)
+            throw new BadGGEPBlockException();
+
+        boolean onLastExtension = false;
+        int currIndex = beginOffset + 1;
+        while (!onLastExtension) {
+            if (currIndex >= data.length)
+                throw new BadGGEPBlockException();
+
+            // bit order is interpreted as 76543210
+            byte headerFlags = data[currIndex];
+            if ((headerFlags & 0x10) != 0)
+                throw new BadGGEPBlockException();
+            onLastExtension = (headerFlags & 0x80) != 0;
+            int headerLen = headerFlags & 0x0F;
+            if (headerLen == 0)
+                throw new BadGGEPBlockException();
+
+            // the extension header
+            currIndex++;
+            int keyOffset = currIndex;
+            currIndex += headerLen;
+            if (currIndex > data.length)
+                throw new BadGGEPBlockException();
+
+            // the data length, stored in at most 3 bytes
+            int dataLength = 0;
+            int iterations = 0;
+            byte currByte;
+            do {
+                if (currIndex >= data.length || ++iterations > 3)
+                    throw new BadGGEPBlockException();
+                currByte = data[currIndex++];
+                dataLength = (dataLength << 6) | (currByte & 0x3f);
+            } while (0x40 != (currByte & 0x40));
+
+            int valueOffset = currIndex;
+            if (dataLength > 0) {
+                if (currIndex + dataLength > data.length)
+                    throw new BadGGEPBlockException();
+
+                if (isEncoded(headerFlags)) {
+                    if (GGEP.cobsDecodedLength(data, currIndex, dataLength) < 0)
+                        throw new BadGGEPBlockException("Bad COBS Encoding");
+                }
+
+                currIndex += dataLength;
+            }
+
+            add(headerFlags, keyOffset, valueOffset, dataLength);
+        }
+
+        if ((endOffset != null) && (endOffset.length > 0))
+            endOffset[0] = currIndex;
+    }
+
+    /**
+     * Constructs an empty view of the given array, which {@link GGEP#toView(int)}
+     * adds the extensions it writes to.
+     */
+    GGEPView(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Constructs a view with the same extensions as the given view.
+     */
+    public GGEPView(GGEPView other) {
+        this.data = other.data;
+        merge(other);
+    }
+
+    void add(byte headerFlags, int keyOffset, int valueOffset, int valueLength) {
+        if (count == flags.length) {
+            int newCapacity = count * 2;
+            byte[] newFlags = new byte[newCapacity];
+            System.arraycopy(flags, 0, newFlags, 0, count);
+            flags = newFlags;
+            int[] newKeyOffsets = new int[newCapacity];
+            System.arraycopy(keyOffsets, 0, newKeyOffsets, 0, count);
+            keyOffsets = newKeyOffsets;
+            int[] newValueOffsets = new int[newCapacity];
+            System.arraycopy(valueOffsets, 0, newValueOffsets, 0, count);
+            valueOffsets = newValueOffsets;
+            int[] newValueLengths = new int[newCapacity];
+            System.arraycopy(valueLengths, 0, newValueLengths, 0, count);
+            valueLengths = newValueLengths;
+        }
+
+        flags[count] = headerFlags;
+        keyOffsets[count] = keyOffset;
+        valueOffsets[count] = valueOffset;
+        valueLengths[count] = valueLength;
+        count++;
+        if (valueLength > 0 && isEncoded(headerFlags))
+            useCOBS = true;
+    }
+
+    /**
+     * Adds the extensions of another block of the same array to this view.
+     * Extensions of the other view replace those with the same key in this
+     * view, just like {@link GGEP#merge(GGEP)}.
+     *
+     * @throws IllegalArgumentException if other is a view of a different
+     * array
+     */
+    public void merge(GGEPView other) {
+        if (other.data != data)
+            throw new IllegalArgumentException("views of different arrays");
+
+        for (int i = 0; i < other.count; i++) {
+            add(other.flags[i], other.keyOffsets[i], other.valueOffsets[i], other.valueLengths[i]);
+        }
+        useCOBS |= other.useCOBS;
+    }
+
+    private static boolean isEncoded(byte headerFlags) {
+        // the 7th bit in the header's first byte, when set, indicates that
+        // this header is the encoded with COBS
+        return (headerFlags & 0x40) != 0;
+    }
+
+    private static boolean isCompressed(byte headerFlags) {
+        // the 6th bit in the header's first byte, when set, indicates that
+        // this header is the compressed with deflate
+        return (headerFlags & 0x20) != 0;
+    }
+
+    /** Returns true if the value of the i'th extension is stored as is. */
+    private boolean isPlain(int i) {
+        return !isEncoded(flags[i]) && !isCompressed(flags[i]);
+    }
+
+    /**
+     * Returns the index of the last extension with the given key
+     * or -1 if there is none.
+     */
+    private int indexOf(String key) {
+        final int keyLength = key.length();
+        for (int i = count - 1; i >= 0; i--) {
+            if ((flags[i] & 0x0F) != keyLength)
+                continue;
+            int offset = keyOffsets[i];
+            int j = 0;
+            while (j < keyLength && (data[offset + j] & 0xFF) == key.charAt(j))
+                j++;
+            if (j == keyLength)
+                return i;
+        }
+        return -1;
+    }
+
+    private String keyAt(int i) {
+        return StringUtils.getASCIIString(data, keyOffsets[i], flags[i] & 0x0F);
+    }
+
+    /**
+     * Returns a copy of the decoded value of the i'th extension or null if
+     * it has no value.
+     * @throws IOException if the value is corrupt
+     */
+    private byte[] decode(int i) throws IOException {
+        final int length = valueLengths[i];
+        if (length == 0)
+            return null;
+
+        byte[] value;
+        if (isEncoded(flags[i])) {
+            value = GGEP.cobsDecode(data, valueOffsets[i], length);
+        } else {
+            value = new byte[length];
+            System.arraycopy(data, valueOffsets[i], value, 0, length);
+        }
+
+        if (isCompressed(flags[i]))
+            value = IOUtils.inflate(value);
+        return value;
+    }
+
+    /**
+     * Returns whether this has the given key.
+     * @param key the name of the GGEP extension
+     * @return true if this has a key
+     */
+    public boolean hasKey(String key) {
+        return indexOf(key) != -1;
+    }
+
+    /** Returns true if the GGEP has a non-null value for the key. */
+    public boolean hasValueFor(String key) {
+        int i = indexOf(key);
+        if (i == -1 || valueLengths[i] == 0)
+            return false;
+        return !isCompressed(flags[i]) || get(key) != null;
+    }
+
+    /**
+     * Returns a copy of the decoded value for a key or null if the
+     * extension is missing, has no value or its value is corrupt.
+     */
+    public byte[] get(String key) {
+        int i = indexOf(key);
+        if (i == -1)
+            return null;
+        try {
+            return decode(i);
+        } catch (IOException corrupt) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value for a key, as raw bytes.
+     * @param key the name of the GGEP extension
+     * @return the GGEP extension data associated with the key
+     * @exception BadGGEPPropertyException extension not found, was corrupt,
+     *  or has no associated data.  Note that BadGGEPPropertyException is
+     *  is always thrown for extensions with no data; use hasKey instead.
+     */
+    public byte[] getBytes(String key) throws BadGGEPPropertyException {
+        byte[] ret = get(key);
+        if (ret == null)
+            throw new BadGGEPPropertyException();
+        return ret;
+    }
+
+    /**
+     * Returns the value for a key, as a string, using UTF-8.
+     * @param key the name of the GGEP extension
+     * @return the GGEP extension data associated with the key
+     * @exception BadGGEPPropertyException extension not found, was corrupt,
+     *  or has no associated data.   Note that BadGGEPPropertyException is
+     *  is always thrown for extensions with no data; use hasKey instead.
+     */
+    public String getString(String key) throws BadGGEPPropertyException {
+        try {
+            int i = indexOf(key);
+            if (i != -1 && valueLengths[i] > 0 && isPlain(i))
+                return new String(data, valueOffsets[i], valueLengths[i], "UTF-8");
+            return new String(getBytes(key), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("Cannot get GGEP key value as " +
+                    "String due to unsupported encoding", e);
+        }
+    }
+
+    /**
+     * Returns the value for a key, as an integer.
+     * @param key the name of the GGEP extension
+     * @return the GGEP extension data associated with the key
+     * @exception BadGGEPPropertyException extension not found, was corrupt,
+     *  or has no associated data.   Note that BadGGEPPropertyException is
+     *  is always thrown for extensions with no data; use hasKey instead.
+     */
+    public int getInt(String key) throws BadGGEPPropertyException {
+        int i = indexOf(key);
+        if (i != -1 && valueLengths[i] > 0 && isPlain(i)) {
+            checkNumberLength(valueLengths[i], 4);
+            return ByteUtils.leb2int(data, valueOffsets[i], valueLengths[i]);
+        }
+
+        byte[] bytes = getBytes(key);
+        checkNumberLength(bytes.length, 4);
+        return ByteUtils.leb2int(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the value for a key as a long.
+     * @param key the name of the GGEP extension
+     * @return the GGEP extension data associated with the key
+     * @exception BadGGEPPropertyException extension not found, was corrupt,
+     *  or has no associated data.   Note that BadGGEPPropertyException is
+     *  is always thrown for extensions with no data; use hasKey instead.
+     */
+    public long getLong(String key) throws BadGGEPPropertyException {
+        int i = indexOf(key);
+        if (i != -1 && valueLengths[i] > 0 && isPlain(i)) {
+            checkNumberLength(valueLengths[i], 8);
+            return ByteUtils.leb2long(data, valueOffsets[i], valueLengths[i]);
+        }
+
+        byte[] bytes = getBytes(key);
+        checkNumberLength(bytes.length, 8);
+        return ByteUtils.leb2long(bytes, 0, bytes.length);
+    }
+
+    private static void checkNumberLength(int length, int max) throws BadGGEPPropertyException {
+        if (length < 1)
+            throw new BadGGEPPropertyException("No bytes");
+        if (length > max)
+            throw new BadGGEPPropertyException("Integer too big");
+    }
+
+    /**
+     * Returns the set of keys.  The set is created on every call.
+     */
+    public Set<String> getHeaders() {
+        Set<String> headers = new TreeSet<String>();
+        for (int i = 0; i < count; i++) {
+            headers.add(keyAt(i));
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the array this view refers to. Bytes that are part of the
+     * block must not be modified while the view is in use.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns whether this view has no extensions.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns a mutable GGEP with the decoded extensions of this view.
+     * Extensions whose compressed values are corrupt are left out.
+     */
+    public GGEP toGGEP() {
+        GGEP ggep = new GGEP(useCOBS);
+        for (int i = 0; i < count; i++) {
+            try {
+                ggep.putParsed(keyAt(i), decode(i), isCompressed(flags[i]));
+            } catch (IOException corrupt) {
+            }
+        }
+        return ggep;
+    }
+}
@@ -4,15 +4,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.limewire.bittorrent.bencoding.BEReader;
+import org.limewire.bittorrent.bencoding.Token;
 import org.limewire.logging.Log;
 import org.limewire.logging.LogFactory;
 import org.limewire.security.SHA1;
@@ -33,6 +38,9 @@ import com.google.common.collect.ImmutableList;
  * This will throw a <code>ValueException</code> if the data is malformed or not
  * what we expect it to be. UTF-8 versions of Strings are preferred over ASCII
  * versions, wherever possible.
+ * <p>
+ * Use {@link #read(ReadableByteChannel, boolean)} to parse a .torrent file
+ * without decoding it into maps and lists first.
  */
 public class BTDataImpl implements BTData {
 
@@ -155,13 +163,13 @@ public class BTDataImpl implements BTData {
 
                 // Don't try ASCII if UTF-8 succeeds.
                 try {
-                    parseFiles(fileMap, ln, files, folders, true);
+                    parseFiles(fileMap.get("path.utf-8"), ln, files, folders);
                     doASCII = false;
                 } catch (BTDataValueException ignored) {
                 }
 
                 if (doASCII)
-                    parseFiles(fileMap, ln, files, folders, false);
+                    parseFiles(fileMap.get("path"), ln, files, folders);
             }
         } else if (tmp != null) {
             throw new BTDataValueException("info->files is non-null, but not a list!");
@@ -210,7 +218,7 @@ public class BTDataImpl implements BTData {
      * list or a single webseed address.
      */
     @SuppressWarnings("unchecked")
-    private URI[] parseWebSeeds(Map<?, ?> torrentFileMap) {
+    private static URI[] parseWebSeeds(Map<?, ?> torrentFileMap) {
         List<URI> webSeeds = new ArrayList<URI>();
         Object tmp = torrentFileMap.get("url-list");
         if (tmp != null) {
@@ -229,7 +237,7 @@ public class BTDataImpl implements BTData {
         return webSeeds.toArray(new URI[webSeeds.size()]);
     }
 
-    private void addURI(List<URI> uris, String uriString) {
+    private static void addURI(List<URI> uris, String uriString) {
         try {
             URI uri = URIUtils.toURI(uriString);
             uris.add(uri);
@@ -238,11 +246,210 @@ public class BTDataImpl implements BTData {
         }
     }
 
-    /** Parses the List of Maps of file data. */
-    private void parseFiles(Map<?, ?> fileMap, Long ln, List<BTData.BTFileData> fileData,
-            Set<String> folderData, boolean utf8) throws BTDataValueException {
+    /**
+     * Constructs a new BTData out of values that were already parsed and
+     * validated.
+     */
+    private BTDataImpl(List<URI> trackerUris, URI[] webSeeds, byte[] infoHash,
+            boolean isPrivate, byte[] pieces, Long pieceLength, String name, Long length,
+            List<BTData.BTFileData> files, Set<String> folders) {
+        this.trackerUris = trackerUris;
+        this.webSeeds = webSeeds;
+        this.infoHash = infoHash;
+        this.isPrivate = isPrivate;
+        this.pieces = pieces;
+        this.pieceLength = pieceLength;
+        this.name = name;
+        this.length = length;
+        this.files = files;
+        this.folders = folders;
+    }
+
+    /**
+     * Reads a BTData from bencoded torrent data in <code>channel</code>.
+     * <p>
+     * The data is streamed through a {@link BEReader} instead of being
+     * decoded into maps and lists, so torrents with many files don't create
+     * a map per file, and the info hash is computed over the raw bytes of
+     * the info dictionary while it is parsed instead of re-encoding it.
+     * 
+     * @param readPieces whether to keep the piece hashes, otherwise they
+     *        are only validated and {@link #getPieces()} returns null
+     */
+    public static BTDataImpl read(ReadableByteChannel channel, boolean readPieces) throws IOException {
+        return read(new BEReader(channel), readPieces);
+    }
+
+    /**
+     * Reads a BTData from the next value of <code>reader</code>, see
+     * {@link #read(ReadableByteChannel, boolean)}.
+     */
+    public static BTDataImpl read(BEReader reader, boolean readPieces) throws IOException {
+        if (reader.peekType() != Token.DICTIONARY)
+            throw new BTDataValueException("expected map");
+
+        // only the small entries parseTrackerUris and parseWebSeeds look at
+        Map<String, Object> torrentFileMap = new HashMap<String, Object>();
+        Info info = null;
+        reader.readDictionaryStart();
+        while (reader.hasNext()) {
+            String key = reader.readKey();
+            if (key.equals("info") && reader.peekType() == Token.DICTIONARY) {
+                reader.beginDigest(new SHA1());
+                info = readInfo(reader, readPieces);
+                info.infoHash = reader.endDigest();
+            } else if (key.equals("info")) {
+                info = null;
+                reader.skipValue();
+            } else if (key.equals("announce") || key.equals("announce-list") || key.equals("url-list")) {
+                torrentFileMap.put(key, reader.readObject());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEnd();
+
+        if (info == null)
+            throw new BTDataValueException("info missing or invalid!");
+
+        return info.create(parseTrackerUris(torrentFileMap), parseWebSeeds(torrentFileMap));
+    }
+
+    /**
+     * Reads the info dictionary, leaving the validation of its values to
+     * {@link Info#create(List, URI[])}.
+     */
+    private static Info readInfo(BEReader reader, boolean readPieces) throws IOException {
+        Info info = new Info();
+        reader.readDictionaryStart();
+        while (reader.hasNext()) {
+            String key = reader.readKey();
+            if (key.equals("private")) {
+                info.privateValue = reader.readObject();
+            } else if (key.equals("pieces")) {
+                info.hasPieces = reader.peekType() == Token.STRING;
+                if (info.hasPieces && readPieces)
+                    info.pieces = reader.readBytes();
+                else
+                    reader.skipValue();
+            } else if (key.equals("piece length")) {
+                info.pieceLength = reader.readObject();
+            } else if (key.equals("name") || key.equals("name.utf-8")) {
+                info.names.put(key, reader.readObject());
+            } else if (key.equals("length")) {
+                info.length = reader.readObject();
+            } else if (key.equals("files")) {
+                info.hasFiles = true;
+                if (reader.peekType() == Token.LIST) {
+                    info.files = new ArrayList<BTData.BTFileData>();
+                    info.folders = new HashSet<String>();
+                    readFiles(reader, info.files, info.folders);
+                } else {
+                    throw new BTDataValueException("info->files is non-null, but not a list!");
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEnd();
+        return info;
+    }
+
+    /**
+     * The values read from the info dictionary of a torrent.
+     */
+    private static class Info {
+        private byte[] infoHash;
+        private Object privateValue;
+        private byte[] pieces;
+        private boolean hasPieces;
+        private Object pieceLength;
+        private final Map<String, Object> names = new HashMap<String, Object>();
+        private Object length;
+        private boolean hasFiles;
+        private List<BTData.BTFileData> files;
+        private Set<String> folders;
+
+        /**
+         * Validates the values and creates the BTData.
+         */
+        BTDataImpl create(List<URI> trackerUris, URI[] webSeeds) throws BTDataValueException {
+            if (!hasPieces)
+                throw new BTDataValueException("info->piece missing!");
+            if (!(pieceLength instanceof Long))
+                throw new BTDataValueException("info->'piece length' missing!");
+
+            String name = getPreferredString(names, "name");
+            if (name == null || name.length() == 0)
+                throw new BTDataValueException("no valid name!");
+
+            if ((length != null) == hasFiles)
+                throw new BTDataValueException("info->length & info.files can't both exist or not exist!");
+
+            if (length instanceof Long) {
+                if ((Long) length < 0)
+                    throw new BTDataValueException("invalid length value");
+            } else if (length != null)
+                throw new BTDataValueException("info->length is non-null, but not a Long!");
+
+            boolean isPrivate = privateValue instanceof Long && ((Long) privateValue).intValue() == 1;
+
+            return new BTDataImpl(trackerUris, webSeeds,
+                    infoHash, isPrivate, pieces, (Long) pieceLength, name, (Long) length,
+                    files, folders);
+        }
+    }
+
+    /**
+     * Reads the list of file dictionaries of a multi-file torrent, one file
+     * at a time.
+     */
+    private static void readFiles(BEReader reader, List<BTData.BTFileData> files,
+            Set<String> folders) throws IOException {
+        reader.readListStart();
+        while (reader.hasNext()) {
+            if (reader.peekType() != Token.DICTIONARY)
+                throw new BTDataValueException("info->files[x] not a Map!");
+
+            Object ln = null;
+            Object path = null;
+            Object pathUtf8 = null;
+            reader.readDictionaryStart();
+            while (reader.hasNext()) {
+                String key = reader.readKey();
+                if (key.equals("length"))
+                    ln = reader.readObject();
+                else if (key.equals("path"))
+                    path = reader.readObject();
+                else if (key.equals("path.utf-8"))
+                    pathUtf8 = reader.readObject();
+                else
+                    reader.skipValue();
+            }
+            reader.readEnd();
+
+            if (!(ln instanceof Long))
+                throw new BTDataValueException("info->files[x].length not a Long!");
+            if ((Long) ln < 0)
+                throw new BTDataValueException("invalid length");
+
+            // Don't try ASCII if UTF-8 succeeds.
+            try {
+                parseFiles(pathUtf8, (Long) ln, files, folders);
+            } catch (BTDataValueException ignored) {
+                parseFiles(path, (Long) ln, files, folders);
+            }
+        }
+        reader.readEnd();
+
+        if (files.isEmpty())
+            throw new BTDataValueException("empty file list");
+    }
+
+    /** Parses the List of path elements of a file. */
+    private static void parseFiles(Object tmp, Long ln, List<BTData.BTFileData> fileData,
+            Set<String> folderData) throws BTDataValueException {
 
-        Object tmp = fileMap.get("path" + (utf8 ? ".utf-8" : ""));
         if (!(tmp instanceof List))
             throw new BTDataValueException("info->files[x].path[.utf-8] not a List!");
 
@@ -260,7 +467,7 @@ public class BTDataImpl implements BTData {
      * folders into the Set of folders. The paths are parsed either as UTF or
      * ASCII.
      */
-    private String parseFileList(List<?> paths, Set<String> folders, boolean utf8)
+    private static String parseFileList(List<?> paths, Set<String> folders, boolean utf8)
             throws BTDataValueException {
         if (paths.isEmpty())
             throw new BTDataValueException("empty paths list");
@@ -293,7 +500,7 @@ public class BTDataImpl implements BTData {
      * Returns either the UTF-8 version (if it exists) or the ASCII version of a
      * String.
      */
-    private String getPreferredString(Map<?, ?> info, String key) {
+    private static String getPreferredString(Map<?, ?> info, String key) {
         String str = null;
 
         Object data = info.get(key + ".utf-8");
@@ -18,8 +18,8 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
+import org.limewire.bittorrent.TorrentTrackerScraper.BatchScrapeCallback;
 import org.limewire.bittorrent.TorrentTrackerScraper.RequestShutdown;
 import org.limewire.bittorrent.TorrentTrackerScraper.ScrapeCallback;
 import org.limewire.inject.LazySingleton;
@@ -33,14 +33,17 @@ import com.google.inject.name.Named;
  * Returning the data from torrent scraping by asynchronously 
  *  queueing then staggering the requests
  *  
+ * <p> Queued torrents are grouped by tracker so up to 
+ *      {@link TorrentTrackerScraper#MAX_URNS_PER_SCRAPE} torrents are 
+ *      scraped with a single request.  Only a few requests are 
+ *      outstanding at once, and at most one per tracker.
+ *  
  * <p> NOTE: Will go to sleep in periods of inactivity.  Will
  *            clear cache entries randomly if the entry 
  *            threshold is achieved when going to sleep. 
- *            Will ban trackers that consistently fail
- *            after scrapes are attempted. 
- *            
- * TODO: 
- *        tracker ban
+ *            Will back off from trackers that fail and ban 
+ *            trackers that consistently fail after scrapes 
+ *            are attempted. 
  */
 @LazySingleton
 public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
@@ -63,6 +66,11 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
      */
     private static final int MAX_FAILURES_TO_KEEP_CACHED = 250;
 
+    /**
+     * Threshold before clearing cached tracker states.
+     */
+    private static final int MAX_TRACKERS_TO_KEEP_CACHED = 100;
+    
     /**
      * Number of cycles to wait with an empty
      *  request queue and no job before stopping this scheduler.
@@ -78,8 +86,39 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
      */
     private static final int PROCESSING_PERIOD_MAX = 3;
     
+    /**
+     * Maximum number of scrape requests outstanding at once.
+     */
+    private static final int MAX_REQUESTS = 4;
+    
+    /**
+     * Maximum number of scrape requests outstanding at once to 
+     *  a single tracker.
+     */
+    private static final int MAX_REQUESTS_PER_TRACKER = 1;
+    
+    /**
+     * Time to wait before scraping a tracker again after its 
+     *  first failure.  Doubles with every consecutive failure.
+     */
+    private static final long INITIAL_BACKOFF = 30 * 1000;
+    
+    /**
+     * Longest time to wait before scraping a failing tracker again.
+     */
+    private static final long MAX_BACKOFF = 30 * 60 * 1000;
     
-    private int processingPeriodsCount = 0;
+    /**
+     * Number of consecutive failures before a tracker is banned.
+     */
+    private static final int MAX_TRACKER_FAILURES = 6;
+    
+    /**
+     * Number of successful responses a torrent may be missing from before 
+     *  giving up on it.  Trackers leave out the torrents they do not track 
+     *  as well as the ones beyond their limit of results per response.
+     */
+    private static final int MAX_TORRENT_MISSES = 3;
     
     private final TorrentTrackerScraper scraper;
     
@@ -107,7 +146,8 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
     private final Set<String> failedTorrents = new HashSet<String>();
     
     /**
-     * Processing queue.
+     * Processing queue.  Also guards the callbacks, the torrents
+     *  being scraped, the active batches and the tracker states.
      */
     private final Queue<Torrent> torrentsToScrape
         = new LinkedList<Torrent>();
@@ -115,16 +155,25 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
     private final Map<Torrent,ScrapeCallback> callbacks = new HashMap<Torrent, ScrapeCallback>();
     
     /**
-     * The current thread being processed.
+     * The sha1s of the torrents currently being scraped.
      */
-    private final AtomicReference<Torrent> currentlyScrapingTorrent
-        = new AtomicReference<Torrent>(null);
+    private final Set<String> scrapingTorrents = new HashSet<String>();
  
     /**
-     * A shutoff for the current job if it has been running too long.
+     * The scrape requests that have been submitted but not yet completed.
      */
-    private RequestShutdown currentScrapeAttemptShutdown = null;
+    private final List<Batch> activeBatches = new ArrayList<Batch>();
     
+    /**
+     * Failure and load state of the trackers scraped so far.
+     */
+    private final Map<URI,TrackerState> trackerStates = new HashMap<URI, TrackerState>();
+    
+    /**
+     * Number of successful responses the requeued torrents were missing
+     *  from, keyed by sha1.
+     */
+    private final Map<String,Integer> torrentMisses = new HashMap<String, Integer>();
     
     /**
      * Used to decide when to give up waiting for requests 
@@ -158,9 +207,10 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
     @Override
     public void queueScrapeIfNew(Torrent torrent) {
         
-        Torrent current = currentlyScrapingTorrent.get();
-        if (current != null && torrent.getSha1().equals(current.getSha1())) {
-            return;
+        synchronized (torrentsToScrape) {
+            if (scrapingTorrents.contains(torrent.getSha1())) {
+                return;
+            }
         }
         
         synchronized (resultsMap) {
@@ -238,7 +288,16 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
                 LOG.debugf("purging {0} results", resultsToRemove);
                 purge(resultsMap, resultsToRemove);
             }
-        }        
+        }
+        
+        synchronized (torrentsToScrape) {
+            // Only purge once no requests are outstanding
+            int trackersToRemove = trackerStates.size() - MAX_TRACKERS_TO_KEEP_CACHED;
+            if (activeBatches.isEmpty() && trackersToRemove > 0) {
+                LOG.debugf("purging {0} trackers", trackersToRemove);
+                randomPurge(trackerStates, null, trackersToRemove);
+            }
+        }
     }
     
     @Override
@@ -251,11 +310,13 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
     /**
      * Mark a torrent that failed so we dont attempt to scrape it again.
      */
-    private void markCurrentTorrentFailure(ScrapeCallback callback, String reason) {
-        LOG.debugf("  {0} MARK FAIL", currentlyScrapingTorrent.get().getName());
-        LOG.debugf("    reason=", reason);
+    private void markTorrentFailure(Torrent torrent, ScrapeCallback callback, String reason) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debugf("  {0} MARK FAIL", torrent.getName());
+            LOG.debugf("    reason={0}", reason);
+        }
         synchronized (failedTorrents) {
-            failedTorrents.add(currentlyScrapingTorrent.getAndSet(null).getSha1());
+            failedTorrents.add(torrent.getSha1());
         }
         if (callback != null) {
             callback.failure(reason);
@@ -263,101 +324,348 @@ public class TorrentScrapeSchedulerImpl implements TorrentScrapeScheduler {
     }
     
     /**
-     * Used to ban consistently failing trackers.
+     * Returns the state of the given tracker, creating it if needed.
      * 
-     * TODO!
+     * <p>NOTE: must hold the torrentsToScrape lock. 
      */
-    private void markCurrentTrackerFailure() {
+    private TrackerState getTrackerState(URI tracker) {
+        TrackerState state = trackerStates.get(tracker);
+        if (state == null) {
+            state = new TrackerState();
+            trackerStates.put(tracker, state);
+        }
+        return state;
+    }
+    
+    /**
+     * Backs off from a tracker that failed, banning it if it
+     *  consistently fails.
+     * 
+     * <p>NOTE: must hold the torrentsToScrape lock. 
+     */
+    private void markTrackerFailure(URI tracker, TrackerState state) {
+        state.failures++;
+        if (state.isBanned()) {
+            LOG.debugf(" {0} BANNED", tracker);
+            return;
+        }
+        long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << (state.failures - 1));
+        state.retryTime = System.currentTimeMillis() + backoff;
+        LOG.debugf(" {0} backing off for {1} ms", tracker, backoff);
+    }
+    
+    /**
+     * Find first HTTP tracker since right now we only support them.
+     * 
+     * @return the tracker or null if the torrent has no HTTP trackers
+     */
+    private static URI getHTTPTracker(Torrent torrent) {
+        for ( URI potentialTracker : torrent.getTrackerURIS() ) {
+            if (potentialTracker.toString().toLowerCase(Locale.US).startsWith("http")) {
+                return potentialTracker;
+            }
+        }
+        return null;
     }
    
     /**
-     * The processing thread.  Handles submitting jobs.
+     * The processing thread.  Handles cancelling stalled requests and 
+     *  submitting jobs.
      */
     private void process() {
         
-        final Torrent torrent;
-        final ScrapeCallback callback;
+        List<Batch> stalledBatches = new ArrayList<Batch>();
+        List<Batch> newBatches = new ArrayList<Batch>();
+        Map<Torrent,String> failures = new LinkedHashMap<Torrent, String>();
+        Map<Torrent,ScrapeCallback> failureCallbacks = new HashMap<Torrent, ScrapeCallback>();
         
         synchronized (torrentsToScrape) {
-            if (!currentlyScrapingTorrent.compareAndSet(null, torrentsToScrape.peek())) {
-                if (processingPeriodsCount++ >= PROCESSING_PERIOD_MAX) {
-                    LOG.debugf("CANCEL SCRAPE REQUEST");
-                    currentScrapeAttemptShutdown.shutdown();
-                    // Don't need to mark fail here... will get it on shutdown
+            for ( Batch batch : activeBatches ) {
+                if (batch.processingPeriodsCount++ >= PROCESSING_PERIOD_MAX) {
+                    stalledBatches.add(batch);
+                }
+            }
+            
+            if (torrentsToScrape.isEmpty() && activeBatches.isEmpty()) {
+                if (queueEmptyPeriodsCount++ > EMPTY_PERIOD_MAX) {
+                    sleep();
                 }
                 return;
-            } else {
-                torrentsToScrape.poll();
+            } 
+            
+            queueEmptyPeriodsCount = 0;
+            
+            long now = System.currentTimeMillis();
+            int available = MAX_REQUESTS - activeBatches.size();
+            Map<URI,Batch> batchesByTracker = new HashMap<URI, Batch>();
+            
+            for ( Iterator<Torrent> iterator = torrentsToScrape.iterator() ; iterator.hasNext() ; ) {
+                Torrent torrent = iterator.next();
+                
+                String reason = null;
+                URI tracker = null;
+                if (torrent.getTrackerURIS().isEmpty()) {
+                    reason = "no trackers attached to the torrent";
+                } else {
+                    tracker = getHTTPTracker(torrent);
+                    if (tracker == null) {
+                        reason = "could not find an http tracker";
+                    } else if (getTrackerState(tracker).isBanned()) {
+                        reason = "tracker banned";
+                    }
+                }
+                
+                if (reason != null) {
+                    iterator.remove();
+                    failures.put(torrent, reason);
+                    failureCallbacks.put(torrent, callbacks.remove(torrent));
+                    continue;
+                }
+                
+                Batch batch = batchesByTracker.get(tracker);
+                if (batch == null || batch.torrents.size() >= TorrentTrackerScraper.MAX_URNS_PER_SCRAPE) {
+                    TrackerState state = getTrackerState(tracker);
+                    if (available <= 0 
+                            || state.inFlight >= MAX_REQUESTS_PER_TRACKER
+                            || state.retryTime > now) {
+                        // Leave queued until the tracker can be scraped again
+                        continue;
+                    }
+                    batch = new Batch(tracker, state);
+                    batchesByTracker.put(tracker, batch);
+                    newBatches.add(batch);
+                    state.inFlight++;
+                    available--;
+                }
                 
-                torrent = currentlyScrapingTorrent.get();
-                callback = callbacks.remove(torrent);
+                iterator.remove();
+                batch.torrents.put(torrent.getSha1(), torrent);
+                batch.callbacks.put(torrent, callbacks.remove(torrent));
+                scrapingTorrents.add(torrent.getSha1());
             }
+            
+            activeBatches.addAll(newBatches);
         }
         
-         if (torrent == null) {
-            if (queueEmptyPeriodsCount++ > EMPTY_PERIOD_MAX) {
-                sleep();
+        for ( Batch batch : stalledBatches ) {
+            LOG.debugf("CANCEL SCRAPE REQUEST");
+            if (batch.shutdown != null) {
+                batch.shutdown.shutdown();
             }
-            return;
-        } else {
-            processingPeriodsCount = 0;
-            queueEmptyPeriodsCount = 0;
+            finish(batch, null, null, "scrape request timed out", true);
         }
         
-        List<URI> trackers = torrent.getTrackerURIS();
-        if (trackers.size() < 1) {
-            // Has no trackers
-            markCurrentTorrentFailure(callback, "no trackers attached to the torrent");
-            return;
+        for ( Map.Entry<Torrent,String> failure : failures.entrySet() ) {
+            markTorrentFailure(failure.getKey(), failureCallbacks.get(failure.getKey()),
+                    failure.getValue());
+        }
+        
+        for ( Batch batch : newBatches ) {
+            submit(batch);
+        }
+    }
+    
+    /**
+     * Submits the scrape request for a batch.
+     */
+    private void submit(final Batch batch) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debugf(" {0} torrents submit to {1}", batch.torrents.size(), batch.tracker);
         }
 
-        // Find first HTTP tracker since right now we only support them
-        URI tracker = null;
-        for ( URI potentialTracker : trackers ) {
-            if (potentialTracker.toString().toLowerCase(Locale.US).startsWith("http")) {
-                tracker = potentialTracker;
-                break;
+        RequestShutdown shutdown = scraper.submitScrape(batch.tracker,
+                batch.torrents.keySet(), 
+                new BatchScrapeCallback() {
+            @Override
+            public void success(Map<String, TorrentScrapeData> data, Map<String, String> errors) {
+                finish(batch, data, errors, null, false);
+            }
+            @Override
+            public void failure(String reason) {
+                finish(batch, null, null, reason, true);
+            }
+        });
+        
+        if (shutdown == null) {
+            finish(batch, null, null, "could not create scrape request", false);
+        } else {
+            synchronized (torrentsToScrape) {
+                batch.shutdown = shutdown;
             }
         }
+    }
+    
+    /**
+     * Completes a batch, caching the results of the torrents that were 
+     *  found.  Only the torrents the tracker answered with an error are 
+     *  marked as failed, the others are queued again and wait for the 
+     *  tracker backoff, or fail once the tracker is banned.  Only the first 
+     *  call for a batch has any effect.
+     *  
+     * @param results the scrape data keyed by sha1, or null if the request failed
+     * @param errors the reasons for the torrents the tracker answered with 
+     *          an error keyed by sha1, or null if the request failed
+     * @param reason the reason the request failed
+     * @param trackerFailure whether the tracker should be backed off from,
+     *          if the request failed without reaching the tracker the
+     *          torrents are marked as failed
+     */
+    private void finish(Batch batch, Map<String, TorrentScrapeData> results,
+            Map<String, String> errors, String reason, boolean trackerFailure) {
         
-        if (tracker == null) {
-            // Could not find any HTTP trackers.
-            markCurrentTorrentFailure(callback, "could not find an http tracker");
+        if (!batch.finished.compareAndSet(false, true)) {
             return;
         }
         
-        if (LOG.isDebugEnabled()) {
-            LOG.debugf(" {0} submit", torrent.getName());
-        }
-
-        currentScrapeAttemptShutdown = scraper.submitScrape(tracker,
-                torrent.getSha1(), 
-                new ScrapeCallback() {
-            @Override
-            public void success(TorrentScrapeData data) {
-                synchronized (resultsMap) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debugf("  {0} FOUND", torrent.getName());
+        Map<Torrent,String> failures = new LinkedHashMap<Torrent, String>();
+        
+        synchronized (torrentsToScrape) {
+            activeBatches.remove(batch);
+            scrapingTorrents.removeAll(batch.torrents.keySet());
+            batch.trackerState.inFlight--;
+            if (trackerFailure) {
+                markTrackerFailure(batch.tracker, batch.trackerState);
+            } else if (results != null) {
+                batch.trackerState.failures = 0;
+                batch.trackerState.retryTime = 0;
+            }
+            
+            for ( Map.Entry<String,Torrent> entry : batch.torrents.entrySet() ) {
+                String sha1 = entry.getKey();
+                Torrent torrent = entry.getValue();
+                
+                if (results == null) {
+                    if (!trackerFailure) {
+                        failures.put(torrent, reason);
+                    } else {
+                        requeue(torrent, batch.callbacks.get(torrent));
+                    }
+                } else if (results.containsKey(sha1)) {
+                    torrentMisses.remove(sha1);
+                } else if (errors.containsKey(sha1)) {
+                    failures.put(torrent, errors.get(sha1));
+                } else {
+                    Integer misses = torrentMisses.get(sha1);
+                    misses = misses == null ? 1 : misses + 1;
+                    if (misses >= MAX_TORRENT_MISSES) {
+                        failures.put(torrent, "torrent not found in scrape results");
+                    } else {
+                        torrentMisses.put(sha1, misses);
+                        requeue(torrent, batch.callbacks.get(torrent));
                     }
-                    resultsMap.put(currentlyScrapingTorrent.getAndSet(null).getSha1(),
-                            data);
-                }
-                if (callback != null) {
-                    callback.success(data);
                 }
             }
-            @Override
-            public void failure(String reason) {
+            
+            for ( Torrent torrent : failures.keySet() ) {
+                torrentMisses.remove(torrent.getSha1());
+            }
+        }
+        
+        for ( Map.Entry<Torrent,String> failure : failures.entrySet() ) {
+            markTorrentFailure(failure.getKey(), batch.callbacks.get(failure.getKey()),
+                    failure.getValue());
+        }
+        
+        if (results == null) {
+            return;
+        }
+        
+        for ( Map.Entry<String,Torrent> entry : batch.torrents.entrySet() ) {
+            TorrentScrapeData data = results.get(entry.getKey());
+            if (data == null) {
+                continue;
+            }
+            
+            Torrent torrent = entry.getValue();
+            synchronized (resultsMap) {
                 if (LOG.isDebugEnabled()) {
-                    LOG.debugf("   {0} FAILED", torrent.getName());
+                    LOG.debugf("  {0} FOUND", torrent.getName());
                 }
-                markCurrentTrackerFailure();
-                markCurrentTorrentFailure(callback, reason);
+                resultsMap.put(entry.getKey(), data);
             }
-        });
-        if (currentScrapeAttemptShutdown == null) {
-            markCurrentTorrentFailure(callback, "could not create scrape request");
-            return;
+            ScrapeCallback callback = batch.callbacks.get(torrent);
+            if (callback != null) {
+                callback.success(data);
+            }
+        }
+    }
+    
+    /**
+     * Queues a torrent of a batch again with its callback.
+     * 
+     * <p>NOTE: must hold the torrentsToScrape lock. 
+     */
+    private void requeue(Torrent torrent, ScrapeCallback callback) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debugf("  {0} REQUEUED", torrent.getName());
+        }
+        for ( Torrent torrentToScrape : torrentsToScrape ) {
+            if (torrentToScrape.getSha1().equals(torrent.getSha1())) {
+                return;
+            }
+        }
+        callbacks.put(torrent, callback);
+        torrentsToScrape.add(torrent);
+        wakeup();
+    }
+    
+    /**
+     * A single scrape request for several torrents of one tracker.
+     */
+    private static class Batch {
+        
+        private final URI tracker;
+        
+        private final TrackerState trackerState;
+        
+        /**
+         * The torrents being scraped keyed by sha1.
+         */
+        private final Map<String,Torrent> torrents = new LinkedHashMap<String, Torrent>();
+        
+        private final Map<Torrent,ScrapeCallback> callbacks = new HashMap<Torrent, ScrapeCallback>();
+        
+        /**
+         * Guards against completing the batch twice, ie. when a cancelled
+         *  request still reports its failure.
+         */
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        
+        /**
+         * A shutoff for the request if it has been running too long.
+         */
+        private RequestShutdown shutdown = null;
+        
+        private int processingPeriodsCount = 0;
+        
+        Batch(URI tracker, TrackerState trackerState) {
+            this.tracker = tracker;
+            this.trackerState = trackerState;
+        }
+    }
+    
+    /**
+     * Failure and load state of a tracker.
+     */
+    private static class TrackerState {
+        
+        /**
+         * Number of scrape requests outstanding to the tracker.
+         */
+        private int inFlight = 0;
+        
+        /**
+         * Number of consecutive failed requests.
+         */
+        private int failures = 0;
+        
+        /**
+         * The time before which the tracker should not be scraped again.
+         */
+        private long retryTime = 0;
+        
+        boolean isBanned() {
+            return failures >= MAX_TRACKER_FAILURES;
         }
     }
     
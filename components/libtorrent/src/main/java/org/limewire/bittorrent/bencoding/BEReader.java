@@ -0,0 +1,385 @@
+package org.limewire.bittorrent.bencoding;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.limewire.util.BEncoder;
+
+/**
+ * Pull-style reader of bencoded data held in a <code>ByteBuffer</code> or
+ * streamed from a channel.
+ * <p>
+ * Unlike {@link Token#parse(ReadableByteChannel)} this does not build an
+ * object tree of the whole data. The caller walks the data value by value,
+ * and values that aren't needed are skipped without being parsed into
+ * objects. Data read from a channel passes through a buffer of a fixed
+ * size, so large values that are skipped are never held in memory. The raw
+ * encoded bytes read between {@link #beginDigest(MessageDigest)} and
+ * {@link #endDigest()} are digested as they are read, which allows hashing
+ * the info dictionary of a torrent while parsing it.
+ * <p>
+ * A dictionary is read by calling {@link #readDictionaryStart()}, then
+ * alternating {@link #readKey()} and reading or skipping the value while
+ * {@link #hasNext()} returns true, and finally {@link #readEnd()}. Lists
+ * are read the same way, without the keys.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class BEReader {
+
+    /** The charset used for dictionary keys and by {@link #readObject()}. */
+    private static final String ASCII = Token.ASCII;
+
+    /** Size of the buffer data read from a channel passes through. */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Largest string that is read into memory. */
+    private static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+    /** The channel the buffer is refilled from, null if there is none. */
+    private final ReadableByteChannel channel;
+
+    /** The data, positioned at the next byte to read. */
+    private final ByteBuffer buf;
+
+    /** The digest of the bytes being read, null if none are digested. */
+    private MessageDigest digest;
+
+    /** The position in the buffer of the first byte not yet digested. */
+    private int digestStart;
+
+    /**
+     * Creates a reader for the remaining bytes of <code>buf</code>. The
+     * buffer's position is advanced as values are read.
+     */
+    public BEReader(ByteBuffer buf) {
+        this.channel = null;
+        this.buf = buf;
+    }
+
+    /**
+     * Creates a reader for all data that can be read from
+     * <code>channel</code>. The data is read as it is needed.
+     */
+    public BEReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(BUFFER_SIZE);
+        buf.flip();
+    }
+
+    /**
+     * Returns the type of the next value, one of {@link Token#LONG},
+     * {@link Token#STRING}, {@link Token#LIST}, {@link Token#DICTIONARY},
+     * {@link Token#BOOLEAN} and {@link Token#RATIONAL}, without reading it.
+     *
+     * @throws IOException if the next byte does not start a value
+     */
+    public int peekType() throws IOException {
+        byte b = peek();
+        if (b == BEncoder.I)
+            return Token.LONG;
+        if (b >= Token.ZERO && b <= Token.NINE)
+            return Token.STRING;
+        if (b == BEncoder.L)
+            return Token.LIST;
+        if (b == BEncoder.D)
+            return Token.DICTIONARY;
+        if (b == BEncoder.TRUE || b == BEncoder.FALSE)
+            return Token.BOOLEAN;
+        if (b == BEncoder.R)
+            return Token.RATIONAL;
+        throw new IOException("unrecognized token type " + (char)b);
+    }
+
+    /**
+     * Returns true if the current list or dictionary has more elements.
+     */
+    public boolean hasNext() throws IOException {
+        return peek() != BEncoder.E;
+    }
+
+    /** Reads the start of a list. */
+    public void readListStart() throws IOException {
+        expect(BEncoder.L, "list");
+    }
+
+    /** Reads the start of a dictionary. */
+    public void readDictionaryStart() throws IOException {
+        expect(BEncoder.D, "dictionary");
+    }
+
+    /** Reads the end of the current list or dictionary. */
+    public void readEnd() throws IOException {
+        expect(BEncoder.E, "end");
+    }
+
+    /** Reads the key of the next dictionary entry. */
+    public String readKey() throws IOException {
+        return readString(ASCII);
+    }
+
+    /** Reads a number. */
+    public long readLong() throws IOException {
+        expect(BEncoder.I, "integer");
+        return readNumber(BEncoder.E);
+    }
+
+    /** Reads a boolean. */
+    public boolean readBoolean() throws IOException {
+        byte b = next();
+        if (b == BEncoder.TRUE)
+            return true;
+        if (b == BEncoder.FALSE)
+            return false;
+        throw new IOException("expected boolean");
+    }
+
+    /** Reads a string and returns a copy of its bytes. */
+    public byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[readStringLength()];
+        readFully(bytes);
+        return bytes;
+    }
+
+    /** Reads a string and decodes it with the given charset. */
+    public String readString(String charsetName) throws IOException {
+        int length = readStringLength();
+        if (buf.hasArray() && length <= buf.remaining()) {
+            String string = new String(buf.array(), buf.arrayOffset() + buf.position(),
+                    length, charsetName);
+            buf.position(buf.position() + length);
+            return string;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, charsetName);
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            if (!fill())
+                throw new EOFException("Could not read String token");
+            int n = Math.min(buf.remaining(), bytes.length - read);
+            buf.get(bytes, read, n);
+            read += n;
+        }
+    }
+
+    /**
+     * Reads the length prefix of a string that is read into memory.
+     */
+    private int readStringLength() throws IOException {
+        if (peekType() != Token.STRING)
+            throw new IOException("expected string");
+        long length = readNumber(BEncoder.COLON);
+        if (length > MAX_STRING_LENGTH)
+            throw new IOException("string too large");
+        if (channel == null && length > buf.remaining())
+            throw new EOFException("Could not read String token");
+        return (int)length;
+    }
+
+    /**
+     * Skips the next value, including all elements of a list or
+     * dictionary, without creating any objects for it.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peekType()) {
+            case Token.LONG:
+                readLong();
+                break;
+            case Token.RATIONAL:
+                next();
+                readNumber(BEncoder.E);
+                break;
+            case Token.STRING:
+                long length = readNumber(BEncoder.COLON);
+                while (length > 0) {
+                    if (!fill())
+                        throw new EOFException("Could not read String token");
+                    int n = (int)Math.min(buf.remaining(), length);
+                    buf.position(buf.position() + n);
+                    length -= n;
+                }
+                break;
+            case Token.BOOLEAN:
+                next();
+                break;
+            default:
+                // list or dictionary, keys are skipped like any string
+                next();
+                depth++;
+            }
+            while (depth > 0 && peek() == BEncoder.E) {
+                next();
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Starts digesting the raw bencoded bytes that are read from now on.
+     * 
+     * @throws IllegalStateException if a digest was already begun
+     */
+    public void beginDigest(MessageDigest messageDigest) {
+        if (digest != null)
+            throw new IllegalStateException("already digesting");
+        digest = messageDigest;
+        digestStart = buf.position();
+    }
+
+    /**
+     * Returns the digest of the raw bencoded bytes read since
+     * {@link #beginDigest(MessageDigest)} and stops digesting.
+     * 
+     * @throws IllegalStateException if no digest was begun
+     */
+    public byte[] endDigest() {
+        if (digest == null)
+            throw new IllegalStateException("not digesting");
+        updateDigest();
+        byte[] result = digest.digest();
+        digest = null;
+        return result;
+    }
+
+    /**
+     * Digests the bytes read since the last update, if digesting.
+     */
+    private void updateDigest() {
+        if (digest != null && buf.position() > digestStart) {
+            ByteBuffer read = buf.duplicate();
+            read.limit(buf.position());
+            read.position(digestStart);
+            digest.update(read);
+        }
+        digestStart = buf.position();
+    }
+
+    /**
+     * Refills the buffer from the channel if all of it has been read.
+     * 
+     * @return false if there is no more data
+     */
+    private boolean fill() throws IOException {
+        if (buf.hasRemaining())
+            return true;
+        if (channel == null)
+            return false;
+        updateDigest();
+        buf.clear();
+        int read;
+        do {
+            read = channel.read(buf);
+        } while (read == 0);
+        buf.flip();
+        digestStart = 0;
+        return buf.hasRemaining();
+    }
+
+    /**
+     * Reads the next value into the same objects {@link Token#parse}
+     * creates: <code>Long</code>, <code>byte[]</code>, <code>List</code>,
+     * <code>Map</code> with string keys, <code>Boolean</code> and
+     * <code>Double</code>. Use this only for values that are known to be
+     * small.
+     */
+    public Object readObject() throws IOException {
+        switch (peekType()) {
+        case Token.LONG:
+            return readLong();
+        case Token.STRING:
+            return readBytes();
+        case Token.BOOLEAN:
+            return readBoolean();
+        case Token.RATIONAL:
+            next();
+            return readRational();
+        case Token.LIST:
+            readListStart();
+            List<Object> list = new ArrayList<Object>();
+            while (hasNext())
+                list.add(readObject());
+            readEnd();
+            return list;
+        default:
+            readDictionaryStart();
+            Map<String, Object> map = new HashMap<String, Object>();
+            while (hasNext()) {
+                String key = readKey();
+                map.put(key, readObject());
+            }
+            readEnd();
+            return map;
+        }
+    }
+
+    private double readRational() throws IOException {
+        long value = readNumber(BEncoder.E);
+        // like BERational, the sign is applied to the decoded bits
+        double ret = Double.longBitsToDouble(Math.abs(value));
+        return value < 0 ? -ret : ret;
+    }
+
+    private byte peek() throws IOException {
+        if (!fill())
+            throw new EOFException("Could not read next Token");
+        return buf.get(buf.position());
+    }
+
+    private byte next() throws IOException {
+        if (!fill())
+            throw new EOFException("Could not read next Token");
+        return buf.get();
+    }
+
+    private void expect(byte expected, String what) throws IOException {
+        if (next() != expected)
+            throw new IOException("expected " + what);
+    }
+
+    /**
+     * Reads the digits of a number up to and including the terminator,
+     * rejecting the same malformed numbers {@link BELong} rejects.
+     */
+    private long readNumber(byte terminator) throws IOException {
+        boolean negative = false;
+        int digits = 0;
+        long value = 0;
+        boolean zero = false;
+        while (true) {
+            byte b = next();
+            if (b == terminator && digits > 0)
+                return negative ? -value : value;
+            if (b == '-' && digits == 0 && !negative) {
+                negative = true;
+                continue;
+            }
+            if (b < Token.ZERO || b > Token.NINE)
+                throw new IOException("invalid integer");
+            if (zero)
+                throw new IOException("leading 0s");
+            if (b == Token.ZERO && digits == 0) {
+                if (negative)
+                    throw new IOException("negative 0");
+                zero = true;
+            }
+            int digit = b - Token.ZERO;
+            if (value > (Long.MAX_VALUE - digit) / 10)
+                throw new IOException("too big");
+            value = value * 10 + digit;
+            digits++;
+        }
+    }
+}
@@ -22,6 +22,10 @@ package org.limewire.mojito;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
@@ -29,6 +33,7 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Map.Entry;
@@ -43,51 +48,53 @@ import org.limewire.security.SecurityUtils;
  * KUID stands for Kademlia Unique Identifier and represents 
  * a 160-bit integer.
  * <p>
+ * The 160 bits are packed into two longs and an int, most significant
+ * bits first, so that XOR distances, bit lookups and comparisons are
+ * a few word operations and don't create any objects. The wire format
+ * written by {@link #write(OutputStream)} and the serialized form are
+ * the 20 bytes of the ID, as they have always been.
+ * <p>
  * This class is immutable!
  */
 public class KUID implements Comparable<KUID>, Serializable {
     
     private static final long serialVersionUID = 633717248208386374L;
     
+    /**
+     * The serialized fields of the byte[] based KUID, which are still
+     * used for the serialized form.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", byte[].class),
+        new ObjectStreamField("hashCode", int.class)
+    };
+    
     private static final Random GENERATOR = SecurityUtils.createSecureRandomNoBlock();
     
     public static final int LENGTH = 20;
     
     public static final int LENGTH_IN_BITS = LENGTH * 8; // 160-bit
     
-    /** Bits from Most Significant Bits (MSB) to Least Significant Bits (LSB) */
-    private static final int[] BITS = {
-        0x80,
-        0x40,
-        0x20,
-        0x10,
-        0x8,
-        0x4,
-        0x2,
-        0x1
-    };
-    
     /** All 160 bits are 0. */
-    public static final KUID MINIMUM;
+    public static final KUID MINIMUM = new KUID(0L, 0L, 0);
     
     /** All 160 bits are 1. */
-    public static final KUID MAXIMUM;
-                                           
-    static {
-        byte[] min = new byte[LENGTH];
-        
-        byte[] max = new byte[LENGTH];
-        Arrays.fill(max, (byte)0xFF);
-        
-        MINIMUM = new KUID(min);
-        MAXIMUM = new KUID(max);
-    }
+    public static final KUID MAXIMUM = new KUID(-1L, -1L, -1);
     
-    /** The id. */
-    private final byte[] id;
+    /** 
+     * Bits 0 to 63 of the id. These fields are only assigned while
+     * constructing or deserializing.
+     */
+    private transient long high;
+    
+    /** Bits 64 to 127 of the id. */
+    private transient long middle;
+    
+    /** Bits 128 to 159 of the id. */
+    private transient int low;
     
     /** The hashCode of this Object. */
-    private final int hashCode;
+    private transient int hashCode;
     
     protected KUID(byte[] id) {
         if (id == null) {
@@ -98,25 +105,86 @@ public class KUID implements Comparable<KUID>, Serializable {
             throw new IllegalArgumentException("ID must be " + LENGTH + " bytes long");
         }
         
-        this.id = id;
-        this.hashCode = Arrays.hashCode(id);
+        init(readLong(id, 0), readLong(id, 8), (int)readBits(id, 16, 4));
+    }
+    
+    private KUID(long high, long middle, int low) {
+        init(high, middle, low);
+    }
+    
+    private void init(long high, long middle, int low) {
+        this.high = high;
+        this.middle = middle;
+        this.low = low;
+        
+        int hash = (int)(high ^ (high >>> 32));
+        hash = 31 * hash + (int)(middle ^ (middle >>> 32));
+        this.hashCode = 31 * hash + low;
+    }
+    
+    private static long readLong(byte[] id, int offset) {
+        return readBits(id, offset, 8);
+    }
+    
+    private static long readBits(byte[] id, int offset, int length) {
+        long value = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (id[i] & 0xFFL);
+        }
+        return value;
+    }
+    
+    /**
+     * Returns the byte at the given index of the 20 byte id.
+     */
+    private byte byteAt(int index) {
+        if (index < 8) {
+            return (byte)(high >>> (56 - 8 * index));
+        } else if (index < 16) {
+            return (byte)(middle >>> (56 - 8 * (index - 8)));
+        } else if (index < LENGTH) {
+            return (byte)(low >>> (24 - 8 * (index - 16)));
+        }
+        throw new ArrayIndexOutOfBoundsException(index);
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", getBytes());
+        fields.put("hashCode", hashCode);
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        byte[] id = (byte[])fields.get("id", null);
+        if (id == null || id.length != LENGTH) {
+            throw new InvalidObjectException("ID must be " + LENGTH + " bytes long");
+        }
+        init(readLong(id, 0), readLong(id, 8), (int)readBits(id, 16, 4));
     }
     
     /**
      * Writes the ID to the OutputStream.
      */
     public void write(OutputStream out) throws IOException {
-        out.write(id, 0, id.length);
+        out.write(getBytes());
     }
     
     /**
      * Returns whether or not the 'bitIndex' th bit is set.
      */
     public boolean isBitSet(int bitIndex) {
-        // Take advantage of rounding errors!
-        int index = (bitIndex / BITS.length);
-        int bit = (bitIndex - index * BITS.length);
-        return (id[index] & BITS[bit]) != 0;
+        if (bitIndex < 0) {
+            throw new ArrayIndexOutOfBoundsException(bitIndex);
+        } else if (bitIndex < 64) {
+            return (high << bitIndex) < 0L;
+        } else if (bitIndex < 128) {
+            return (middle << (bitIndex - 64)) < 0L;
+        } else if (bitIndex < LENGTH_IN_BITS) {
+            return (low << (bitIndex - 128)) < 0;
+        }
+        throw new ArrayIndexOutOfBoundsException(bitIndex);
     }
     
     /**
@@ -147,33 +215,79 @@ public class KUID implements Comparable<KUID>, Serializable {
      * Sets or unsets the 'bitIndex' th bit.
      */
     private KUID set(int bitIndex, boolean set) {
-        // Take advantage of rounding errors!
-        int index = (bitIndex / BITS.length);
-        int bit = (bitIndex - index * BITS.length);
-        boolean isBitSet = (id[index] & BITS[bit]) != 0;
-        
         // Don't create a new Object if nothing is
         // gonna change
-        if (isBitSet != set) {
-            byte[] id = getBytes();
-            id[index] ^= BITS[bit];
-            return new KUID(id);
-        } else {
+        if (isBitSet(bitIndex) == set) {
             return this;
         }
+        
+        if (bitIndex < 64) {
+            return new KUID(high ^ (Long.MIN_VALUE >>> bitIndex), middle, low);
+        } else if (bitIndex < 128) {
+            return new KUID(high, middle ^ (Long.MIN_VALUE >>> (bitIndex - 64)), low);
+        } else {
+            return new KUID(high, middle, low ^ (Integer.MIN_VALUE >>> (bitIndex - 128)));
+        }
     }
     
     /**
      * Returns the number of bits that are 1.
      */
     public int bits() {
-        int bits = 0;
-        for(int i = 0; i < LENGTH_IN_BITS; i++) {
-            if (isBitSet(i)) {
-                bits++;
-            }
+        return Long.bitCount(high) + Long.bitCount(middle) + Integer.bitCount(low);
+    }
+    
+    /**
+     * Returns the index of the first bit that differs in this KUID
+     * and the given KUID, or LENGTH_IN_BITS if both are equal.
+     */
+    private int firstDifferentBit(KUID nodeId) {
+        long x = high ^ nodeId.high;
+        if (x != 0L) {
+            return Long.numberOfLeadingZeros(x);
+        }
+        
+        x = middle ^ nodeId.middle;
+        if (x != 0L) {
+            return 64 + Long.numberOfLeadingZeros(x);
+        }
+        
+        return 128 + Integer.numberOfLeadingZeros(low ^ nodeId.low);
+    }
+    
+    /**
+     * Returns true if the first 'bits' bits of this KUID are all zero.
+     */
+    private boolean isZeroPrefix(int bits) {
+        return ((high & prefixMask(bits, 0)) 
+                | (middle & prefixMask(bits, 64)) 
+                | (low & (int)(prefixMask(bits, 128) >>> 32))) == 0L;
+    }
+    
+    /**
+     * Returns the mask of the bits in [from, to) of the 64-bit word 
+     * that starts with bit 'wordStart'.
+     */
+    private static long rangeMask(int from, int to, int wordStart) {
+        from = Math.max(from - wordStart, 0);
+        to = Math.min(to - wordStart, 64);
+        if (from >= to) {
+            return 0L;
+        }
+        
+        long mask = -1L >>> from;
+        if (to < 64) {
+            mask &= ~(-1L >>> to);
         }
-        return bits;
+        return mask;
+    }
+    
+    /**
+     * Returns the mask of the first 'bits' bits of the id that are in the
+     * 64-bit word that starts with bit 'wordStart'.
+     */
+    private static long prefixMask(int bits, int wordStart) {
+        return rangeMask(0, bits, wordStart);
     }
     
     /**
@@ -181,30 +295,17 @@ public class KUID implements Comparable<KUID>, Serializable {
      * and the given KUID or KeyAnalyzer.NULL_BIT_KEY
      * if all 160 bits are zero or KeyAnalyzer.EQUAL_BIT_KEY
      * if both KUIDs are equal.
+     * <p>
+     * NULL_BIT_KEY is also returned if all bits of this KUID up to 
+     * the end of the byte that has the first different bit are zero.
      */
     public int bitIndex(KUID nodeId) {
-        boolean allNull = true;
+        int bitIndex = firstDifferentBit(nodeId);
         
-        int bitIndex = 0;
-        for(int i = 0; i < id.length; i++) {
-            if (allNull && id[i] != 0) {
-                allNull = false;
-            }
-            
-            if (id[i] != nodeId.id[i]) {
-                for(int j = 0; j < BITS.length; j++) {
-                    if ((id[i] & BITS[j]) 
-                            != (nodeId.id[i] & BITS[j])) {
-                        break;
-                    }
-                    bitIndex++;
-                }
-                break;
-            }
-            bitIndex += BITS.length;
-        }
-        
-        if (allNull) {
+        // Like the byte[] based version, look at the bits of
+        // this KUID up to the end of the byte that differs
+        int checked = Math.min((bitIndex / 8 + 1) * 8, LENGTH_IN_BITS);
+        if (isZeroPrefix(checked)) {
             return KeyAnalyzer.NULL_BIT_KEY;
         }
         
@@ -219,23 +320,14 @@ public class KUID implements Comparable<KUID>, Serializable {
      * Returns the XOR distance between the current and given KUID.
      */
     public KUID xor(KUID nodeId) {
-        byte[] result = new byte[id.length];
-        for(int i = 0; i < result.length; i++) {
-            result[i] = (byte)(id[i] ^ nodeId.id[i]);
-        }
-        
-        return new KUID(result);
+        return new KUID(high ^ nodeId.high, middle ^ nodeId.middle, low ^ nodeId.low);
     }
     
     /**
      * Inverts all bits of the current KUID.
      */
     public KUID invert() {
-        byte[] result = new byte[id.length];
-        for(int i = 0; i < result.length; i++) {
-            result[i] = (byte)~id[i];
-        }
-        return new KUID(result);
+        return new KUID(~high, ~middle, ~low);
     }
     
     /**
@@ -266,21 +358,53 @@ public class KUID implements Comparable<KUID>, Serializable {
      * @return true if this KUID is nearer to targetID, false otherwise
      */
     public boolean isNearerTo(KUID targetId, KUID otherId) {
-        int xorToSelf = 0;
-        int xorToOther = 0;
+        return targetId.compareDistance(this, otherId) < 0;
+    }
+    
+    /**
+     * Compares the XOR distances of <tt>nodeId</tt> and <tt>otherId</tt>
+     * to this KUID, without computing them as KUIDs.
+     * 
+     * @return a negative number, zero or a positive number if 
+     * <tt>nodeId</tt> is nearer to, as near to or further from
+     * this KUID than <tt>otherId</tt>
+     */
+    public int compareDistance(KUID nodeId, KUID otherId) {
+        int d = compareUnsigned(nodeId.high ^ high, otherId.high ^ high);
+        if (d != 0) {
+            return d;
+        }
         
-        for (int i = 0; i < id.length; i++){
-            xorToSelf = (id[i] ^ targetId.id[i]) & 0xFF;
-            xorToOther = (otherId.id[i] ^ targetId.id[i]) & 0xFF;
-
-            if (xorToSelf < xorToOther) {
-                return true;
-            } else if (xorToSelf > xorToOther) {
-                return false;
-            } // else continue
+        d = compareUnsigned(nodeId.middle ^ middle, otherId.middle ^ middle);
+        if (d != 0) {
+            return d;
         }
         
-        return false;
+        return compareUnsigned(nodeId.low ^ low, otherId.low ^ low);
+    }
+    
+    /**
+     * Returns a Comparator that orders KUIDs from nearest to 
+     * furthest from this KUID.
+     */
+    public Comparator<KUID> getDistanceComparator() {
+        return new Comparator<KUID>() {
+            public int compare(KUID o1, KUID o2) {
+                return compareDistance(o1, o2);
+            }
+        };
+    }
+    
+    private static int compareUnsigned(long a, long b) {
+        a ^= Long.MIN_VALUE;
+        b ^= Long.MIN_VALUE;
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
+    }
+    
+    private static int compareUnsigned(int a, int b) {
+        a ^= Integer.MIN_VALUE;
+        b ^= Integer.MIN_VALUE;
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
     }
     
     /**
@@ -289,14 +413,21 @@ public class KUID implements Comparable<KUID>, Serializable {
      * are not reflected to this KUID.
      */
     public byte[] getBytes() {
-        return getBytes(0, new byte[id.length], 0, id.length);
+        return getBytes(0, new byte[LENGTH], 0, LENGTH);
     }
     
     /**
      * Returns the raw bytes of the current KUID from the specified interval.
      */
     public byte[] getBytes(int srcPos, byte[] dest, int destPos, int length) {
-        System.arraycopy(id, srcPos, dest, destPos, length);
+        if (srcPos < 0 || length < 0 || srcPos + length > LENGTH
+                || destPos < 0 || destPos + length > dest.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        
+        for (int i = 0; i < length; i++) {
+            dest[destPos + i] = byteAt(srcPos + i);
+        }
         return dest;
     }
     
@@ -306,17 +437,17 @@ public class KUID implements Comparable<KUID>, Serializable {
     }
     
     public int compareTo(KUID o) {
-        int d = 0;
-        for(int i = 0; i < id.length; i++) {
-            d = (id[i] & 0xFF) - (o.id[i] & 0xFF);
-            if (d < 0) {
-                return -1;
-            } else if (d > 0) {
-                return 1;
-            }
+        int d = compareUnsigned(high, o.high);
+        if (d != 0) {
+            return d;
+        }
+        
+        d = compareUnsigned(middle, o.middle);
+        if (d != 0) {
+            return d;
         }
         
-        return 0;
+        return compareUnsigned(low, o.low);
     }
     
     /**
@@ -329,7 +460,10 @@ public class KUID implements Comparable<KUID>, Serializable {
         } if (!(o instanceof KUID)) {
             return false;
         } else {
-            return Arrays.equals(id, ((KUID)o).id);
+            KUID other = (KUID)o;
+            return high == other.high 
+                && middle == other.middle 
+                && low == other.low;
         }
     }
 
@@ -337,21 +471,21 @@ public class KUID implements Comparable<KUID>, Serializable {
      * Returns the current KUID as hex String.
      */
     public String toHexString() {
-        return ArrayUtils.toHexString(id);
+        return ArrayUtils.toHexString(getBytes());
     }
     
     /**
      * Returns the current KUID as bin String.
      */
     public String toBinString() {
-        return ArrayUtils.toBinString(id);
+        return ArrayUtils.toBinString(getBytes());
     }
     
     /**
      * Returns the current KUID as BigInteger.
      */
     public BigInteger toBigInteger() {    
-        return new BigInteger(1 /* unsigned! */, id);
+        return new BigInteger(1 /* unsigned! */, getBytes());
     }
     
     /**
@@ -359,7 +493,28 @@ public class KUID implements Comparable<KUID>, Serializable {
      * for more info!
      */
     public int log2() {
-        return toBigInteger().bitLength();
+        if (high != 0L) {
+            return LENGTH_IN_BITS - Long.numberOfLeadingZeros(high);
+        } else if (middle != 0L) {
+            return LENGTH_IN_BITS - 64 - Long.numberOfLeadingZeros(middle);
+        }
+        return 32 - Integer.numberOfLeadingZeros(low);
+    }
+    
+    /**
+     * Returns the index of the lowest 1 bit, counting from the least
+     * significant bit, or -1 if all bits are 0. See 
+     * BigInteger.getLowestSetBit() for more info!
+     */
+    public int getLowestSetBit() {
+        if (low != 0) {
+            return Integer.numberOfTrailingZeros(low);
+        } else if (middle != 0L) {
+            return 32 + Long.numberOfTrailingZeros(middle);
+        } else if (high != 0L) {
+            return 96 + Long.numberOfTrailingZeros(high);
+        }
+        return -1;
     }
     
     @Override
@@ -371,22 +526,7 @@ public class KUID implements Comparable<KUID>, Serializable {
      * Compute common prefix length of two KUIDs.
      */   
     public int getCommonPrefixLength(KUID other) {
-        int commonPrefixLength = 0;
-        for (int i = 0; i < id.length; i++) {
-            byte xorValue = (byte)(id[i] ^ other.id[i]);
-            if (xorValue == 0) {
-                commonPrefixLength += BITS.length;
-            } else {
-                for (int j = 0; j < BITS.length; j++) {
-                    if ((xorValue & BITS[j]) == 0) {
-                        commonPrefixLength++;
-                    } else {
-                        return commonPrefixLength;
-                    }
-                }
-            }
-        }   
-        return commonPrefixLength;
+        return firstDifferentBit(other);
     }
     
     /**
@@ -578,13 +718,13 @@ public class KUID implements Comparable<KUID>, Serializable {
     private static KUID createPrefxNodeID(KUID prefix, int depth, byte[] random) {
         depth++;
         int length = depth/8;
-        System.arraycopy(prefix.id, 0, random, 0, length);
+        prefix.getBytes(0, random, 0, length);
         
         int bitsToCopy = depth % 8;
         if (bitsToCopy != 0) {
             // Mask has the low-order (8-bits) bits set
             int mask = (1 << (8-bitsToCopy)) - 1;
-            int prefixByte = prefix.id[length];
+            int prefixByte = prefix.byteAt(length);
             int randByte   = random[length];
             random[length] = (byte) ((prefixByte & ~mask) | (randByte & mask));
         }
@@ -622,13 +762,9 @@ public class KUID implements Comparable<KUID>, Serializable {
 
         public boolean isPrefix(KUID prefix, int offset, int length, KUID key) {
             int end = offset + length;
-            for (int i = offset; i < end; i++) {
-                if (prefix.isBitSet(i) != key.isBitSet(i)) {
-                    return false;
-                }
-            }
-            
-            return true;
+            return (((prefix.high ^ key.high) & rangeMask(offset, end, 0))
+                    | ((prefix.middle ^ key.middle) & rangeMask(offset, end, 64))
+                    | ((prefix.low ^ key.low) & (int)(rangeMask(offset, end, 128) >>> 32))) == 0L;
         }
 
         public int length(KUID key) {
@@ -205,7 +205,8 @@ public interface MojitoDHT extends Closeable {
     public HostFilter getHostFilter();
     
     /**
-     * Sets the Database.
+     * Sets the Database. The values it contains are kept and must
+     * have been stored for the current local Node ID.
      */
     public void setDatabase(Database database);
     
@@ -41,7 +41,7 @@ public class DHTValueEntityBag implements Serializable {
     private static final int LOAD_NULLING_DELAY 
         = DatabaseSettings.VALUE_REQUEST_LOAD_NULLING_DELAY.getValue();
 
-    private final DatabaseImpl database;
+    private final Database database;
     
     private final KUID primaryKey;
     
@@ -57,7 +57,7 @@ public class DHTValueEntityBag implements Serializable {
      */
     private transient long lastRequestTime;
     
-    DHTValueEntityBag(DatabaseImpl database, KUID primaryKey) {
+    DHTValueEntityBag(Database database, KUID primaryKey) {
         this.database = database;
         this.primaryKey = primaryKey;
     }
@@ -0,0 +1,1028 @@
+/*
+ * Mojito Distributed Hash Table (Mojito DHT)
+ * Copyright (C) 2006-2007 LimeWire LLC
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.limewire.mojito.db.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.collection.IntHashMap;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.io.NetworkUtils;
+import org.limewire.mojito.KUID;
+import org.limewire.mojito.db.DHTValueEntity;
+import org.limewire.mojito.db.Database;
+import org.limewire.mojito.db.DatabaseSecurityConstraint;
+import org.limewire.mojito.routing.Contact;
+import org.limewire.mojito.settings.DatabaseSettings;
+import org.limewire.mojito.util.ContactUtils;
+import org.limewire.util.FileUtils;
+
+/**
+ * A {@link Database} that keeps its values in memory like {@link DatabaseImpl}
+ * and writes every change to an append-only journal on disk, so that the
+ * values survive a restart of the DHT node.
+ * <p>
+ * The values are partitioned into stripes by their primary key and each
+ * stripe has its own lock. Stores and lookups of different keys therefore
+ * don't contend with each other. The same {@link DatabaseSecurityConstraint}
+ * and per-address and per-network limits as in <code>DatabaseImpl</code>
+ * apply.
+ * <p>
+ * The state on disk consists of a snapshot file with all values and the
+ * journal of changes made after the snapshot was taken. Once the journal
+ * has grown larger than the number of values it is compacted in the
+ * background: a new snapshot without removed and expired values replaces
+ * the old one and the journal starts over. Local values are not written to
+ * disk as their <code>Storable</code>s publish them again.
+ * <p>
+ * Changes are queued as records while the lock of their stripe is held, so
+ * that the records of a key are in the order of its changes. They are
+ * written after the stripe lock is released: whoever takes the journal lock
+ * first writes and flushes all queued records at once, so concurrent
+ * changes share one write.
+ * <p>
+ * Records are checksummed; a record that was cut short by a crash and
+ * anything after it is ignored when the files are read.
+ */
+public class PersistentDatabaseImpl implements Database, Closeable {
+
+    private static final long serialVersionUID = 7602581238710325651L;
+
+    private static final Log LOG = LogFactory.getLog(PersistentDatabaseImpl.class);
+
+    /**
+     * The number of stripes, must be a power of 2.
+     */
+    private static final int STRIPES = 32;
+
+    /**
+     * The minimum number of journal records before the journal is compacted.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    /**
+     * Upper bound for the size of a single record.
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private static final byte STORE = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final Executor COMPACTOR
+        = ExecutorsHelper.newProcessingQueue("MojitoDatabaseCompactor");
+
+    private final transient Stripe[] stripes = new Stripe[STRIPES];
+
+    private final transient AtomicInteger keyCount = new AtomicInteger();
+
+    private final transient AtomicInteger valueCount = new AtomicInteger();
+
+    /**
+     * The DatabaseSecurityConstraint handle.
+     */
+    private transient volatile DatabaseSecurityConstraint securityConstraint
+        = new DefaultDatabaseSecurityConstraint();
+
+    /**
+     * A Map of masked IP address to number of values.
+     * LOCKING: itself, for both Maps
+     */
+    private final transient IntHashMap<AtomicInteger> valuesPerNetwork = new IntHashMap<AtomicInteger>();
+
+    /**
+     * A Map of IP address to number of values.
+     */
+    private final transient IntHashMap<AtomicInteger> valuesPerAddress = new IntHashMap<AtomicInteger>();
+
+    /**
+     * The snapshot of all values.
+     */
+    private final transient File snapshotFile;
+
+    /**
+     * The changes that were made since the snapshot was taken.
+     */
+    private final transient File journalFile;
+
+    /**
+     * The previous journal while a new snapshot is taken.
+     */
+    private final transient File oldJournalFile;
+
+    /**
+     * The new snapshot while it's written.
+     */
+    private final transient File tmpFile;
+
+    /**
+     * The lock of the journal. Locks that are acquired in the same
+     * thread must be in the order compactionLock, stripe, journalLock.
+     */
+    private final transient Object journalLock = new Object();
+
+    /**
+     * Serializes compactions with each other and with clear().
+     */
+    private final transient Object compactionLock = new Object();
+
+    /**
+     * The journal, or null if it's closed. LOCKING: journalLock
+     */
+    private transient DataOutputStream journal;
+
+    /**
+     * The number of records in the journal. LOCKING: journalLock
+     */
+    private transient int journalRecords;
+
+    /**
+     * The records that were not written to the journal yet, in the order
+     * of the changes.
+     */
+    private final transient Queue<Record> pendingRecords = new ConcurrentLinkedQueue<Record>();
+
+    private final transient AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * Creates a PersistentDatabaseImpl that stores its values in
+     * <code>file</code> and in files next to it with the same name
+     * and an additional extension, and reads the values that are
+     * stored in these files.
+     */
+    public PersistentDatabaseImpl(File file) throws IOException {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        snapshotFile = file;
+        journalFile = new File(file.getPath() + ".log");
+        oldJournalFile = new File(file.getPath() + ".log.old");
+        tmpFile = new File(file.getPath() + ".tmp");
+
+        if (snapshotFile.exists()) {
+            load(snapshotFile);
+        } else if (tmpFile.exists()) {
+            // Crashed while replacing the snapshot
+            load(tmpFile);
+        }
+        load(oldJournalFile);
+        load(journalFile);
+
+        // Start over with a snapshot of the values that were read
+        compact();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#setDatabaseSecurityConstraint(org.limewire.mojito.db.DatabaseSecurityConstraint)
+     */
+    public void setDatabaseSecurityConstraint(
+            DatabaseSecurityConstraint securityConstraint) {
+
+        if (securityConstraint == null) {
+            securityConstraint = new DefaultDatabaseSecurityConstraint();
+        }
+
+        this.securityConstraint = securityConstraint;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#getKeyCount()
+     */
+    public int getKeyCount() {
+        return keyCount.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#getValueCount()
+     */
+    public int getValueCount() {
+        return valueCount.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#clear()
+     */
+    public void clear() {
+        synchronized (compactionLock) {
+            clear(0);
+        }
+    }
+
+    /**
+     * Clears the stripes starting with the given one while holding the
+     * locks of all of them, and truncates the files.
+     */
+    private void clear(int index) {
+        if (index < stripes.length) {
+            synchronized (stripes[index]) {
+                clear(index + 1);
+                stripes[index].bags.clear();
+            }
+            return;
+        }
+
+        keyCount.set(0);
+        valueCount.set(0);
+        synchronized (valuesPerNetwork) {
+            valuesPerNetwork.clear();
+            valuesPerAddress.clear();
+        }
+
+        synchronized (journalLock) {
+            pendingRecords.clear();
+            closeJournal();
+            journalRecords = 0;
+            FileUtils.forceDelete(oldJournalFile);
+            FileUtils.forceDelete(journalFile);
+            FileUtils.forceDelete(snapshotFile);
+            FileUtils.forceDelete(tmpFile);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#store(org.limewire.mojito.db.DHTValueEntity)
+     */
+    public boolean store(DHTValueEntity entity) {
+        Stripe stripe = stripe(entity.getPrimaryKey());
+        boolean stored;
+        synchronized (stripe) {
+            if (!allowStore(stripe, entity)) {
+                return false;
+            }
+
+            if (entity.getValue().size() == 0) {
+                stored = remove(stripe, entity.getPrimaryKey(), entity.getSecondaryKey()) != null;
+            } else {
+                stored = add(stripe, entity);
+            }
+        }
+        writePendingRecords();
+        return stored;
+    }
+
+    /**
+     * Adds the given <code>DHTValueEntity</code> to the Database.
+     *
+     * @return true if adding the <code>DHTValueEntity</code> succeeded
+     */
+    public boolean add(DHTValueEntity entity) {
+        Stripe stripe = stripe(entity.getPrimaryKey());
+        boolean added;
+        synchronized (stripe) {
+            added = add(stripe, entity);
+        }
+        writePendingRecords();
+        return added;
+    }
+
+    /**
+     * Adds the entity to the stripe and queues its record.
+     * LOCKING: stripe
+     */
+    private boolean add(Stripe stripe, DHTValueEntity entity) {
+        if (!put(stripe, entity)) {
+            return false;
+        }
+
+        if (!entity.isLocalValue()) {
+            append(STORE, serialize(entity));
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entity to the stripe and updates the counters.
+     */
+    private boolean put(Stripe stripe, DHTValueEntity entity) {
+        KUID primaryKey = entity.getPrimaryKey();
+        DHTValueEntityBag bag = stripe.bags.get(primaryKey);
+        if (bag == null) {
+            bag = new DHTValueEntityBag(this, primaryKey);
+        }
+
+        DHTValueEntity existing = bag.get(entity.getSecondaryKey());
+        if (!bag.add(entity)) {
+            return false;
+        }
+
+        if (!stripe.bags.containsKey(primaryKey)) {
+            stripe.bags.put(primaryKey, bag);
+            keyCount.incrementAndGet();
+        }
+
+        if (existing != null) {
+            updateValueCounts(existing, -1);
+        } else {
+            valueCount.incrementAndGet();
+        }
+        updateValueCounts(entity, 1);
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#remove(org.limewire.mojito.KUID, org.limewire.mojito.KUID)
+     */
+    public DHTValueEntity remove(KUID primaryKey, KUID secondaryKey) {
+        Stripe stripe = stripe(primaryKey);
+        DHTValueEntity entity;
+        synchronized (stripe) {
+            entity = remove(stripe, primaryKey, secondaryKey);
+        }
+        writePendingRecords();
+        return entity;
+    }
+
+    /**
+     * Removes the value from the stripe and queues its record.
+     * LOCKING: stripe
+     */
+    private DHTValueEntity remove(Stripe stripe, KUID primaryKey, KUID secondaryKey) {
+        DHTValueEntity entity = delete(stripe, primaryKey, secondaryKey);
+        if (entity != null && !entity.isLocalValue()) {
+            byte[] keys = new byte[KUID.LENGTH * 2];
+            primaryKey.getBytes(0, keys, 0, KUID.LENGTH);
+            secondaryKey.getBytes(0, keys, KUID.LENGTH, KUID.LENGTH);
+            append(REMOVE, keys);
+        }
+        return entity;
+    }
+
+    /**
+     * Removes the value from the stripe and updates the counters.
+     */
+    private DHTValueEntity delete(Stripe stripe, KUID primaryKey, KUID secondaryKey) {
+        DHTValueEntity entity = null;
+        DHTValueEntityBag bag = stripe.bags.get(primaryKey);
+        if (bag != null && (entity = bag.remove(secondaryKey)) != null) {
+
+            if (bag.isEmpty()) {
+                stripe.bags.remove(primaryKey);
+                keyCount.decrementAndGet();
+            }
+
+            valueCount.decrementAndGet();
+            updateValueCounts(entity, -1);
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the number of values that are currently stored under
+     * the same Class C Network.
+     */
+    public int getValuesPerNetwork(DHTValueEntity entity) {
+        return getValueCount(entity, valuesPerNetwork, NetworkUtils.CLASS_C_NETMASK);
+    }
+
+    /**
+     * Returns the number of values that are currently stored under
+     * the same IP Address.
+     */
+    public int getValuesPerAddress(DHTValueEntity entity) {
+        return getValueCount(entity, valuesPerAddress, DatabaseImpl.IPV4_ADDRESS_NETMASK);
+    }
+
+    /**
+     * A helper method to get the number of values that are currently stored
+     * under a certain masked IP address.
+     */
+    private int getValueCount(DHTValueEntity entity, IntHashMap<AtomicInteger> map, int netmask) {
+        int masked = getMaskedAddress(entity, netmask);
+        if (masked != 0) {
+            synchronized (valuesPerNetwork) {
+                AtomicInteger count = map.get(masked);
+                if (count != null) {
+                    return count.get();
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds <code>delta</code> to the number of values that are stored
+     * under the address and the Class C Network of the entity's creator.
+     */
+    private void updateValueCounts(DHTValueEntity entity, int delta) {
+        int address = getMaskedAddress(entity, DatabaseImpl.IPV4_ADDRESS_NETMASK);
+        if (address == 0) {
+            return;
+        }
+
+        int network = getMaskedAddress(entity, NetworkUtils.CLASS_C_NETMASK);
+        synchronized (valuesPerNetwork) {
+            updateValueCount(valuesPerAddress, address, delta);
+            updateValueCount(valuesPerNetwork, network, delta);
+        }
+    }
+
+    private static void updateValueCount(IntHashMap<AtomicInteger> map, int masked, int delta) {
+        AtomicInteger count = map.get(masked);
+        if (count == null) {
+            if (delta < 0) {
+                return;
+            }
+            count = new AtomicInteger(0);
+            map.put(masked, count);
+        }
+
+        if (count.addAndGet(delta) <= 0) {
+            map.remove(masked);
+        }
+    }
+
+    /**
+     * Returns the masked IPv4 address of the entity's creator, or 0 if
+     * the value is local or the creator doesn't have an IPv4 address.
+     */
+    private static int getMaskedAddress(DHTValueEntity entity, int netmask) {
+        if (entity.isLocalValue()) {
+            return 0;
+        }
+
+        Contact node = entity.getCreator();
+        InetAddress addr = ((InetSocketAddress)node.getContactAddress()).getAddress();
+        if (addr instanceof Inet4Address) {
+            return NetworkUtils.getMaskedIP(addr, netmask);
+        }
+        return 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#getRequestLoad(org.limewire.mojito.KUID, boolean)
+     */
+    public float getRequestLoad(KUID primaryKey, boolean incrementLoad) {
+        Stripe stripe = stripe(primaryKey);
+        synchronized (stripe) {
+            DHTValueEntityBag bag = stripe.bags.get(primaryKey);
+            if (bag != null) {
+                return bag.getRequestLoad(incrementLoad);
+            }
+            return 0f;
+        }
+    }
+
+    /**
+     * Checks for possible flooding and then delegates calls to the
+     * <code>DatabaseSecurityConstraint</code>, like DatabaseImpl does.
+     * The caller must hold the lock of the stripe.
+     */
+    private boolean allowStore(Stripe stripe, DHTValueEntity entity) {
+        if (entity.isLocalValue()) {
+            return true;
+        }
+
+        if (DatabaseSettings.VALIDATE_VALUE_CREATOR.getValue()
+                && !entity.isDirect()) {
+
+            if (!ContactUtils.isValidSocketAddress(entity.getCreator())) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("The Creator of " + entity + " has an invalid address");
+                }
+                return false;
+            }
+
+            if (ContactUtils.isPrivateAddress(entity.getCreator())) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("The Creator of " + entity + " has a private address");
+                }
+                return false;
+            }
+        }
+
+        if (entity.getValue().size() != 0) {
+            int valuesPerAddress = getValuesPerAddress(entity);
+            if (DatabaseSettings.LIMIT_VALUES_PER_ADDRESS.getValue()
+                    && valuesPerAddress >= DatabaseSettings.MAX_VALUES_PER_ADDRESS.getValue()) {
+                return false;
+            }
+
+            int valuesPerNetwork = getValuesPerNetwork(entity);
+            if (DatabaseSettings.LIMIT_VALUES_PER_NETWORK.getValue()
+                    && valuesPerNetwork >= DatabaseSettings.MAX_VALUES_PER_NETWORK.getValue()) {
+                return false;
+            }
+        }
+
+        // Check with the security constraint now
+        DHTValueEntityBag bag = stripe.bags.get(entity.getPrimaryKey());
+        DatabaseSecurityConstraint dbsc = securityConstraint;
+        if (dbsc != null && bag != null) {
+            return dbsc.allowStore(this, bag.getValues(false), entity);
+        }
+
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#get(org.limewire.mojito.KUID)
+     */
+    public Map<KUID, DHTValueEntity> get(KUID valueId) {
+        Stripe stripe = stripe(valueId);
+        synchronized (stripe) {
+            DHTValueEntityBag bag = stripe.bags.get(valueId);
+            if (bag != null) {
+                return bag.getValues(true);
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#contains(org.limewire.mojito.KUID, org.limewire.mojito.KUID)
+     */
+    public boolean contains(KUID primaryKey, KUID secondaryKey) {
+        Stripe stripe = stripe(primaryKey);
+        synchronized (stripe) {
+            DHTValueEntityBag bag = stripe.bags.get(primaryKey);
+            return (bag != null && bag.contains(secondaryKey));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#keySet()
+     */
+    public Set<KUID> keySet() {
+        Set<KUID> keys = new HashSet<KUID>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                keys.addAll(stripe.bags.keySet());
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.limewire.mojito.db.Database#values()
+     */
+    public Collection<DHTValueEntity> values() {
+        List<DHTValueEntity> values = new ArrayList<DHTValueEntity>(getValueCount());
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (DHTValueEntityBag bag : stripe.bags.values()) {
+                    values.addAll(bag.getValues(false).values());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Flushes and closes the journal, after a compaction that is running.
+     * Changes made afterwards reopen it.
+     */
+    public void close() {
+        synchronized (compactionLock) {
+            synchronized (journalLock) {
+                writeRecords();
+                closeJournal();
+            }
+        }
+    }
+
+    private Stripe stripe(KUID primaryKey) {
+        int hash = primaryKey.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & (STRIPES - 1)];
+    }
+
+    /**
+     * Queues a record for the journal. The caller must hold the lock of
+     * the stripe the record belongs to, so that the records of a key are
+     * in the order of the changes, and call {@link #writePendingRecords()}
+     * once it released it.
+     */
+    private void append(byte type, byte[] payload) {
+        if (payload != null) {
+            pendingRecords.offer(new Record(type, payload));
+        }
+    }
+
+    /**
+     * Writes the queued records to the journal, unless another thread
+     * already did, and schedules a compaction if the journal has grown
+     * too large. Must not be called while holding a stripe lock.
+     */
+    private void writePendingRecords() {
+        if (pendingRecords.isEmpty()) {
+            return;
+        }
+
+        synchronized (journalLock) {
+            if (!writeRecords()
+                    || journalRecords < Math.max(MIN_COMPACTION_RECORDS, getValueCount())) {
+                return;
+            }
+        }
+
+        if (compactionScheduled.compareAndSet(false, true)) {
+            COMPACTOR.execute(new Runnable() {
+                public void run() {
+                    compactionScheduled.set(false);
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes and flushes all queued records.
+     * LOCKING: journalLock
+     *
+     * @return false if the journal could not be written
+     */
+    private boolean writeRecords() {
+        if (pendingRecords.isEmpty()) {
+            return true;
+        }
+
+        try {
+            if (journal == null) {
+                journal = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(journalFile, true)));
+            }
+            Record record;
+            while ((record = pendingRecords.poll()) != null) {
+                writeRecord(journal, record.type, record.payload);
+                journalRecords++;
+            }
+            journal.flush();
+            return true;
+        } catch (IOException err) {
+            LOG.error("Could not write to " + journalFile, err);
+            closeJournal();
+            return false;
+        }
+    }
+
+    /**
+     * LOCKING: journalLock
+     */
+    private void closeJournal() {
+        if (journal != null) {
+            FileUtils.close(journal);
+            journal = null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot with one of the current values and truncates
+     * the journal. Changes made while the snapshot is written go to a new
+     * journal, which is read after the snapshot.
+     */
+    private void compact() {
+        synchronized (compactionLock) {
+            synchronized (journalLock) {
+                // the queued changes may be missing from the snapshot
+                writeRecords();
+                closeJournal();
+                if (oldJournalFile.exists()) {
+                    // The previous compaction failed and has to be repeated,
+                    // keep the changes of both journals
+                    if (!appendFile(journalFile, oldJournalFile)) {
+                        return;
+                    }
+                    FileUtils.forceDelete(journalFile);
+                } else if (journalFile.exists()
+                        && !FileUtils.forceRename(journalFile, oldJournalFile)) {
+                    LOG.error("Could not rename " + journalFile);
+                    return;
+                }
+                journalRecords = 0;
+            }
+
+            long now = System.currentTimeMillis();
+            int count = 0;
+            DataOutputStream out = null;
+            try {
+                FileOutputStream fos = new FileOutputStream(tmpFile);
+                out = new DataOutputStream(new BufferedOutputStream(fos));
+                for (Stripe stripe : stripes) {
+                    List<DHTValueEntity> entities = new ArrayList<DHTValueEntity>();
+                    synchronized (stripe) {
+                        for (DHTValueEntityBag bag : stripe.bags.values()) {
+                            entities.addAll(bag.getValues(false).values());
+                        }
+                    }
+
+                    for (DHTValueEntity entity : entities) {
+                        if (!entity.isLocalValue() && !isExpired(entity, now)) {
+                            byte[] payload = serialize(entity);
+                            if (payload != null) {
+                                writeRecord(out, STORE, payload);
+                                count++;
+                            }
+                        }
+                    }
+                }
+                out.flush();
+                fos.getFD().sync();
+            } catch (IOException err) {
+                LOG.error("Could not write " + tmpFile, err);
+                return;
+            } finally {
+                FileUtils.close(out);
+            }
+
+            if (!FileUtils.forceRename(tmpFile, snapshotFile)) {
+                LOG.error("Could not rename " + tmpFile);
+                return;
+            }
+            FileUtils.forceDelete(oldJournalFile);
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Compacted " + snapshotFile + " to " + count + " values");
+            }
+        }
+    }
+
+    /**
+     * Appends the contents of <code>src</code>, if it exists, to
+     * <code>dst</code>.
+     */
+    private static boolean appendFile(File src, File dst) {
+        if (!src.exists()) {
+            return true;
+        }
+
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dst, true);
+            FileUtils.write(in, out);
+            return true;
+        } catch (IOException err) {
+            LOG.error("Could not append " + src + " to " + dst, err);
+            return false;
+        } finally {
+            FileUtils.close(in);
+            FileUtils.close(out);
+        }
+    }
+
+    /**
+     * Applies the records of the given file, stopping at the first
+     * incomplete or corrupt record.
+     */
+    private void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    LOG.warn("Invalid record length in " + file);
+                    break;
+                }
+
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException eof) {
+                    LOG.warn("Incomplete record in " + file);
+                    break;
+                }
+
+                if (checksum(record) != checksum) {
+                    LOG.warn("Corrupt record in " + file);
+                    break;
+                }
+
+                apply(record, now);
+            }
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    /**
+     * Applies a record that was read from a file.
+     */
+    private void apply(byte[] record, long now) {
+        if (record[0] == STORE) {
+            DHTValueEntity entity = deserialize(record);
+            if (entity != null) {
+                Stripe stripe = stripe(entity.getPrimaryKey());
+                synchronized (stripe) {
+                    if (isExpired(entity, now)) {
+                        delete(stripe, entity.getPrimaryKey(), entity.getSecondaryKey());
+                    } else {
+                        put(stripe, entity);
+                    }
+                }
+            }
+        } else if (record[0] == REMOVE && record.length == 1 + KUID.LENGTH * 2) {
+            KUID primaryKey = KUID.createWithBytes(copyOfRange(record, 1, KUID.LENGTH));
+            KUID secondaryKey = KUID.createWithBytes(copyOfRange(record, 1 + KUID.LENGTH, KUID.LENGTH));
+            Stripe stripe = stripe(primaryKey);
+            synchronized (stripe) {
+                delete(stripe, primaryKey, secondaryKey);
+            }
+        }
+    }
+
+    private static byte[] copyOfRange(byte[] src, int offset, int length) {
+        byte[] dst = new byte[length];
+        System.arraycopy(src, offset, dst, 0, length);
+        return dst;
+    }
+
+    /**
+     * Returns true if the entity is older than the expiration time of
+     * non-local values. DatabaseUtils.getExpirationTime() may expire
+     * values earlier, depending on the RouteTable.
+     */
+    private static boolean isExpired(DHTValueEntity entity, long now) {
+        return now - entity.getCreationTime()
+            >= DatabaseSettings.VALUE_EXPIRATION_TIME.getValue();
+    }
+
+    /**
+     * A record that is queued for the journal.
+     */
+    private static class Record {
+
+        private final byte type;
+
+        private final byte[] payload;
+
+        Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out,
+            byte type, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        out.writeInt(1 + payload.length);
+        out.writeInt((int)crc.getValue());
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the serialized entity, or null if it cannot be serialized.
+     */
+    private static byte[] serialize(DHTValueEntity entity) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(baos);
+            out.writeObject(entity);
+            out.close();
+
+            byte[] payload = baos.toByteArray();
+            if (payload.length < MAX_RECORD_SIZE) {
+                return payload;
+            }
+
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Not persisting oversized value " + entity);
+            }
+        } catch (IOException err) {
+            LOG.error("Could not serialize " + entity, err);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the entity of a STORE record, or null if it cannot be read.
+     */
+    private static DHTValueEntity deserialize(byte[] record) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(record, 1, record.length - 1));
+            return (DHTValueEntity)in.readObject();
+        } catch (IOException err) {
+            LOG.error("Could not read value", err);
+        } catch (ClassNotFoundException err) {
+            LOG.error("Could not read value", err);
+        } catch (ClassCastException err) {
+            LOG.error("Could not read value", err);
+        }
+        return null;
+    }
+
+    /**
+     * Serializes a DatabaseImpl with the same values, so that serialized
+     * Databases can be read without the files of this one.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        DatabaseImpl database = new DatabaseImpl();
+        for (DHTValueEntity entity : values()) {
+            database.add(entity);
+        }
+        return database;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (DHTValueEntityBag bag : stripe.bags.values()) {
+                    buffer.append(bag.toString());
+                }
+            }
+        }
+
+        buffer.append("-------------\n");
+        buffer.append("TOTAL: ").append(getKeyCount())
+            .append("/").append(getValueCount()).append("\n");
+        return buffer.toString();
+    }
+
+    /**
+     * The bags of the primary keys that map to a stripe.
+     * LOCKING: the Stripe
+     */
+    private static class Stripe {
+        private final Map<KUID, DHTValueEntityBag> bags
+            = new HashMap<KUID, DHTValueEntityBag>();
+    }
+}
@@ -123,6 +123,7 @@ class BucketNode implements Bucket {
         }
         
         counter.incrementAndGet(node);
+        contactsChanged();
     }
     
     public Contact addCachedContact(Contact node) {
@@ -135,12 +136,14 @@ class BucketNode implements Bucket {
         if (!isCacheFull()) {
             Contact existing = cache.put(node.getNodeID(), node);
             assert (existing == null);
+            contactsChanged();
         } else {
             Contact lrs = getLeastRecentlySeenCachedContact();
             if (!lrs.isAlive() || (!lrs.hasBeenRecentlyAlive() && node.isAlive())) {
                 Contact c = cache.remove(lrs.getNodeID());
                 assert (c == lrs);
                 cache.put(node.getNodeID(), node);
+                contactsChanged();
                 return c;
             }
         }
@@ -161,9 +164,12 @@ class BucketNode implements Bucket {
 
             // And add the new Network
             counter.incrementAndGet(node);
+            contactsChanged();
             return current;
         } else if (containsCachedContact(nodeId)) {
-            return cache.put(nodeId, node);
+            Contact current = cache.put(nodeId, node);
+            contactsChanged();
+            return current;
         }
         
         throw new IllegalStateException(node + " is not in this Bucket " + toString());
@@ -222,6 +228,7 @@ class BucketNode implements Bucket {
             int old = counter.get(node);
             int now = counter.decrementAndGet(node);
             assert (now < old) : now + " < " + old + ", " + nodeId + ", " + node + this;
+            contactsChanged();
             return true;
         }
         return false;
@@ -232,6 +239,7 @@ class BucketNode implements Bucket {
             if (cache.isEmpty()) {
                 cache = Collections.emptyMap();
             }
+            contactsChanged();
             return true;
         } else {
             return false;
@@ -316,6 +324,7 @@ class BucketNode implements Bucket {
             Contact node = it.next();
             if(!node.isAlive() && !isLocalNode(node)) {
                 it.remove();
+                contactsChanged();
             }
         }
         
@@ -400,6 +409,17 @@ class BucketNode implements Bucket {
     public void clear() {
         nodeTrie.clear();
         cache = Collections.emptyMap();
+        contactsChanged();
+    }
+    
+    /**
+     * Tells the RouteTable that the Contacts of this Bucket changed,
+     * so it can publish a new snapshot of them.
+     */
+    private void contactsChanged() {
+        if (routeTable instanceof RouteTableImpl) {
+            ((RouteTableImpl)routeTable).contactsChanged(this);
+        }
     }
     
     @Override
@@ -26,7 +26,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
@@ -58,6 +60,14 @@ import org.limewire.service.ErrorService;
 /**
  * A PatriciaTrie based RouteTable implementation for the Mojito DHT.
  * This is the reference implementation.
+ * <p>
+ * Changes to the RouteTable are serialized by the lock of this Object,
+ * but lookups of Contacts (<code>get</code>, <code>select</code>, 
+ * <code>getContacts</code> and the like) read immutable snapshots of
+ * the Contacts of each Bucket without holding any locks. A Bucket whose
+ * Contacts change publishes a new snapshot of itself right away, which
+ * copies only that Bucket. The trie of the snapshots is only copied when
+ * Buckets are split or the RouteTable is cleared.
  */
 public class RouteTableImpl implements RouteTable {
     
@@ -96,6 +106,13 @@ public class RouteTableImpl implements RouteTable {
      */
     private transient volatile DHTExecutorService notifier;
     
+    /**
+     * The published Buckets that lookups read, by Bucket ID. Replaced 
+     * while holding the lock of this Object whenever the Buckets in
+     * the bucketTrie change.
+     */
+    private transient volatile PatriciaTrie<KUID, PublishedBucket> publishedBuckets;
+    
     /**
      * Create a new RouteTable and generates a new random Node ID
      * for the local Node.
@@ -137,6 +154,7 @@ public class RouteTableImpl implements RouteTable {
         KUID bucketId = KUID.MINIMUM;
         Bucket bucket = new BucketNode(this, bucketId, 0);
         bucketTrie.put(bucketId, bucket);
+        publishBuckets();
         
         addContactToBucket(bucket, localNode);
         
@@ -152,6 +170,7 @@ public class RouteTableImpl implements RouteTable {
         for (Bucket bucket : bucketTrie.values()) {
             ((BucketNode)bucket).postInit();
         }
+        publishBuckets();
     }
     
     /*
@@ -499,6 +518,8 @@ public class RouteTableImpl implements RouteTable {
             Bucket oldRight = bucketTrie.put(right.getBucketID(), right);
             assert (oldRight == null);
             
+            publishBuckets();
+            
             fireSplitBucket(bucket, left, right);
             
             // WHOHOOO! WE SPLIT THE BUCKET!!!
@@ -703,11 +724,12 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#select(com.limegroup.mojito.KUID)
      */
-    public synchronized Contact select(final KUID nodeId) {
+    public Contact select(final KUID nodeId) {
         final Contact[] node = new Contact[] { null };
-        bucketTrie.select(nodeId, new Cursor<KUID, Bucket>() {
-            public SelectStatus select(Entry<? extends KUID, ? extends Bucket> entry) {
-                node[0] = entry.getValue().select(nodeId);
+        publishedBuckets.select(nodeId, new Cursor<KUID, PublishedBucket>() {
+            public SelectStatus select(Entry<? extends KUID, ? extends PublishedBucket> entry) {
+                PublishedBucket bucket = entry.getValue();
+                node[0] = bucket.snapshot.activeContacts.select(nodeId);
                 if (node[0] != null) {
                     return SelectStatus.EXIT;
                 }
@@ -721,15 +743,20 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#get(com.limegroup.mojito.KUID)
      */
-    public synchronized Contact get(KUID nodeId) {
-        return bucketTrie.select(nodeId).get(nodeId);
+    public Contact get(KUID nodeId) {
+        BucketSnapshot snapshot = publishedBuckets.select(nodeId).snapshot;
+        Contact node = snapshot.activeContacts.get(nodeId);
+        if (node == null) {
+            node = snapshot.cachedContacts.get(nodeId);
+        }
+        return node;
     }
     
     /**
      * Returns 'count' number of Contacts that are nearest (XOR distance)
      * to the given KUID.
      */
-    public synchronized Collection<Contact> select(KUID nodeId, int count) {
+    public Collection<Contact> select(KUID nodeId, int count) {
         return select(nodeId, count, SelectMode.ALL);
     }
     
@@ -737,69 +764,67 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see org.limewire.mojito.routing.RouteTable#select(org.limewire.mojito.KUID, int, org.limewire.mojito.routing.RouteTable.SelectMode)
      */
-    public synchronized Collection<Contact> select(final KUID nodeId, final int count, 
+    public Collection<Contact> select(final KUID nodeId, final int count, 
             final SelectMode mode) {
         
         if (count == 0) {
             return Collections.emptyList();
         }
         
+        // The Buckets cover disjoint ranges of KUIDs, so walking the
+        // Buckets by xor distance and the Contacts of each Bucket by
+        // xor distance visits all Contacts by xor distance.
         final int maxNodeFailures = RouteTableSettings.MAX_ACCEPT_NODE_FAILURES.getValue();
         final List<Contact> nodes = new ArrayList<Contact>(count);
-        bucketTrie.select(nodeId, new Cursor<KUID, Bucket>() {
-            public SelectStatus select(Entry<? extends KUID, ? extends Bucket> entry) {
-                Bucket bucket = entry.getValue();
+        final Cursor<KUID, Contact> contactCursor = new Cursor<KUID, Contact>() {
+            public SelectStatus select(Entry<? extends KUID, ? extends Contact> entry) {
+                Contact node = entry.getValue();
+                    
+                // Ignore all non-alive Contacts if only
+                // active Contacts are requested.
+                // We also ignore the local contact here (see LocalContact.isAlive)
+                // because a node will always have himself in the routing table
+                if (mode == SelectMode.ALIVE && !node.isAlive()) {
+                    return SelectStatus.CONTINUE;
+                }
                 
-                Collection<Contact> list = null;
-                if (mode == SelectMode.ALIVE
-                        || mode == SelectMode.ALIVE_WITH_LOCAL) {
-                    // Select all Contacts from the Bucket to compensate
-                    // the fact that not all of them will be alive. We're
-                    // using Bucket.select() instead of Bucket.getActiveContacts()
-                    // to get the Contacts sorted by xor distance!
-                    list = bucket.select(nodeId, bucket.getActiveSize());
-                } else {
-                    list = bucket.select(nodeId, count);
+                if (mode == SelectMode.ALIVE_WITH_LOCAL
+                        && !node.isAlive()
+                        && !isLocalNode(node)) {
+                    return SelectStatus.CONTINUE;
                 }
                 
-                for(Contact node : list) {
-                    
-                    // Exit the loop if done
-                    if (nodes.size() >= count) {
-                        return SelectStatus.EXIT;
-                    }
-                    
-                    // Ignore all non-alive Contacts if only
-                    // active Contacts are requested.
-                    // We also ignore the local contact here (see LocalContact.isAlive)
-                    // because a node will always have himself in the routing table
-                    if (mode == SelectMode.ALIVE && !node.isAlive()) {
-                        continue;
-                    }
-                    
-                    if (mode == SelectMode.ALIVE_WITH_LOCAL
-                            && !node.isAlive()
-                            && !isLocalNode(node)) {
-                        continue;
-                    }
-                    
-                    // Ignore all Contacts that are down
-                    if (node.isShutdown()) {
-                        continue;
-                    }
+                // Ignore all Contacts that are down
+                if (node.isShutdown()) {
+                    return SelectStatus.CONTINUE;
+                }
+                
+                if (node.isDead()) {
+                    float fact = (maxNodeFailures - node.getFailures()) 
+                                    / (float)Math.max(1, maxNodeFailures);
                     
-                    if (node.isDead()) {
-                        float fact = (maxNodeFailures - node.getFailures()) 
-                                        / (float)Math.max(1, maxNodeFailures);
-                        
-                        if (Math.random() >= fact) {
-                            continue;
-                        }
+                    if (Math.random() >= fact) {
+                        return SelectStatus.CONTINUE;
                     }
-                    
-                    nodes.add(node);
                 }
                 
+                nodes.add(node);
+                
+                // Exit the loop if done
+                if (nodes.size() >= count) {
+                    return SelectStatus.EXIT;
+                }
+                return SelectStatus.CONTINUE;
+            }
+        };
+        
+        publishedBuckets.select(nodeId, new Cursor<KUID, PublishedBucket>() {
+            public SelectStatus select(Entry<? extends KUID, ? extends PublishedBucket> entry) {
+                PublishedBucket bucket = entry.getValue();
+                bucket.snapshot.activeContacts.select(nodeId, contactCursor);
+                if (nodes.size() >= count) {
+                    return SelectStatus.EXIT;
+                }
                 return SelectStatus.CONTINUE;
             }
         });
@@ -812,13 +837,15 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#getContacts()
      */
-    public synchronized Collection<Contact> getContacts() {
-        Collection<Contact> live = getActiveContacts();
-        Collection<Contact> cached = getCachedContacts();
-        
-        List<Contact> nodes = new ArrayList<Contact>(live.size() + cached.size());
-        nodes.addAll(live);
-        nodes.addAll(cached);
+    public Collection<Contact> getContacts() {
+        Collection<PublishedBucket> buckets = publishedBuckets.values();
+        List<Contact> nodes = new ArrayList<Contact>();
+        for (PublishedBucket bucket : buckets) {
+            nodes.addAll(bucket.snapshot.activeContacts.values());
+        }
+        for (PublishedBucket bucket : buckets) {
+            nodes.addAll(bucket.snapshot.cachedContacts.values());
+        }
         return nodes;
     }
     
@@ -826,10 +853,10 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#getActiveContacts()
      */
-    public synchronized Collection<Contact> getActiveContacts() {
+    public Collection<Contact> getActiveContacts() {
         List<Contact> nodes = new ArrayList<Contact>();
-        for (Bucket bucket : bucketTrie.values()) {
-            nodes.addAll(bucket.getActiveContacts());
+        for (PublishedBucket bucket : publishedBuckets.values()) {
+            nodes.addAll(bucket.snapshot.activeContacts.values());
         }
         return nodes;
     }
@@ -838,7 +865,31 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#getCachedContacts()
      */
-    public synchronized Collection<Contact> getCachedContacts() {
+    public Collection<Contact> getCachedContacts() {
+        List<Contact> nodes = new ArrayList<Contact>();
+        for (PublishedBucket bucket : publishedBuckets.values()) {
+            nodes.addAll(bucket.snapshot.cachedContacts.values());
+        }
+        return nodes;
+    }
+    
+    /**
+     * Returns a copy of the active Contacts of all Buckets, 
+     * bypassing the snapshot.
+     */
+    private synchronized List<Contact> getCurrentActiveContacts() {
+        List<Contact> nodes = new ArrayList<Contact>();
+        for (Bucket bucket : bucketTrie.values()) {
+            nodes.addAll(bucket.getActiveContacts());
+        }
+        return nodes;
+    }
+    
+    /**
+     * Returns a copy of the cached Contacts of all Buckets, 
+     * bypassing the snapshot.
+     */
+    private synchronized List<Contact> getCurrentCachedContacts() {
         List<Contact> nodes = new ArrayList<Contact>();
         for (Bucket bucket : bucketTrie.values()) {
             nodes.addAll(bucket.getCachedContacts());
@@ -846,6 +897,41 @@ public class RouteTableImpl implements RouteTable {
         return nodes;
     }
     
+    /**
+     * Called by the Buckets whenever their Contacts change, publishes
+     * a new snapshot of the Bucket. Buckets that aren't published yet
+     * are copied when they are.
+     */
+    void contactsChanged(Bucket bucket) {
+        PatriciaTrie<KUID, PublishedBucket> buckets = publishedBuckets;
+        if (buckets == null) {
+            return;
+        }
+        
+        PublishedBucket published = buckets.get(bucket.getBucketID());
+        if (published != null && published.bucket == bucket) {
+            published.publish();
+        }
+    }
+    
+    /**
+     * Publishes the Buckets of the bucketTrie, reusing the snapshots of
+     * the Buckets that were published already.
+     */
+    private synchronized void publishBuckets() {
+        PatriciaTrie<KUID, PublishedBucket> old = publishedBuckets;
+        PatriciaTrie<KUID, PublishedBucket> buckets 
+            = new PatriciaTrie<KUID, PublishedBucket>(KUID.KEY_ANALYZER);
+        for (Bucket bucket : bucketTrie.values()) {
+            PublishedBucket published = (old != null ? old.get(bucket.getBucketID()) : null);
+            if (published == null || published.bucket != bucket) {
+                published = new PublishedBucket(bucket);
+            }
+            buckets.put(bucket.getBucketID(), published);
+        }
+        publishedBuckets = buckets;
+    }
+    
     /*
      * If we are bootstrapping, we don't want to refresh the bucket
      * that contains the local node ID, as phase 1 already takes 
@@ -966,8 +1052,13 @@ public class RouteTableImpl implements RouteTable {
      * (non-Javadoc)
      * @see com.limegroup.mojito.routing.RouteTable#size()
      */
-    public synchronized int size() {
-        return getActiveContacts().size() + getCachedContacts().size();
+    public int size() {
+        int size = 0;
+        for (PublishedBucket bucket : publishedBuckets.values()) {
+            BucketSnapshot snapshot = bucket.snapshot;
+            size += snapshot.activeContacts.size() + snapshot.cachedContacts.size();
+        }
+        return size;
     }
     
     /*
@@ -994,7 +1085,7 @@ public class RouteTableImpl implements RouteTable {
         }
         
         long currentTime = System.currentTimeMillis();
-        for (Contact node : getActiveContacts()) {
+        for (Contact node : getCurrentActiveContacts()) {
             if (isLocalNode(node)) {
                 continue;
             }
@@ -1006,7 +1097,7 @@ public class RouteTableImpl implements RouteTable {
             remove(node);
         }
         
-        for (Contact node : getCachedContacts()) {
+        for (Contact node : getCurrentCachedContacts()) {
             if ((currentTime - node.getTimeStamp()) < elapsedTimeSinceLastContact) {
                 continue;
             }
@@ -1041,13 +1132,13 @@ public class RouteTableImpl implements RouteTable {
         }
         
         if (modes.contains(PurgeMode.STATE_TO_UNKNOWN)) {
-            changeStateToUnknown(getActiveContacts());
-            changeStateToUnknown(getCachedContacts());
+            changeStateToUnknown(getCurrentActiveContacts());
+            changeStateToUnknown(getCurrentCachedContacts());
         }
     }
     
     private synchronized void dropCache() {
-        for (Contact node : getCachedContacts()) {
+        for (Contact node : getCurrentCachedContacts()) {
             remove(node);
         }
     }
@@ -1064,15 +1155,15 @@ public class RouteTableImpl implements RouteTable {
     
     private synchronized void mergeBuckets() {
         // Get the active Contacts
-        Collection<Contact> activeNodes = getActiveContacts();
+        Collection<Contact> activeNodes = getCurrentActiveContacts();
         activeNodes = ContactUtils.sortAliveToFailed(activeNodes);
         
         // Get the cached Contacts
-        Collection<Contact> cachedNodes = getCachedContacts();
+        Collection<Contact> cachedNodes = getCurrentCachedContacts();
         cachedNodes = ContactUtils.sort(cachedNodes);
         
-        // We count on the fact that getActiveContacts() and 
-        // getCachedContacts() return copies!
+        // We count on the fact that getCurrentActiveContacts() and 
+        // getCurrentCachedContacts() return copies!
         clear();
         
         // Remove the local Node from the List. Shouldn't fail as 
@@ -1197,12 +1288,63 @@ public class RouteTableImpl implements RouteTable {
         }
         
         buffer.append("Total Buckets: ").append(bucketTrie.size()).append("\n");
-        buffer.append("Total Active Contacts: ").append(getActiveContacts().size()).append("\n");
-        buffer.append("Total Cached Contacts: ").append(getCachedContacts().size()).append("\n");
+        buffer.append("Total Active Contacts: ").append(getCurrentActiveContacts().size()).append("\n");
+        buffer.append("Total Cached Contacts: ").append(getCurrentCachedContacts().size()).append("\n");
         buffer.append("Total Alive Contacts: ").append(alive).append("\n");
         buffer.append("Total Dead Contacts: ").append(dead).append("\n");
         buffer.append("Total Down Contacts: ").append(down).append("\n");
         buffer.append("Total Unknown Contacts: ").append(unknown).append("\n");
         return buffer.toString();
     }
+    
+    /**
+     * A Bucket and the latest snapshot of its Contacts.
+     */
+    private static class PublishedBucket {
+        
+        private final Bucket bucket;
+        
+        private volatile BucketSnapshot snapshot;
+        
+        PublishedBucket(Bucket bucket) {
+            this.bucket = bucket;
+            publish();
+        }
+        
+        /**
+         * Publishes a new snapshot of the Bucket.
+         */
+        synchronized void publish() {
+            snapshot = new BucketSnapshot(bucket.getActiveContacts(), 
+                    bucket.getCachedContacts());
+        }
+    }
+    
+    /**
+     * An immutable copy of the Contacts of a Bucket.
+     */
+    private static class BucketSnapshot {
+        
+        /** The active Contacts of the Bucket. */
+        private final PatriciaTrie<KUID, Contact> activeContacts 
+            = new PatriciaTrie<KUID, Contact>(KUID.KEY_ANALYZER);
+        
+        /** The cached Contacts of the Bucket. */
+        private final Map<KUID, Contact> cachedContacts;
+        
+        BucketSnapshot(Collection<Contact> active, Collection<Contact> cached) {
+            for (Contact node : active) {
+                activeContacts.put(node.getNodeID(), node);
+            }
+            
+            if (cached.isEmpty()) {
+                cachedContacts = Collections.emptyMap();
+            } else {
+                cachedContacts = new HashMap<KUID, Contact>(cached.size() * 2);
+                for (Contact node : cached) {
+                    cachedContacts.put(node.getNodeID(), node);
+                }
+            }
+        }
+    }
 }
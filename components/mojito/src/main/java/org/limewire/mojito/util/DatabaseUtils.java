@@ -65,7 +65,7 @@ public class DatabaseUtils {
             KUID localBucketId = routeTable.getBucket(routeTable.getLocalNode().getNodeID()).getBucketID();
             KUID xor = localBucketId.xor(valueBucketId);
             
-            int lowestSetBit = xor.toBigInteger().getLowestSetBit();
+            int lowestSetBit = xor.getLowestSetBit();
             float ratio = 0.0f;
             if (lowestSetBit >= 0) {
                 ratio = (float)(KUID.LENGTH_IN_BITS - lowestSetBit) / (float)KUID.LENGTH_IN_BITS;
@@ -42,6 +42,7 @@ import org.limewire.nio.timeout.ReadTimeout;
 import org.limewire.nio.timeout.TimeoutController;
 import org.limewire.nio.timeout.Timeoutable;
 import org.limewire.service.ErrorService;
+import org.limewire.statistic.LatencyHistogram;
 
 
 /**
@@ -132,6 +133,9 @@ public class NIODispatcher implements Runnable {
     /** Stats for the selector */
     private final SelectStats stats = new SelectStats();
     
+    /** Time spent handling the keys of each select, excluding the select itself. */
+    private final LatencyHistogram dispatchTimes = new LatencyHistogram();
+    
     /** A listener to notify the NIO thread when a selector has a pending event. */
     private final TransportListener TRANSPORT_LISTENER = new MyTransportListener();
     
@@ -679,6 +683,7 @@ public class NIODispatcher implements Runnable {
                 allKeys = keys;
             }
             
+            long startDispatch = System.nanoTime();
             readyThrottles(allKeys);
             
             long now = System.currentTimeMillis();
@@ -689,6 +694,7 @@ public class NIODispatcher implements Runnable {
             iteration++;
             TIMEOUTER.processTimeouts(now);
             wokeup = false;
+            dispatchTimes.recordSince(startDispatch);
         }
     }
     
@@ -1104,6 +1110,14 @@ public class NIODispatcher implements Runnable {
     public long [] getSelectStats() {
         return stats.getStats();
     }
+    
+    /**
+     * @return the times spent dispatching the selected keys of each pass
+     * through the run loop
+     */
+    public LatencyHistogram getDispatchTimes() {
+        return dispatchTimes;
+    }
     /**
      * Provides statistics about the {@link Selector} including the number
      * of selects, number of immediate selects and the average select time.
@@ -150,14 +150,16 @@ public abstract class AbstractSSLSocket extends NIOSocket {
     @Override
     protected void initIncomingSocket() {
         super.initIncomingSocket();
-        sslLayer = new SSLReadWriteChannel(getSSLContext(), getSSLExecutor(), getByteBufferCache(), getNetworkExecutor());
+        sslLayer = new SSLReadWriteChannel(getSSLContext(), getSSLExecutor(), getByteBufferCache(), getNetworkExecutor(),
+                SSLUtils.getHandshakeStatistics());
         sslLayer.initialize(getRemoteSocketAddress(), SSLUtils.getTLSCipherSuites(), false, false);
     }
 
     @Override
     protected void initOutgoingSocket() throws IOException {
         super.initOutgoingSocket();
-        sslLayer = new SSLReadWriteChannel(getSSLContext(), getSSLExecutor(), getByteBufferCache(), getNetworkExecutor());
+        sslLayer = new SSLReadWriteChannel(getSSLContext(), getSSLExecutor(), getByteBufferCache(), getNetworkExecutor(),
+                SSLUtils.getHandshakeStatistics());
     }
     
     @Override
@@ -0,0 +1,94 @@
+package org.limewire.nio.ssl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.LatencyHistogram;
+
+/**
+ * Records the CPU time of the SSL/TLS handshakes of all connections,
+ * separately for full handshakes and for those that resumed a cached
+ * session. The counts of the histograms are the numbers of handshakes, so
+ * the share of resumed handshakes follows from the two counts.
+ * <p>
+ * The CPU time of a handshake is the time spent wrapping and unwrapping
+ * handshake messages and running the delegated tasks of the engine, measured
+ * as thread CPU time once {@link #enableCpuTime()} turned it on and as
+ * elapsed time otherwise.
+ */
+public class HandshakeStatistics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final AtomicBoolean cpuTimeRequested = new AtomicBoolean(false);
+
+    private static volatile boolean cpuTimeEnabled = false;
+
+    private final LatencyHistogram fullHandshakes = new LatencyHistogram();
+
+    private final LatencyHistogram resumedHandshakes = new LatencyHistogram();
+
+    HandshakeStatistics() {
+    }
+
+    /** Records a finished handshake that took <code>cpuTime</code> nanoseconds. */
+    void handshakeFinished(boolean resumed, long cpuTime) {
+        (resumed ? resumedHandshakes : fullHandshakes).record(cpuTime);
+    }
+
+    /** Returns the CPU times of the full handshakes. */
+    public LatencyHistogram getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    /** Returns the CPU times of the handshakes that resumed a session. */
+    public LatencyHistogram getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    /**
+     * Returns the fraction of handshakes that resumed a session, 0 if there
+     * were none.
+     */
+    public double getResumeRate() {
+        HistogramSnapshot full = fullHandshakes.snapshot();
+        HistogramSnapshot resumed = resumedHandshakes.snapshot();
+        long total = full.getCount() + resumed.getCount();
+        return total == 0 ? 0 : (double)resumed.getCount() / total;
+    }
+
+    /**
+     * Turns on the measuring of thread CPU time in the VM if it is supported,
+     * so handshakes are timed by CPU time from now on. This changes a setting
+     * of the whole VM, so it is left to the code that enables TLS, and only
+     * the first call has any effect.
+     */
+    public static void enableCpuTime() {
+        if (cpuTimeRequested.compareAndSet(false, true))
+            cpuTimeEnabled = isCpuTimeSupported();
+    }
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds, or the
+     * current time if CPU time isn't measured.
+     */
+    static long currentCpuTime() {
+        return cpuTimeEnabled ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static boolean isCpuTimeSupported() {
+        try {
+            if (!THREADS.isCurrentThreadCpuTimeSupported())
+                return false;
+            if (!THREADS.isThreadCpuTimeEnabled())
+                THREADS.setThreadCpuTimeEnabled(true);
+            return true;
+        } catch (UnsupportedOperationException uoe) {
+            return false;
+        } catch (SecurityException se) {
+            return false;
+        }
+    }
+}
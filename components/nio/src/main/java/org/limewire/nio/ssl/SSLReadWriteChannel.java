@@ -7,6 +7,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -70,6 +71,15 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
     private volatile long writeConsumed;
     private volatile long writeProduced;
     
+    /** Where finished handshakes are recorded. */
+    private final HandshakeStatistics handshakeStatistics;
+    /** The time the engine was created, to tell resumed sessions from new ones. */
+    private volatile long initializedTime;
+    /** The CPU time spent on the first handshake so far, in nanoseconds. */
+    private final AtomicLong handshakeCpuTime = new AtomicLong();
+    /** True once the first handshake finished. */
+    private volatile boolean handshakeRecorded = false;
+    
     /**
      * Whether or not this has been shutdown.
      * Shutting down must be atomic with regard to initializing, so that
@@ -119,8 +129,10 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
     private final Executor networkExecutor;
     
     public SSLReadWriteChannel(SSLContext context, Executor sslBlockingExecutor,
-            ByteBufferCache byteBufferCache, Executor networkExecutor) {
+            ByteBufferCache byteBufferCache, Executor networkExecutor,
+            HandshakeStatistics handshakeStatistics) {
         this.sslBlockingExecutor = sslBlockingExecutor;
+        this.handshakeStatistics = handshakeStatistics;
         this.context = context;
         this.byteBufferCache = byteBufferCache;
         this.networkExecutor = networkExecutor;
@@ -131,6 +143,10 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
      * enabling the given cipherSuites.
      * 
      * If clientMode is disabled, client authentication can be turned on/off.
+     * <p>
+     * In client mode, the engine is created for the host and port of
+     * <code>addr</code>, so that it resumes the session of an earlier
+     * connection to the same address if the context still caches it.
      * 
      * @param addr
      * @param cipherSuites
@@ -142,6 +158,7 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
                 return;
             }
             
+            initializedTime = System.currentTimeMillis();
             if(addr != null) {
                 if(!(addr instanceof InetSocketAddress))
                     throw new IllegalArgumentException("unsupported SocketAddress");
@@ -328,12 +345,17 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
     private SSLEngineResult wrap(SSLEngine engine, ByteBuffer src, ByteBuffer dst) throws SSLException, IOException {
         assert src != null;
         assert dst != null;
+        boolean handshaking = !handshakeRecorded;
+        long start = handshaking ? HandshakeStatistics.currentCpuTime() : 0;
         try {
             return engine.wrap(src, dst);
         } catch(RuntimeException re) {
             throw new IOException(re);
         } catch(Error e) {
             throw new IOException(e);
+        } finally {
+            if(handshaking)
+                handshakeCpuTime.addAndGet(HandshakeStatistics.currentCpuTime() - start);
         }
     }
     
@@ -341,14 +363,33 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
     private SSLEngineResult unwrap(SSLEngine engine, ByteBuffer src, ByteBuffer dst) throws SSLException, IOException {
         assert dst != null;
         assert src != null;
+        boolean handshaking = !handshakeRecorded;
+        long start = handshaking ? HandshakeStatistics.currentCpuTime() : 0;
         try {
             return engine.unwrap(src, dst);
         } catch(RuntimeException re) {
             throw new IOException(re);
         } catch(Error e) {
             throw new IOException(e);
+        } finally {
+            if(handshaking)
+                handshakeCpuTime.addAndGet(HandshakeStatistics.currentCpuTime() - start);
         }
     }
+    
+    /**
+     * Records the first handshake as finished, as resumed if the session was
+     * created before the engine.
+     */
+    private void handshakeFinished() {
+        if(handshakeRecorded)
+            return;
+        handshakeRecorded = true;
+        boolean resumed = engine.getSession().getCreationTime() < initializedTime;
+        handshakeStatistics.handshakeFinished(resumed, handshakeCpuTime.get());
+        if(LOG.isDebugEnabled())
+            LOG.debug("Handshake finished, resumed: " + resumed + ", cpu time: " + handshakeCpuTime.get());
+    }
 
     /**
      * Processes a single handshake result.
@@ -408,6 +449,7 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
                 });
             return reading;
         case FINISHED:
+            handshakeFinished();
             synchronized(readInterestLock) {
                 // set interest to what our observer wanted.
                 readSink.interestRead(readInterest);
@@ -445,7 +487,16 @@ class SSLReadWriteChannel implements InterestReadableByteChannel, InterestWritab
                 });
                 break;
             } else {
-                sslBlockingExecutor.execute(runner);
+                sslBlockingExecutor.execute(new Runnable() {
+                    public void run() {
+                        long start = HandshakeStatistics.currentCpuTime();
+                        try {
+                            runner.run();
+                        } finally {
+                            handshakeCpuTime.addAndGet(HandshakeStatistics.currentCpuTime() - start);
+                        }
+                    }
+                });
             }
         }
     }
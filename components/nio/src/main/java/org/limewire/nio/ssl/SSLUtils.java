@@ -8,6 +8,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.Executor;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 import org.limewire.concurrent.AbstractLazySingletonProvider;
 import org.limewire.concurrent.ExecutorsHelper;
@@ -23,6 +24,17 @@ import com.google.inject.Provider;
 public class SSLUtils {
     
     private SSLUtils() {}
+    
+    /** The default number of sessions cached for resumption, per side. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1000;
+    
+    /** The default number of seconds a session can be resumed for. */
+    public static final int DEFAULT_SESSION_TIMEOUT = 60 * 60;
+    
+    private static volatile int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    private static volatile int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    
+    private static final HandshakeStatistics HANDSHAKE_STATISTICS = new HandshakeStatistics();
         
     private static final Executor TLS_PROCESSOR = ExecutorsHelper.newProcessingQueue("TLSProcessor");
     private static final Provider<SSLContext> TLS_CONTEXT = new AbstractLazySingletonProvider<SSLContext>() {
@@ -31,7 +43,7 @@ public class SSLUtils {
                 try {
                     SSLContext context = SSLContext.getInstance("TLS");
                     context.init(null, null, null);
-                    // TODO: Set the SSLSessionContext cache size, or timeout?
+                    configureSessionCache(context);
                     return context;
                 } catch (NoSuchAlgorithmException e) {
                     throw new IllegalStateException(e);
@@ -46,7 +58,7 @@ public class SSLUtils {
                 try {
                     SSLContext context = SSLContext.getInstance("SSL");
                     context.init(null, null, null);
-                    // TODO: Set the SSLSessionContext cache size, or timeout?
+                    configureSessionCache(context);
                     return context;
                 } catch (NoSuchAlgorithmException e) {
                     throw new IllegalStateException(e);
@@ -56,6 +68,37 @@ public class SSLUtils {
         }        
     };
     
+    /**
+     * Sets how many sessions the shared contexts cache on either side, and
+     * for how many seconds a cached session can be resumed. Resuming a
+     * session saves the key exchange when connecting to the same host and
+     * port again, or when a host connects again.
+     * 
+     * @see SSLSessionContext#setSessionCacheSize(int)
+     * @see SSLSessionContext#setSessionTimeout(int)
+     */
+    public static void setSessionCache(int size, int timeout) {
+        sessionCacheSize = size;
+        sessionTimeout = timeout;
+        configureSessionCache(getTLSContext());
+        configureSessionCache(getSSLContext());
+    }
+    
+    private static void configureSessionCache(SSLContext context) {
+        for(SSLSessionContext sessions : new SSLSessionContext[] {
+                context.getClientSessionContext(), context.getServerSessionContext() }) {
+            if(sessions != null) {
+                sessions.setSessionCacheSize(sessionCacheSize);
+                sessions.setSessionTimeout(sessionTimeout);
+            }
+        }
+    }
+    
+    /** Returns the statistics of the handshakes of all SSL/TLS connections. */
+    public static HandshakeStatistics getHandshakeStatistics() {
+        return HANDSHAKE_STATISTICS;
+    }
+    
     /** Returns the TLS cipher suites this generally supports. */
     public static String[] getTLSCipherSuites() {
         return new String[] { "TLS_DH_anon_WITH_AES_128_CBC_SHA" };
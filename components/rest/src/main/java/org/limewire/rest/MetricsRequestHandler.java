@@ -0,0 +1,106 @@
+package org.limewire.rest;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HttpContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.limewire.statistic.HistogramSnapshot;
+import org.limewire.statistic.MetricsRegistry;
+
+import com.google.inject.Inject;
+
+/**
+ * Request handler for Metrics services.  Returns the counters and latency
+ * histograms of the metrics registry; all durations are in nanoseconds.
+ */
+class MetricsRequestHandler extends AbstractRestRequestHandler {
+
+    private static final String ALL = "";
+    private static final String COUNTERS = "/counters";
+    private static final String HISTOGRAMS = "/histograms";
+    
+    private final MetricsRegistry metricsRegistry;
+    
+    @Inject
+    public MetricsRequestHandler(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+    
+    @Override
+    public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+            throws HttpException, IOException {
+        
+        String method = request.getRequestLine().getMethod();
+        if (RestUtils.GET.equals(method)) {
+            // Get uri target.
+            String uriTarget = RestUtils.getUriTarget(request, RestPrefix.METRICS.pattern());
+            
+            // Set response.
+            process(uriTarget, response);
+            
+        } else {
+            response.setStatusCode(HttpStatus.SC_NOT_IMPLEMENTED);
+        }
+    }
+    
+    /**
+     * Processes the specified uri target.
+     */
+    private void process(String uriTarget, HttpResponse response) throws IOException {
+        try {
+            JSONObject jsonObj;
+            if (ALL.equals(uriTarget)) {
+                jsonObj = new JSONObject();
+                jsonObj.put("counters", createCountersJson());
+                jsonObj.put("histograms", createHistogramsJson());
+            } else if (COUNTERS.equals(uriTarget)) {
+                jsonObj = createCountersJson();
+            } else if (HISTOGRAMS.equals(uriTarget)) {
+                jsonObj = createHistogramsJson();
+            } else {
+                response.setStatusCode(HttpStatus.SC_NOT_IMPLEMENTED);
+                return;
+            }
+            
+            // Set response entity and status.
+            HttpEntity entity = RestUtils.createStringEntity(jsonObj.toString());
+            response.setEntity(entity);
+            response.setStatusCode(HttpStatus.SC_OK);
+            
+        } catch (JSONException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    private JSONObject createCountersJson() throws JSONException {
+        JSONObject jsonObj = new JSONObject();
+        for (Map.Entry<String, Long> entry : metricsRegistry.getCounterValues().entrySet()) {
+            jsonObj.put(entry.getKey(), entry.getValue().longValue());
+        }
+        return jsonObj;
+    }
+    
+    private JSONObject createHistogramsJson() throws JSONException {
+        JSONObject jsonObj = new JSONObject();
+        for (Map.Entry<String, HistogramSnapshot> entry : metricsRegistry.getHistogramSnapshots().entrySet()) {
+            HistogramSnapshot snapshot = entry.getValue();
+            JSONObject histogramObj = new JSONObject();
+            histogramObj.put("count", snapshot.getCount());
+            histogramObj.put("mean", snapshot.getMean());
+            histogramObj.put("p50", snapshot.getMedian());
+            histogramObj.put("p90", snapshot.get90thPercentile());
+            histogramObj.put("p99", snapshot.get99thPercentile());
+            histogramObj.put("p999", snapshot.get999thPercentile());
+            histogramObj.put("max", snapshot.getMax());
+            jsonObj.put(entry.getKey(), histogramObj);
+        }
+        return jsonObj;
+    }
+}
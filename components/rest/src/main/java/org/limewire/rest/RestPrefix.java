@@ -4,7 +4,8 @@ package org.limewire.rest;
  * REST API request path prefixes.
  */
 public enum RestPrefix {
-    HELLO("hello"), LIBRARY("library"), SEARCH("search"), DOWNLOAD("download"), STREAM("stream");
+    HELLO("hello"), LIBRARY("library"), SEARCH("search"), DOWNLOAD("download"), STREAM("stream"),
+    METRICS("metrics");
     
     private final String pattern;
     
@@ -23,6 +23,7 @@ class RestRequestHandlerFactoryImpl implements RestRequestHandlerFactory {
     private final Provider<SearchRequestHandler> searchHandlerFactory;
     private final Provider<DownloadRequestHandler> downloadHandlerFactory;
     private final Provider<StreamRequestHandler> streamHandlerFactory;
+    private final Provider<MetricsRequestHandler> metricsHandlerFactory;
     
     /**
      * Constructs a request handler factory using the specified services.
@@ -32,11 +33,13 @@ class RestRequestHandlerFactoryImpl implements RestRequestHandlerFactory {
             Provider<LibraryRequestHandler> libraryHandlerFactory,
             Provider<SearchRequestHandler> searchHandlerFactory,
             Provider<DownloadRequestHandler> downloadHandlerFactory,
-            Provider<StreamRequestHandler> streamHandlerFactory) {
+            Provider<StreamRequestHandler> streamHandlerFactory,
+            Provider<MetricsRequestHandler> metricsHandlerFactory) {
         this.libraryHandlerFactory = libraryHandlerFactory;
         this.searchHandlerFactory = searchHandlerFactory;
         this.downloadHandlerFactory = downloadHandlerFactory;
         this.streamHandlerFactory = streamHandlerFactory;
+        this.metricsHandlerFactory = metricsHandlerFactory;
     }
     
     @Override
@@ -52,6 +55,8 @@ class RestRequestHandlerFactoryImpl implements RestRequestHandlerFactory {
             return downloadHandlerFactory.get();
         case STREAM:
             return streamHandlerFactory.get();
+        case METRICS:
+            return metricsHandlerFactory.get();
         default:
             return new UnknownRequestHandler();
         }
@@ -0,0 +1,394 @@
+package org.limewire.security;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.concurrent.ThreadPoolListeningExecutor;
+import org.limewire.security.SecureMessage.Status;
+
+import com.google.inject.Singleton;
+
+/**
+ * A class that verifies secure messages in parallel on a bounded pool of
+ * threads.
+ * <p>
+ * The outcome of each verification is cached by a digest of the public key,
+ * the algorithm, the signature and the signed bytes, so identical signed
+ * payloads (the same secure result arriving from many hosts) are only
+ * verified once. If more than <code>maxQueueSize</code> verifications are
+ * pending the submitting thread verifies the message itself, which slows
+ * down the producer instead of letting the queue grow without bound.
+ */
+@Singleton
+public class ParallelSecureMessageVerifierImpl extends SecureMessageVerifierImpl
+        implements SecureMessageVerifierBean {
+
+    private static final Log LOG = LogFactory.getLog(ParallelSecureMessageVerifierImpl.class);
+
+    /** The default number of pending verifications. */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 512;
+
+    /** The default number of cached verification outcomes. */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /** The pool the verifications are executed on. */
+    private final ThreadPoolListeningExecutor pool;
+
+    /** The maximum number of pending verifications. */
+    private final int maxQueueSize;
+
+    /** Outcomes of previous verifications, LOCKING: itself. */
+    private final Map<PayloadKey, Boolean> outcomes;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public ParallelSecureMessageVerifierImpl(String keyBase32, String name) {
+        this(keyBase32, name, defaultPoolSize(), DEFAULT_MAX_QUEUE_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    public ParallelSecureMessageVerifierImpl(String keyBase32, String name,
+            int poolSize, int maxQueueSize, int cacheSize) {
+        this(null, keyBase32, null, name, poolSize, maxQueueSize, cacheSize);
+    }
+
+    public ParallelSecureMessageVerifierImpl(File keyFile, String name,
+            int poolSize, int maxQueueSize, int cacheSize) {
+        this(keyFile, null, null, name, poolSize, maxQueueSize, cacheSize);
+    }
+
+    public ParallelSecureMessageVerifierImpl(PublicKey pubKey, String name,
+            int poolSize, int maxQueueSize, int cacheSize) {
+        this(null, null, pubKey, name, poolSize, maxQueueSize, cacheSize);
+    }
+
+    private ParallelSecureMessageVerifierImpl(File keyFile, String keyBase32, PublicKey pubKey,
+            String name, int poolSize, int maxQueueSize, int cacheSize) {
+        this(keyFile, keyBase32, pubKey,
+                createPool(name, poolSize, maxQueueSize), maxQueueSize, cacheSize);
+    }
+
+    private ParallelSecureMessageVerifierImpl(File keyFile, String keyBase32, PublicKey pubKey,
+            ThreadPoolListeningExecutor pool, int maxQueueSize, final int cacheSize) {
+        super(ExecutorsHelper.unconfigurableExecutorService(pool), keyFile, keyBase32, pubKey);
+        this.pool = pool;
+        this.maxQueueSize = maxQueueSize;
+        this.outcomes = new LinkedHashMap<PayloadKey, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PayloadKey, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        pool.setRejectedExecutionHandler(new CallerRunsHandler());
+    }
+
+    /** Returns one verification thread per processor, but at most four. */
+    private static int defaultPoolSize() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static ThreadPoolListeningExecutor createPool(String name, int poolSize, int maxQueueSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize: " + poolSize);
+        }
+
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize: " + maxQueueSize);
+        }
+
+        ThreadPoolListeningExecutor tpe = new ThreadPoolListeningExecutor(poolSize, poolSize,
+                5L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueueSize),
+                ExecutorsHelper.daemonThreadFactory(getThreadName(name)));
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    @Override
+    protected void execute(Verifier verifier) {
+        submitted.incrementAndGet();
+        pool.execute(new VerificationTask(verifier));
+    }
+
+    /**
+     * Returns the cached outcome of a previous verification of the same
+     * payload or null if there is none.
+     */
+    private Boolean getOutcome(PayloadKey key) {
+        synchronized (outcomes) {
+            return outcomes.get(key);
+        }
+    }
+
+    private void putOutcome(PayloadKey key, boolean passed) {
+        synchronized (outcomes) {
+            outcomes.put(key, Boolean.valueOf(passed));
+        }
+    }
+
+    /**
+     * Creates the key under which the outcome of verifying the given
+     * <code>Verifier</code>'s message is cached. Returns null if the
+     * message cannot be verified at all.
+     */
+    private static PayloadKey createKey(Verifier verifier) {
+        PublicKey pubKey = verifier.getPublicKey();
+        String algorithm = verifier.getAlgorithm();
+        SecureMessage message = verifier.getSecureMessage();
+        byte[] signature = message.getSecureSignature();
+        if (pubKey == null || algorithm == null || signature == null) {
+            return null;
+        }
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(algorithm.getBytes("UTF-8"));
+            byte[] encoded = pubKey.getEncoded();
+            if (encoded != null) {
+                md.update(encoded);
+            }
+            md.update(signature);
+
+            DigestingSignature digester = new DigestingSignature(md);
+            digester.initVerify(pubKey);
+            message.updateSignatureWithSecuredBytes(digester);
+            return new PayloadKey(md.digest());
+        } catch (NoSuchAlgorithmException nsax) {
+            LOG.error("No alg.", nsax);
+        } catch (InvalidKeyException ikx) {
+            LOG.error("Invalid key", ikx);
+        } catch (SignatureException sx) {
+            LOG.debug("Unable to digest secured bytes", sx);
+        } catch (UnsupportedEncodingException uee) {
+            LOG.error("No UTF-8", uee);
+        }
+        return null;
+    }
+
+    public int getQueueSize() {
+        return pool.getQueue().size();
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRuns.get();
+    }
+
+    public long getAverageLatencyInMillis() {
+        long count = completed.get();
+        if (count == 0) {
+            return 0L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(totalLatency.get() / count);
+    }
+
+    public long getMaxLatencyInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+    }
+
+    private void recordLatency(long latency) {
+        completed.incrementAndGet();
+        totalLatency.addAndGet(latency);
+
+        long max = maxLatency.get();
+        while (latency > max) {
+            if (maxLatency.compareAndSet(max, latency)) {
+                break;
+            }
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Looks up the outcome of the verification in the cache and
+     * verifies the message only if it is unknown.
+     */
+    private class VerificationTask implements Runnable {
+
+        private final Verifier verifier;
+
+        private final long creationTime = System.nanoTime();
+
+        VerificationTask(Verifier verifier) {
+            this.verifier = verifier;
+        }
+
+        public void run() {
+            try {
+                verify();
+            } finally {
+                recordLatency(System.nanoTime() - creationTime);
+            }
+        }
+
+        private void verify() {
+            PayloadKey key = createKey(verifier);
+            if (key != null) {
+                Boolean outcome = getOutcome(key);
+                if (outcome != null) {
+                    cacheHits.incrementAndGet();
+                    SecureMessage message = verifier.getSecureMessage();
+                    boolean passed = outcome.booleanValue();
+                    message.setSecureStatus(passed ? Status.SECURE : Status.FAILED);
+                    verifier.getSecureMessageCallback().handleSecureMessage(message, passed);
+                    return;
+                }
+            }
+
+            verifier.run();
+
+            if (key != null) {
+                Status status = verifier.getSecureMessage().getSecureStatus();
+                if (status == Status.SECURE) {
+                    putOutcome(key, true);
+                } else if (status == Status.FAILED) {
+                    putOutcome(key, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the verification on the submitting thread if the queue is full,
+     * or drops it if the pool was shut down.
+     */
+    private class CallerRunsHandler implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                callerRuns.incrementAndGet();
+                r.run();
+            }
+        }
+    }
+
+    /** A digest of a signed payload. */
+    private static class PayloadKey {
+
+        private final byte[] digest;
+
+        private final int hashCode;
+
+        PayloadKey(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (!(o instanceof PayloadKey)) {
+                return false;
+            }
+            return Arrays.equals(digest, ((PayloadKey)o).digest);
+        }
+    }
+
+    /**
+     * A <code>Signature</code> that feeds all bytes passed to it into
+     * a <code>MessageDigest</code>, used to capture the bytes a
+     * <code>SecureMessage</code> signs.
+     */
+    private static class DigestingSignature extends Signature {
+
+        private final MessageDigest md;
+
+        DigestingSignature(MessageDigest md) {
+            super("Digest");
+            this.md = md;
+        }
+
+        @Override
+        protected void engineInitVerify(PublicKey publicKey) {
+        }
+
+        @Override
+        protected void engineInitSign(PrivateKey privateKey) {
+        }
+
+        @Override
+        protected void engineUpdate(byte b) {
+            md.update(b);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] b, int off, int len) {
+            md.update(b, off, len);
+        }
+
+        @Override
+        protected byte[] engineSign() throws SignatureException {
+            throw new SignatureException("not supported");
+        }
+
+        @Override
+        protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+            throw new SignatureException("not supported");
+        }
+
+        @Override
+        @Deprecated
+        protected void engineSetParameter(String param, Object value) {
+            throw new InvalidParameterException("not supported");
+        }
+
+        @Override
+        @Deprecated
+        protected Object engineGetParameter(String param) {
+            throw new InvalidParameterException("not supported");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.limewire.security;
+
+import javax.management.MXBean;
+
+/**
+ * A JMX Bean for the queue and latency statistics of a
+ * {@link SecureMessageVerifier}.
+ */
+@MXBean
+public interface SecureMessageVerifierBean {
+
+    /**
+     * Returns the number of verifications waiting to be processed.
+     */
+    public int getQueueSize();
+
+    /**
+     * Returns the maximum number of verifications that may be queued
+     * before callers have to run them themselves.
+     */
+    public int getMaxQueueSize();
+
+    /**
+     * Returns the number of threads that are currently verifying.
+     */
+    public int getActiveCount();
+
+    /**
+     * Returns the number of verifications that were submitted.
+     */
+    public long getSubmittedCount();
+
+    /**
+     * Returns the number of verifications that were completed.
+     */
+    public long getCompletedCount();
+
+    /**
+     * Returns the number of verifications that were answered from
+     * the cache of previous outcomes.
+     */
+    public long getCacheHitCount();
+
+    /**
+     * Returns the number of verifications that were executed on the
+     * submitting thread because the queue was full.
+     */
+    public long getCallerRunsCount();
+
+    /**
+     * Returns the average time between submitting and completing
+     * a verification.
+     */
+    public long getAverageLatencyInMillis();
+
+    /**
+     * Returns the longest time between submitting and completing
+     * a verification.
+     */
+    public long getMaxLatencyInMillis();
+}
@@ -15,7 +15,7 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
     private final ExecutorService QUEUE;
     
     /** The public key. */
-    private PublicKey pubKey;
+    private volatile PublicKey pubKey;
     
     /** The File the public key is stored in. */
     private final File keyFile;
@@ -24,7 +24,7 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
     private final String keyBase32;
     
     public SecureMessageVerifierImpl() {
-        this(null, null, null, null);
+        this((File)null, null, null, null);
     }
     
     public SecureMessageVerifierImpl(String name) {
@@ -48,11 +48,17 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
     }
     
     private SecureMessageVerifierImpl(File keyFile, String keyBase32, PublicKey pubKey, String name) {
-        if (name == null) {
-            QUEUE = ExecutorsHelper.newProcessingQueue("SecureMessageVerifier");
-        } else {
-            QUEUE = ExecutorsHelper.newProcessingQueue(name + "-SecureMessageVerifier");
-        }
+        this(ExecutorsHelper.newProcessingQueue(getThreadName(name)), 
+                keyFile, keyBase32, pubKey);
+    }
+    
+    /**
+     * Creates a verifier that executes all verifications on the given
+     * <code>ExecutorService</code>.
+     */
+    protected SecureMessageVerifierImpl(ExecutorService queue, 
+            File keyFile, String keyBase32, PublicKey pubKey) {
+        QUEUE = queue;
         
         if (pubKey == null && (keyFile == null) == (keyBase32 == null))
             throw new IllegalArgumentException("must have only one source of key");
@@ -62,11 +68,20 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
         this.keyBase32 = keyBase32;
     }
     
+    /** Returns the name of the verification thread(s) for the given name. */
+    protected static String getThreadName(String name) {
+        if (name == null) {
+            return "SecureMessageVerifier";
+        } else {
+            return name + "-SecureMessageVerifier";
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.limewire.security.SecureMessageVerifier#verify(org.limewire.security.SecureMessage, org.limewire.security.SecureMessageCallback)
      */
     public void verify(SecureMessage sm, SecureMessageCallback smc) {
-        QUEUE.execute(new VerifierImpl(pubKey, "SHA1withDSA", sm, smc));
+        execute(new VerifierImpl(pubKey, "SHA1withDSA", sm, smc));
     }
     
     /* (non-Javadoc)
@@ -82,13 +97,21 @@ public class SecureMessageVerifierImpl implements SecureMessageVerifier {
             throw new IllegalArgumentException("PublicKey is null");
         }
         
-        QUEUE.execute(new VerifierImpl(pubKey, algorithm, sm, smc));
+        execute(new VerifierImpl(pubKey, algorithm, sm, smc));
     }
     
     /* (non-Javadoc)
      * @see org.limewire.security.SecureMessageVerifier#verify(org.limewire.security.Verifier)
      */
     public void verify(Verifier verifier) {
+        execute(verifier);
+    }
+    
+    /** 
+     * Schedules the <code>Verifier</code> for execution. Subclasses may
+     * override this to wrap the verification.
+     */
+    protected void execute(Verifier verifier) {
         QUEUE.execute(verifier);
     }
     
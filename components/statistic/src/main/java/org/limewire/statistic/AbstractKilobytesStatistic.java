@@ -58,9 +58,7 @@ public abstract class AbstractKilobytesStatistic extends AbstractStatistic {
 	 */
 	@Override
     public double getAverage() {
-        if (_totalStatsRecorded == 0)
-            return 0;
-        return (_total / _totalStatsRecorded) / BYTES_PER_KILOBYTE;
+        return super.getAverage() / BYTES_PER_KILOBYTE;
     }
 
 	/** 
@@ -71,7 +69,7 @@ public abstract class AbstractKilobytesStatistic extends AbstractStatistic {
 	 */
 	@Override
 	public double getMax() {
-		return _max/BYTES_PER_KILOBYTE;
+		return super.getMax()/BYTES_PER_KILOBYTE;
 	}
 
 	/** 
@@ -81,6 +79,6 @@ public abstract class AbstractKilobytesStatistic extends AbstractStatistic {
 	 */
 	@Override
 	public double getTotal() {
-		return _total/BYTES_PER_KILOBYTE;
+		return super.getTotal()/BYTES_PER_KILOBYTE;
 	}
 }
@@ -28,9 +28,10 @@ public abstract class AbstractStatistic implements Statistic {
 	protected final Buffer<Double> _buffer = new Buffer<Double>(HISTORY_LENGTH);
     
 	/**
-	 * int for the statistic currently being added to.
+	 * The statistic currently being added to. Striped, since many threads
+	 * may add to a statistic at once.
 	 */
-	protected volatile int _current = 0;
+	private final StripedCounter _current = new StripedCounter();
 
 	/**
 	 * int for the most recently stored statistic. 
@@ -41,7 +42,7 @@ public abstract class AbstractStatistic implements Statistic {
 	 * Variable for the total number of messages received for this 
 	 * statistic.
 	 */
-	protected volatile double _total = 0;
+	private final StripedCounter _total = new StripedCounter();
 
 	/**
 	 * The total number of stats recorded.
@@ -55,13 +56,13 @@ public abstract class AbstractStatistic implements Statistic {
 
 	// inherit doc comment
 	public double getTotal() {
-		return _total;
+		return _total.sum();
 	}
 
 	// inherit doc comment
 	public double getAverage() {
 	    if(_totalStatsRecorded == 0) return 0;
-		return _total/_totalStatsRecorded;
+		return (double)_total.sum()/_totalStatsRecorded;
 	}
 
 	// inherit doc comment
@@ -70,7 +71,7 @@ public abstract class AbstractStatistic implements Statistic {
 	}
 
 	public int getCurrent() {
-		return _current;
+		return (int)_current.sum();
 	}
 	
 	
@@ -80,14 +81,14 @@ public abstract class AbstractStatistic implements Statistic {
 	
 	// inherit doc comment
 	public void incrementStat() {
-		_current++;
-		_total++;		
+		_current.increment();
+		_total.increment();
 	}
 
 	// inherit doc comment
 	public void addData(int data) {		
-		_current += data;
-		_total += data;
+		_current.add(data);
+		_total.add(data);
 	}
 		
 	// inherit doc comment
@@ -100,8 +101,8 @@ public abstract class AbstractStatistic implements Statistic {
 	
 	// inherit doc comment
 	public void clearData() {
-	    _current = 0;
-	    _total = 0;
+	    _current.reset();
+	    _total.reset();
 	    _totalStatsRecorded = 0;
 	    _max = 0;
 	    synchronized(_buffer) {
@@ -111,16 +112,17 @@ public abstract class AbstractStatistic implements Statistic {
 
 	// inherit doc comment
 	public void storeCurrentStat() {
+		// additions made while storing are kept for the next period
+		int current = (int)_current.sumThenReset();
  		synchronized(_buffer) {
 			initializeBuffer();
- 			_buffer.addLast((double)_current);
+ 			_buffer.addLast((double)current);
  		}
-		if(_current > _max) {
-			_max = _current;
+		if(current > _max) {
+			_max = current;
 		}
 		
-		_lastStored = _current;
-		_current = 0;
+		_lastStored = current;
 		_totalStatsRecorded++;
 	}
     
@@ -0,0 +1,88 @@
+package org.limewire.statistic;
+
+/**
+ * An immutable copy of the values recorded by a {@link LatencyHistogram}.
+ * All durations are in nanoseconds; percentiles are the upper bound of the
+ * bucket they fall into, but never more than the maximum.
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long total;
+
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long total, long max) {
+        this.counts = counts;
+        long count = 0;
+        for (long c : counts)
+            count += c;
+        this.count = count;
+        this.total = total;
+        this.max = max;
+    }
+
+    /** Returns the number of recorded values. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Returns the sum of all recorded values. */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Returns the mean of all recorded values, or 0 if there are none. */
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /** Returns the largest recorded value. */
+    public long getMax() {
+        return max;
+    }
+
+    public long getMedian() {
+        return getPercentile(50);
+    }
+
+    public long get90thPercentile() {
+        return getPercentile(90);
+    }
+
+    public long get99thPercentile() {
+        return getPercentile(99);
+    }
+
+    public long get999thPercentile() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values lie, or 0 if there are none.
+     *
+     * @param percent between 0 and 100
+     */
+    public long getPercentile(double percent) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(count * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(LatencyHistogram.highestValue(i), max);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + count + ", mean: " + getMean() + ", median: " + getMedian()
+                + ", 99%: " + get99thPercentile() + ", max: " + max;
+    }
+}
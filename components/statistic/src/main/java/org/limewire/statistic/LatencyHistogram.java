@@ -0,0 +1,108 @@
+package org.limewire.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations in nanoseconds into a fixed number of logarithmic
+ * buckets, so that percentiles can be computed in constant memory.
+ * <p>
+ * Values below 16 have a bucket each; above that, every power of 2 is split
+ * into 8 buckets of equal width. A value is therefore reported with an error
+ * of at most 12.5%, which is plenty for latencies, and the histogram needs
+ * fewer than 500 buckets to cover every positive <code>long</code>.
+ * <p>
+ * Recording is lock-free and allocates nothing, so it can be done on hot
+ * paths:
+ * <pre>
+ *     long start = System.nanoTime();
+ *     doWork();
+ *     histogram.record(System.nanoTime() - start);
+ * </pre>
+ * This class is thread-safe.
+ */
+public class LatencyHistogram {
+
+    /** Number of bits of a value that select its bucket within a power of 2. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Values below this have a bucket of their own. */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    /** The exponent of {@link #LINEAR_LIMIT}. */
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+
+    static final int BUCKETS = LINEAR_LIMIT + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter total = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration in nanoseconds. Negative durations, which
+     * {@link System#nanoTime()} can produce on some systems, are recorded
+     * as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        long currentMax;
+        while (nanos > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, nanos))
+                break;
+        }
+    }
+
+    /**
+     * Records the time that passed since <code>startNanos</code>, a value
+     * returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the current state of this histogram. Values recorded while
+     * the snapshot is taken may be missing from it.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return new HistogramSnapshot(copy, total.sum(), max.get());
+    }
+
+    /** Removes all recorded values. */
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.reset();
+        max.set(0);
+    }
+
+    /** Returns the index of the bucket for a non-negative value. */
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the largest value that falls into the given bucket. */
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowest = (long)(SUB_BUCKETS + subBucket) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+}
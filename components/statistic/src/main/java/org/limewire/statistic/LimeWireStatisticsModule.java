@@ -1,6 +1,10 @@
 package org.limewire.statistic;
 
+import org.limewire.util.JmxUtils;
+
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 
 
 public class LimeWireStatisticsModule extends AbstractModule {
@@ -10,4 +14,10 @@ public class LimeWireStatisticsModule extends AbstractModule {
         bind(StatisticAccumulator.class).to(StatisticsAccumulatorImpl.class);
     }
     
+    @Provides @Singleton MetricsRegistry metrics() {
+        MetricsRegistry registry = new MetricsRegistryImpl();
+        JmxUtils.add(MetricsRegistry.class, "metrics", new MetricsBean.Impl(registry));
+        return registry;
+    }
+    
 }
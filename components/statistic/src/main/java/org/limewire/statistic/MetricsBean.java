@@ -0,0 +1,47 @@
+package org.limewire.statistic;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * A JMX Bean for a {@link MetricsRegistry}.
+ */
+@MXBean
+public interface MetricsBean {
+
+    /**
+     * Returns the current values of all counters.
+     */
+    public Map<String, Long> getCounters();
+
+    /**
+     * Returns snapshots of all latency histograms, in nanoseconds.
+     */
+    public Map<String, HistogramSnapshot> getHistograms();
+
+    /**
+     * The default implementation of {@link MetricsBean}.
+     */
+    public static class Impl implements MetricsBean {
+
+        private final MetricsRegistry registry;
+
+        /**
+         * Creates a {@link MetricsBean}
+         */
+        public Impl(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return registry.getCounterValues();
+        }
+
+        @Override
+        public Map<String, HistogramSnapshot> getHistograms() {
+            return registry.getHistogramSnapshots();
+        }
+    }
+}
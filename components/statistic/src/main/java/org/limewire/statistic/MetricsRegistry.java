@@ -0,0 +1,37 @@
+package org.limewire.statistic;
+
+import java.util.Map;
+
+/**
+ * Holds named {@link StripedCounter counters} and
+ * {@link LatencyHistogram latency histograms} of hot code paths, so they
+ * can be inspected together, for example through JMX or the REST API.
+ * <p>
+ * Names are dotted lower-case paths like <code>disk.write</code>.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Returns the counter with the given name, creating it if it does not
+     * exist yet.
+     */
+    public StripedCounter getCounter(String name);
+
+    /**
+     * Returns the histogram with the given name, creating it if it does not
+     * exist yet.
+     */
+    public LatencyHistogram getHistogram(String name);
+
+    /**
+     * Registers a histogram that is owned by a component which cannot look
+     * it up here, replacing any histogram with the same name.
+     */
+    public void register(String name, LatencyHistogram histogram);
+
+    /** Returns the current values of all counters, sorted by name. */
+    public Map<String, Long> getCounterValues();
+
+    /** Returns snapshots of all histograms, sorted by name. */
+    public Map<String, HistogramSnapshot> getHistogramSnapshots();
+}
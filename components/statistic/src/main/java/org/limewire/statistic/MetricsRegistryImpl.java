@@ -0,0 +1,64 @@
+package org.limewire.statistic;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default implementation of {@link MetricsRegistry}. Lookups don't lock, so
+ * counters and histograms may be looked up on hot paths, although
+ * components usually keep them in fields.
+ */
+class MetricsRegistryImpl implements MetricsRegistry {
+
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    @Override
+    public StripedCounter getCounter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            counter = new StripedCounter();
+            StripedCounter existing = counters.putIfAbsent(name, counter);
+            if (existing != null)
+                counter = existing;
+        }
+        return counter;
+    }
+
+    @Override
+    public LatencyHistogram getHistogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        return histogram;
+    }
+
+    @Override
+    public void register(String name, LatencyHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    @Override
+    public Map<String, Long> getCounterValues() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet())
+            values.put(entry.getKey(), entry.getValue().sum());
+        return values;
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getHistogramSnapshots() {
+        SortedMap<String, HistogramSnapshot> snapshots = new TreeMap<String, HistogramSnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        return snapshots;
+    }
+}
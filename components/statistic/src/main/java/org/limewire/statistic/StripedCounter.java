@@ -0,0 +1,90 @@
+package org.limewire.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented by many threads at once without them
+ * contending for a single memory location.
+ * <p>
+ * The count is spread over a small number of cells, each on its own cache
+ * line. A thread adds to the cell picked by its id, so threads that update
+ * the counter concurrently usually touch different cells. Reading the count
+ * sums all cells, which makes {@link #sum()} more expensive than an
+ * update; this suits statistics that are updated on hot paths and read
+ * rarely.
+ * <p>
+ * The sum is not an atomic snapshot: updates that happen while it is
+ * computed may or may not be included.
+ */
+public class StripedCounter {
+
+    /** Number of longs per cell, so that each cell has its own cache line. */
+    private static final int PADDING = 8;
+
+    private static final int CELLS = cellCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    /**
+     * Returns the smallest power of 2 that is at least twice the number of
+     * processors, but no more than 64.
+     */
+    private static int cellCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 32);
+        int count = 1;
+        while (count < processors * 2)
+            count <<= 1;
+        return count;
+    }
+
+    /** Adds <code>delta</code> to the count. */
+    public void add(long delta) {
+        int index = index();
+        long current = cells.get(index);
+        // if the cell is contended, it's still correct to add unconditionally
+        if (!cells.compareAndSet(index, current, current + delta))
+            cells.addAndGet(index, delta);
+    }
+
+    /** Adds 1 to the count. */
+    public void increment() {
+        add(1);
+    }
+
+    /** Returns the current count. */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++)
+            sum += cells.get(i * PADDING);
+        return sum;
+    }
+
+    /**
+     * Returns the current count and resets it to 0. Updates made
+     * concurrently are either included in the returned count or kept for
+     * the next one, but never lost.
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++)
+            sum += cells.getAndSet(i * PADDING, 0);
+        return sum;
+    }
+
+    /** Resets the count to 0. */
+    public void reset() {
+        sumThenReset();
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        // spread sequential thread ids over the cells
+        int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (CELLS - 1)) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}